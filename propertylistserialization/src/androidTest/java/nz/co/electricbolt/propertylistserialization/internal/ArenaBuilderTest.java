@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * ArenaBuilderTest.java                                                       *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+
+import nz.co.electricbolt.propertylistserialization.PlistArena;
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class ArenaBuilderTest {
+
+    private static HashMap<String, Object> graph() {
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("name", "Näme");
+        dict.put("count", 42L);
+        dict.put("ratio", 0.25);
+        dict.put("enabled", true);
+        dict.put("modified", new Date(1000000000000L));
+        dict.put("data", new byte[]{1, 2, 3});
+        HashMap<String, Object> child = new HashMap<>();
+        child.put("name", "Child");
+        child.put("empty", new ArrayList<>());
+        dict.put("children", Arrays.asList(child, "second", -1L));
+        for (int i = 0; i < 20; i++)
+            dict.put("key" + i, (long) i);
+        return dict;
+    }
+
+    @Test
+    public void navigate() throws Exception {
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(graph(), format);
+            PlistArena arena = PropertyListSerialization.arenaWithData(data, format);
+            int root = arena.root();
+            assertEquals(PlistArena.DICT, arena.type(root));
+            assertEquals(27, arena.childCount(root));
+
+            assertEquals("Näme", arena.asString(arena.lookup(root, "name")));
+            assertEquals(42L, arena.asLong(arena.lookup(root, "count")));
+            assertEquals(0.25, arena.asDouble(arena.lookup(root, "ratio")), 0);
+            assertTrue(arena.asBoolean(arena.lookup(root, "enabled")));
+            assertEquals(new Date(1000000000000L), arena.asDate(arena.lookup(root, "modified")));
+            assertArrayEquals(new byte[]{1, 2, 3}, arena.asData(arena.lookup(root, "data")));
+            for (int i = 0; i < 20; i++)
+                assertEquals(i, arena.asLong(arena.lookup(root, "key" + i)));
+            assertEquals(-1, arena.lookup(root, "missing"));
+            assertEquals(-1, arena.lookup(root, "key"));
+
+            int children = arena.lookup(root, "children");
+            assertEquals(PlistArena.ARRAY, arena.type(children));
+            assertEquals(3, arena.childCount(children));
+            int child = arena.child(children, 0);
+            assertEquals("Child", arena.asString(arena.lookup(child, "name")));
+            assertEquals(0, arena.childCount(arena.lookup(child, "empty")));
+            assertEquals("second", arena.asString(arena.child(children, 1)));
+            assertEquals(-1L, arena.asLong(arena.child(children, 2)));
+
+            // Keys in ascending order, shared between dicts.
+            for (int i = 1; i < arena.childCount(root); i++)
+                assertTrue(arena.key(root, i - 1).compareTo(arena.key(root, i)) < 0);
+            assertEquals(arena.keyNode(root, indexOf(arena, root, "name")), arena.keyNode(child, indexOf(arena, child, "name")));
+
+            HashMap<?, ?> parsed = (HashMap<?, ?>) PropertyListSerialization.propertyListWithData(data, format);
+            assertEquals(parsed.get("children"), arena.toPropertyList(children));
+            assertEquals(parsed.keySet(), ((HashMap<?, ?>) arena.toPropertyList(root)).keySet());
+        }
+    }
+
+    @Test
+    public void wrongType() throws Exception {
+        byte[] data = PropertyListSerialization.dataWithPropertyList(graph(), Format.Binary);
+        PlistArena arena = PropertyListSerialization.arenaWithData(data, Format.Binary);
+        try {
+            arena.asLong(arena.lookup(arena.root(), "name"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            arena.child(arena.lookup(arena.root(), "children"), 3);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        assertFalse(arena.nodeCount() == 0);
+    }
+
+    @Test
+    public void duplicateKeys() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<plist version=\"1.0\">\n<dict>\n" +
+            "\t<key>a</key>\n\t<integer>1</integer>\n\t<key>a</key>\n\t<integer>2</integer>\n</dict>\n</plist>\n";
+        PlistArena arena = PropertyListSerialization.arenaWithData(xml.getBytes("utf8"), Format.XML);
+        assertEquals(1, arena.childCount(arena.root()));
+        assertEquals(2L, arena.asLong(arena.lookup(arena.root(), "a")));
+    }
+
+    @Test
+    public void reals() throws Exception {
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(Arrays.<Object>asList(1.5f, 0.1), format);
+            PlistArena arena = PropertyListSerialization.arenaWithData(data, format);
+            assertEquals(PropertyListSerialization.propertyListWithData(data, format), arena.toPropertyList(arena.root()));
+            if (format == Format.Binary)
+                assertEquals(1.5f, arena.toPropertyList(arena.child(arena.root(), 0)));
+            assertEquals(1.5, arena.asDouble(arena.child(arena.root(), 0)), 0);
+        }
+    }
+
+    private static int indexOf(PlistArena arena, int dict, String key) {
+        for (int i = 0; i < arena.childCount(dict); i++) {
+            if (arena.key(dict, i).equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+
+    @Test
+    public void corruptCount() throws Exception {
+        for (int objectType : new int[] {0xA, 0xD}) {
+            try {
+                PropertyListSerialization.arenaWithData(ContainerFactoryTest.corruptCount(objectType), Format.Binary);
+                fail();
+            } catch (PropertyListReadStreamException e) {
+                assertTrue(e.getCause() instanceof UnsupportedOperationException);
+            }
+        }
+    }
+
+}
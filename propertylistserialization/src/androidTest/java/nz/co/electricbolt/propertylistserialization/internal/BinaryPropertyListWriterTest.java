@@ -15,11 +15,14 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
+import nz.co.electricbolt.propertylistserialization.PropertyListFragment;
+
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(AndroidJUnit4.class)
 public class BinaryPropertyListWriterTest {
@@ -328,4 +331,65 @@ public class BinaryPropertyListWriterTest {
         assertArrayEquals(bytes(xcodeTemplate), g);
     }
 
+    // Fragment
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFragment() throws Exception {
+        HashMap<String, Object> catalog = new HashMap<>();
+        catalog.put("Name", "Catalog");
+        catalog.put("Version", 3);
+        catalog.put("Icon", makeData(20));
+        ArrayList<Object> features = new ArrayList<>();
+        features.add("Alpha");
+        features.add("Name");
+        catalog.put("Features", features);
+
+        PropertyListFragment fragment = new PropertyListFragment(catalog);
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("Name", "Outer");
+        dict.put("Catalog", fragment);
+        ArrayList<Object> list = new ArrayList<>();
+        list.add(dict);
+        list.add(fragment);
+        list.add(new PropertyListFragment(fragment)); // nested fragment
+        // Enough objects for 2 byte object references, whereas the fragment was built standalone.
+        for (int i = 0; i < 300; i++)
+            list.add("String" + i);
+
+        BinaryPropertyListWriter p = new BinaryPropertyListWriter(list);
+        byte[] g = p.write();
+
+        ArrayList<Object> result = (ArrayList<Object>) new BinaryPropertyListReader(g).parse();
+        assertEquals(303, result.size());
+        Map<String, Object> resultDict = (Map<String, Object>) result.get(0);
+        assertEquals("Outer", resultDict.get("Name"));
+        Map<String, Object> resultCatalog = (Map<String, Object>) resultDict.get("Catalog");
+        assertEquals("Catalog", resultCatalog.get("Name"));
+        assertEquals(3L, resultCatalog.get("Version"));
+        assertArrayEquals(makeData(20), (byte[]) resultCatalog.get("Icon"));
+        assertEquals(features, resultCatalog.get("Features"));
+        assertEquals(resultCatalog.keySet(), ((Map<String, Object>) result.get(1)).keySet());
+        assertEquals(resultCatalog.keySet(), ((Map<String, Object>) result.get(2)).keySet());
+        assertEquals("String299", result.get(302));
+    }
+
+
+    private static class ForgedFragment extends EncodedFragment {
+        ForgedFragment() {
+            super("forged", null);
+        }
+    }
+
+    @Test
+    public void testFragmentSealed() throws Exception {
+        assertEquals(TypeDispatch.FRAGMENT, TypeDispatch.kindOf(new PropertyListFragment("value")));
+        try {
+            new ForgedFragment();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
 }
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * ColumnarTableTest.java                                                      *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.ColumnarTable;
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ColumnarTableTest {
+
+    private static HashMap<String, Object> graph() {
+        ArrayList<Object> products = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            HashMap<String, Object> product = new HashMap<>();
+            product.put("id", (long) i);
+            product.put("price", i * 0.5);
+            product.put("available", i % 2 == 0);
+            product.put("name", "Product " + i);
+            product.put("tags", Arrays.asList("a", "b"));
+            products.add(product);
+        }
+        ArrayList<Object> mixed = new ArrayList<>();
+        HashMap<String, Object> row = new HashMap<>();
+        row.put("a", 1L);
+        mixed.add(row);
+        row = new HashMap<>();
+        row.put("b", 1L);
+        mixed.add(row);
+
+        HashMap<String, Object> root = new HashMap<>();
+        root.put("products", products);
+        root.put("mixed", mixed);
+        root.put("strings", Arrays.asList("x", "y"));
+        return root;
+    }
+
+    @Test
+    public void columnar() throws Exception {
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(graph(), format);
+            Map<?, ?> root = (Map<?, ?>) PropertyListSerialization.propertyListWithData(data, format, ContainerFactory.COLUMNAR);
+
+            assertTrue(root.get("products") instanceof ColumnarTable);
+            ColumnarTable products = (ColumnarTable) root.get("products");
+            assertEquals(100, products.size());
+            assertEquals(Arrays.asList("available", "id", "name", "price", "tags"), products.getKeys());
+            long[] ids = (long[]) products.getColumn("id");
+            double[] prices = (double[]) products.getColumn("price");
+            boolean[] available = (boolean[]) products.getColumn("available");
+            Object[] names = (Object[]) products.getColumn("name");
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, ids[i]);
+                assertEquals(i * 0.5, prices[i], 0);
+                assertEquals(i % 2 == 0, available[i]);
+                assertEquals("Product " + i, names[i]);
+            }
+            assertNull(products.getColumn("missing"));
+
+            // Viewable as List<Map>.
+            Map<String, Object> row = products.get(7);
+            assertEquals(7L, row.get("id"));
+            assertEquals("Product 7", row.get("name"));
+            assertFalse(row.containsKey("missing"));
+
+            // Dicts with differing keys, and arrays of other types, are unaffected.
+            assertFalse(root.get("mixed") instanceof ColumnarTable);
+            assertEquals(Arrays.asList("x", "y"), root.get("strings"));
+
+            assertEquals(PropertyListSerialization.propertyListWithData(data, format), root);
+        }
+    }
+
+    @Test
+    public void changingRows() throws Exception {
+        ArrayList<Object> retyped = new ArrayList<>();
+        ArrayList<Object> reshaped = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            HashMap<String, Object> row = new HashMap<>();
+            row.put("id", (long) i);
+            row.put("value", i < 30 ? (Object) (long) i : "v" + i);
+            retyped.add(row);
+            row = new HashMap<>(row);
+            if (i == 35)
+                row.put("extra", true);
+            reshaped.add(row);
+        }
+        HashMap<String, Object> root = new HashMap<>();
+        root.put("retyped", retyped);
+        root.put("reshaped", reshaped);
+        root.put("single", Arrays.asList(retyped.get(0)));
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(root, format);
+            Map<?, ?> parsed = (Map<?, ?>) PropertyListSerialization.propertyListWithData(data, format, ContainerFactory.COLUMNAR);
+            assertEquals(root, parsed);
+
+            ColumnarTable table = (ColumnarTable) parsed.get("retyped");
+            assertTrue(table.getColumn("id") instanceof long[]);
+            assertEquals(40, ((long[]) table.getColumn("id")).length);
+            Object[] values = (Object[]) table.getColumn("value");
+            assertEquals(29L, values[29]);
+            assertEquals("v30", values[30]);
+
+            assertFalse(parsed.get("reshaped") instanceof ColumnarTable);
+            assertFalse(parsed.get("single") instanceof ColumnarTable);
+        }
+    }
+
+    @Test
+    public void largeTable() throws Exception {
+        // More rows than are allocated up front from the declared count.
+        ArrayList<Object> rows = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            HashMap<String, Object> row = new HashMap<>();
+            row.put("id", (long) i);
+            row.put("ratio", i / 8.0);
+            rows.add(row);
+        }
+        byte[] data = PropertyListSerialization.dataWithPropertyList(rows, Format.Binary);
+        ColumnarTable table = (ColumnarTable) PropertyListSerialization.propertyListWithData(data, Format.Binary, ContainerFactory.COLUMNAR);
+        assertEquals(3000, table.size());
+        assertEquals(3000, ((long[]) table.getColumn("id")).length);
+        assertEquals(rows, table);
+    }
+
+    @Test
+    public void writeTable() throws Exception {
+        byte[] data = PropertyListSerialization.dataWithPropertyList(graph(), Format.XML);
+        Object root = PropertyListSerialization.propertyListWithData(data, Format.XML, ContainerFactory.COLUMNAR);
+        assertArrayEquals(data, PropertyListSerialization.dataWithPropertyList(root, Format.XML));
+    }
+
+}
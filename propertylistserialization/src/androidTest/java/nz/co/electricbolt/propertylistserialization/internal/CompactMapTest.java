@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * CompactMapTest.java                                                         *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class CompactMapTest {
+
+    @Test
+    public void sizes() {
+        // Linear and hashed layouts.
+        for (int size = 0; size < 40; size++) {
+            HashMap<String, Object> map = new HashMap<>();
+            for (int i = 0; i < size; i++)
+                map.put("key" + i, (long) i);
+            CompactMap compact = CompactMap.copyOf(map);
+            assertEquals(size, compact.size());
+            assertEquals(map, compact);
+            assertEquals(compact, map);
+            assertEquals(map.hashCode(), compact.hashCode());
+            for (int i = 0; i < size; i++) {
+                assertTrue(compact.containsKey("key" + i));
+                assertEquals((long) i, compact.get("key" + i));
+            }
+            assertFalse(compact.containsKey("key" + size));
+            assertNull(compact.get("missing"));
+            assertNull(compact.get(null));
+        }
+    }
+
+    @Test
+    public void immutable() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("a", 1L);
+        CompactMap compact = CompactMap.copyOf(map);
+        try {
+            compact.put("b", 2L);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            compact.entrySet().iterator().next().setValue(3L);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        List<Object> list = CompactList.copyOf(new ArrayList<Object>(Arrays.asList("a", "b")));
+        try {
+            list.add("c");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void frozen() throws Exception {
+        HashMap<String, Object> dict = new HashMap<>();
+        for (int i = 0; i < 20; i++)
+            dict.put("key" + i, "value" + i);
+        HashMap<String, Object> small = new HashMap<>();
+        small.put("name", "Name");
+        small.put("empty", new HashMap<>());
+        small.put("list", Arrays.asList(1L, 2L, new ArrayList<>()));
+        dict.put("small", small);
+
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(dict, format);
+            Object frozen = PropertyListSerialization.propertyListWithData(data, format, ContainerFactory.FROZEN);
+            assertTrue(frozen instanceof CompactMap);
+            assertTrue(((Map) frozen).get("small") instanceof CompactMap);
+            assertTrue(((Map) ((Map) frozen).get("small")).get("list") instanceof CompactList);
+            assertEquals(dict, frozen);
+
+            // Frozen maps can be written back out.
+            byte[] rewritten = PropertyListSerialization.dataWithPropertyList(frozen, format);
+            assertEquals(dict, PropertyListSerialization.propertyListWithData(rewritten, format));
+        }
+        byte[] data = PropertyListSerialization.dataWithPropertyList(dict, Format.XML);
+        Object frozen = PropertyListSerialization.propertyListWithData(data, Format.XML, ContainerFactory.FROZEN);
+        assertEquals(new String(data, "utf8"), new String(PropertyListSerialization.dataWithPropertyList(frozen, Format.XML), "utf8"));
+    }
+
+}
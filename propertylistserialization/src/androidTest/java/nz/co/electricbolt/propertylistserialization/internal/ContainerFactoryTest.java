@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * ContainerFactoryTest.java                                                   *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class ContainerFactoryTest {
+
+    private static class CountingFactory extends ContainerFactory {
+
+        List<Integer> dictCounts = new ArrayList<>();
+        List<Integer> arrayCounts = new ArrayList<>();
+
+        @Override
+        public Map<String, Object> newDict(int count) {
+            dictCounts.add(count);
+            return super.newDict(count);
+        }
+
+        @Override
+        public List<Object> newArray(int count) {
+            arrayCounts.add(count);
+            return super.newArray(count);
+        }
+
+        @Override
+        public Object finishDict(Map<String, Object> dict) {
+            return Collections.unmodifiableMap(dict);
+        }
+
+        @Override
+        public Object finishArray(List<Object> array) {
+            return Collections.unmodifiableList(array);
+        }
+    }
+
+    // Keys out of sorted order, to tell insertion order from XML key order.
+    private static LinkedHashMap<String, Object> unsorted() {
+        LinkedHashMap<String, Object> dict = new LinkedHashMap<>();
+        dict.put("z", 1L);
+        dict.put("a", Arrays.asList("x", "y", "z"));
+        dict.put("m", new LinkedHashMap<String, Object>());
+        return dict;
+    }
+
+    @Test
+    public void ordered() throws Exception {
+        // Binary plists preserve dict entry order.
+        byte[] data = PropertyListSerialization.dataWithPropertyList(unsorted(), Format.Binary);
+        Map<?, ?> dict = (Map<?, ?>) PropertyListSerialization.propertyListWithData(data, Format.Binary, ContainerFactory.ORDERED);
+        assertEquals(Arrays.asList("z", "a", "m"), new ArrayList<>(dict.keySet()));
+        assertTrue(dict instanceof LinkedHashMap);
+
+        // XML plists are sorted by key.
+        data = PropertyListSerialization.dataWithPropertyList(unsorted(), Format.XML);
+        dict = (Map<?, ?>) PropertyListSerialization.propertyListWithData(data, Format.XML, ContainerFactory.ORDERED);
+        assertEquals(Arrays.asList("a", "m", "z"), new ArrayList<>(dict.keySet()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void counts() throws Exception {
+        byte[] data = PropertyListSerialization.dataWithPropertyList(unsorted(), Format.Binary);
+        CountingFactory factory = new CountingFactory();
+        Object result = PropertyListSerialization.propertyListWithData(data, Format.Binary, factory);
+        assertEquals(unsorted(), result);
+        assertEquals(Arrays.asList(3, 0), factory.dictCounts);
+        assertEquals(Arrays.asList(3), factory.arrayCounts);
+
+        data = PropertyListSerialization.dataWithPropertyList(unsorted(), Format.XML);
+        factory = new CountingFactory();
+        result = PropertyListSerialization.propertyListWithData(data, Format.XML, factory);
+        assertEquals(unsorted(), result);
+        assertEquals(Arrays.asList(-1, -1), factory.dictCounts);
+        assertEquals(Arrays.asList(-1), factory.arrayCounts);
+
+        try {
+            ((Map<String, Object>) result).put("b", 2L);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+
+    /**
+     * Returns a 47 byte binary plist whose root array (objectType 0xA) or dict (0xD) declares
+     * 0x7FFFFFF0 elements, with no references following.
+     */
+    static byte[] corruptCount(int objectType) {
+        byte[] data = new byte[47];
+        System.arraycopy("bplist00".getBytes(), 0, data, 0, 8);
+        data[8] = (byte) (objectType << 4 | 0xF); // count in the following int
+        data[9] = 0x12; // 4 byte int
+        data[10] = 0x7F;
+        data[11] = (byte) 0xFF;
+        data[12] = (byte) 0xFF;
+        data[13] = (byte) 0xF0;
+        data[14] = 8; // offset table: object 0 at offset 8
+        data[15 + 6] = 1; // offsetIntSize
+        data[15 + 7] = 1; // objectRefSize
+        data[15 + 15] = 1; // numObjects
+        data[15 + 31] = 14; // offsetTableOffset
+        return data;
+    }
+
+    @Test
+    public void corruptCounts() throws Exception {
+        ContainerFactory[] factories = {ContainerFactory.DEFAULT, ContainerFactory.ORDERED, ContainerFactory.FROZEN,
+            ContainerFactory.COLUMNAR, ContainerFactory.PERSISTENT, ContainerFactory.SHAPED};
+        for (int objectType : new int[] {0xA, 0xD}) {
+            for (ContainerFactory factory : factories) {
+                try {
+                    PropertyListSerialization.propertyListWithData(corruptCount(objectType), Format.Binary, factory);
+                    fail();
+                } catch (PropertyListReadStreamException e) {
+                    assertTrue(e.getCause() instanceof UnsupportedOperationException);
+                }
+            }
+        }
+
+        // A valid count beyond maxObjects fails before the container is created.
+        List<Object> array = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            array.add((long) i);
+        byte[] data = PropertyListSerialization.dataWithPropertyList(array, Format.Binary);
+        CountingFactory factory = new CountingFactory();
+        PropertyListSerializer serializer = new PropertyListSerializer.Builder()
+            .setContainerFactory(factory)
+            .setMaxObjects(5)
+            .build();
+        try {
+            serializer.propertyListWithData(data, Format.Binary);
+            fail();
+        } catch (PropertyListReadStreamException e) {
+            assertTrue(factory.arrayCounts.isEmpty());
+        }
+    }
+
+}
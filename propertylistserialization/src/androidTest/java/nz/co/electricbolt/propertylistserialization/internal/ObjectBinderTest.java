@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * ObjectBinderTest.java                                                       *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class ObjectBinderTest {
+
+    enum Kind {
+        Document,
+        Folder
+    }
+
+    static class Base {
+        String name;
+        transient String cached = "cached";
+    }
+
+    static class Item extends Base {
+        int count;
+        long size;
+        short flags;
+        double ratio;
+        float scale;
+        boolean hidden;
+        Boolean locked;
+        Date modified;
+        byte[] thumbnail;
+        Kind kind;
+        int[] ranks;
+        Item[] children;
+        List<String> tags;
+        Set<Long> ids;
+        Map<String, Double> weights;
+        Object extra;
+
+        private Item() {
+        }
+    }
+
+    static class Small {
+        String name;
+    }
+
+    static class Sorted {
+        TreeMap<String, Long> totals;
+        LinkedList<String> names;
+    }
+
+    private static Item item() {
+        Item item = new Item();
+        item.name = "Root";
+        item.count = 42;
+        item.size = 8589934592L;
+        item.flags = -3;
+        item.ratio = 0.1;
+        item.scale = 1.5f;
+        item.hidden = true;
+        item.modified = new Date(1000000000000L);
+        item.thumbnail = new byte[]{1, 2, 3};
+        item.kind = Kind.Folder;
+        item.ranks = new int[]{3, 1, 2};
+        Item child = new Item();
+        child.name = "Child";
+        child.kind = Kind.Document;
+        item.children = new Item[]{child};
+        item.tags = Arrays.asList("b", "a");
+        item.ids = new LinkedHashSet<>(Arrays.asList(7L, 9L));
+        item.weights = new HashMap<>();
+        item.weights.put("x", 2.0);
+        item.extra = Arrays.asList("any", 1L);
+        return item;
+    }
+
+    private static void assertItem(Item item) {
+        assertEquals("Root", item.name);
+        assertEquals("cached", item.cached);
+        assertEquals(42, item.count);
+        assertEquals(8589934592L, item.size);
+        assertEquals(-3, item.flags);
+        assertEquals(0.1, item.ratio, 0);
+        assertEquals(1.5f, item.scale, 0);
+        assertTrue(item.hidden);
+        assertNull(item.locked);
+        assertEquals(new Date(1000000000000L), item.modified);
+        assertArrayEquals(new byte[]{1, 2, 3}, item.thumbnail);
+        assertEquals(Kind.Folder, item.kind);
+        assertArrayEquals(new int[]{3, 1, 2}, item.ranks);
+        assertEquals(1, item.children.length);
+        assertEquals("Child", item.children[0].name);
+        assertEquals(Kind.Document, item.children[0].kind);
+        assertNull(item.children[0].tags);
+        assertEquals(Arrays.asList("b", "a"), item.tags);
+        assertEquals(2, item.ids.size());
+        assertTrue(item.ids.contains(7L) && item.ids.contains(9L));
+        assertEquals(Double.valueOf(2.0), item.weights.get("x"));
+        assertEquals(Arrays.asList("any", 1L), item.extra);
+    }
+
+    @Test
+    public void roundTripXML() throws Exception {
+        byte[] data = PropertyListSerialization.write(item(), Format.XML);
+        assertItem(PropertyListSerialization.read(data, Format.XML, Item.class));
+    }
+
+    @Test
+    public void roundTripBinary() throws Exception {
+        byte[] data = PropertyListSerialization.write(item(), Format.Binary);
+        assertItem(PropertyListSerialization.read(data, Format.Binary, Item.class));
+    }
+
+    @Test
+    public void writeMatchesMap() throws Exception {
+        // A plain Java object is written exactly as the equivalent Map.
+        Item item = new Item();
+        item.name = "Name";
+        item.count = 1;
+        item.tags = new ArrayList<>();
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("name", "Name");
+        dict.put("count", 1);
+        dict.put("size", 0L);
+        dict.put("flags", 0);
+        dict.put("ratio", 0.0);
+        dict.put("scale", 0.0f);
+        dict.put("hidden", false);
+        dict.put("tags", new ArrayList<>());
+        assertEquals(new String(PropertyListSerialization.dataWithPropertyList(dict, Format.XML), "utf8"),
+            new String(PropertyListSerialization.write(item, Format.XML), "utf8"));
+    }
+
+    @Test
+    public void unknownKeysSkipped() throws Exception {
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("name", "Name");
+        dict.put("unknown", Arrays.asList(new HashMap<>(), "skip", 1L));
+        dict.put("other", 3L);
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(dict, format);
+            assertEquals("Name", PropertyListSerialization.read(data, format, Small.class).name);
+        }
+    }
+
+    @Test
+    public void declaredContainers() throws Exception {
+        HashMap<String, Object> totals = new HashMap<>();
+        totals.put("b", 2L);
+        totals.put("a", 1L);
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("totals", totals);
+        dict.put("names", Arrays.asList("x", "y"));
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(dict, format);
+            Sorted sorted = PropertyListSerialization.read(data, format, Sorted.class);
+            assertEquals(Arrays.asList("a", "b"), new ArrayList<>(sorted.totals.keySet()));
+            assertEquals(Arrays.asList("x", "y"), sorted.names);
+        }
+    }
+
+    @Test
+    public void incompatible() throws Exception {
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("count", "NaN");
+        byte[] data = PropertyListSerialization.dataWithPropertyList(dict, Format.Binary);
+        try {
+            PropertyListSerialization.read(data, Format.Binary, Item.class);
+            fail();
+        } catch (PropertyListReadStreamException e) {
+            // expected
+        }
+
+        dict.put("count", 4294967296L);
+        data = PropertyListSerialization.dataWithPropertyList(dict, Format.Binary);
+        try {
+            PropertyListSerialization.read(data, Format.Binary, Item.class);
+            fail();
+        } catch (PropertyListReadStreamException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void bindingCached() {
+        assertTrue(ClassBinding.of(Item.class) == ClassBinding.of(Item.class));
+    }
+
+}
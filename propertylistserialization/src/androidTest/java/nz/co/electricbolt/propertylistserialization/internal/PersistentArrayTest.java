@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * PersistentArrayTest.java                                                    *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nz.co.electricbolt.propertylistserialization.PersistentArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PersistentArrayTest {
+
+    private static List<Object> range(int count) {
+        List<Object> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            list.add((long) i);
+        return list;
+    }
+
+    @Test
+    public void plusAndWithout() {
+        // Across the boundaries of the tail and of each level of the trie.
+        PersistentArray array = PersistentArray.empty();
+        List<PersistentArray> versions = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            versions.add(array);
+            array = array.plus((long) i);
+        }
+        assertEquals(range(40000), array);
+        for (int size : new int[]{0, 1, 31, 32, 33, 1024, 1056, 1057, 32768, 32800, 32801})
+            assertEquals(range(size), versions.get(size));
+        for (int i = 40000; i > 0; i--) {
+            array = array.without(i - 1);
+            if (i % 997 == 0 || i < 70)
+                assertEquals(range(i - 1), array);
+        }
+        assertSame(PersistentArray.empty(), array);
+    }
+
+    @Test
+    public void copyOf() {
+        for (int size : new int[]{0, 1, 32, 33, 64, 65, 1024, 1056, 1057, 40000}) {
+            PersistentArray array = PersistentArray.copyOf(range(size));
+            assertEquals(range(size), array);
+            assertEquals(range(size + 1), array.plus((long) size));
+            if (size > 0)
+                assertEquals(range(size - 1), array.without(size - 1));
+        }
+    }
+
+    @Test
+    public void with() {
+        List<Object> expected = range(5000);
+        PersistentArray array = PersistentArray.copyOf(expected);
+        PersistentArray original = array;
+        for (int i = 0; i < 5000; i += 7) {
+            expected.set(i, "edited " + i);
+            array = array.with(i, "edited " + i);
+        }
+        assertEquals(expected, array);
+        assertEquals(range(5000), original);
+        assertSame(array, array.with(7, array.get(7)));
+
+        expected.add(100, "inserted");
+        expected.remove(10);
+        array = array.plus(100, "inserted").without(10);
+        assertEquals(expected, array);
+        assertEquals(expected.hashCode(), array.hashCode());
+        try {
+            array.get(expected.size());
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            array.add("b");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertTrue(array.contains("inserted"));
+    }
+
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * PersistentDictTest.java                                                     *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PersistentArray;
+import nz.co.electricbolt.propertylistserialization.PersistentDict;
+import nz.co.electricbolt.propertylistserialization.PlistPatch;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PersistentDictTest {
+
+    @Test
+    public void withAndWithout() {
+        // Compare against a HashMap through random updates, keeping the first version.
+        Random random = new Random(1);
+        Map<String, Object> expected = new HashMap<>();
+        PersistentDict dict = PersistentDict.empty();
+        PersistentDict first = null;
+        for (int i = 0; i < 20000; i++) {
+            String key = "key" + random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                dict = dict.without(key);
+            } else {
+                expected.put(key, (long) i);
+                dict = dict.with(key, (long) i);
+            }
+            if (i == 1000)
+                first = dict;
+        }
+        assertEquals(expected.size(), dict.size());
+        assertEquals(expected, dict);
+        assertEquals(dict, expected);
+        assertEquals(expected.hashCode(), dict.hashCode());
+        assertEquals(PersistentDict.copyOf(expected), dict);
+        assertTrue(first.size() > 0 && first.size() <= 1001);
+        assertFalse(first.equals(dict));
+
+        for (String key : expected.keySet())
+            dict = dict.without(key);
+        assertTrue(dict.isEmpty());
+        assertSame(PersistentDict.empty(), dict);
+    }
+
+    @Test
+    public void sharing() {
+        PersistentDict dict = PersistentDict.empty().with("a", 1L);
+        assertSame(dict, dict.with("a", dict.get("a")));
+        assertSame(dict, dict.without("b"));
+        PersistentDict dict2 = dict.with("a", 2L);
+        assertEquals(1L, dict.get("a"));
+        assertEquals(2L, dict2.get("a"));
+        assertNull(dict.get(null));
+        try {
+            dict.put("b", 1L);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            dict.with("b", null);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void collisions() {
+        // "Aa" and "BB" have the same hashCode, so all of these keys do.
+        String[] keys = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        PersistentDict dict = PersistentDict.empty();
+        for (String key : keys)
+            dict = dict.with(key, key);
+        dict = dict.with("other", "other");
+        assertEquals(5, dict.size());
+        for (String key : keys)
+            assertEquals(key, dict.get(key));
+        assertNull(dict.get("AaAB"));
+        for (String key : keys)
+            dict = dict.without(key);
+        assertEquals(1, dict.size());
+        assertEquals("other", dict.get("other"));
+    }
+
+    @Test
+    public void containerFactory() throws Exception {
+        Map<String, Object> source = new HashMap<>();
+        for (int i = 0; i < 100; i++)
+            source.put("key" + i, Arrays.asList((long) i, "value " + i));
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(source, format);
+            PersistentDict dict = (PersistentDict) PropertyListSerialization.propertyListWithData(data, format, ContainerFactory.PERSISTENT);
+            assertTrue(dict.get("key7") instanceof PersistentArray);
+            assertEquals(source, dict);
+
+            // Written as any other Map.
+            PersistentDict edited = dict.with("key7", ((PersistentArray) dict.get("key7")).with(1, "edited"));
+            Map<String, Object> expected = new HashMap<>(source);
+            expected.put("key7", Arrays.asList(7L, "edited"));
+            assertEquals(expected, PropertyListSerialization.propertyListWithData(PropertyListSerialization.dataWithPropertyList(edited, format), format));
+            assertSame(dict.get("key8"), edited.get("key8"));
+            assertEquals(source, dict);
+        }
+    }
+
+    @Test
+    public void patch() throws Exception {
+        Map<String, Object> a = new HashMap<>();
+        a.put("tags", Arrays.asList("a", "b", "c"));
+        a.put("version", 1L);
+        Map<String, Object> b = new HashMap<>(a);
+        b.put("tags", Arrays.asList("a", "c", "d", "e"));
+        b.put("version", 2L);
+        b.put("added", true);
+
+        PersistentDict base = (PersistentDict) PropertyListSerialization.propertyListWithData(
+                PropertyListSerialization.dataWithPropertyList(a, Format.Binary), Format.Binary, ContainerFactory.PERSISTENT);
+        Object applied = PlistPatch.diff(a, b).apply(base);
+        assertTrue(applied instanceof PersistentDict);
+        assertTrue(((Map) applied).get("tags") instanceof PersistentArray);
+        assertEquals(b, applied);
+        assertEquals(a, base);
+    }
+
+}
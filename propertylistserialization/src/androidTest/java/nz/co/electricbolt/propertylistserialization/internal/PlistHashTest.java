@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * PlistHashTest.java                                                          *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PlistHash;
+import nz.co.electricbolt.propertylistserialization.PlistValue;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PlistHashTest {
+
+    // Every property list type, so that hashes are checked across both formats for each.
+    private static Map<String, Object> record(String name, long size) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("name", name);
+        record.put("size", size);
+        record.put("ratio", size / 4.0);
+        record.put("thumbnail", new byte[]{1, 2, 3});
+        record.put("modified", new Date(1000000000000L + size * 1000));
+        return record;
+    }
+
+    private static Map<String, Object> records() {
+        List<Object> records = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            records.add(record("Record " + i, i));
+        Map<String, Object> dict = new HashMap<>();
+        dict.put("records", records);
+        dict.put("version", 1.5);
+        dict.put("enabled", true);
+        return dict;
+    }
+
+    @Test
+    public void formatIndependent() throws Exception {
+        Map<String, Object> records = records();
+        long hash = PlistHash.hashOf(records);
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(records, format);
+            assertEquals(hash, PlistHash.hashOf(data, format));
+            assertEquals(hash, PlistHash.hashOf(PropertyListSerialization.propertyListWithData(data, format)));
+            assertEquals(hash, PlistHash.hashOf(PropertyListSerialization.propertyListWithData(data, format, ContainerFactory.FROZEN)));
+            assertEquals(hash, PlistHash.hashOf(PropertyListSerialization.valueWithData(data, format)));
+        }
+        assertEquals(hash, PlistHash.hashOf(PlistValue.of(records)));
+    }
+
+    @Test
+    public void normalized() {
+        assertEquals(PlistHash.hashOf(42), PlistHash.hashOf(42L));
+        assertEquals(PlistHash.hashOf((short) 42), PlistHash.hashOf(42L));
+        assertEquals(PlistHash.hashOf(1.5f), PlistHash.hashOf(1.5));
+        assertNotEquals(PlistHash.hashOf(1L), PlistHash.hashOf(1.0));
+        assertNotEquals(PlistHash.hashOf("1"), PlistHash.hashOf(1L));
+        assertNotEquals(PlistHash.hashOf(true), PlistHash.hashOf(false));
+
+        LinkedHashMap<String, Object> ab = new LinkedHashMap<>();
+        ab.put("a", 1L);
+        ab.put("b", 2L);
+        LinkedHashMap<String, Object> ba = new LinkedHashMap<>();
+        ba.put("b", 2L);
+        ba.put("a", 1L);
+        assertEquals(PlistHash.hashOf(ab), PlistHash.hashOf(ba));
+
+        // Array order matters, and values don't hash the same under different keys.
+        assertNotEquals(PlistHash.hashOf(Arrays.asList(1L, 2L)), PlistHash.hashOf(Arrays.asList(2L, 1L)));
+        LinkedHashMap<String, Object> swapped = new LinkedHashMap<>();
+        swapped.put("a", 2L);
+        swapped.put("b", 1L);
+        assertNotEquals(PlistHash.hashOf(ab), PlistHash.hashOf(swapped));
+        assertNotEquals(PlistHash.hashOf(Collections.emptyMap()), PlistHash.hashOf(Collections.emptyList()));
+        assertEquals(PlistHash.hashOf(Arrays.asList("x", "y")), PlistHash.hashOf(new String[]{"x", "y"}));
+    }
+
+    @Test
+    public void frozenCached() throws Exception {
+        byte[] data = PropertyListSerialization.dataWithPropertyList(records(), Format.Binary);
+        CompactMap dict = (CompactMap) PropertyListSerialization.propertyListWithData(data, Format.Binary, ContainerFactory.FROZEN);
+        assertEquals(0, dict.structuralHash);
+        long hash = PlistHash.hashOf(dict);
+        assertEquals(hash, dict.structuralHash);
+        assertTrue(((CompactList) dict.get("records")).structuralHash != 0);
+        assertEquals(hash, PlistHash.hashOf(dict));
+    }
+
+    @Test
+    public void changedPaths() throws Exception {
+        Map<String, Object> a = records();
+        Map<String, Object> b = records();
+        assertEquals(0, PlistHash.changedPaths(a, b).size());
+
+        ((List<Object>) b.get("records")).set(3, record("Record 3", 33));
+        ((List<Object>) b.get("records")).add(record("Record 5", 5));
+        b.remove("enabled");
+        b.put("added", "value");
+        List<List<Object>> paths = PlistHash.changedPaths(a, b);
+        assertEquals(6, paths.size());
+        // Record 3's ratio and modified date changed along with its size.
+        assertTrue(paths.contains(Arrays.<Object>asList("records", 3L, "size")));
+        assertTrue(paths.contains(Arrays.<Object>asList("records", 3L, "ratio")));
+        assertTrue(paths.contains(Arrays.<Object>asList("records", 3L, "modified")));
+        assertTrue(paths.contains(Arrays.<Object>asList("records", 5L)));
+        assertTrue(paths.contains(Collections.<Object>singletonList("enabled")));
+        assertTrue(paths.contains(Collections.<Object>singletonList("added")));
+
+        assertEquals(Collections.singletonList(Collections.emptyList()), PlistHash.changedPaths(a, "string"));
+    }
+
+}
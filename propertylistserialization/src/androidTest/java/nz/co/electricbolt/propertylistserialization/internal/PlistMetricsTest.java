@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * PlistMetricsTest.java                                                       *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import nz.co.electricbolt.propertylistserialization.PlistMetrics;
+import nz.co.electricbolt.propertylistserialization.PlistMetricsListener;
+import nz.co.electricbolt.propertylistserialization.PlistValue;
+import nz.co.electricbolt.propertylistserialization.PropertyListFragment;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PlistMetricsTest {
+
+    private static class Recorder implements PlistMetricsListener {
+
+        List<PlistMetrics> parsed = new ArrayList<>();
+        List<PlistMetrics> serialized = new ArrayList<>();
+
+        @Override
+        public void onParse(PlistMetrics metrics) {
+            parsed.add(metrics);
+        }
+
+        @Override
+        public void onSerialize(PlistMetrics metrics) {
+            serialized.add(metrics);
+        }
+    }
+
+    // The same child dict twice, so binary writes deduplicate it; its data is base64 in XML.
+    private static HashMap<String, Object> sharedChild() {
+        HashMap<String, Object> child = new HashMap<>();
+        child.put("name", "Child");
+        child.put("data", new byte[100]);
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("name", "Root");
+        dict.put("count", 2L);
+        dict.put("children", Arrays.asList(child, child));
+        return dict;
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        for (Format format : Format.values()) {
+            Recorder recorder = new Recorder();
+            PropertyListSerializer serializer = new PropertyListSerializer.Builder().setMetricsListener(recorder).build();
+
+            byte[] data = serializer.dataWithPropertyList(sharedChild(), format);
+            assertEquals(1, recorder.serialized.size());
+            PlistMetrics metrics = recorder.serialized.get(0);
+            assertEquals(format, metrics.getFormat());
+            assertEquals(data.length, metrics.getBytesOut());
+            assertEquals(0, metrics.getBytesIn());
+            assertEquals(3, metrics.getObjectCount(PlistValue.Type.DICT));
+            assertEquals(1, metrics.getObjectCount(PlistValue.Type.ARRAY));
+            assertEquals(3, metrics.getObjectCount(PlistValue.Type.STRING));
+            assertEquals(2, metrics.getObjectCount(PlistValue.Type.DATA));
+            assertEquals(10, metrics.getTotalObjectCount());
+            assertEquals(3, metrics.getMaxDepth());
+            assertTrue(metrics.getTotalNanos() > 0);
+            assertTrue(metrics.getPhaseNanos(PlistMetrics.Phase.ENCODING) > 0);
+            if (format == Format.Binary) {
+                // The "name" key of the first child dict, then the second child dict and each of
+                // its keys and values.
+                assertEquals(6, metrics.getDedupHits());
+                assertTrue(metrics.getPhaseNanos(PlistMetrics.Phase.OBJECT_MAPPING) > 0);
+            } else {
+                assertEquals(0, metrics.getDedupHits());
+                assertTrue(metrics.getPhaseNanos(PlistMetrics.Phase.BASE64) > 0);
+                assertTrue(metrics.getPhaseNanos(PlistMetrics.Phase.SORTING) > 0);
+            }
+
+            serializer.propertyListWithData(data, format);
+            assertEquals(1, recorder.parsed.size());
+            metrics = recorder.parsed.get(0);
+            assertEquals(data.length, metrics.getBytesIn());
+            assertEquals(0, metrics.getBytesOut());
+            assertEquals(10, metrics.getTotalObjectCount());
+            assertEquals(3, metrics.getMaxDepth());
+            assertTrue(metrics.getPhaseNanos(PlistMetrics.Phase.OBJECTS) > 0);
+            if (format == Format.Binary)
+                assertTrue(metrics.getPhaseNanos(PlistMetrics.Phase.TRAILER) > 0);
+            else
+                assertEquals(0, metrics.getPhaseNanos(PlistMetrics.Phase.TRAILER));
+        }
+    }
+
+    @Test
+    public void fragments() throws Exception {
+        PropertyListFragment fragment = new PropertyListFragment(sharedChild());
+        List<Object> list = Arrays.<Object>asList(fragment, fragment, "Tail");
+        for (Format format : Format.values()) {
+            Recorder recorder = new Recorder();
+            PropertyListSerializer serializer = new PropertyListSerializer.Builder().setMetricsListener(recorder).build();
+            byte[] data = serializer.dataWithPropertyList(list, format);
+            serializer.propertyListWithData(data, format);
+            PlistMetrics written = recorder.serialized.get(0);
+            PlistMetrics read = recorder.parsed.get(0);
+            for (PlistValue.Type type : PlistValue.Type.values())
+                assertEquals(read.getObjectCount(type), written.getObjectCount(type));
+            assertEquals(22, written.getTotalObjectCount());
+            assertEquals(4, written.getMaxDepth());
+        }
+    }
+
+    @Test
+    public void writePropertyList() throws Exception {
+        Recorder recorder = new Recorder();
+        PropertyListSerializer serializer = new PropertyListSerializer.Builder().setMetricsListener(recorder).build();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        serializer.writePropertyList(sharedChild(), os, Format.XML);
+        assertEquals(1, recorder.serialized.size());
+        assertEquals(os.size(), recorder.serialized.get(0).getBytesOut());
+    }
+
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * PlistOverlayTest.java                                                       *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PersistentDict;
+import nz.co.electricbolt.propertylistserialization.PlistOverlay;
+import nz.co.electricbolt.propertylistserialization.PlistOverlay.ArrayMerge;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PlistOverlayTest {
+
+    private static Map<String, Object> dict(Object... keysAndValues) {
+        Map<String, Object> dict = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2)
+            dict.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        return dict;
+    }
+
+    private static Map<String, Object> base() {
+        return dict("name", "base", "timeout", 30L, "servers", Arrays.asList("a", "b"),
+                "display", dict("theme", "light", "fontSize", 12L), "flags", dict("beta", false));
+    }
+
+    private static Map<String, Object> region() {
+        return dict("timeout", 60L, "servers", Arrays.asList("c"), "display", dict("theme", "dark"));
+    }
+
+    private static Map<String, Object> device() {
+        return dict("name", "device", "display", dict("fontSize", 14L), "flags", "none");
+    }
+
+    @Test
+    public void topmostWins() throws Exception {
+        Map<?, ?> view = (Map<?, ?>) PlistOverlay.of(Arrays.asList(base(), region(), device()));
+        Map<String, Object> expected = dict("name", "device", "timeout", 60L, "servers", Arrays.asList("c"),
+                "display", dict("theme", "dark", "fontSize", 14L), "flags", "none");
+        assertEquals(5, view.size());
+        assertEquals(expected, view);
+        assertEquals(expected.hashCode(), view.hashCode());
+        assertTrue(view.containsKey("timeout"));
+        assertNull(view.get("missing"));
+        try {
+            ((Map<String, Object>) view).put("name", "x");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // Written directly, by either writer.
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(view, format);
+            assertEquals(expected, PropertyListSerialization.propertyListWithData(data, format));
+        }
+    }
+
+    @Test
+    public void arrayMerge() throws Exception {
+        List<?> layers = Arrays.asList(base(), region(), dict("servers", Arrays.asList(dict("host", "d"))));
+        assertEquals(Arrays.asList(dict("host", "d")), ((Map<?, ?>) PlistOverlay.of(layers, ArrayMerge.REPLACE)).get("servers"));
+        assertEquals(Arrays.asList("a", "b", "c", dict("host", "d")), ((Map<?, ?>) PlistOverlay.of(layers, ArrayMerge.APPEND)).get("servers"));
+        assertEquals(Arrays.asList(dict("host", "d"), "b"), ((Map<?, ?>) PlistOverlay.of(layers, ArrayMerge.BY_INDEX)).get("servers"));
+
+        // BY_INDEX merges dicts at the same index.
+        Object view = PlistOverlay.of(Arrays.asList(
+                Arrays.asList(dict("a", 1L, "b", 2L), "x"),
+                Arrays.asList(dict("b", 3L))), ArrayMerge.BY_INDEX);
+        assertEquals(Arrays.asList(dict("a", 1L, "b", 3L), "x"), view);
+    }
+
+    @Test
+    public void materialize() throws Exception {
+        Object view = PlistOverlay.of(Arrays.asList(base(), region(), device()));
+        Object frozen = PlistOverlay.materialize(view);
+        assertTrue(frozen instanceof CompactMap);
+        assertTrue(((Map<?, ?>) frozen).get("display") instanceof CompactMap);
+        assertEquals(view, frozen);
+        assertTrue(PlistOverlay.materialize(view, ContainerFactory.PERSISTENT) instanceof PersistentDict);
+    }
+
+    @Test
+    public void singleLayer() throws Exception {
+        Map<String, Object> base = base();
+        assertSame(base, PlistOverlay.of(Arrays.asList(base)));
+        assertEquals("top", PlistOverlay.of(Arrays.asList(base, "top")));
+        Map<?, ?> view = (Map<?, ?>) PlistOverlay.of(Arrays.asList(base, region()));
+        // display is a dict in both layers, flags only in the base.
+        assertSame(base.get("flags"), view.get("flags"));
+        assertFalse(view.get("display") == base.get("display"));
+        try {
+            PlistOverlay.of(Arrays.asList());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
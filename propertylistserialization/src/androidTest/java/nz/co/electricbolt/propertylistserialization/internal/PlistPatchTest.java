@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * PlistPatchTest.java                                                         *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PlistHash;
+import nz.co.electricbolt.propertylistserialization.PlistPatch;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PlistPatchTest {
+
+    // No byte[] values, so that patched object graphs can be compared with equals().
+    private static Map<String, Object> payload(String name, long size) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("name", name);
+        payload.put("size", size);
+        return payload;
+    }
+
+    private static Map<String, Object> document() {
+        List<Object> payloads = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            payloads.add(payload("Payload " + i, i));
+        Map<String, Object> dict = new HashMap<>();
+        dict.put("Payload", payloads);
+        dict.put("version", 1L);
+        dict.put("enabled", true);
+        dict.put("tags", Arrays.asList("a", "b", "c"));
+        return dict;
+    }
+
+    private static Object roundTrip(PlistPatch patch, Format format) throws Exception {
+        byte[] data = PropertyListSerialization.dataWithPropertyList(patch.toPropertyList(), format);
+        return PropertyListSerialization.propertyListWithData(data, format);
+    }
+
+    @Test
+    public void diffAndApply() throws Exception {
+        Map<String, Object> a = document();
+        Map<String, Object> b = document();
+        ((List<Object>) b.get("Payload")).set(3, payload("Payload 3", 33));
+        ((List<Object>) b.get("Payload")).add(5, payload("Inserted", 100));
+        b.remove("enabled");
+        b.put("version", 2L);
+        b.put("added", Arrays.asList(1L, 2L));
+
+        PlistPatch patch = PlistPatch.diff(a, b);
+        // Payload is spliced as its length changed; enabled removed; version and added set.
+        assertEquals(4, patch.size());
+        Object applied = patch.apply(a);
+        assertEquals(PlistHash.hashOf(b), PlistHash.hashOf(applied));
+        assertEquals(b, applied);
+
+        // The base is not modified, and unchanged subtrees are shared.
+        assertEquals(PlistHash.hashOf(document()), PlistHash.hashOf(a));
+        assertSame(a.get("tags"), ((Map) applied).get("tags"));
+
+        for (Format format : Format.values()) {
+            PlistPatch read = PlistPatch.fromPropertyList(roundTrip(patch, format));
+            assertEquals(b, read.apply(a));
+        }
+    }
+
+    @Test
+    public void elementEdits() throws Exception {
+        Map<String, Object> a = document();
+        Map<String, Object> b = document();
+        ((Map<String, Object>) ((List<Object>) b.get("Payload")).get(7)).put("size", 77L);
+        PlistPatch patch = PlistPatch.diff(a, b);
+        assertEquals(1, patch.size());
+        Map<?, ?> edit = (Map<?, ?>) patch.toPropertyList().get(0);
+        assertEquals("set", edit.get("op"));
+        assertEquals(Arrays.asList("Payload", 7L, "size"), edit.get("path"));
+        assertEquals(77L, edit.get("value"));
+        assertEquals(b, patch.apply(a));
+    }
+
+    @Test
+    public void frozen() throws Exception {
+        Map<String, Object> b = document();
+        ((List<Object>) b.get("Payload")).remove(9);
+        byte[] dataA = PropertyListSerialization.dataWithPropertyList(document(), Format.Binary);
+        byte[] dataB = PropertyListSerialization.dataWithPropertyList(b, Format.Binary);
+        Object a = PropertyListSerialization.propertyListWithData(dataA, Format.Binary, ContainerFactory.FROZEN);
+        Object frozenB = PropertyListSerialization.propertyListWithData(dataB, Format.Binary, ContainerFactory.FROZEN);
+        PlistPatch patch = PlistPatch.diff(a, frozenB);
+        assertEquals(1, patch.size());
+        assertEquals(b, patch.apply(a));
+    }
+
+    @Test
+    public void equalAndRoot() throws Exception {
+        assertTrue(PlistPatch.diff(document(), document()).isEmpty());
+        PlistPatch patch = PlistPatch.diff(document(), "replaced");
+        assertEquals("replaced", patch.apply(document()));
+    }
+
+    @Test
+    public void invalid() throws Exception {
+        try {
+            PlistPatch.fromPropertyList(Arrays.asList(new HashMap<String, Object>()));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Map<String, Object> b = document();
+        b.remove("version");
+        PlistPatch patch = PlistPatch.diff(document(), b);
+        Map<String, Object> base = document();
+        base.remove("version");
+        try {
+            patch.apply(base);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
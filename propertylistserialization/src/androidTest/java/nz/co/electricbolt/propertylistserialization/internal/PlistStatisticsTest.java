@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * PlistStatisticsTest.java                                                    *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+import nz.co.electricbolt.propertylistserialization.PlistStatistics;
+import nz.co.electricbolt.propertylistserialization.PlistStatistics.Operation;
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerializer;
+import nz.co.electricbolt.propertylistserialization.PropertyListWriteStreamException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PlistStatisticsTest {
+
+    private static long total(long[] histogram) {
+        long total = 0;
+        for (long count : histogram)
+            total += count;
+        return total;
+    }
+
+    @Test
+    public void counts() throws Exception {
+        PlistStatistics statistics = new PlistStatistics();
+        PropertyListSerializer serializer = new PropertyListSerializer.Builder().setStatistics(statistics).build();
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("name", "Root");
+        dict.put("data", new byte[2000]);
+
+        long total = 0;
+        for (Format format : Format.values()) {
+            byte[] data = serializer.dataWithPropertyList(dict, format);
+            serializer.propertyListWithData(data, format);
+            serializer.propertyListWithData(new ByteArrayInputStream(data), format);
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            serializer.writePropertyList(dict, os, format);
+
+            assertEquals(2, statistics.getCount(Operation.SERIALIZE, format));
+            assertEquals(2L * data.length, statistics.getBytes(Operation.SERIALIZE, format));
+            assertEquals(2, statistics.getCount(Operation.PARSE, format));
+            assertEquals(2L * data.length, statistics.getBytes(Operation.PARSE, format));
+            total += 2;
+
+            // 2000 bytes of data (2668 Base64 encoded) - under 16KB.
+            assertEquals(1, PlistStatistics.sizeClassOf(data.length));
+        }
+        assertEquals(total, total(statistics.getLatencyHistogram(Operation.PARSE, 1)));
+        assertEquals(total, total(statistics.getLatencyHistogram(Operation.SERIALIZE, 1)));
+        assertEquals(0, total(statistics.getLatencyHistogram(Operation.PARSE, 0)));
+        assertEquals(0, statistics.getErrorCount(Operation.PARSE));
+        assertEquals(0, statistics.getErrorCount(Operation.SERIALIZE));
+
+        statistics.reset();
+        assertEquals(0, statistics.getCount(Operation.PARSE, Format.XML));
+        assertEquals(0, total(statistics.getLatencyHistogram(Operation.SERIALIZE, 1)));
+    }
+
+    @Test
+    public void errors() throws Exception {
+        PlistStatistics statistics = new PlistStatistics();
+        PropertyListSerializer serializer = new PropertyListSerializer.Builder().setStatistics(statistics).build();
+        for (Format format : Format.values()) {
+            try {
+                serializer.propertyListWithData("not a property list".getBytes(), format);
+                fail();
+            } catch (PropertyListReadStreamException e) {
+                // expected
+            }
+        }
+        try {
+            serializer.dataWithPropertyList(new Object(), Format.XML);
+            fail();
+        } catch (PropertyListWriteStreamException e) {
+            // expected
+        }
+        assertEquals(2, statistics.getErrorCount(Operation.PARSE));
+        assertEquals(1, statistics.getErrorCount(Operation.SERIALIZE));
+        assertEquals(0, statistics.getCount(Operation.PARSE, Format.Binary));
+        assertEquals(0, statistics.getCount(Operation.SERIALIZE, Format.XML));
+    }
+
+    @Test
+    public void sizeClassOf() {
+        assertEquals(0, PlistStatistics.sizeClassOf(0));
+        assertEquals(0, PlistStatistics.sizeClassOf(1023));
+        assertEquals(1, PlistStatistics.sizeClassOf(1024));
+        assertEquals(1, PlistStatistics.sizeClassOf(16 * 1024 - 1));
+        assertEquals(2, PlistStatistics.sizeClassOf(16 * 1024));
+        assertEquals(3, PlistStatistics.sizeClassOf(256 * 1024));
+        assertEquals(4, PlistStatistics.sizeClassOf(4 * 1024 * 1024));
+        assertEquals(4, PlistStatistics.sizeClassOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void bucketLimitMicros() {
+        assertEquals(1, PlistStatistics.bucketLimitMicros(0));
+        assertEquals(1024, PlistStatistics.bucketLimitMicros(10));
+        assertEquals(Long.MAX_VALUE, PlistStatistics.bucketLimitMicros(PlistStatistics.LATENCY_BUCKETS - 1));
+    }
+
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * PlistValueTest.java                                                         *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import nz.co.electricbolt.propertylistserialization.PlistArray;
+import nz.co.electricbolt.propertylistserialization.PlistBoolean;
+import nz.co.electricbolt.propertylistserialization.PlistData;
+import nz.co.electricbolt.propertylistserialization.PlistDate;
+import nz.co.electricbolt.propertylistserialization.PlistDict;
+import nz.co.electricbolt.propertylistserialization.PlistInteger;
+import nz.co.electricbolt.propertylistserialization.PlistReal;
+import nz.co.electricbolt.propertylistserialization.PlistString;
+import nz.co.electricbolt.propertylistserialization.PlistValue;
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PlistValueTest {
+
+    // One value of each plist type, keyed by the PlistValue.Type it should read back as.
+    private static HashMap<String, Object> types() {
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("STRING", "\u65e5\u672c");
+        dict.put("INTEGER", Long.MIN_VALUE);
+        dict.put("REAL", -2.5);
+        dict.put("BOOLEAN", false);
+        dict.put("DATE", new Date(1500000000000L));
+        dict.put("DATA", new byte[]{0, -1});
+        dict.put("ARRAY", Arrays.asList(true, 7L));
+        dict.put("DICT", new HashMap<String, Object>());
+        return dict;
+    }
+
+    // Containers nested in each other, down to empty ones.
+    private static ArrayList<Object> nested() {
+        HashMap<String, Object> inner = new HashMap<>();
+        inner.put("empty", new ArrayList<>());
+        inner.put("list", Arrays.asList(Arrays.asList(1L, 2L), new HashMap<String, Object>()));
+        ArrayList<Object> array = new ArrayList<>();
+        array.add(inner);
+        array.add(new ArrayList<>());
+        array.add(Arrays.asList(inner, "tail"));
+        return array;
+    }
+
+    @Test
+    public void read() throws Exception {
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(types(), format);
+            PlistValue value = PropertyListSerialization.valueWithData(data, format);
+            assertEquals(PlistValue.Type.DICT, value.getType());
+            PlistDict root = (PlistDict) value;
+            assertEquals(PlistValue.Type.values().length, root.size());
+            for (PlistValue.Type type : PlistValue.Type.values())
+                assertEquals(type, root.get(type.name()).getType());
+
+            assertEquals("\u65e5\u672c", ((PlistString) root.get("STRING")).getValue());
+            assertEquals(Long.MIN_VALUE, ((PlistInteger) root.get("INTEGER")).getValue());
+            assertEquals(-2.5, ((PlistReal) root.get("REAL")).getValue(), 0);
+            assertSame(PlistBoolean.FALSE, root.get("BOOLEAN"));
+            assertEquals(1500000000.0, ((PlistDate) root.get("DATE")).getSeconds(), 0);
+            assertEquals(new Date(1500000000000L), ((PlistDate) root.get("DATE")).toDate());
+            assertArrayEquals(new byte[]{0, -1}, ((PlistData) root.get("DATA")).getBytes());
+            assertNull(root.get("missing"));
+
+            PlistArray array = (PlistArray) root.get("ARRAY");
+            assertEquals(2, array.size());
+            assertSame(PlistBoolean.TRUE, array.get(0));
+            assertEquals(new PlistInteger(7), array.get(1));
+            assertEquals(0, ((PlistDict) root.get("DICT")).size());
+
+            assertEquals(((HashMap<?, ?>) PropertyListSerialization.propertyListWithData(data, format)).keySet(),
+                ((HashMap<?, ?>) value.toPropertyList()).keySet());
+            assertEquals(Arrays.asList(true, 7L), array.toPropertyList());
+        }
+    }
+
+    @Test
+    public void write() throws Exception {
+        for (Format format : Format.values()) {
+            PlistValue value = PlistValue.of(nested());
+            byte[] data = PropertyListSerialization.dataWithValue(value, format);
+            assertEquals(value, PropertyListSerialization.valueWithData(data, format));
+            assertEquals(nested(), PropertyListSerialization.propertyListWithData(data, format));
+        }
+    }
+
+    @Test
+    public void writeBuilt() throws Exception {
+        LinkedHashMap<String, PlistValue> entries = new LinkedHashMap<>();
+        entries.put("b", new PlistInteger(1));
+        entries.put("a", PlistArray.of(Arrays.asList(new PlistReal(1.5), PlistBoolean.FALSE)));
+        byte[] data = PropertyListSerialization.dataWithValue(PlistDict.of(entries), Format.XML);
+        String xml = new String(data, "utf8");
+        assertTrue(xml.indexOf("<key>a</key>") < xml.indexOf("<key>b</key>"));
+        assertTrue(xml.contains("<real>1.5</real>"));
+        assertTrue(xml.contains("<false/>"));
+    }
+
+    @Test
+    public void nulls() {
+        try {
+            PlistArray.of(Arrays.asList(new PlistInteger(1), null));
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+        try {
+            PlistValue.of(Arrays.asList(1L, null));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void counts() throws Exception {
+        // More elements than are allocated up front from the declared count.
+        ArrayList<Object> array = new ArrayList<>();
+        for (int i = 0; i < 3000; i++)
+            array.add((long) i);
+        byte[] data = PropertyListSerialization.dataWithPropertyList(array, Format.Binary);
+        PlistArray value = (PlistArray) PropertyListSerialization.valueWithData(data, Format.Binary);
+        assertEquals(3000, value.size());
+        assertEquals(array, value.toPropertyList());
+
+        for (int objectType : new int[] {0xA, 0xD}) {
+            try {
+                PropertyListSerialization.valueWithData(ContainerFactoryTest.corruptCount(objectType), Format.Binary);
+                fail();
+            } catch (PropertyListReadStreamException e) {
+                assertTrue(e.getCause() instanceof UnsupportedOperationException);
+            }
+        }
+    }
+
+}
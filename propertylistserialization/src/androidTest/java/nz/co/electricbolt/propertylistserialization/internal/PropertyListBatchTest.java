@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * PropertyListBatchTest.java                                                  *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListBatch;
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListResult;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.PropertyListWriteStreamException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PropertyListBatchTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static HashMap<String, Object> checkIn(int i) {
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("device", "Device " + i);
+        dict.put("sequence", (long) i);
+        return dict;
+    }
+
+    @Test
+    public void parseAll() throws Exception {
+        for (Format format : Format.values()) {
+            ArrayList<byte[]> data = new ArrayList<>();
+            for (int i = 0; i < 500; i++)
+                data.add(PropertyListSerialization.dataWithPropertyList(checkIn(i), format));
+            data.set(123, new byte[]{1, 2, 3});
+
+            List<PropertyListResult<Object>> results = PropertyListBatch.parseAll(data, format, executor);
+            assertEquals(500, results.size());
+            for (int i = 0; i < 500; i++) {
+                PropertyListResult<Object> result = results.get(i);
+                if (i == 123) {
+                    assertFalse(result.isSuccess());
+                    assertNull(result.getValue());
+                    assertTrue(result.getException() instanceof PropertyListReadStreamException);
+                } else {
+                    assertTrue(result.isSuccess());
+                    assertEquals(checkIn(i), result.getValue());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void writeAllAsync() throws Exception {
+        ArrayList<Object> objs = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            objs.add(checkIn(i));
+        objs.add(new Object());
+
+        Future<List<PropertyListResult<byte[]>>> future = PropertyListBatch.writeAllAsync(objs, Format.Binary, executor);
+        List<PropertyListResult<byte[]>> results = future.get();
+        assertTrue(future.isDone());
+        assertEquals(101, results.size());
+        for (int i = 0; i < 100; i++)
+            assertArrayEquals(PropertyListSerialization.dataWithPropertyList(checkIn(i), Format.Binary), results.get(i).getValue());
+        assertTrue(results.get(100).getException() instanceof PropertyListWriteStreamException);
+    }
+
+    @Test
+    public void deeplyNested() throws Exception {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><plist version=\"1.0\">");
+        for (int i = 0; i < 200000; i++)
+            xml.append("<array>");
+        for (int i = 0; i < 200000; i++)
+            xml.append("</array>");
+        xml.append("</plist>");
+        ArrayList<byte[]> data = new ArrayList<>();
+        data.add(xml.toString().getBytes("UTF-8"));
+        data.add(PropertyListSerialization.dataWithPropertyList(checkIn(1), Format.XML));
+        data.add(PropertyListSerialization.dataWithPropertyList(checkIn(2), Format.XML));
+
+        // A single worker, which must survive the StackOverflowError.
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            List<PropertyListResult<Object>> results = PropertyListBatch.parseAll(data, Format.XML, single);
+            assertTrue(results.get(0).getException() instanceof PropertyListReadStreamException);
+            assertEquals(checkIn(1), results.get(1).getValue());
+            assertEquals(checkIn(2), results.get(2).getValue());
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+        assertTrue(PropertyListBatch.parseAll(Collections.<byte[]>emptyList(), Format.XML, executor).isEmpty());
+    }
+
+}
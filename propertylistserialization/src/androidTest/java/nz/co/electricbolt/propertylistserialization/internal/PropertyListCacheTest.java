@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * PropertyListCacheTest.java                                                  *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListCache;
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PropertyListCacheTest {
+
+    private static byte[] plist(String name, Format format) throws Exception {
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("name", name);
+        dict.put("count", 42L);
+        return PropertyListSerialization.dataWithPropertyList(dict, format);
+    }
+
+    @Test
+    public void hit() throws Exception {
+        PropertyListCache cache = new PropertyListCache(1024 * 1024);
+        for (Format format : Format.values()) {
+            byte[] data = plist("A", format);
+            Object first = cache.propertyListWithData(data, format);
+            Object second = cache.propertyListWithData(data.clone(), format);
+            assertSame(first, second);
+            assertEquals("A", ((Map) first).get("name"));
+            assertEquals(CompactMap.class, first.getClass());
+        }
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void modifiedInput() throws Exception {
+        PropertyListCache cache = new PropertyListCache(1024 * 1024);
+        byte[] data = plist("A", Format.Binary);
+        Object first = cache.propertyListWithData(data, Format.Binary);
+
+        // Entries are keyed by the digest of the bytes when read, so modifying the caller's array
+        // is a miss.
+        byte[] modified = plist("B", Format.Binary);
+        System.arraycopy(modified, 0, data, 0, data.length);
+        Object second = cache.propertyListWithData(data, Format.Binary);
+        assertNotSame(first, second);
+        assertEquals("B", ((Map) second).get("name"));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void immutableValues() throws Exception {
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("data", new byte[]{1, 2, 3});
+        dict.put("date", new Date(1500000000000L));
+        dict.put("list", Arrays.asList(new byte[]{4}, new Date(0)));
+        PropertyListCache cache = new PropertyListCache(1024 * 1024);
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(dict, format);
+            Map<?, ?> first = (Map<?, ?>) cache.propertyListWithData(data, format);
+            ((byte[]) first.get("data"))[0] = 9;
+            ((Date) first.get("date")).setTime(1);
+            List<?> list = (List<?>) first.get("list");
+            ((byte[]) list.get(0))[0] = 9;
+            ((Date) list.get(1)).setTime(1);
+            for (Map.Entry<?, ?> entry : first.entrySet()) {
+                if (entry.getValue() instanceof byte[])
+                    ((byte[]) entry.getValue())[1] = 9;
+            }
+
+            Map<?, ?> second = (Map<?, ?>) cache.propertyListWithData(data, format);
+            assertSame(first, second);
+            assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) second.get("data"));
+            assertEquals(new Date(1500000000000L), second.get("date"));
+            list = (List<?>) second.get("list");
+            assertArrayEquals(new byte[]{4}, (byte[]) list.get(0));
+            assertEquals(new Date(0), list.get(1));
+
+            // A root NSData is copied on each read.
+            data = PropertyListSerialization.dataWithPropertyList(new byte[]{5, 6}, format);
+            ((byte[]) cache.propertyListWithData(data, format))[0] = 9;
+            assertArrayEquals(new byte[]{5, 6}, (byte[]) cache.propertyListWithData(data, format));
+        }
+    }
+
+    @Test
+    public void eviction() throws Exception {
+        byte[] a = plist("A", Format.XML);
+        byte[] b = plist("B", Format.XML);
+        byte[] c = plist("C", Format.XML);
+        PropertyListCache cache = new PropertyListCache(a.length * 2);
+        cache.propertyListWithData(a, Format.XML);
+        cache.propertyListWithData(b, Format.XML);
+        cache.propertyListWithData(a, Format.XML); // a is now most recently used.
+        cache.propertyListWithData(c, Format.XML); // evicts b.
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+        assertEquals(a.length + c.length, cache.getWeight());
+
+        cache.propertyListWithData(a, Format.XML);
+        assertEquals(2, cache.getHitCount());
+        cache.propertyListWithData(b, Format.XML);
+        assertEquals(4, cache.getMissCount());
+
+        // Heavier than the maximum - read but not cached.
+        PropertyListCache small = new PropertyListCache(a.length - 1);
+        small.propertyListWithData(a, Format.XML);
+        assertEquals(0, small.size());
+    }
+
+    @Test
+    public void failure() throws Exception {
+        PropertyListCache cache = new PropertyListCache(1024);
+        try {
+            cache.propertyListWithData("not a property list".getBytes(), Format.XML);
+            fail();
+        } catch (PropertyListReadStreamException e) {
+            // expected
+        }
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void contentHash() {
+        byte[] data = new byte[37];
+        long hash = ContentHash.hash64(data);
+        assertEquals(hash, ContentHash.hash64(data.clone()));
+        assertNotEquals(hash, ContentHash.hash64(new byte[36]));
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 1;
+            assertNotEquals(hash, ContentHash.hash64(data));
+            data[i] = 0;
+        }
+        assertEquals(ContentHash.hash64(data, 1, 8), ContentHash.hash64(new byte[8]));
+    }
+
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * PropertyListFileCacheTest.java                                              *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListFileCache;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PropertyListFileCacheTest {
+
+    private File directory;
+    private File cacheDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("plist", "test");
+        assertTrue(directory.delete() && directory.mkdir());
+        cacheDirectory = new File(directory, "cache");
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    private static void write(File file, String name, Format format, long modified) throws Exception {
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("name", name);
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(PropertyListSerialization.dataWithPropertyList(dict, format));
+        } finally {
+            os.close();
+        }
+        assertTrue(file.setLastModified(modified));
+    }
+
+    private static String name(Object obj) {
+        return (String) ((Map) obj).get("name");
+    }
+
+    private File entry() {
+        File[] entries = cacheDirectory.listFiles();
+        if (entries == null || entries.length == 0)
+            return null;
+        assertEquals(1, entries.length);
+        return entries[0];
+    }
+
+    @Test
+    public void compiled() throws Exception {
+        File file = new File(directory, "test.plist");
+        write(file, "A", Format.XML, 1000000000000L);
+        PropertyListFileCache cache = new PropertyListFileCache(cacheDirectory);
+        assertEquals("A", name(cache.propertyListWithFile(file)));
+        File entry = entry();
+        assertTrue(entry.getName().endsWith(".bplc"));
+
+        // Same length and modification time - the entry is read rather than the file.
+        write(file, "B", Format.XML, 1000000000000L);
+        assertEquals("A", name(cache.propertyListWithFile(file)));
+
+        // Modified - the entry is rebuilt.
+        write(file, "B", Format.XML, 1000000002000L);
+        assertEquals("B", name(cache.propertyListWithFile(file)));
+        assertEquals("B", name(new PropertyListFileCache(cacheDirectory).propertyListWithFile(file)));
+
+        // Only the modification time changed - the entry is reused, with the new time.
+        long length = entry().length();
+        assertTrue(file.setLastModified(1000000004000L));
+        assertEquals("B", name(cache.propertyListWithFile(file)));
+        assertEquals(length, entry().length());
+
+        cache.invalidate(file);
+        assertEquals(null, entry());
+    }
+
+    @Test
+    public void corruptEntry() throws Exception {
+        File file = new File(directory, "test.plist");
+        write(file, "A", Format.XML, 1000000000000L);
+        PropertyListFileCache cache = new PropertyListFileCache(cacheDirectory);
+        cache.propertyListWithFile(file);
+        File entry = entry();
+        FileOutputStream os = new FileOutputStream(entry);
+        try {
+            os.write(new byte[64]);
+        } finally {
+            os.close();
+        }
+        assertEquals("A", name(cache.propertyListWithFile(file)));
+        assertTrue(entry().length() > 64);
+    }
+
+    @Test
+    public void corruptBody() throws Exception {
+        File file = new File(directory, "test.plist");
+        write(file, "A", Format.XML, 1000000000000L);
+        PropertyListFileCache cache = new PropertyListFileCache(cacheDirectory);
+        cache.propertyListWithFile(file);
+        File entry = entry();
+        long length = entry.length();
+        // Header intact, so the mapped body is read - but its trailer is garbage.
+        RandomAccessFile raf = new RandomAccessFile(entry, "rw");
+        try {
+            raf.seek(length - 32);
+            raf.write(new byte[] {-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+                -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1});
+        } finally {
+            raf.close();
+        }
+        assertEquals("A", name(cache.propertyListWithFile(file)));
+        assertEquals("A", name(new PropertyListFileCache(cacheDirectory).propertyListWithFile(file)));
+        assertEquals(length, entry().length());
+    }
+
+    @Test
+    public void binary() throws Exception {
+        File file = new File(directory, "test.plist");
+        write(file, "A", Format.Binary, 1000000000000L);
+        PropertyListFileCache cache = new PropertyListFileCache(cacheDirectory);
+        assertEquals("A", name(cache.propertyListWithFile(file)));
+        assertEquals(null, entry());
+        assertFalse(cacheDirectory.exists());
+    }
+
+}
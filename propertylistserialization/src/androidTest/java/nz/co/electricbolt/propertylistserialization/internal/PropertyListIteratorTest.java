@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * PropertyListIteratorTest.java                                               *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PersistentDict;
+import nz.co.electricbolt.propertylistserialization.PropertyListIterator;
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PropertyListIteratorTest {
+
+    private static class TrackedInputStream extends ByteArrayInputStream {
+        boolean closed;
+
+        TrackedInputStream(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    private static List<Object> records(int count) {
+        List<Object> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> record = new HashMap<>();
+            record.put("id", (long) i);
+            record.put("name", "Record " + i);
+            record.put("tags", Arrays.asList("a", "b"));
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static List<Object> drain(PropertyListIterator iterator) {
+        List<Object> result = new ArrayList<>();
+        while (iterator.hasNext())
+            result.add(iterator.next());
+        return result;
+    }
+
+    @Test
+    public void iterateXML() throws Exception {
+        List<Object> records = records(50);
+        TrackedInputStream is = new TrackedInputStream(PropertyListSerialization.dataWithPropertyList(records, Format.XML));
+        PropertyListIterator iterator = PropertyListSerialization.iterateArray(is, Format.XML);
+        assertFalse(is.closed);
+        assertEquals(records, drain(iterator));
+        assertTrue(is.closed);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void iterateBinary() throws Exception {
+        List<Object> records = records(50);
+        TrackedInputStream is = new TrackedInputStream(PropertyListSerialization.dataWithPropertyList(records, Format.Binary));
+        PropertyListIterator iterator = PropertyListSerialization.iterateArray(is, Format.Binary);
+        assertTrue(is.closed); // read in full up front.
+        assertEquals(records, drain(iterator));
+        try {
+            iterator.next();
+            fail();
+        } catch (NoSuchElementException nsee) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void emptyArray() throws Exception {
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(new ArrayList<>(), format);
+            assertFalse(PropertyListSerialization.iterateArray(new ByteArrayInputStream(data), format).hasNext());
+        }
+    }
+
+    @Test
+    public void factory() throws Exception {
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(records(3), format);
+            PropertyListIterator iterator = PropertyListSerialization.iterateArray(new ByteArrayInputStream(data), format, ContainerFactory.PERSISTENT);
+            Object first = iterator.next();
+            assertTrue(first instanceof PersistentDict);
+            assertEquals(records(1).get(0), first);
+        }
+    }
+
+    @Test
+    public void rootNotArray() throws Exception {
+        Map<String, Object> dict = new HashMap<>();
+        dict.put("key", "value");
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(dict, format);
+            TrackedInputStream is = new TrackedInputStream(data);
+            try {
+                PropertyListSerialization.iterateArray(is, format);
+                fail();
+            } catch (PropertyListReadStreamException e) {
+                // Expected.
+            }
+            assertTrue(is.closed);
+        }
+    }
+
+    @Test
+    public void closeEarly() throws Exception {
+        TrackedInputStream is = new TrackedInputStream(PropertyListSerialization.dataWithPropertyList(records(10), Format.XML));
+        PropertyListIterator iterator = PropertyListSerialization.iterateArray(is, Format.XML);
+        iterator.next();
+        iterator.close();
+        assertTrue(is.closed);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void corruptElement() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<plist version=\"1.0\">\n" +
+                "<array>\n" +
+                "\t<integer>1</integer>\n" +
+                "\t<unknown>2</unknown>\n" +
+                "</array>\n" +
+                "</plist>\n";
+        TrackedInputStream is = new TrackedInputStream(xml.getBytes("UTF-8"));
+        PropertyListIterator iterator = PropertyListSerialization.iterateArray(is, Format.XML);
+        assertEquals(1L, iterator.next());
+        try {
+            iterator.next();
+            fail();
+        } catch (IllegalStateException ise) {
+            assertTrue(ise.getCause() instanceof PropertyListReadStreamException);
+        }
+        assertTrue(is.closed);
+        assertFalse(iterator.hasNext());
+    }
+
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * PropertyListPackTest.java                                                   *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListPack;
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PropertyListPackTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("plist", ".pack");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static Map<String, Object> device(int i) {
+        Map<String, Object> device = new HashMap<>();
+        device.put("model", "Model " + (i % 5));
+        device.put("serial", (long) i);
+        device.put("tags", Arrays.asList("shared", "device " + i));
+        return device;
+    }
+
+    private static Map<String, Object> devices(int from, int to) {
+        Map<String, Object> devices = new HashMap<>();
+        for (int i = from; i < to; i++)
+            devices.put(String.format("device-%05d", i), device(i));
+        return devices;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void writeAndGet() throws Exception {
+        Map<String, Object> devices = devices(0, 1000);
+        PropertyListPack.write(file, devices);
+        PropertyListPack pack = PropertyListPack.open(file);
+        assertEquals(1000, pack.size());
+        assertEquals("device-00000", pack.idAt(0));
+        assertEquals("device-00999", pack.idAt(999));
+        assertEquals(device(123), pack.get("device-00123"));
+        assertEquals(device(999), pack.get("device-00999"));
+        assertNull(pack.get("device-01000"));
+        assertEquals(-1, pack.indexOf("a"));
+        assertFalse(pack.contains("device-1"));
+
+        // Strings are shared between entries.
+        String contents = new String(read(file), "ISO-8859-1");
+        assertEquals(contents.indexOf("shared"), contents.lastIndexOf("shared"));
+        assertEquals(contents.indexOf("Model 3"), contents.lastIndexOf("Model 3"));
+
+        // A pack is a binary plist of all entries.
+        assertEquals(devices, PropertyListSerialization.propertyListWithData(read(file), Format.Binary));
+    }
+
+    @Test
+    public void appendAndCompact() throws Exception {
+        PropertyListPack.write(file, devices(0, 100));
+        PropertyListPack before = PropertyListPack.open(file);
+
+        Map<String, Object> batch = devices(50, 150);
+        batch.put("device-00010", "replaced");
+        PropertyListPack.append(file, batch);
+
+        Map<String, Object> expected = new TreeMap<>(devices(0, 150));
+        expected.put("device-00010", "replaced");
+        PropertyListPack pack = PropertyListPack.open(file);
+        assertEquals(150, pack.size());
+        assertEquals("replaced", pack.get("device-00010"));
+        assertEquals(device(149), pack.get("device-00149"));
+        assertEquals(expected, PropertyListSerialization.propertyListWithData(read(file), Format.Binary));
+
+        // Existing packs continue to read the version opened.
+        assertEquals(100, before.size());
+        assertEquals(device(10), before.get("device-00010"));
+
+        long length = pack.getLength();
+        PropertyListPack.compact(file);
+        pack = PropertyListPack.open(file);
+        assertTrue(pack.getLength() < length);
+        assertEquals(150, pack.size());
+        for (int i = 0; i < pack.size(); i++)
+            assertEquals(expected.get(pack.idAt(i)), pack.get(pack.idAt(i)));
+    }
+
+    @Test
+    public void interruptedAppend() throws Exception {
+        PropertyListPack.write(file, devices(0, 10));
+        long length = PropertyListPack.open(file).getLength();
+        FileOutputStream os = new FileOutputStream(file, true);
+        try {
+            os.write(new byte[100]);
+        } finally {
+            os.close();
+        }
+        PropertyListPack pack = PropertyListPack.open(file);
+        assertEquals(length, pack.getLength());
+        assertEquals(device(3), pack.get("device-00003"));
+
+        PropertyListPack.append(file, devices(10, 20));
+        pack = PropertyListPack.open(file);
+        assertEquals(20, pack.size());
+        assertEquals(device(15), pack.get("device-00015"));
+        assertEquals(device(5), pack.get("device-00005"));
+    }
+
+    @Test
+    public void builder() throws Exception {
+        PropertyListPack.write(file, devices(0, 10));
+        PropertyListPack.Builder builder = PropertyListPack.builder(file);
+        for (int i = 499; i >= 0; i--)
+            builder.put(String.format("device-%05d", i), device(i));
+        builder.put("device-00007", "replaced");
+        // The existing file is unchanged until finish().
+        assertEquals(10, PropertyListPack.open(file).size());
+        builder.finish();
+        builder.abort();
+
+        Map<String, Object> expected = new TreeMap<String, Object>(devices(0, 500));
+        expected.put("device-00007", "replaced");
+        PropertyListPack pack = PropertyListPack.open(file);
+        assertEquals(500, pack.size());
+        assertEquals("device-00000", pack.idAt(0));
+        assertEquals("replaced", pack.get("device-00007"));
+        assertEquals(expected, PropertyListSerialization.propertyListWithData(read(file), Format.Binary));
+
+        builder = PropertyListPack.builder(file);
+        builder.put("other", device(1));
+        builder.abort();
+        assertEquals(500, PropertyListPack.open(file).size());
+        // The temporary file is deleted.
+        for (File f : file.getAbsoluteFile().getParentFile().listFiles())
+            assertFalse(f.getName().startsWith(file.getName()) && f.getName().endsWith(".tmp"));
+    }
+
+    @Test
+    public void appendInterleaved() throws Exception {
+        // New ids before, between, after and equal to existing ids.
+        Map<String, Object> expected = new TreeMap<String, Object>();
+        Map<String, Object> first = new HashMap<>();
+        for (int i = 10; i < 100; i += 10)
+            first.put(String.format("device-%05d", i), device(i));
+        PropertyListPack.write(file, first);
+        expected.putAll(first);
+        for (int round = 0; round < 5; round++) {
+            Map<String, Object> batch = new HashMap<>();
+            for (int i = round; i < 120; i += 7)
+                batch.put(String.format("device-%05d", i), device(i + round));
+            PropertyListPack.append(file, batch);
+            expected.putAll(batch);
+        }
+        PropertyListPack pack = PropertyListPack.open(file);
+        assertEquals(expected.size(), pack.size());
+        int index = 0;
+        for (Map.Entry<String, Object> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), pack.idAt(index++));
+            assertEquals(entry.getValue(), pack.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void notAPack() throws Exception {
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(PropertyListSerialization.dataWithPropertyList(device(0), Format.Binary));
+        } finally {
+            os.close();
+        }
+        try {
+            PropertyListPack.open(file);
+            fail();
+        } catch (PropertyListReadStreamException e) {
+            // expected
+        }
+
+        file.delete();
+        PropertyListPack.append(file, devices(0, 3));
+        assertEquals(3, PropertyListPack.open(file).size());
+    }
+
+}
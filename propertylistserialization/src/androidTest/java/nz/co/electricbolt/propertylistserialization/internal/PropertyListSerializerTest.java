@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * PropertyListSerializerTest.java                                             *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerializer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PropertyListSerializerTest {
+
+    // The same child dict twice, so interned keys are shared; 0.1 differs between real modes.
+    private static HashMap<String, Object> sharedChild() {
+        HashMap<String, Object> child = new HashMap<>();
+        child.put("name", "Child");
+        child.put("ratio", 0.1);
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("name", "Root");
+        dict.put("children", Arrays.asList(child, child));
+        return dict;
+    }
+
+    @Test
+    public void defaults() throws Exception {
+        PropertyListSerializer serializer = PropertyListSerializer.DEFAULT;
+        assertEquals(Format.XML, serializer.getFormat());
+        assertSame(ContainerFactory.DEFAULT, serializer.getContainerFactory());
+        for (Format format : Format.values()) {
+            byte[] data = serializer.dataWithPropertyList(sharedChild(), format);
+            assertArrayEquals(PropertyListSerialization.dataWithPropertyList(sharedChild(), format), data);
+            assertEquals(sharedChild(), serializer.propertyListWithData(data, format));
+        }
+    }
+
+    @Test
+    public void configured() throws Exception {
+        PropertyListSerializer serializer = new PropertyListSerializer.Builder()
+            .setFormat(Format.Binary)
+            .setContainerFactory(ContainerFactory.ORDERED)
+            .setRealMode(PropertyListSerializer.RealMode.CF)
+            .build();
+        byte[] data = serializer.dataWithPropertyList(sharedChild());
+        assertArrayEquals(PropertyListSerialization.dataWithPropertyList(sharedChild(), Format.Binary), data);
+        assertTrue(serializer.propertyListWithData(data) instanceof LinkedHashMap);
+        assertTrue(serializer.propertyListWithData(new ByteArrayInputStream(data)) instanceof LinkedHashMap);
+
+        String xml = new String(serializer.dataWithPropertyList(sharedChild(), Format.XML), "utf8");
+        assertTrue(xml.contains("<real>0.10000000000000001</real>"));
+
+        PropertyListSerializer copy = new PropertyListSerializer.Builder(serializer).setFormat(Format.XML).build();
+        assertEquals(Format.XML, copy.getFormat());
+        assertSame(ContainerFactory.ORDERED, copy.getContainerFactory());
+        assertEquals(PropertyListSerializer.RealMode.CF, copy.getRealMode());
+    }
+
+    @Test
+    public void limits() throws Exception {
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(sharedChild(), format);
+            assertLimited(new PropertyListSerializer.Builder().setMaxLength(data.length - 1).build(), data, format);
+            assertLimited(new PropertyListSerializer.Builder().setMaxDepth(2).build(), data, format);
+            assertLimited(new PropertyListSerializer.Builder().setMaxObjects(8).build(), data, format);
+
+            PropertyListSerializer serializer = new PropertyListSerializer.Builder()
+                .setMaxLength(data.length)
+                .setMaxDepth(3)
+                .setMaxObjects(9)
+                .build();
+            assertEquals(sharedChild(), serializer.propertyListWithData(data, format));
+            assertEquals(sharedChild(), serializer.propertyListWithData(new ByteArrayInputStream(data), format));
+        }
+        try {
+            new PropertyListSerializer.Builder().setMaxDepth(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertLimited(PropertyListSerializer serializer, byte[] data, Format format) {
+        try {
+            serializer.propertyListWithData(data, format);
+            fail();
+        } catch (PropertyListReadStreamException e) {
+            // expected
+        }
+        try {
+            serializer.propertyListWithData(new ByteArrayInputStream(data), format);
+            fail();
+        } catch (PropertyListReadStreamException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void internKeys() throws Exception {
+        PropertyListSerializer serializer = new PropertyListSerializer.Builder().setInternKeys(true).build();
+        byte[] data = PropertyListSerialization.dataWithPropertyList(sharedChild(), Format.XML);
+        Map<?, ?> first = (Map<?, ?>) serializer.propertyListWithData(data);
+        Map<?, ?> second = (Map<?, ?>) serializer.propertyListWithData(data);
+        assertEquals(sharedChild(), first);
+        assertSame(keyOf(first, "name"), keyOf(second, "name"));
+        Map<?, ?> child = (Map<?, ?>) ((List<?>) second.get("children")).get(1);
+        assertSame(keyOf(first, "name"), keyOf(child, "name"));
+    }
+
+    private static Object keyOf(Map<?, ?> map, String key) {
+        for (Object k : map.keySet()) {
+            if (k.equals(key))
+                return k;
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * PropertyListUpdaterTest.java                                                *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListReadStreamException;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.PropertyListUpdater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PropertyListUpdaterTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("plist", ".bplist");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static Map<String, Object> payload(String name, long size) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("name", name);
+        payload.put("size", size);
+        return payload;
+    }
+
+    private static Map<String, Object> document(int count) {
+        List<Object> payloads = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            payloads.add(payload("Payload " + i, i));
+        Map<String, Object> dict = new HashMap<>();
+        dict.put("Payload", payloads);
+        dict.put("version", 1L);
+        dict.put("enabled", true);
+        return dict;
+    }
+
+    private void write(Object obj) throws Exception {
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(PropertyListSerialization.dataWithPropertyList(obj, Format.Binary));
+        } finally {
+            os.close();
+        }
+    }
+
+    private byte[] read() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private Object parse() throws Exception {
+        return PropertyListSerialization.propertyListWithData(read(), Format.Binary);
+    }
+
+    @Test
+    public void setAndRemove() throws Exception {
+        Map<String, Object> expected = document(100);
+        write(expected);
+        byte[] original = read();
+
+        PropertyListUpdater updater = PropertyListUpdater.open(file);
+        updater.setCompactionThreshold(1);
+        updater.set(Arrays.asList("Payload", 3, "size"), 33L);
+        updater.set(Collections.singletonList("version"), 2L);
+        updater.set(Collections.singletonList("added"), Arrays.asList("a", "b"));
+        updater.remove(Collections.singletonList("enabled"));
+        updater.remove(Arrays.asList("Payload", 99));
+        updater.commit();
+
+        ((Map<String, Object>) ((List<Object>) expected.get("Payload")).get(3)).put("size", 33L);
+        expected.put("version", 2L);
+        expected.put("added", Arrays.asList("a", "b"));
+        expected.remove("enabled");
+        ((List<Object>) expected.get("Payload")).remove(99);
+        assertEquals(expected, parse());
+
+        // The original objects are not moved or overwritten.
+        byte[] updated = read();
+        assertEquals(updated.length, updater.getLength());
+        assertArrayEquals(Arrays.copyOf(original, original.length - 32), Arrays.copyOf(updated, original.length - 32));
+        assertTrue(updater.getWastedBytes() > 0);
+
+        updater.set(Collections.<Object>emptyList(), "root");
+        updater.close();
+        assertEquals("root", parse());
+    }
+
+    @Test
+    public void compact() throws Exception {
+        Map<String, Object> expected = document(100);
+        write(expected);
+
+        PropertyListUpdater updater = PropertyListUpdater.open(file);
+        updater.setCompactionThreshold(1);
+        for (int i = 0; i < 20; i++)
+            updater.set(Arrays.asList("Payload", i, "name"), "Renamed " + i);
+        updater.commit();
+        long length = updater.getLength();
+        assertTrue(updater.getWastedBytes() > 0);
+
+        updater.compact();
+        assertTrue(updater.getLength() < length);
+        assertEquals(0, updater.getWastedBytes());
+        updater.set(Collections.singletonList("version"), 3L);
+        updater.close();
+
+        for (int i = 0; i < 20; i++)
+            ((Map<String, Object>) ((List<Object>) expected.get("Payload")).get(i)).put("name", "Renamed " + i);
+        expected.put("version", 3L);
+        assertEquals(expected, parse());
+    }
+
+    @Test
+    public void compactionThreshold() throws Exception {
+        write(document(4));
+        PropertyListUpdater updater = PropertyListUpdater.open(file);
+        updater.setCompactionThreshold(0);
+        updater.set(Arrays.asList("Payload", 0, "size"), 10L);
+        updater.commit();
+        assertEquals(0, updater.getWastedBytes());
+        assertEquals(read().length, updater.getLength());
+        updater.close();
+        assertEquals(10L, ((Map) ((List) ((Map) parse()).get("Payload")).get(0)).get("size"));
+    }
+
+    @Test
+    public void objectReferenceOverflow() throws Exception {
+        // Few objects, so one byte object references - the updater must rewrite the file.
+        write(document(2));
+        List<Object> large = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+            large.add("Element " + i);
+        PropertyListUpdater updater = PropertyListUpdater.open(file);
+        updater.set(Collections.singletonList("large"), large);
+        updater.close();
+        assertEquals(large, ((Map) parse()).get("large"));
+    }
+
+    @Test
+    public void uncommitted() throws Exception {
+        write(document(10));
+        byte[] original = read();
+        PropertyListUpdater updater = PropertyListUpdater.open(file);
+        updater.set(Arrays.asList("Payload", 3, "size"), 33L);
+        updater.remove(Collections.singletonList("enabled"));
+        // Dropped without commit() or close().
+        assertArrayEquals(original, read());
+        assertEquals(document(10), parse());
+
+        updater = PropertyListUpdater.open(file);
+        updater.set(Collections.singletonList("version"), 2L);
+        updater.close();
+        Map<String, Object> expected = document(10);
+        expected.put("version", 2L);
+        assertEquals(expected, parse());
+    }
+
+    @Test
+    public void interruptedCommit() throws Exception {
+        write(document(10));
+        PropertyListUpdater updater = PropertyListUpdater.open(file);
+        updater.setCompactionThreshold(1);
+        updater.set(Collections.singletonList("version"), 2L);
+        updater.close();
+        byte[] committed = read();
+
+        // Part of a second commit.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length());
+            raf.write(Arrays.copyOf(committed, 100));
+        } finally {
+            raf.close();
+        }
+
+        updater = PropertyListUpdater.open(file);
+        assertEquals(committed.length, updater.getLength());
+        assertArrayEquals(committed, read());
+        updater.set(Collections.singletonList("version"), 3L);
+        updater.close();
+        Map<String, Object> expected = document(10);
+        expected.put("version", 3L);
+        assertEquals(expected, parse());
+    }
+
+    @Test
+    public void wastedBytesRecorded() throws Exception {
+        write(document(100));
+        PropertyListUpdater updater = PropertyListUpdater.open(file);
+        updater.setCompactionThreshold(1);
+        for (int i = 0; i < 10; i++)
+            updater.set(Arrays.asList("Payload", i, "name"), "Renamed " + i);
+        updater.close();
+        long wasted = updater.getWastedBytes();
+        assertTrue(wasted > 0);
+
+        // Read from the trailer, rather than measured again.
+        updater = PropertyListUpdater.open(file);
+        assertEquals(wasted, updater.getWastedBytes());
+        updater.close();
+    }
+
+    @Test
+    public void invalid() throws Exception {
+        write(document(2));
+        PropertyListUpdater updater = PropertyListUpdater.open(file);
+        try {
+            updater.set(Arrays.asList("Payload", 2, "size"), 1L);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            updater.remove(Collections.singletonList("missing"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        updater.close();
+        assertEquals(document(2), parse());
+
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(PropertyListSerialization.dataWithPropertyList(document(2), Format.XML));
+        } finally {
+            os.close();
+        }
+        try {
+            PropertyListUpdater.open(file);
+            fail();
+        } catch (PropertyListReadStreamException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * RealFormatterTest.java                                                      *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class RealFormatterTest {
+
+    private static String shortest(double d) {
+        return RealFormatter.toString(d, RealFormatter.Mode.Shortest);
+    }
+
+    private static String shortest(float f) {
+        return RealFormatter.toString(f, RealFormatter.Mode.Shortest);
+    }
+
+    private static String cf(double d) {
+        return RealFormatter.toString(d, RealFormatter.Mode.CF);
+    }
+
+    private static String cf(float f) {
+        return RealFormatter.toString(f, RealFormatter.Mode.CF);
+    }
+
+    @Test
+    public void shortestDouble() throws Exception {
+        assertEquals("0", shortest(0.0d));
+        assertEquals("-0", shortest(-0.0d));
+        assertEquals("1", shortest(1.0d));
+        assertEquals("42.5", shortest(42.5d));
+        assertEquals("-42.5", shortest(-42.5d));
+        assertEquals("0.1", shortest(0.1d));
+        assertEquals("0.3", shortest(0.3d));
+        assertEquals("28.346457", shortest(28.346457d));
+        assertEquals("0.6666666666666666", shortest(2.0d / 3.0d));
+        assertEquals("0.0001", shortest(1e-4d));
+        assertEquals("1e-05", shortest(1e-5d));
+        assertEquals("10000000", shortest(1e7d));
+        assertEquals("10000000000000000", shortest(1e16d));
+        assertEquals("1e+17", shortest(1e17d));
+        assertEquals("1e+23", shortest(1e23d));
+        assertEquals("1.7976931348623157e+308", shortest(Double.MAX_VALUE));
+        assertEquals("4.9e-324", shortest(Double.MIN_VALUE));
+        assertEquals("2.2250738585072014e-308", shortest(Double.MIN_NORMAL));
+    }
+
+    @Test
+    public void shortestFloat() throws Exception {
+        assertEquals("0", shortest(0.0f));
+        assertEquals("1.1", shortest(1.1f));
+        assertEquals("42.5", shortest(42.5f));
+        assertEquals("0.3", shortest(0.3f));
+        assertEquals("3.4028235e+38", shortest(Float.MAX_VALUE));
+        assertEquals("1.4e-45", shortest(Float.MIN_VALUE));
+    }
+
+    @Test
+    public void cfDouble() throws Exception {
+        assertEquals("0.0", cf(0.0d));
+        assertEquals("0.0", cf(-0.0d));
+        assertEquals("1", cf(1.0d));
+        assertEquals("42.5", cf(42.5d));
+        assertEquals("0.10000000000000001", cf(0.1d));
+        assertEquals("0.29999999999999999", cf(0.3d));
+        assertEquals("28.346457000000001", cf(28.346457d));
+        assertEquals("0.66666666666666663", cf(2.0d / 3.0d));
+        assertEquals("1.0000000000000001e-05", cf(1e-5d));
+        assertEquals("9.9999999999999992e+22", cf(1e23d));
+        assertEquals("1.7976931348623157e+308", cf(Double.MAX_VALUE));
+        assertEquals("4.9406564584124654e-324", cf(Double.MIN_VALUE));
+        assertEquals("2.2250738585072009e-308", cf(2.2250738585072009E-308d));
+    }
+
+    @Test
+    public void cfFloat() throws Exception {
+        // Floats are widened to double, as NSNumber does.
+        assertEquals("1.1000000238418579", cf(1.1f));
+        assertEquals("42.5", cf(42.5f));
+        assertEquals("0.0", cf(0.0f));
+        assertEquals("0.0", cf(-0.0f));
+    }
+
+    @Test
+    public void special() throws Exception {
+        assertEquals("nan", shortest(Double.NaN));
+        assertEquals("+infinity", shortest(Double.POSITIVE_INFINITY));
+        assertEquals("-infinity", cf(Double.NEGATIVE_INFINITY));
+        assertEquals("nan", cf(Float.NaN));
+        assertEquals("+infinity", shortest(Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Random random = new Random(2018);
+        for (int i = 0; i < 100000; i++) {
+            double d = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(d))
+                continue;
+            assertEquals(d, RealFormatter.parse(shortest(d)), 0.0);
+            assertEquals(d, RealFormatter.parse(cf(d)), 0.0);
+            float f = Float.intBitsToFloat(random.nextInt());
+            if (Float.isNaN(f))
+                continue;
+            assertEquals(f, Float.parseFloat(shortest(f)), 0.0);
+        }
+    }
+
+    @Test
+    public void parse() throws Exception {
+        assertEquals(42.5d, RealFormatter.parse("42.5"), 0.0);
+        assertEquals(1e-5d, RealFormatter.parse("1e-05"), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, RealFormatter.parse("+infinity"), 0.0);
+        assertEquals(Double.NEGATIVE_INFINITY, RealFormatter.parse("-infinity"), 0.0);
+        assertEquals(Double.NaN, RealFormatter.parse("nan"), 0.0);
+        try {
+            RealFormatter.parse("forty two");
+            fail("Should have thrown number format exception");
+        } catch (NumberFormatException nfe) {
+        }
+    }
+
+}
@@ -12,8 +12,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -7031,4 +7033,44 @@ public class RealworldTest {
         // The newly generated plist output from dataWithPropertyList should exactly match the template string.
         assertEquals(combinedTemplate, newStr);
     }
-}
\ No newline at end of file
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void com_panic_Coda2_Convert() throws Exception {
+        // Combine the template strings together (one constant string is too large for Java to handle).
+        String combinedTemplate = template + template2 + template3 + template4 + template5 + template6 + template7;
+
+        byte[] combinedBuf = combinedTemplate.getBytes();
+        // Convert the XML plist directly into a binary plist.
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        PropertyListSerialization.convert(new ByteArrayInputStream(combinedBuf), PropertyListSerialization.Format.XML, binary, PropertyListSerialization.Format.Binary);
+
+        // The binary plist should contain the same object graph.
+        HashMap rootDict = (HashMap) PropertyListSerialization.propertyListWithData(new ByteArrayInputStream(combinedBuf), PropertyListSerialization.Format.XML);
+        assertEquals(rootDict.keySet(), ((HashMap) PropertyListSerialization.propertyListWithData(binary.toByteArray(), PropertyListSerialization.Format.Binary)).keySet());
+
+        // Convert the binary plist directly back into an XML plist.
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        PropertyListSerialization.convert(ByteBuffer.wrap(binary.toByteArray()), PropertyListSerialization.Format.Binary, xml, PropertyListSerialization.Format.XML);
+        assertEquals(combinedTemplate, xml.toString("utf8"));
+
+        // XML to XML.
+        xml = new ByteArrayOutputStream();
+        PropertyListSerialization.convert(ByteBuffer.wrap(combinedBuf), PropertyListSerialization.Format.XML, xml, PropertyListSerialization.Format.XML);
+        assertEquals(combinedTemplate, xml.toString("utf8"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void iOSAppBinaryPlistConvert() throws Exception {
+        String template = "62706c6973743030d30102030405065f101655494c61756e636853746f7279626f6172644e616d655f1015434642756e646c65446f63756d656e7454797065735d434642756e646c6549636f6e735c4c61756e636853637265656ea1d0d0d0080f2836444547480000000000000101000000000000000a00000000000000000000000000000049";
+        // Unsorted dictionary keys, and empty dictionaries.
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        PropertyListSerialization.convert(new ByteArrayInputStream(bytes(template)), PropertyListSerialization.Format.Binary, xml, PropertyListSerialization.Format.XML);
+
+        Object graph = PropertyListSerialization.propertyListWithData(bytes(template), PropertyListSerialization.Format.Binary);
+        byte[] expected = PropertyListSerialization.dataWithPropertyList(graph, PropertyListSerialization.Format.XML);
+        assertEquals(new String(expected, "utf8"), xml.toString("utf8"));
+    }
+
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * ShapeMapTest.java                                                           *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class ShapeMapTest {
+
+    @Test
+    public void shapes() throws Exception {
+        ArrayList<Object> records = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            HashMap<String, Object> record = new HashMap<>();
+            record.put("id", (long) i);
+            record.put("name", "Record " + i);
+            if (i % 2 == 0)
+                record.put("extra", true);
+            records.add(record);
+        }
+
+        for (Format format : Format.values()) {
+            byte[] data = PropertyListSerialization.dataWithPropertyList(records, format);
+            List<?> parsed = (List<?>) PropertyListSerialization.propertyListWithData(data, format, ContainerFactory.SHAPED);
+            assertEquals(records, parsed);
+
+            ShapeMap even = (ShapeMap) parsed.get(0);
+            ShapeMap odd = (ShapeMap) parsed.get(1);
+            assertTrue(even.sameShape((ShapeMap) parsed.get(8)));
+            assertTrue(odd.sameShape((ShapeMap) parsed.get(9)));
+            assertFalse(even.sameShape(odd));
+
+            assertEquals(3, even.size());
+            assertEquals("Record 0", even.get("name"));
+            assertTrue(even.containsKey("extra"));
+            assertFalse(odd.containsKey("extra"));
+            assertNull(odd.get("extra"));
+            assertNull(odd.get(1));
+            assertEquals(records.get(1).hashCode(), odd.hashCode());
+        }
+    }
+
+    @Test
+    public void unreachableShapesRemoved() throws Exception {
+        ArrayList<ShapeMap> maps = new ArrayList<>();
+        for (int i = 0; i < ShapeMap.MAX_SHAPES; i++) {
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("unreachable" + i, 1L);
+            maps.add(ShapeMap.copyOf(map));
+        }
+        assertTrue(ShapeMap.shapeCount() >= ShapeMap.MAX_SHAPES);
+        maps.clear();
+        for (int i = 0; i < 50 && ShapeMap.shapeCount() >= ShapeMap.MAX_SHAPES; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(ShapeMap.shapeCount() < ShapeMap.MAX_SHAPES);
+
+        // New key sets are shared again.
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("reachable", 1L);
+        assertTrue(ShapeMap.copyOf(map).sameShape(ShapeMap.copyOf(map)));
+    }
+
+    @Test
+    public void immutable() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("a", 1L);
+        Map<String, Object> shaped = ShapeMap.copyOf(map);
+        try {
+            shaped.put("b", 2L);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals(map, shaped);
+    }
+
+}
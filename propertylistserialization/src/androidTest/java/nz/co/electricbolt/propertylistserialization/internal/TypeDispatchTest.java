@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * TypeDispatchTest.java                                                       *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListEncoder;
+import nz.co.electricbolt.propertylistserialization.PropertyListFragment;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.PropertyListWriteStreamException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class TypeDispatchTest {
+
+    @After
+    public void tearDown() {
+        PropertyListSerialization.registerEncoder(UUID.class, null);
+        PropertyListSerialization.registerEncoder(Number.class, null);
+        PropertyListSerialization.registerEncoder(Set.class, null);
+    }
+
+    @Test
+    public void kinds() {
+        assertEquals(TypeDispatch.STRING, TypeDispatch.kindOf("s"));
+        assertEquals(TypeDispatch.INTEGER, TypeDispatch.kindOf(1));
+        assertEquals(TypeDispatch.INTEGER, TypeDispatch.kindOf(1L));
+        assertEquals(TypeDispatch.FLOAT, TypeDispatch.kindOf(1f));
+        assertEquals(TypeDispatch.DOUBLE, TypeDispatch.kindOf(1d));
+        assertEquals(TypeDispatch.BOOLEAN, TypeDispatch.kindOf(true));
+        assertEquals(TypeDispatch.DATE, TypeDispatch.kindOf(new Date()));
+        assertEquals(TypeDispatch.DATA, TypeDispatch.kindOf(new byte[0]));
+        assertEquals(TypeDispatch.MAP, TypeDispatch.kindOf(new HashMap<>()));
+        assertEquals(TypeDispatch.LIST, TypeDispatch.kindOf(new ArrayList<>()));
+        assertEquals(TypeDispatch.COLLECTION, TypeDispatch.kindOf(new LinkedHashSet<>()));
+        assertEquals(TypeDispatch.ARRAY, TypeDispatch.kindOf(new int[0]));
+        assertEquals(TypeDispatch.ENUM, TypeDispatch.kindOf(Format.XML));
+        assertEquals(TypeDispatch.BOUND, TypeDispatch.kindOf(new ObjectBinderTest.Small()));
+        assertEquals(TypeDispatch.OTHER, TypeDispatch.kindOf(UUID.randomUUID()));
+        assertEquals(TypeDispatch.OTHER, TypeDispatch.kindOf(null));
+    }
+
+    static class Node {
+        String name;
+        Object next;
+    }
+
+    @Test
+    public void writers() throws Exception {
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("short", (short) 7);
+        dict.put("set", new LinkedHashSet<>(Arrays.asList("a", "b")));
+        dict.put("ints", new int[] {1, 2});
+        dict.put("strings", new String[] {"c", "d"});
+        dict.put("format", Format.Binary);
+
+        HashMap<String, Object> expected = new HashMap<>();
+        expected.put("short", 7L);
+        expected.put("set", Arrays.asList("a", "b"));
+        expected.put("ints", Arrays.asList(1L, 2L));
+        expected.put("strings", Arrays.asList("c", "d"));
+        expected.put("format", "Binary");
+
+        // dataWithPropertyList() and write() accept the same types, with the same result.
+        for (Format format : Format.values()) {
+            assertEquals(expected, PropertyListSerialization.propertyListWithData(
+                PropertyListSerialization.dataWithPropertyList(dict, format), format));
+            assertEquals(expected, PropertyListSerialization.propertyListWithData(
+                PropertyListSerialization.write(dict, format), format));
+        }
+    }
+
+    @Test
+    public void keys() throws Exception {
+        HashMap<Object, Object> dict = new HashMap<>();
+        dict.put(Format.XML, "xml");
+        for (Format format : Format.values()) {
+            try {
+                PropertyListSerialization.dataWithPropertyList(dict, format);
+                fail();
+            } catch (PropertyListWriteStreamException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            try {
+                PropertyListSerialization.write(dict, format);
+                fail();
+            } catch (PropertyListWriteStreamException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        try {
+            new PropertyListFragment(dict);
+            fail();
+        } catch (PropertyListWriteStreamException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void boundObjects() throws Exception {
+        Node node = new Node();
+        node.name = "Node";
+        Map<String, Object> dict = Collections.<String, Object>singletonMap("node", node);
+        Map<String, Object> expected = Collections.<String, Object>singletonMap("node",
+            Collections.<String, Object>singletonMap("name", "Node"));
+        for (Format format : Format.values()) {
+            // Fields are only reflected by write().
+            assertEquals(expected, PropertyListSerialization.propertyListWithData(
+                PropertyListSerialization.write(dict, format), format));
+            try {
+                PropertyListSerialization.dataWithPropertyList(dict, format);
+                fail();
+            } catch (PropertyListWriteStreamException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+
+        // Cycles.
+        node.next = node;
+        ArrayList<Object> array = new ArrayList<>();
+        array.add(array);
+        for (Object cyclic : new Object[] {node, array}) {
+            for (Format format : Format.values()) {
+                try {
+                    PropertyListSerialization.write(cyclic, format);
+                    fail();
+                } catch (PropertyListWriteStreamException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+        }
+
+        // Shared, rather than cyclic, objects are written in each place.
+        node.next = null;
+        array.clear();
+        array.add(node);
+        array.add(node);
+        assertEquals(Arrays.asList(expected.get("node"), expected.get("node")), PropertyListSerialization.propertyListWithData(
+            PropertyListSerialization.write(array, Format.Binary), Format.Binary));
+    }
+
+    @Test
+    public void encoders() throws Exception {
+        UUID uuid = UUID.fromString("3b241101-e2bb-4255-8caf-4136c566a962");
+        HashMap<String, Object> dict = new HashMap<>();
+        dict.put("id", uuid);
+        dict.put("amount", new BigDecimal("12.50"));
+        dict.put("tags", new LinkedHashSet<>(Arrays.asList("a", "b")));
+        dict.put("count", 3);
+
+        try {
+            PropertyListSerialization.dataWithPropertyList(dict, Format.XML);
+            fail();
+        } catch (PropertyListWriteStreamException e) {
+            // expected
+        }
+
+        PropertyListSerialization.registerEncoder(UUID.class, new PropertyListEncoder<UUID>() {
+            @Override
+            public Object encode(UUID value) {
+                return value.toString();
+            }
+        });
+        // Registered against a superclass - Integer is natively supported, so unaffected.
+        PropertyListSerialization.registerEncoder(Number.class, new PropertyListEncoder<Number>() {
+            @Override
+            public Object encode(Number value) {
+                return value.toString();
+            }
+        });
+        // Registered against an interface.
+        PropertyListSerialization.registerEncoder(Set.class, new PropertyListEncoder<Set>() {
+            @Override
+            public Object encode(Set value) {
+                return new ArrayList<Object>(value);
+            }
+        });
+
+        HashMap<String, Object> expected = new HashMap<>();
+        expected.put("id", "3b241101-e2bb-4255-8caf-4136c566a962");
+        expected.put("amount", "12.50");
+        expected.put("tags", Arrays.asList("a", "b"));
+        expected.put("count", 3);
+
+        for (Format format : Format.values()) {
+            assertEquals(hex(PropertyListSerialization.dataWithPropertyList(expected, format)),
+                hex(PropertyListSerialization.dataWithPropertyList(dict, format)));
+            assertEquals(hex(PropertyListSerialization.dataWithPropertyList(expected, format)),
+                hex(PropertyListSerialization.dataWithPropertyList(new PropertyListFragment(dict), format)));
+        }
+        assertEquals(hex(PropertyListSerialization.write(expected, Format.XML)),
+            hex(PropertyListSerialization.write(dict, Format.XML)));
+
+        // Root object.
+        assertEquals(uuid.toString(), PropertyListSerialization.propertyListWithData(
+            PropertyListSerialization.dataWithPropertyList(uuid, Format.Binary), Format.Binary));
+    }
+
+    @Test
+    public void encoderChains() throws Exception {
+        PropertyListSerialization.registerEncoder(UUID.class, new PropertyListEncoder<UUID>() {
+            @Override
+            public Object encode(UUID value) {
+                return new BigDecimal(value.getLeastSignificantBits());
+            }
+        });
+        PropertyListSerialization.registerEncoder(Number.class, new PropertyListEncoder<Number>() {
+            @Override
+            public Object encode(Number value) {
+                return value.toString();
+            }
+        });
+        UUID uuid = new UUID(0, 42);
+        for (Format format : Format.values()) {
+            assertEquals(Arrays.asList("42", "42"), PropertyListSerialization.propertyListWithData(
+                PropertyListSerialization.dataWithPropertyList(Arrays.asList(uuid, uuid), format), format));
+        }
+
+        // Replacing an encoder takes effect for classes already written.
+        PropertyListSerialization.registerEncoder(Number.class, new PropertyListEncoder<Number>() {
+            @Override
+            public Object encode(Number value) {
+                return value.longValue();
+            }
+        });
+        assertEquals(42L, PropertyListSerialization.propertyListWithData(
+            PropertyListSerialization.dataWithPropertyList(uuid, Format.Binary), Format.Binary));
+    }
+
+    @Test
+    public void encoderReturnsInput() throws Exception {
+        PropertyListSerialization.registerEncoder(UUID.class, new PropertyListEncoder<UUID>() {
+            @Override
+            public Object encode(UUID value) {
+                return value;
+            }
+        });
+        for (Format format : Format.values()) {
+            try {
+                PropertyListSerialization.dataWithPropertyList(UUID.randomUUID(), format);
+                fail();
+            } catch (PropertyListWriteStreamException e) {
+                // expected
+            }
+        }
+        try {
+            PropertyListSerialization.write(UUID.randomUUID(), Format.XML);
+            fail();
+        } catch (PropertyListWriteStreamException e) {
+            // expected
+        }
+    }
+
+    private static String hex(byte[] buf) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < buf.length; i++)
+            sb.append(String.format("%02x", buf[i]));
+        return sb.toString();
+    }
+
+}
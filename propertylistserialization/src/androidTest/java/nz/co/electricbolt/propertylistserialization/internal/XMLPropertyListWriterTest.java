@@ -15,6 +15,8 @@ import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import nz.co.electricbolt.propertylistserialization.PropertyListFragment;
+
 import static org.junit.Assert.*;
 
 @RunWith(AndroidJUnit4.class)
@@ -109,6 +111,33 @@ public class XMLPropertyListWriterTest {
         assertEquals(template, result);
     }
 
+    @Test
+    public void realCF() throws Exception {
+        String template =
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n" +
+                "<plist version=\"1.0\">\n" +
+                "<array>\n" +
+                "\t<real>0.10000000000000001</real>\n" +
+                "\t<real>1.1000000238418579</real>\n" +
+                "\t<real>1e+20</real>\n" +
+                "\t<real>+infinity</real>\n" +
+                "</array>\n" +
+                "</plist>\n";
+
+        ArrayList<Object> graph = new ArrayList<>();
+        graph.add(0.1d);
+        graph.add(1.1f);
+        graph.add(1e20d);
+        graph.add(Double.POSITIVE_INFINITY);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        XMLPropertyListWriter p = new XMLPropertyListWriter(graph, baos, RealFormatter.Mode.CF);
+        p.write();
+        String result = baos.toString("utf8");
+        assertEquals(template, result);
+    }
+
     // Date
 
     @Test
@@ -569,4 +598,50 @@ public class XMLPropertyListWriterTest {
         assertEquals(template, result);
     }
 
-}
\ No newline at end of file
+    // Fragment
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void fragment() throws Exception {
+        HashMap catalog = new HashMap();
+        catalog.put("Name", "Catalog");
+        catalog.put("Version", 3);
+        catalog.put("Ratio", 0.1d);
+        catalog.put("Icon", makeData(120));
+        ArrayList features = new ArrayList();
+        features.add("Alpha");
+        features.add(new HashMap());
+        catalog.put("Features", features);
+
+        HashMap nested = new HashMap();
+        nested.put("Catalog", catalog);
+        ArrayList graph = new ArrayList();
+        graph.add(nested);
+        graph.add(catalog);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new XMLPropertyListWriter(graph, expected).write();
+
+        // The same graph, with the catalog pre-encoded and spliced at two different indent levels.
+        PropertyListFragment fragment = new PropertyListFragment(catalog);
+        HashMap fragmentNested = new HashMap();
+        fragmentNested.put("Catalog", fragment);
+        ArrayList fragmentGraph = new ArrayList();
+        fragmentGraph.add(fragmentNested);
+        fragmentGraph.add(fragment);
+
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            new XMLPropertyListWriter(fragmentGraph, baos).write();
+            assertEquals(expected.toString("utf8"), baos.toString("utf8"));
+        }
+    }
+
+    private byte[] makeData(int len) {
+        byte[] gen = new byte[len];
+        for (int i = 0; i < len; i++)
+            gen[i] = (byte) i;
+        return gen;
+    }
+
+}
@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * ColumnarTable.java                                                          *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * An array of dicts that all have the same keys (a "table"), held as one column per key rather
+ * than one Map per dict. Columns of integers, reals and booleans are held in long[], double[] and
+ * boolean[] respectively; other columns in Object[].
+ * <p>
+ * The table is also an immutable List of Map&lt;String, Object&gt;, so it can be used wherever a
+ * parsed array of dicts can. Each row Map is a lightweight view, created by each call to get()
+ * rather than held by the table; use getColumn() or getValue() in tight loops.
+ * </p>
+ * Created by ContainerFactory.COLUMNAR. Rows are copied into the columns as they are parsed, so
+ * only one row's Map exists at a time.
+ */
+
+public final class ColumnarTable extends AbstractList<Map<String, Object>> implements RandomAccess {
+
+    static final int MIN_ROWS = 2;
+    private static final int MAX_PRESIZE = 1024; // rows allocated up front; columns grow beyond.
+
+    private final String[] keys; // sorted.
+    private final Object[] columns; // long[], double[], boolean[] or Object[], one per key.
+    private final int rowCount;
+
+    private ColumnarTable(String[] keys, Object[] columns, int rowCount) {
+        this.keys = keys;
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Returns the keys shared by every row, in ascending order.
+     */
+    public @NonNull List<String> getKeys() {
+        return Arrays.asList(keys.clone());
+    }
+
+    /**
+     * Returns the column for the key - a long[], double[], boolean[] or Object[] with one element
+     * per row - or null if there is no such key. The array must not be modified.
+     */
+    public @Nullable Object getColumn(@NonNull String key) {
+        int k = Arrays.binarySearch(keys, key);
+        return k < 0 ? null : columns[k];
+    }
+
+    /**
+     * Returns the value of the key for the row, or null if there is no such key.
+     */
+    public @Nullable Object getValue(int row, @NonNull String key) {
+        int k = Arrays.binarySearch(keys, key);
+        return k < 0 ? null : value(row, k);
+    }
+
+    private Object value(int row, int k) {
+        return valueOf(columns[k], row);
+    }
+
+    private static Object valueOf(Object column, int row) {
+        if (column instanceof long[])
+            return ((long[]) column)[row];
+        if (column instanceof double[])
+            return ((double[]) column)[row];
+        if (column instanceof boolean[])
+            return ((boolean[]) column)[row];
+        return ((Object[]) column)[row];
+    }
+
+    @Override
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * Returns a new view of the row. The view holds only the row index, and reads each value from
+     * the columns.
+     */
+    @Override
+    public Map<String, Object> get(int row) {
+        if (row < 0 || row >= rowCount)
+            throw new IndexOutOfBoundsException("Index " + row + " out of range");
+        return new Row(row);
+    }
+
+    /**
+     * The List returned by ContainerFactory.COLUMNAR.newArray(). Each row added is copied into the
+     * columns, and not retained. If a row is not a Map, or its keys differ from the first row's,
+     * the rows are instead kept as a plain List.
+     */
+    static final class Collector extends AbstractList<Object> {
+
+        private final int capacity;
+        private String[] keys; // sorted, as per the first row.
+        private Object[] columns;
+        private Object[] values; // the row being added, in key order.
+        private int rowCount;
+        private ArrayList<Object> list; // once the rows cannot form a table, otherwise null.
+
+        Collector(int count) {
+            this.capacity = Math.min(Math.max(count, MIN_ROWS), MAX_PRESIZE);
+        }
+
+        @Override
+        public boolean add(Object row) {
+            if (list == null && !addRow(row))
+                list = toList();
+            if (list != null)
+                list.add(row);
+            return true;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (list != null)
+                return list.get(index);
+            if (index < 0 || index >= rowCount)
+                throw new IndexOutOfBoundsException("Index " + index + " out of range");
+            return rowOf(index);
+        }
+
+        @Override
+        public int size() {
+            return list != null ? list.size() : rowCount;
+        }
+
+        /**
+         * Returns the table, or the List of rows if there are fewer than MIN_ROWS rows or the rows
+         * are not all Maps with identical keys.
+         */
+        Object finish() {
+            if (list == null && rowCount < MIN_ROWS)
+                list = toList();
+            if (list != null)
+                return list;
+            for (int k = 0; k < columns.length; k++)
+                columns[k] = trim(columns[k], rowCount);
+            return new ColumnarTable(keys, columns, rowCount);
+        }
+
+        private boolean addRow(Object row) {
+            if (!(row instanceof Map))
+                return false;
+            Map<?, ?> dict = (Map<?, ?>) row;
+            if (keys == null) {
+                keys = new String[dict.size()];
+                int k = 0;
+                for (Object key : dict.keySet()) {
+                    if (!(key instanceof String))
+                        return false;
+                    keys[k++] = (String) key;
+                }
+                Arrays.sort(keys);
+                columns = new Object[keys.length];
+                values = new Object[keys.length];
+            }
+            if (dict.size() != keys.length)
+                return false;
+            for (int k = 0; k < keys.length; k++) {
+                values[k] = dict.get(keys[k]);
+                if (values[k] == null)
+                    return false;
+            }
+            for (int k = 0; k < keys.length; k++)
+                columns[k] = store(columns[k], rowCount, values[k]);
+            rowCount++;
+            return true;
+        }
+
+        /**
+         * Stores the value in the column, creating or growing the column as required, and
+         * replacing a long[], double[] or boolean[] column with an Object[] column if the value
+         * is of another type.
+         */
+        private Object store(Object column, int row, Object value) {
+            if (column == null) {
+                if (value instanceof Long)
+                    column = new long[capacity];
+                else if (value instanceof Double)
+                    column = new double[capacity];
+                else if (value instanceof Boolean)
+                    column = new boolean[capacity];
+                else
+                    column = new Object[capacity];
+            } else if (row == Array.getLength(column))
+                column = grow(column, row * 2);
+            if (column instanceof long[] && value instanceof Long)
+                ((long[]) column)[row] = (Long) value;
+            else if (column instanceof double[] && value instanceof Double)
+                ((double[]) column)[row] = (Double) value;
+            else if (column instanceof boolean[] && value instanceof Boolean)
+                ((boolean[]) column)[row] = (Boolean) value;
+            else {
+                if (!(column instanceof Object[])) {
+                    Object[] boxed = new Object[Array.getLength(column)];
+                    for (int i = 0; i < row; i++)
+                        boxed[i] = valueOf(column, i);
+                    column = boxed;
+                }
+                ((Object[]) column)[row] = value;
+            }
+            return column;
+        }
+
+        private Map<String, Object> rowOf(int row) {
+            HashMap<String, Object> dict = new HashMap<>((int) (keys.length / 0.75f) + 1);
+            for (int k = 0; k < keys.length; k++)
+                dict.put(keys[k], valueOf(columns[k], row));
+            return dict;
+        }
+
+        private ArrayList<Object> toList() {
+            ArrayList<Object> rows = new ArrayList<>(Math.max(capacity, rowCount + 1));
+            for (int i = 0; i < rowCount; i++)
+                rows.add(rowOf(i));
+            keys = null;
+            columns = null;
+            values = null;
+            return rows;
+        }
+
+        private static Object trim(Object column, int length) {
+            return Array.getLength(column) == length ? column : grow(column, length);
+        }
+
+        private static Object grow(Object column, int length) {
+            if (column instanceof long[])
+                return Arrays.copyOf((long[]) column, length);
+            if (column instanceof double[])
+                return Arrays.copyOf((double[]) column, length);
+            if (column instanceof boolean[])
+                return Arrays.copyOf((boolean[]) column, length);
+            return Arrays.copyOf((Object[]) column, length);
+        }
+    }
+
+    private final class Row extends AbstractMap<String, Object> {
+
+        private final int row;
+
+        Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return key instanceof String ? getValue(row, (String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && Arrays.binarySearch(keys, key) >= 0;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new Iterator<Map.Entry<String, Object>>() {
+                        private int k;
+
+                        @Override
+                        public boolean hasNext() {
+                            return k < keys.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, Object> next() {
+                            if (k >= keys.length)
+                                throw new NoSuchElementException();
+                            Map.Entry<String, Object> entry = new SimpleImmutableEntry<>(keys[k], value(row, k));
+                            k++;
+                            return entry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * ContainerFactory.java                                                       *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.internal.CompactList;
+import nz.co.electricbolt.propertylistserialization.internal.CompactMap;
+import nz.co.electricbolt.propertylistserialization.internal.ShapeMap;
+
+/**
+ * Creates the Map and List instances for each dict and array, when a property list is read by
+ * propertyListWithData(). Subclass to use other implementations, e.g. android.util.ArrayMap to
+ * reduce heap usage, or to replace each container once it has been populated, e.g. with an
+ * immutable view.
+ * <p>
+ * Binary plists specify the number of entries in each dict and array in advance, so containers
+ * can be created at their final size. XML plists don't, and the count is -1.
+ * </p>
+ */
+
+public class ContainerFactory {
+
+    /**
+     * HashMap and ArrayList, presized where the count is known.
+     */
+    public static final ContainerFactory DEFAULT = new ContainerFactory();
+
+    /**
+     * LinkedHashMap and ArrayList, preserving the order of dict entries within the property list.
+     */
+    public static final ContainerFactory ORDERED = new ContainerFactory() {
+        @Override
+        public @NonNull Map<String, Object> newDict(int count) {
+            return count < 0 ? new LinkedHashMap<String, Object>() : new LinkedHashMap<String, Object>(capacity(count));
+        }
+    };
+
+    /**
+     * Immutable, compact Map and List implementations - see CompactMap. NSData and NSDate values
+     * are copied each time they are retrieved, so the contents can't be modified either. Suited to
+     * property lists that are retained for a long time, e.g. configuration caches.
+     */
+    public static final ContainerFactory FROZEN = new ContainerFactory() {
+        @Override
+        public @NonNull Object finishDict(@NonNull Map<String, Object> dict) {
+            return CompactMap.copyOf(dict);
+        }
+
+        @Override
+        public @NonNull Object finishArray(@NonNull List<Object> array) {
+            return CompactList.copyOf(array);
+        }
+    };
+
+    /**
+     * As per DEFAULT, except that arrays of dicts that all have the same keys are returned as a
+     * ColumnarTable, with one column per key rather than one Map per dict.
+     */
+    public static final ContainerFactory COLUMNAR = new ContainerFactory() {
+        @Override
+        public @NonNull List<Object> newArray(int count) {
+            return new ColumnarTable.Collector(count);
+        }
+
+        @Override
+        public @NonNull Object finishArray(@NonNull List<Object> array) {
+            return array instanceof ColumnarTable.Collector ? ((ColumnarTable.Collector) array).finish() : array;
+        }
+    };
+
+    /**
+     * Immutable PersistentDict and PersistentArray, whose updates return new versions sharing the
+     * unchanged parts of the property list. Suited to property lists that are edited and kept in
+     * many versions.
+     */
+    public static final ContainerFactory PERSISTENT = new ContainerFactory() {
+        @Override
+        public @NonNull Object finishDict(@NonNull Map<String, Object> dict) {
+            return PersistentDict.copyOf(dict);
+        }
+
+        @Override
+        public @NonNull Object finishArray(@NonNull List<Object> array) {
+            return PersistentArray.copyOf(array);
+        }
+    };
+
+    /**
+     * Immutable Maps that share their keys with all other dicts of the same set of keys, and hold
+     * only their values - see ShapeMap. Arrays are as per DEFAULT.
+     */
+    public static final ContainerFactory SHAPED = new ContainerFactory() {
+        @Override
+        public @NonNull Object finishDict(@NonNull Map<String, Object> dict) {
+            return ShapeMap.copyOf(dict);
+        }
+    };
+
+    /**
+     * @param count number of key/value pairs, or -1 if not known in advance.
+     * @return an empty, mutable Map.
+     */
+    public @NonNull Map<String, Object> newDict(int count) {
+        return count < 0 ? new HashMap<String, Object>() : new HashMap<String, Object>(capacity(count));
+    }
+
+    /**
+     * @param count number of elements, or -1 if not known in advance.
+     * @return an empty, mutable List.
+     */
+    public @NonNull List<Object> newArray(int count) {
+        return count < 0 ? new ArrayList<>() : new ArrayList<>(count);
+    }
+
+    /**
+     * Called once all entries have been added to a Map created by newDict().
+     *
+     * @return the object to store in the object graph. By default, the Map itself.
+     */
+    public @NonNull Object finishDict(@NonNull Map<String, Object> dict) {
+        return dict;
+    }
+
+    /**
+     * Called once all elements have been added to a List created by newArray().
+     *
+     * @return the object to store in the object graph. By default, the List itself.
+     */
+    public @NonNull Object finishArray(@NonNull List<Object> array) {
+        return array;
+    }
+
+    /**
+     * Returns the initial capacity of a HashMap that holds count entries without resizing.
+     */
+    protected static int capacity(int count) {
+        return (int) (count / 0.75f) + 1;
+    }
+
+}
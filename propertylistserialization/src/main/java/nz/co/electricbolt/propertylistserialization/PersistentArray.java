@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * PersistentArray.java                                                        *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * An immutable List for arrays, whose updates - with(), plus() and without() - return a new
+ * PersistentArray rather than modifying this one, sharing all but O(log n) of its structure with
+ * the previous version. See PersistentDict.
+ * <p>
+ * Elements are held in chunks of 32, the leaves of a trie of 32-way nodes, except for the last
+ * 1 to 32 elements, which are held in a separate "tail" chunk. get() and with() visit one node per
+ * level (4 levels for a million elements); plus() and without() of the last element usually copy
+ * only the tail. Inserting or removing other elements copies the array.
+ * </p>
+ */
+
+public final class PersistentArray extends AbstractList<Object> implements RandomAccess {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+    private static final PersistentArray EMPTY = new PersistentArray(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int size;
+    private final int shift; // of the root node: BITS if its children are leaves.
+    private final Object[] root; // nodes of WIDTH children, null beyond the last.
+    private final Object[] tail; // the last 1 to WIDTH elements, or none if empty.
+
+    private PersistentArray(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Returns the empty array.
+     */
+    public static @NonNull PersistentArray empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns an immutable copy of the list, or the list itself if it is a PersistentArray.
+     * Elements must be non null, and are not copied.
+     */
+    public static @NonNull PersistentArray copyOf(@NonNull List<?> list) {
+        if (list instanceof PersistentArray)
+            return (PersistentArray) list;
+        int size = list.size();
+        if (size == 0)
+            return EMPTY;
+        Object[] elements = list.toArray();
+        for (Object element : elements)
+            checkNotNull(element);
+        int tailOffset = tailOffset(size);
+        Object[] tail = new Object[size - tailOffset];
+        System.arraycopy(elements, tailOffset, tail, 0, tail.length);
+
+        // Build the trie bottom up, from the full leaves.
+        List<Object[]> nodes = new ArrayList<>(tailOffset / WIDTH);
+        for (int i = 0; i < tailOffset; i += WIDTH) {
+            Object[] leaf = new Object[WIDTH];
+            System.arraycopy(elements, i, leaf, 0, WIDTH);
+            nodes.add(leaf);
+        }
+        int shift = BITS;
+        while (nodes.size() > WIDTH) {
+            List<Object[]> parents = new ArrayList<>((nodes.size() + MASK) / WIDTH);
+            for (int i = 0; i < nodes.size(); i += WIDTH) {
+                Object[] parent = new Object[WIDTH];
+                for (int j = 0; j < WIDTH && i + j < nodes.size(); j++)
+                    parent[j] = nodes.get(i + j);
+                parents.add(parent);
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+        Object[] root = nodes.isEmpty() ? EMPTY_NODE : nodes.toArray(new Object[WIDTH]);
+        return new PersistentArray(size, shift, root, tail);
+    }
+
+    private static Object checkNotNull(Object obj) {
+        if (obj == null)
+            throw new NullPointerException("Array elements cannot be null");
+        return obj;
+    }
+
+    /**
+     * Returns the index of the first element held in the tail.
+     */
+    private static int tailOffset(int size) {
+        return size == 0 ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    /**
+     * Returns the leaf (or tail) holding the element at index.
+     */
+    private Object[] leafFor(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        if (index >= tailOffset(size))
+            return tail;
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS)
+            node = (Object[]) node[(index >>> level) & MASK];
+        return node;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(int index) {
+        return leafFor(index)[index & MASK];
+    }
+
+    /**
+     * Returns an array with the element at index replaced by value, sharing the rest of its
+     * structure with this one.
+     */
+    public @NonNull PersistentArray with(int index, @NonNull Object value) {
+        checkNotNull(value);
+        if (leafFor(index)[index & MASK] == value)
+            return this;
+        if (index >= tailOffset(size)) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = value;
+            return new PersistentArray(size, shift, root, newTail);
+        }
+        return new PersistentArray(size, shift, with(shift, root, index, value), tail);
+    }
+
+    private static Object[] with(int level, Object[] node, int index, Object value) {
+        Object[] copy = node.clone();
+        if (level == 0)
+            copy[index & MASK] = value;
+        else {
+            int i = (index >>> level) & MASK;
+            copy[i] = with(level - BITS, (Object[]) node[i], index, value);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns an array with value appended, sharing the rest of its structure with this one.
+     */
+    public @NonNull PersistentArray plus(@NonNull Object value) {
+        checkNotNull(value);
+        if (size - tailOffset(size) < WIDTH) {
+            Object[] newTail = new Object[tail.length + 1];
+            System.arraycopy(tail, 0, newTail, 0, tail.length);
+            newTail[tail.length] = value;
+            return new PersistentArray(size + 1, shift, root, newTail);
+        }
+        // The tail is full - move it into the trie.
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else
+            newRoot = pushTail(shift, root, tail);
+        return new PersistentArray(size + 1, newShift, newRoot, new Object[]{value});
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+        int i = ((size - 1) >>> level) & MASK;
+        Object[] copy = parent.clone();
+        if (level == BITS)
+            copy[i] = tailNode;
+        else {
+            Object[] child = (Object[]) parent[i];
+            copy[i] = child != null ? pushTail(level - BITS, child, tailNode) : newPath(level - BITS, tailNode);
+        }
+        return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] node) {
+        if (level == 0)
+            return node;
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, node);
+        return path;
+    }
+
+    /**
+     * Returns an array with value inserted at index, moving later elements up by one. Appending
+     * (index == size()) shares structure with this array; inserting elsewhere copies it.
+     */
+    public @NonNull PersistentArray plus(int index, @NonNull Object value) {
+        if (index == size)
+            return plus(value);
+        if (index < 0 || index > size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        List<Object> list = new ArrayList<>(size + 1);
+        list.addAll(this);
+        list.add(index, checkNotNull(value));
+        return copyOf(list);
+    }
+
+    /**
+     * Returns an array without the element at index, moving later elements down by one. Removing
+     * the last element shares structure with this array; removing another copies it.
+     */
+    public @NonNull PersistentArray without(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        if (index < size - 1) {
+            List<Object> list = new ArrayList<>(this);
+            list.remove(index);
+            return copyOf(list);
+        }
+        if (size == 1)
+            return EMPTY;
+        if (size - tailOffset(size) > 1) {
+            Object[] newTail = new Object[tail.length - 1];
+            System.arraycopy(tail, 0, newTail, 0, newTail.length);
+            return new PersistentArray(size - 1, shift, root, newTail);
+        }
+        // The tail is emptied - the last leaf of the trie becomes the tail.
+        Object[] newTail = leafFor(size - 2);
+        Object[] newRoot = popTail(shift, root);
+        int newShift = shift;
+        if (newRoot == null)
+            newRoot = EMPTY_NODE;
+        if (shift > BITS && newRoot[1] == null) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new PersistentArray(size - 1, newShift, newRoot, newTail);
+    }
+
+    /**
+     * Returns a copy of node without its last leaf, or null if that was its only leaf.
+     */
+    private Object[] popTail(int level, Object[] node) {
+        int i = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] child = popTail(level - BITS, (Object[]) node[i]);
+            if (child == null && i == 0)
+                return null;
+            Object[] copy = node.clone();
+            copy[i] = child;
+            return copy;
+        }
+        if (i == 0)
+            return null;
+        Object[] copy = node.clone();
+        copy[i] = null;
+        return copy;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+
+            private int index;
+            private Object[] leaf = size > 0 ? leafFor(0) : null;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Object next() {
+                if (index >= size)
+                    throw new NoSuchElementException();
+                if ((index & MASK) == 0 && index > 0)
+                    leaf = leafFor(index);
+                return leaf[index++ & MASK];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
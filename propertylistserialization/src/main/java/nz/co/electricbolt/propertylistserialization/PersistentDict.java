@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * PersistentDict.java                                                         *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable Map&lt;String, Object&gt; for dicts, whose updates - with() and without() - return a
+ * new PersistentDict rather than modifying this one. The new version shares all but O(log n) of
+ * its structure with the previous one, so keeping many versions of a large dict costs memory
+ * proportional to the changes, and each version can be published to other threads without copying
+ * or locking.
+ * <p>
+ * Entries are held in a hash array mapped trie: each node indexes up to 32 entries or child nodes
+ * by 5 bits of the key's hash, with a bitmap recording which are present, so lookups and updates
+ * visit at most 7 nodes. Iteration order is that of the hashes, not of the source dict.
+ * </p>
+ * Created by ContainerFactory.PERSISTENT, with PersistentArray for arrays. Both are accepted by
+ * the writers as any other Map and List.
+ */
+
+public final class PersistentDict extends AbstractMap<String, Object> {
+
+    private static final int MAX_SHIFT = 30; // nodes below this hold colliding keys, unindexed.
+
+    private static final PersistentDict EMPTY = new PersistentDict(null, 0);
+
+    /**
+     * A trie node. Each set bit of bitmap has two slots in array: a key and its value, or null and
+     * a child Node. Collision nodes (below MAX_SHIFT) hold only key/value pairs, and no bitmap.
+     */
+    private static final class Node {
+        final Object edit; // owner that may modify the node in place, or null once published.
+        int bitmap;
+        Object[] array;
+
+        Node(Object edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+    }
+
+    private final Node root; // null if empty.
+    private final int size;
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    private PersistentDict(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns the empty dict.
+     */
+    public static @NonNull PersistentDict empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns an immutable copy of the map, or the map itself if it is a PersistentDict. Keys and
+     * values must be non null; values are not copied.
+     */
+    public static @NonNull PersistentDict copyOf(@NonNull Map<String, ?> map) {
+        if (map instanceof PersistentDict)
+            return (PersistentDict) map;
+        // Nodes created for this copy are modified in place, until it is returned.
+        Object edit = new Object();
+        Node root = null;
+        int size = 0;
+        boolean[] added = new boolean[1];
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            String key = checkNotNull(entry.getKey());
+            Object value = checkNotNull(entry.getValue());
+            if (root == null) {
+                root = new Node(edit, bit(hash(key), 0), new Object[]{key, value});
+                size++;
+            } else {
+                added[0] = false;
+                root = put(root, edit, 0, hash(key), key, value, added);
+                if (added[0])
+                    size++;
+            }
+        }
+        return size == 0 ? EMPTY : new PersistentDict(root, size);
+    }
+
+    private static <T> T checkNotNull(T obj) {
+        if (obj == null)
+            throw new NullPointerException("Dict keys and values cannot be null");
+        return obj;
+    }
+
+    /**
+     * Returns a dict with the key set to value, sharing the rest of its structure with this one.
+     * Returns this dict if the key is already set to the same value instance.
+     */
+    public @NonNull PersistentDict with(@NonNull String key, @NonNull Object value) {
+        checkNotNull(key);
+        checkNotNull(value);
+        int hash = hash(key);
+        if (root == null)
+            return new PersistentDict(new Node(null, bit(hash, 0), new Object[]{key, value}), 1);
+        boolean[] added = new boolean[1];
+        Node newRoot = put(root, null, 0, hash, key, value, added);
+        if (newRoot == root)
+            return this;
+        return new PersistentDict(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a dict without the key, sharing the rest of its structure with this one. Returns
+     * this dict if the key is not present.
+     */
+    public @NonNull PersistentDict without(@NonNull Object key) {
+        if (root == null || key == null)
+            return this;
+        Node newRoot = remove(root, 0, hash(key), key);
+        if (newRoot == root)
+            return this;
+        return newRoot == null ? EMPTY : new PersistentDict(newRoot, size - 1);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    /**
+     * Returns the index within array of the key slot for bit.
+     */
+    private static int index(int bitmap, int bit) {
+        return 2 * Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static Object get(Node node, int hash, Object key) {
+        int shift = 0;
+        while (true) {
+            Object[] array = node.array;
+            if (shift > MAX_SHIFT) {
+                for (int i = 0; i < array.length; i += 2) {
+                    if (key.equals(array[i]))
+                        return array[i + 1];
+                }
+                return null;
+            }
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0)
+                return null;
+            int i = index(node.bitmap, bit);
+            Object k = array[i];
+            if (k == null) {
+                node = (Node) array[i + 1];
+                shift += 5;
+            } else
+                return key.equals(k) ? array[i + 1] : null;
+        }
+    }
+
+    /**
+     * Returns node with the key set to value: node itself if unchanged or owned by edit, otherwise
+     * a modified copy. Sets added[0] if the key was not present.
+     */
+    private static Node put(Node node, Object edit, int shift, int hash, String key, Object value, boolean[] added) {
+        Object[] array = node.array;
+        if (shift > MAX_SHIFT) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i]))
+                    return array[i + 1] == value ? node : set(node, edit, i + 1, value);
+            }
+            added[0] = true;
+            Object[] newArray = new Object[array.length + 2];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            return update(node, edit, 0, newArray);
+        }
+        int bit = bit(hash, shift);
+        int i = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            added[0] = true;
+            Object[] newArray = new Object[array.length + 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            newArray[i] = key;
+            newArray[i + 1] = value;
+            System.arraycopy(array, i, newArray, i + 2, array.length - i);
+            return update(node, edit, node.bitmap | bit, newArray);
+        }
+        Object k = array[i];
+        if (k == null) {
+            Node child = (Node) array[i + 1];
+            Node newChild = put(child, edit, shift + 5, hash, key, value, added);
+            return newChild == child ? node : set(node, edit, i + 1, newChild);
+        }
+        if (key.equals(k))
+            return array[i + 1] == value ? node : set(node, edit, i + 1, value);
+        // Two keys in the same slot - move both to a new child node.
+        added[0] = true;
+        Node child = pair(edit, shift + 5, hash((String) k), (String) k, array[i + 1], hash, key, value);
+        node = set(node, edit, i, null);
+        node.array[i + 1] = child;
+        return node;
+    }
+
+    private static Node pair(Object edit, int shift, int hash1, String key1, Object value1, int hash2, String key2, Object value2) {
+        if (shift > MAX_SHIFT)
+            return new Node(edit, 0, new Object[]{key1, value1, key2, value2});
+        int bit1 = bit(hash1, shift);
+        int bit2 = bit(hash2, shift);
+        if (bit1 == bit2)
+            return new Node(edit, bit1, new Object[]{null, pair(edit, shift + 5, hash1, key1, value1, hash2, key2, value2)});
+        if (((hash1 >>> shift) & 31) < ((hash2 >>> shift) & 31))
+            return new Node(edit, bit1 | bit2, new Object[]{key1, value1, key2, value2});
+        return new Node(edit, bit1 | bit2, new Object[]{key2, value2, key1, value1});
+    }
+
+    private static Node set(Node node, Object edit, int i, Object value) {
+        if (edit != null && node.edit == edit) {
+            node.array[i] = value;
+            return node;
+        }
+        Object[] array = node.array.clone();
+        array[i] = value;
+        return new Node(edit, node.bitmap, array);
+    }
+
+    private static Node update(Node node, Object edit, int bitmap, Object[] array) {
+        if (edit != null && node.edit == edit) {
+            node.bitmap = bitmap;
+            node.array = array;
+            return node;
+        }
+        return new Node(edit, bitmap, array);
+    }
+
+    /**
+     * Returns a copy of node without the key, node itself if the key is not present, or null if
+     * the key was its only entry. A child left with a single entry is replaced by that entry.
+     */
+    private static Node remove(Node node, int shift, int hash, Object key) {
+        Object[] array = node.array;
+        if (shift > MAX_SHIFT) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i]))
+                    return array.length == 2 ? null : new Node(null, 0, without(array, i));
+            }
+            return node;
+        }
+        int bit = bit(hash, shift);
+        if ((node.bitmap & bit) == 0)
+            return node;
+        int i = index(node.bitmap, bit);
+        Object k = array[i];
+        if (k == null) {
+            Node child = (Node) array[i + 1];
+            Node newChild = remove(child, shift + 5, hash, key);
+            if (newChild == child)
+                return node;
+            if (newChild != null) {
+                Object[] newArray = array.clone();
+                if (newChild.array.length == 2 && newChild.array[0] != null) {
+                    newArray[i] = newChild.array[0];
+                    newArray[i + 1] = newChild.array[1];
+                } else
+                    newArray[i + 1] = newChild;
+                return new Node(null, node.bitmap, newArray);
+            }
+        } else if (!key.equals(k))
+            return node;
+        if (node.bitmap == bit)
+            return null;
+        return new Node(null, node.bitmap ^ bit, without(array, i));
+    }
+
+    private static Object[] without(Object[] array, int i) {
+        Object[] newArray = new Object[array.length - 2];
+        System.arraycopy(array, 0, newArray, 0, i);
+        System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+        return newArray;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (root == null || key == null)
+            return null;
+        return get(root, hash(key), key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        // Nodes from the root to the current node, and the index of the next slot within each.
+        private final Node[] nodes = new Node[MAX_SHIFT / 5 + 2];
+        private final int[] indices = new int[MAX_SHIFT / 5 + 2];
+        private int depth = -1;
+
+        EntryIterator() {
+            if (root != null) {
+                nodes[0] = root;
+                depth = 0;
+                advance();
+            }
+        }
+
+        /**
+         * Moves to the next key, descending into child nodes and returning from exhausted ones.
+         */
+        private void advance() {
+            while (depth >= 0) {
+                Object[] array = nodes[depth].array;
+                int i = indices[depth];
+                if (i >= array.length) {
+                    depth--;
+                } else if (array[i] == null) {
+                    indices[depth] = i + 2;
+                    depth++;
+                    nodes[depth] = (Node) array[i + 1];
+                    indices[depth] = 0;
+                } else
+                    return;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth >= 0;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (depth < 0)
+                throw new NoSuchElementException();
+            Object[] array = nodes[depth].array;
+            int i = indices[depth];
+            Map.Entry<String, Object> entry = new SimpleImmutableEntry<>((String) array[i], array[i + 1]);
+            indices[depth] = i + 2;
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * PlistArena.java                                                             *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * A parsed property list held in a handful of flat arrays, rather than as an object graph. Each
+ * element is a node, identified by an int node id; the root is node 0. Regardless of the size of
+ * the property list, an arena is only five objects, so retaining one has no effect on garbage
+ * collection time.
+ * <p>
+ * Each node is described by two longs: its type and an offset, and its length or value. String
+ * characters are held in a char[], data bytes in a byte[], and the node ids of each container's
+ * children in an int[]. The offset of a real is its width in bytes (4 for a 32-bit binary real,
+ * otherwise 8), so that toPropertyList() returns a Float or Double as the reader does. Dict keys
+ * are string nodes, shared between all dicts with the same key. Dict entries are held in
+ * ascending key order, so lookup() is a binary search.
+ * </p>
+ * Created by PropertyListSerialization.arenaWithData(). Arenas are immutable and thread safe.
+ */
+
+public final class PlistArena {
+
+    public static final int STRING = 1;
+    public static final int INTEGER = 2;
+    public static final int REAL = 3;
+    public static final int DATE = 4;
+    public static final int BOOLEAN = 5;
+    public static final int DATA = 6;
+    public static final int DICT = 7;
+    public static final int ARRAY = 8;
+
+    private static final int TYPE_SHIFT = 56;
+    private static final long OFFSET_MASK = (1L << TYPE_SHIFT) - 1;
+
+    private final long[] nodes; // 2 per node: type << 56 | offset, then length or value.
+    private final int[] refs; // DICT: key node, value node pairs. ARRAY: element nodes.
+    private final char[] chars;
+    private final byte[] bytes;
+
+    /**
+     * Used by ArenaBuilder.
+     */
+    public PlistArena(@NonNull long[] nodes, @NonNull int[] refs, @NonNull char[] chars, @NonNull byte[] bytes) {
+        this.nodes = nodes;
+        this.refs = refs;
+        this.chars = chars;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns the node id of the root element.
+     */
+    public int root() {
+        return 0;
+    }
+
+    /**
+     * Returns the total number of nodes, including dict keys.
+     */
+    public int nodeCount() {
+        return nodes.length / 2;
+    }
+
+    /**
+     * Returns one of STRING, INTEGER, REAL, DATE, BOOLEAN, DATA, DICT or ARRAY.
+     */
+    public int type(int node) {
+        return (int) (nodes[node * 2] >>> TYPE_SHIFT);
+    }
+
+    /**
+     * Returns the number of entries of a dict, elements of an array, characters of a string or
+     * bytes of data.
+     */
+    public int childCount(int node) {
+        int type = type(node);
+        if (type != DICT && type != ARRAY && type != STRING && type != DATA)
+            throw new IllegalArgumentException("Node " + node + " has no children");
+        return (int) nodes[node * 2 + 1];
+    }
+
+    /**
+     * Returns the node id of the i'th element of an array, or the value of the i'th entry of a
+     * dict.
+     */
+    public int child(int node, int i) {
+        int type = type(node);
+        if (type == ARRAY)
+            return refs[offset(node) + checkIndex(node, i)];
+        if (type == DICT)
+            return refs[offset(node) + checkIndex(node, i) * 2 + 1];
+        throw new IllegalArgumentException("Node " + node + " is not a dict or array");
+    }
+
+    /**
+     * Returns the key of the i'th entry of a dict.
+     */
+    public @NonNull String key(int node, int i) {
+        return asString(keyNode(node, i));
+    }
+
+    /**
+     * Returns the node id of the key of the i'th entry of a dict.
+     */
+    public int keyNode(int node, int i) {
+        checkType(node, DICT);
+        return refs[offset(node) + checkIndex(node, i) * 2];
+    }
+
+    /**
+     * Returns the node id of the value for the key in a dict, or -1 if the dict has no such key.
+     */
+    public int lookup(int node, @NonNull String key) {
+        checkType(node, DICT);
+        int base = offset(node);
+        int low = 0;
+        int high = (int) nodes[node * 2 + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(refs[base + mid * 2], key);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return refs[base + mid * 2 + 1];
+        }
+        return -1;
+    }
+
+    public long asLong(int node) {
+        checkType(node, INTEGER);
+        return nodes[node * 2 + 1];
+    }
+
+    public double asDouble(int node) {
+        int type = type(node);
+        if (type == INTEGER)
+            return nodes[node * 2 + 1];
+        checkType(node, REAL);
+        return Double.longBitsToDouble(nodes[node * 2 + 1]);
+    }
+
+    public boolean asBoolean(int node) {
+        checkType(node, BOOLEAN);
+        return nodes[node * 2 + 1] != 0;
+    }
+
+    public @NonNull Date asDate(int node) {
+        checkType(node, DATE);
+        return new Date(nodes[node * 2 + 1]);
+    }
+
+    public @NonNull String asString(int node) {
+        checkType(node, STRING);
+        return new String(chars, offset(node), (int) nodes[node * 2 + 1]);
+    }
+
+    public @NonNull byte[] asData(int node) {
+        checkType(node, DATA);
+        byte[] data = new byte[(int) nodes[node * 2 + 1]];
+        System.arraycopy(bytes, offset(node), data, 0, data.length);
+        return data;
+    }
+
+    /**
+     * Returns the element and its descendants as an object graph, as per
+     * PropertyListSerialization.propertyListWithData().
+     */
+    public @NonNull Object toPropertyList(int node) {
+        switch (type(node)) {
+            case STRING:
+                return asString(node);
+            case INTEGER:
+                return asLong(node);
+            case REAL:
+                if (offset(node) == 4)
+                    return (float) asDouble(node);
+                return asDouble(node);
+            case DATE:
+                return asDate(node);
+            case BOOLEAN:
+                return asBoolean(node);
+            case DATA:
+                return asData(node);
+            case DICT: {
+                int count = childCount(node);
+                HashMap<String, Object> dict = new HashMap<>((int) (count / 0.75f) + 1);
+                for (int i = 0; i < count; i++)
+                    dict.put(key(node, i), toPropertyList(child(node, i)));
+                return dict;
+            }
+            default: {
+                int count = childCount(node);
+                ArrayList<Object> array = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                    array.add(toPropertyList(child(node, i)));
+                return array;
+            }
+        }
+    }
+
+    private int offset(int node) {
+        return (int) (nodes[node * 2] & OFFSET_MASK);
+    }
+
+    private void checkType(int node, int type) {
+        if (type(node) != type)
+            throw new IllegalArgumentException("Node " + node + " is not of type " + type);
+    }
+
+    private int checkIndex(int node, int i) {
+        if (i < 0 || i >= nodes[node * 2 + 1])
+            throw new IndexOutOfBoundsException("Index " + i + " out of range for node " + node);
+        return i;
+    }
+
+    /**
+     * Compares a string node with a String, as per String.compareTo().
+     */
+    private int compare(int node, String key) {
+        int offset = offset(node);
+        int length = (int) nodes[node * 2 + 1];
+        int n = Math.min(length, key.length());
+        for (int i = 0; i < n; i++) {
+            int cmp = chars[offset + i] - key.charAt(i);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - key.length();
+    }
+
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * PlistArray.java                                                             *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+
+/**
+ * array (NSArray) property list element.
+ */
+
+public final class PlistArray extends PlistValue {
+
+    private final PlistValue[] elements;
+
+    /**
+     * @param elements the elements, which are not copied.
+     */
+    PlistArray(PlistValue[] elements) {
+        this.elements = elements;
+    }
+
+    /**
+     * Returns an array of a copy of the elements.
+     */
+    public static @NonNull PlistArray of(@NonNull List<? extends PlistValue> elements) {
+        PlistValue[] copy = elements.toArray(new PlistValue[elements.size()]);
+        for (PlistValue element : copy) {
+            if (element == null)
+                throw new NullPointerException("Array elements cannot be null");
+        }
+        return new PlistArray(copy);
+    }
+
+    public int size() {
+        return elements.length;
+    }
+
+    public @NonNull PlistValue get(int index) {
+        return elements[index];
+    }
+
+    /**
+     * Returns an immutable List view of the elements.
+     */
+    public @NonNull List<PlistValue> asList() {
+        return Collections.unmodifiableList(Arrays.asList(elements));
+    }
+
+    @Override
+    public @NonNull Type getType() {
+        return Type.ARRAY;
+    }
+
+    @Override
+    public @NonNull Object toPropertyList() {
+        ArrayList<Object> array = new ArrayList<>(elements.length);
+        for (PlistValue element : elements)
+            array.add(element.toPropertyList());
+        return array;
+    }
+
+    @Override
+    void emit(PropertyListHandler handler) throws IOException {
+        handler.startArray(elements.length);
+        for (PlistValue element : elements)
+            element.emit(handler);
+        handler.endArray();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PlistArray && Arrays.equals(elements, ((PlistArray) obj).elements);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(elements);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(elements);
+    }
+
+}
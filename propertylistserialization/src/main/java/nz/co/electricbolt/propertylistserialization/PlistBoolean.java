@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * PlistBoolean.java                                                           *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+
+/**
+ * true/false (BOOL) property list element. There are only two instances, TRUE and FALSE.
+ */
+
+public final class PlistBoolean extends PlistValue {
+
+    public static final PlistBoolean TRUE = new PlistBoolean(true);
+    public static final PlistBoolean FALSE = new PlistBoolean(false);
+
+    private final boolean value;
+
+    private PlistBoolean(boolean value) {
+        this.value = value;
+    }
+
+    public static @NonNull PlistBoolean valueOf(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public boolean getValue() {
+        return value;
+    }
+
+    @Override
+    public @NonNull Type getType() {
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public @NonNull Object toPropertyList() {
+        return value;
+    }
+
+    @Override
+    void emit(PropertyListHandler handler) throws IOException {
+        handler.booleanValue(value);
+    }
+
+    @Override
+    public String toString() {
+        return Boolean.toString(value);
+    }
+
+}
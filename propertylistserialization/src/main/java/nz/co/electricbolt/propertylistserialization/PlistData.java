@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * PlistData.java                                                              *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+
+/**
+ * data (NSData) property list element.
+ */
+
+public final class PlistData extends PlistValue {
+
+    private final byte[] bytes;
+
+    /**
+     * @param bytes the data, which is not copied and must not be subsequently modified.
+     */
+    public PlistData(@NonNull byte[] bytes) {
+        if (bytes == null)
+            throw new NullPointerException("Data cannot be null");
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns the data, which is not copied and must not be modified.
+     */
+    public @NonNull byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public @NonNull Type getType() {
+        return Type.DATA;
+    }
+
+    @Override
+    public @NonNull Object toPropertyList() {
+        return bytes.clone();
+    }
+
+    @Override
+    void emit(PropertyListHandler handler) throws IOException {
+        handler.dataValue(bytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PlistData && Arrays.equals(bytes, ((PlistData) obj).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return "<" + bytes.length + " bytes>";
+    }
+
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * PlistDate.java                                                              *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Date;
+
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+
+/**
+ * date (NSDate) property list element, held as an unboxed number of seconds since the Unix epoch
+ * (1970-01-01T00:00:00Z), including any fractional part.
+ */
+
+public final class PlistDate extends PlistValue {
+
+    private final double seconds;
+
+    public PlistDate(double seconds) {
+        this.seconds = seconds;
+    }
+
+    public PlistDate(@NonNull Date date) {
+        this(date.getTime() / 1000.0);
+    }
+
+    public double getSeconds() {
+        return seconds;
+    }
+
+    public @NonNull Date toDate() {
+        return new Date(Math.round(seconds * 1000.0));
+    }
+
+    @Override
+    public @NonNull Type getType() {
+        return Type.DATE;
+    }
+
+    @Override
+    public @NonNull Object toPropertyList() {
+        return toDate();
+    }
+
+    @Override
+    void emit(PropertyListHandler handler) throws IOException {
+        handler.dateValue(toDate());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PlistDate && Double.doubleToLongBits(seconds) == Double.doubleToLongBits(((PlistDate) obj).seconds);
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(seconds);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toDate().toString();
+    }
+
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * PlistDict.java                                                              *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+
+/**
+ * dict (NSDictionary) property list element. Entries are kept in the order they were read or
+ * added.
+ */
+
+public final class PlistDict extends PlistValue {
+
+    private final Map<String, PlistValue> entries;
+
+    /**
+     * @param entries the entries, which are not copied.
+     */
+    PlistDict(Map<String, PlistValue> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Returns a dict of a copy of the entries.
+     */
+    public static @NonNull PlistDict of(@NonNull Map<String, ? extends PlistValue> entries) {
+        LinkedHashMap<String, PlistValue> copy = new LinkedHashMap<>(entries);
+        for (Map.Entry<String, PlistValue> entry : copy.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null)
+                throw new NullPointerException("Dict entries cannot be null");
+        }
+        return new PlistDict(copy);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the value of the key, or null if there is no such key.
+     */
+    public @Nullable PlistValue get(@NonNull String key) {
+        return entries.get(key);
+    }
+
+    public @NonNull Set<String> keySet() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Returns an immutable Map view of the entries.
+     */
+    public @NonNull Map<String, PlistValue> asMap() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    @Override
+    public @NonNull Type getType() {
+        return Type.DICT;
+    }
+
+    @Override
+    public @NonNull Object toPropertyList() {
+        HashMap<String, Object> dict = new HashMap<>((int) (entries.size() / 0.75f) + 1);
+        for (Map.Entry<String, PlistValue> entry : entries.entrySet())
+            dict.put(entry.getKey(), entry.getValue().toPropertyList());
+        return dict;
+    }
+
+    @Override
+    void emit(PropertyListHandler handler) throws IOException {
+        handler.startDict(entries.size());
+        for (Map.Entry<String, PlistValue> entry : entries.entrySet()) {
+            handler.key(entry.getKey());
+            entry.getValue().emit(handler);
+        }
+        handler.endDict();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PlistDict && entries.equals(((PlistDict) obj).entries);
+    }
+
+    @Override
+    public int hashCode() {
+        return entries.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return entries.toString();
+    }
+
+}
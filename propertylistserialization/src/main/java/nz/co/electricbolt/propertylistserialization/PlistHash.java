@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * PlistHash.java                                                              *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListReader;
+import nz.co.electricbolt.propertylistserialization.internal.StructuralHash;
+import nz.co.electricbolt.propertylistserialization.internal.XMLPropertyListReader;
+
+/**
+ * Structural hashes of property lists, for detecting changes without comparing them element by
+ * element. A hash depends only on the values of the property list: it is the same for XML and
+ * binary formats, for any order of dict entries, and for Integer and Long (or Float and Double)
+ * of the same value.
+ * <p>
+ * Each dict and array has its own hash, so two property lists can be compared by descending only
+ * into the subtrees whose hashes differ - see changedPaths(). The hashes of property lists read
+ * with ContainerFactory.FROZEN are cached on each dict and array once computed, so comparing
+ * them again costs time proportional to the number of changed subtrees.
+ * </p>
+ * Hashes are 64 bits and not cryptographic: different property lists hash the same with a
+ * probability of around 2^-64, and deliberately constructed collisions are possible.
+ */
+
+public final class PlistHash {
+
+    private PlistHash() {
+    }
+
+    /**
+     * Returns the hash of an object graph of any of the types accepted by
+     * PropertyListSerialization.write().
+     *
+     * @throws IllegalStateException if the object graph is incompatible.
+     */
+    public static long hashOf(@NonNull Object obj) throws IllegalStateException {
+        return StructuralHash.of(obj);
+    }
+
+    /**
+     * Returns the hash of a PlistValue, equal to that of its toPropertyList().
+     */
+    public static long hashOf(@NonNull PlistValue value) {
+        StructuralHash handler = new StructuralHash();
+        try {
+            value.emit(handler);
+        } catch (IOException ioe) {
+            // StructuralHash does not throw IOException.
+            throw new IllegalStateException(ioe);
+        }
+        return handler.getHash();
+    }
+
+    /**
+     * Returns the hash of the property list, as it is read, without creating an object graph.
+     *
+     * @param data   byte[] of plist
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
+     *                                         converted or the input stream is EOF.
+     */
+    public static long hashOf(@NonNull byte[] data, Format format) throws PropertyListReadStreamException {
+        if (format == Format.Binary) {
+            try {
+                StructuralHash handler = new StructuralHash();
+                BinaryPropertyListReader p = new BinaryPropertyListReader(data);
+                p.parse(handler);
+                return handler.getHash();
+            } catch (UnsupportedOperationException uoe) {
+                // Binary plist format contains features we don't support.
+                throw new PropertyListReadStreamException(uoe);
+            } catch (ParseException pe) {
+                // Error converting String to integer, float value.
+                throw new PropertyListReadStreamException(pe);
+            } catch (IOException ioe) {
+                // Error reading input stream
+                throw new PropertyListReadStreamException(ioe);
+            }
+        } else {
+            // Format.XML
+            return hashOf(new ByteArrayInputStream(data), format);
+        }
+    }
+
+    /**
+     * As per hashOf(byte[], Format), reading from the input stream.
+     */
+    public static long hashOf(@NonNull InputStream is, Format format) throws PropertyListReadStreamException {
+        if (format == Format.XML) {
+            try {
+                StructuralHash handler = new StructuralHash();
+                XMLPropertyListReader p = new XMLPropertyListReader(is);
+                p.parse(handler);
+                return handler.getHash();
+            } catch (ParseException pe) {
+                // Error converting String to integer, float value.
+                throw new PropertyListReadStreamException(pe);
+            } catch (IOException ioe) {
+                // Error reading input stream
+                throw new PropertyListReadStreamException(ioe);
+            } catch (XmlPullParserException xppe) {
+                // XML parsing error - unexpected tokens etc
+                throw new PropertyListReadStreamException(xppe);
+            }
+        } else {
+            // Format.Binary
+            try {
+                return hashOf(PropertyListSerialization.readFully(is), Format.Binary);
+            } catch (IOException ioe) {
+                // Error reading input stream
+                throw new PropertyListReadStreamException(ioe);
+            }
+        }
+    }
+
+    /**
+     * Returns the paths of the outermost elements that differ between two object graphs, not
+     * descending into dicts and arrays whose hashes are equal. Each path is a list of String dict
+     * keys and Long array indices from the root, as per PlistPatch; an empty path means the roots
+     * themselves differ (e.g. a dict and an array). A key present in only one dict, or an index
+     * beyond the end of the shorter array, is reported as a changed path.
+     *
+     * @throws IllegalStateException if either object graph is incompatible.
+     */
+    public static @NonNull List<List<Object>> changedPaths(@NonNull Object a, @NonNull Object b) throws IllegalStateException {
+        List<List<Object>> paths = new ArrayList<>();
+        changedPaths(a, b, new ArrayList<>(), paths, new IdentityHashMap<Object, Long>());
+        return paths;
+    }
+
+    private static void changedPaths(Object a, Object b, ArrayList<Object> path, List<List<Object>> paths, IdentityHashMap<Object, Long> memo) {
+        if (StructuralHash.of(a, memo) == StructuralHash.of(b, memo))
+            return;
+        if (a instanceof Map && b instanceof Map) {
+            Map<?, ?> dictA = (Map<?, ?>) a;
+            Map<?, ?> dictB = (Map<?, ?>) b;
+            for (Map.Entry<?, ?> entry : dictA.entrySet()) {
+                path.add(entry.getKey());
+                Object valueB = dictB.get(entry.getKey());
+                if (valueB == null)
+                    paths.add(copy(path));
+                else
+                    changedPaths(entry.getValue(), valueB, path, paths, memo);
+                path.remove(path.size() - 1);
+            }
+            for (Object key : dictB.keySet()) {
+                if (!dictA.containsKey(key)) {
+                    path.add(key);
+                    paths.add(copy(path));
+                    path.remove(path.size() - 1);
+                }
+            }
+        } else if (a instanceof List && b instanceof List) {
+            List<?> arrayA = (List<?>) a;
+            List<?> arrayB = (List<?>) b;
+            int count = Math.max(arrayA.size(), arrayB.size());
+            for (int i = 0; i < count; i++) {
+                path.add((long) i);
+                if (i < arrayA.size() && i < arrayB.size())
+                    changedPaths(arrayA.get(i), arrayB.get(i), path, paths, memo);
+                else
+                    paths.add(copy(path));
+                path.remove(path.size() - 1);
+            }
+        } else {
+            paths.add(copy(path));
+        }
+    }
+
+    private static List<Object> copy(List<Object> path) {
+        return Collections.unmodifiableList(new ArrayList<>(path));
+    }
+
+}
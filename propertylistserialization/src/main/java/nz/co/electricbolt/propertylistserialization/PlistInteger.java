@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * PlistInteger.java                                                           *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+
+/**
+ * integer (NSInteger) property list element, held as an unboxed long.
+ */
+
+public final class PlistInteger extends PlistValue {
+
+    private final long value;
+
+    public PlistInteger(long value) {
+        this.value = value;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public @NonNull Type getType() {
+        return Type.INTEGER;
+    }
+
+    @Override
+    public @NonNull Object toPropertyList() {
+        return value;
+    }
+
+    @Override
+    void emit(PropertyListHandler handler) throws IOException {
+        handler.integerValue(value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PlistInteger && value == ((PlistInteger) obj).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+
+}
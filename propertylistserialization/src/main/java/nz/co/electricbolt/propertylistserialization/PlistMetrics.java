@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * PlistMetrics.java                                                           *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.internal.MetricsRecorder;
+
+/**
+ * Measurements of a single read or write of a property list, as reported to a
+ * PlistMetricsListener.
+ */
+
+public final class PlistMetrics {
+
+    public enum Phase {
+        /**
+         * Binary plists only - reading the header, trailer and offset table.
+         */
+        TRAILER,
+        /**
+         * Reading the elements of the property list.
+         */
+        OBJECTS,
+        /**
+         * Binary plists only - assigning an object id to each unique object.
+         */
+        OBJECT_MAPPING,
+        /**
+         * Writing the elements of the property list (including BASE64 and SORTING).
+         */
+        ENCODING,
+        /**
+         * XML plists only - Base64 encoding data.
+         */
+        BASE64,
+        /**
+         * XML plists only - sorting dict keys.
+         */
+        SORTING
+    }
+
+    private final Format format;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long totalNanos;
+    private final int[] objectCounts;
+    private final long[] phaseNanos;
+    private final int dedupHits;
+    private final int maxDepth;
+
+    PlistMetrics(Format format, long bytesIn, long bytesOut, long totalNanos, MetricsRecorder recorder) {
+        this.format = format;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.totalNanos = totalNanos;
+        this.objectCounts = recorder.getObjectCounts();
+        this.phaseNanos = recorder.getPhaseNanos();
+        this.dedupHits = recorder.getDedupHits();
+        this.maxDepth = recorder.getMaxDepth();
+    }
+
+    public @NonNull Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the length of the property list read, or 0 if written.
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Returns the length of the property list written, or 0 if read.
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Returns the duration of the whole read or write.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns the time spent in the phase, or 0 if the phase does not apply to the format.
+     */
+    public long getPhaseNanos(@NonNull Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * Returns the number of elements of the type read or written. Each occurrence is counted, even
+     * if it is shared in a binary plist. Dict keys are not counted.
+     */
+    public int getObjectCount(@NonNull PlistValue.Type type) {
+        return objectCounts[type.ordinal()];
+    }
+
+    public int getTotalObjectCount() {
+        int total = 0;
+        for (int count : objectCounts)
+            total += count;
+        return total;
+    }
+
+    /**
+     * Binary plists written only - returns the number of occurrences of objects, including dict
+     * keys, that equalled an object already assigned an object id, and so were not written again.
+     */
+    public int getDedupHits() {
+        return dedupHits;
+    }
+
+    /**
+     * Returns the maximum nesting of dicts and arrays, e.g. 1 for a root dict of scalars.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    @Override
+    public String toString() {
+        return format + " in=" + bytesIn + " out=" + bytesOut + " objects=" + getTotalObjectCount() + " depth=" + maxDepth + " nanos=" + totalNanos;
+    }
+
+}
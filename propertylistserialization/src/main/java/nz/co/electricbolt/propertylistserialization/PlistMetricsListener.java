@@ -0,0 +1,25 @@
+/*******************************************************************************
+ * PlistMetricsListener.java                                                   *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives PlistMetrics for each property list successfully read or written by a
+ * PropertyListSerializer configured with the listener. Methods are called on the thread that
+ * read or wrote the property list, and so must be thread safe if the serializer is shared.
+ * <p>
+ * Measurements are only taken when a listener is configured.
+ * </p>
+ */
+
+public interface PlistMetricsListener {
+
+    void onParse(@NonNull PlistMetrics metrics);
+
+    void onSerialize(@NonNull PlistMetrics metrics);
+
+}
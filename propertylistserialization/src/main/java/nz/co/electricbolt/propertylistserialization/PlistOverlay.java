@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * PlistOverlay.java                                                           *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Presents a stack of property lists - e.g. base configuration, per-region overrides and
+ * per-device overrides - as a single, read-only property list, without merging them into a copy.
+ * <pre>
+ * Map effective = (Map) PlistOverlay.of(Arrays.asList(base, region, device));
+ * </pre>
+ * Layers are listed from the bottom (the base) to the top. Where layers have the same dict key,
+ * the topmost value wins, except that dicts are merged: the result is a view of the dicts of that
+ * key in each layer, down to the first layer where the key is not a dict. Arrays are merged as
+ * specified by ArrayMerge.
+ * <p>
+ * Values are resolved from the layers each time they are accessed, and nested dicts and arrays
+ * are returned as further views. The views are Map and List instances, so they can be written
+ * with PropertyListSerialization.dataWithPropertyList() directly; materialize() copies the
+ * result, e.g. when it will be accessed repeatedly. The layers must not be modified while the
+ * view is in use.
+ * </p>
+ */
+
+public final class PlistOverlay {
+
+    /**
+     * How arrays with the same dict key in more than one layer are merged.
+     */
+    public enum ArrayMerge {
+        /**
+         * The topmost array wins, as for other values.
+         */
+        REPLACE,
+        /**
+         * The elements of each array in turn, from the bottom layer to the top.
+         */
+        APPEND,
+        /**
+         * Element by element: the topmost element at each index wins, with dicts and arrays
+         * merged. The result is as long as the longest array.
+         */
+        BY_INDEX
+    }
+
+    private PlistOverlay() {
+    }
+
+    /**
+     * Returns a view of the layers, merging arrays with ArrayMerge.REPLACE.
+     *
+     * @param layers property lists, from the bottom layer to the top.
+     */
+    public static @NonNull Object of(@NonNull List<?> layers) {
+        return of(layers, ArrayMerge.REPLACE);
+    }
+
+    /**
+     * Returns a view of the layers, merging arrays as specified. If only the topmost layer is a
+     * dict (or array), or it is neither, it is returned itself.
+     *
+     * @param layers property lists, from the bottom layer to the top.
+     * @throws IllegalArgumentException if there are no layers.
+     */
+    public static @NonNull Object of(@NonNull List<?> layers, @NonNull ArrayMerge arrayMerge) throws IllegalArgumentException {
+        int count = layers.size();
+        if (count == 0)
+            throw new IllegalArgumentException("Overlay must have at least one layer");
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            Object layer = layers.get(count - 1 - i);
+            if (layer == null)
+                throw new IllegalArgumentException("Overlay layers cannot be null");
+            values[i] = layer;
+        }
+        return resolve(values, count, arrayMerge);
+    }
+
+    /**
+     * Returns a copy of the property list, e.g. a view returned by of(), with its dicts and arrays
+     * created by ContainerFactory.FROZEN.
+     */
+    public static @NonNull Object materialize(@NonNull Object obj) {
+        return materialize(obj, ContainerFactory.FROZEN);
+    }
+
+    /**
+     * As per materialize(Object), with dicts and arrays created by the factory.
+     */
+    @SuppressWarnings("unchecked")
+    public static @NonNull Object materialize(@NonNull Object obj, @NonNull ContainerFactory factory) {
+        if (obj instanceof Map) {
+            Map<String, Object> source = (Map<String, Object>) obj;
+            Map<String, Object> dict = factory.newDict(source.size());
+            for (Map.Entry<String, Object> entry : source.entrySet())
+                dict.put(entry.getKey(), materialize(entry.getValue(), factory));
+            return factory.finishDict(dict);
+        }
+        if (obj instanceof List) {
+            List<?> source = (List<?>) obj;
+            List<Object> array = factory.newArray(source.size());
+            for (Object value : source)
+                array.add(materialize(value, factory));
+            return factory.finishArray(array);
+        }
+        return obj;
+    }
+
+    /**
+     * Returns the value of the topmost of values (which are ordered from the top down, and non
+     * null), merged with those below it of the same kind.
+     */
+    private static Object resolve(Object[] values, int count, ArrayMerge arrayMerge) {
+        Object top = values[0];
+        boolean dict = top instanceof Map;
+        if (!dict && !(top instanceof List && arrayMerge != ArrayMerge.REPLACE))
+            return top;
+        int merged = 1;
+        while (merged < count && (dict ? values[merged] instanceof Map : values[merged] instanceof List))
+            merged++;
+        if (merged == 1)
+            return top;
+        if (dict) {
+            Map<?, ?>[] layers = new Map<?, ?>[merged];
+            System.arraycopy(values, 0, layers, 0, merged);
+            return new DictView(layers, arrayMerge);
+        }
+        List<?>[] layers = new List<?>[merged];
+        System.arraycopy(values, 0, layers, 0, merged);
+        return new ArrayView(layers, arrayMerge);
+    }
+
+    /**
+     * A merged dict. layers are ordered from the top down.
+     */
+    private static final class DictView extends AbstractMap<String, Object> {
+
+        private final Map<?, ?>[] layers;
+        private final ArrayMerge arrayMerge;
+        private int size = -1; // or -1 if not yet counted.
+        private Set<Map.Entry<String, Object>> entrySet;
+
+        DictView(Map<?, ?>[] layers, ArrayMerge arrayMerge) {
+            this.layers = layers;
+            this.arrayMerge = arrayMerge;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Object[] values = new Object[layers.length];
+            int count = 0;
+            for (Map<?, ?> layer : layers) {
+                Object value = layer.get(key);
+                if (value != null)
+                    values[count++] = value;
+            }
+            return count == 0 ? null : resolve(values, count, arrayMerge);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            for (Map<?, ?> layer : layers) {
+                if (layer.containsKey(key))
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int size() {
+            if (size < 0) {
+                int count = 0;
+                for (Iterator<String> i = new KeyIterator(); i.hasNext(); i.next())
+                    count++;
+                size = count;
+            }
+            return size;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            if (entrySet == null) {
+                entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+                    @Override
+                    public Iterator<Map.Entry<String, Object>> iterator() {
+                        final KeyIterator keys = new KeyIterator();
+                        return new Iterator<Map.Entry<String, Object>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return keys.hasNext();
+                            }
+
+                            @Override
+                            public Map.Entry<String, Object> next() {
+                                String key = keys.next();
+                                return new SimpleImmutableEntry<>(key, get(key));
+                            }
+
+                            @Override
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return DictView.this.size();
+                    }
+                };
+            }
+            return entrySet;
+        }
+
+        /**
+         * Iterates over the keys of each layer from the top down, skipping those already returned
+         * from a layer above.
+         */
+        private final class KeyIterator implements Iterator<String> {
+
+            private int layer = -1;
+            private Iterator<?> keys;
+            private String next;
+
+            KeyIterator() {
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                while (next == null) {
+                    if (keys == null || !keys.hasNext()) {
+                        if (++layer == layers.length)
+                            return;
+                        keys = layers[layer].keySet().iterator();
+                        continue;
+                    }
+                    String key = (String) keys.next();
+                    boolean shadowed = false;
+                    for (int i = 0; i < layer && !shadowed; i++)
+                        shadowed = layers[i].containsKey(key);
+                    if (!shadowed)
+                        next = key;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                String key = next;
+                advance();
+                return key;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+
+    /**
+     * A merged array, by ArrayMerge.APPEND or BY_INDEX. layers are ordered from the top down.
+     */
+    private static final class ArrayView extends AbstractList<Object> implements RandomAccess {
+
+        private final List<?>[] layers;
+        private final ArrayMerge arrayMerge;
+        private final int size;
+
+        ArrayView(List<?>[] layers, ArrayMerge arrayMerge) {
+            this.layers = layers;
+            this.arrayMerge = arrayMerge;
+            int size = 0;
+            for (List<?> layer : layers)
+                size = arrayMerge == ArrayMerge.APPEND ? size + layer.size() : Math.max(size, layer.size());
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            if (arrayMerge == ArrayMerge.APPEND) {
+                for (int i = layers.length - 1; ; i--) {
+                    if (index < layers[i].size())
+                        return layers[i].get(index);
+                    index -= layers[i].size();
+                }
+            }
+            Object[] values = new Object[layers.length];
+            int count = 0;
+            for (List<?> layer : layers) {
+                if (index < layer.size())
+                    values[count++] = layer.get(index);
+            }
+            return resolve(values, count, arrayMerge);
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * PlistPatch.java                                                             *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.internal.StructuralHash;
+
+/**
+ * The differences between two property lists, as a list of edits that transform one into the
+ * other. Create a patch with diff(), and apply it with apply(). A patch is itself a property list
+ * - an array of dicts, one per edit - so it can be sent in either format and read back with
+ * fromPropertyList():
+ * <pre>
+ * {op = set;    path = (Payload, 3, size); value = 33}
+ * {op = remove; path = (enabled)}
+ * {op = splice; path = (Payload); index = 5; remove = 0; insert = ({name = ...})}
+ * </pre>
+ * Each path is an array of dict keys (strings) and array indices (integers, held as Long as when
+ * read from a property list) from the root, as per PlistHash.changedPaths(). A set with an empty
+ * path replaces the root.
+ */
+
+public final class PlistPatch {
+
+    private static final String OP = "op";
+    private static final String PATH = "path";
+    private static final String VALUE = "value";
+    private static final String INDEX = "index";
+    private static final String REMOVE = "remove";
+    private static final String INSERT = "insert";
+    private static final String SET = "set";
+    private static final String SPLICE = "splice";
+
+    private final List<Object> edits;
+
+    private PlistPatch(List<Object> edits) {
+        this.edits = Collections.unmodifiableList(edits);
+    }
+
+    /**
+     * Returns the edits that transform a into b. Dicts and arrays whose structural hashes (see
+     * PlistHash) are equal are skipped without being compared, so for property lists read with
+     * ContainerFactory.FROZEN the time taken is proportional to the size of the changes rather
+     * than of the property lists.
+     * <p>
+     * Changed dict entries are edited individually. Arrays are compared after skipping their
+     * common leading and trailing elements; if the remaining elements are the same in number they
+     * are edited individually, otherwise they are replaced with a single splice.
+     * </p>
+     * Values in the patch are shared with b, not copied.
+     *
+     * @throws IllegalStateException if either object graph is incompatible.
+     */
+    public static @NonNull PlistPatch diff(@NonNull Object a, @NonNull Object b) throws IllegalStateException {
+        List<Object> edits = new ArrayList<>();
+        diff(a, b, new ArrayList<>(), edits, new IdentityHashMap<Object, Long>());
+        return new PlistPatch(edits);
+    }
+
+    private static void diff(Object a, Object b, ArrayList<Object> path, List<Object> edits, IdentityHashMap<Object, Long> memo) {
+        if (StructuralHash.of(a, memo) == StructuralHash.of(b, memo))
+            return;
+        if (a instanceof Map && b instanceof Map) {
+            Map<?, ?> dictA = (Map<?, ?>) a;
+            Map<?, ?> dictB = (Map<?, ?>) b;
+            for (Map.Entry<?, ?> entry : dictA.entrySet()) {
+                path.add(entry.getKey());
+                Object valueB = dictB.get(entry.getKey());
+                if (valueB == null)
+                    edits.add(edit(REMOVE, path));
+                else
+                    diff(entry.getValue(), valueB, path, edits, memo);
+                path.remove(path.size() - 1);
+            }
+            for (Map.Entry<?, ?> entry : dictB.entrySet()) {
+                if (!dictA.containsKey(entry.getKey())) {
+                    path.add(entry.getKey());
+                    Map<String, Object> edit = edit(SET, path);
+                    edit.put(VALUE, entry.getValue());
+                    edits.add(edit);
+                    path.remove(path.size() - 1);
+                }
+            }
+        } else if (a instanceof List && b instanceof List) {
+            List<?> arrayA = (List<?>) a;
+            List<?> arrayB = (List<?>) b;
+            int start = 0;
+            int endA = arrayA.size();
+            int endB = arrayB.size();
+            while (start < endA && start < endB && StructuralHash.of(arrayA.get(start), memo) == StructuralHash.of(arrayB.get(start), memo))
+                start++;
+            while (endA > start && endB > start && StructuralHash.of(arrayA.get(endA - 1), memo) == StructuralHash.of(arrayB.get(endB - 1), memo)) {
+                endA--;
+                endB--;
+            }
+            if (endA - start == endB - start) {
+                for (int i = start; i < endA; i++) {
+                    path.add((long) i);
+                    diff(arrayA.get(i), arrayB.get(i), path, edits, memo);
+                    path.remove(path.size() - 1);
+                }
+            } else {
+                Map<String, Object> edit = edit(SPLICE, path);
+                edit.put(INDEX, (long) start);
+                edit.put(REMOVE, (long) (endA - start));
+                edit.put(INSERT, new ArrayList<Object>(arrayB.subList(start, endB)));
+                edits.add(edit);
+            }
+        } else {
+            Map<String, Object> edit = edit(SET, path);
+            edit.put(VALUE, b);
+            edits.add(edit);
+        }
+    }
+
+    private static Map<String, Object> edit(String op, List<Object> path) {
+        Map<String, Object> edit = new LinkedHashMap<>();
+        edit.put(OP, op);
+        edit.put(PATH, new ArrayList<>(path));
+        return edit;
+    }
+
+    /**
+     * Returns the patch represented by a property list, as returned by toPropertyList() and
+     * possibly written and read back.
+     *
+     * @throws IllegalArgumentException if the property list is not a valid patch.
+     */
+    public static @NonNull PlistPatch fromPropertyList(@NonNull Object obj) throws IllegalArgumentException {
+        if (!(obj instanceof List))
+            throw new IllegalArgumentException("Patch must be an array");
+        List<Object> edits = new ArrayList<>();
+        for (Object edit : (List<?>) obj) {
+            if (!(edit instanceof Map))
+                throw new IllegalArgumentException("Edit must be a dict");
+            Map<?, ?> dict = (Map<?, ?>) edit;
+            Object op = dict.get(OP);
+            if (!SET.equals(op) && !REMOVE.equals(op) && !SPLICE.equals(op))
+                throw new IllegalArgumentException("Unsupported op " + op);
+            if (!(dict.get(PATH) instanceof List))
+                throw new IllegalArgumentException("Edit path must be an array");
+            if (SET.equals(op) && dict.get(VALUE) == null)
+                throw new IllegalArgumentException("Set must have a value");
+            if (SPLICE.equals(op) && (!(dict.get(INDEX) instanceof Number) || !(dict.get(REMOVE) instanceof Number) || !(dict.get(INSERT) instanceof List)))
+                throw new IllegalArgumentException("Splice must have index, remove and insert");
+            edits.add(edit);
+        }
+        return new PlistPatch(edits);
+    }
+
+    /**
+     * Returns the patch as a property list - an array of dicts - for writing with
+     * PropertyListSerialization.dataWithPropertyList().
+     */
+    public @NonNull List<Object> toPropertyList() {
+        return edits;
+    }
+
+    /**
+     * Returns the number of edits, 0 if the property lists diffed were equal.
+     */
+    public int size() {
+        return edits.size();
+    }
+
+    public boolean isEmpty() {
+        return edits.isEmpty();
+    }
+
+    /**
+     * Returns a new property list with the edits applied to base, which is not modified. Dicts
+     * and arrays on the path to each edit are copied (as LinkedHashMap and ArrayList); all other
+     * subtrees are shared with base. PersistentDict and PersistentArray are instead updated with
+     * with() and without(), so the result is persistent too.
+     *
+     * @throws IllegalArgumentException if an edit's path does not exist in base.
+     */
+    public @NonNull Object apply(@NonNull Object base) throws IllegalArgumentException {
+        // Containers already copied by this apply(), which may be modified in place.
+        IdentityHashMap<Object, Boolean> copies = new IdentityHashMap<>();
+        Object result = base;
+        for (Object edit : edits) {
+            Map<?, ?> dict = (Map<?, ?>) edit;
+            result = apply(result, (List<?>) dict.get(PATH), 0, dict, copies);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object apply(Object node, List<?> path, int depth, Map<?, ?> edit, IdentityHashMap<Object, Boolean> copies) {
+        Object op = edit.get(OP);
+        if (depth == path.size()) {
+            if (SET.equals(op))
+                return edit.get(VALUE);
+            if (REMOVE.equals(op))
+                throw new IllegalArgumentException("Cannot remove the root");
+            if (!(node instanceof List))
+                throw new IllegalArgumentException("Splice path " + path + " is not an array");
+            List<Object> array = node instanceof PersistentArray ? new ArrayList<>((List<?>) node) : copy((List<Object>) node, copies);
+            int index = ((Number) edit.get(INDEX)).intValue();
+            int remove = ((Number) edit.get(REMOVE)).intValue();
+            if (index < 0 || remove < 0 || index + remove > array.size())
+                throw new IllegalArgumentException("Splice of " + path + " out of range");
+            array.subList(index, index + remove).clear();
+            array.addAll(index, (List<?>) edit.get(INSERT));
+            return node instanceof PersistentArray ? PersistentArray.copyOf(array) : array;
+        }
+        Object segment = path.get(depth);
+        boolean last = depth == path.size() - 1;
+        if (node instanceof Map && segment instanceof String) {
+            Map<String, Object> dict = (Map<String, Object>) node;
+            Object child = dict.get(segment);
+            if (child == null && !(last && SET.equals(op)))
+                throw new IllegalArgumentException("Path " + path + " not found");
+            if (dict instanceof PersistentDict) {
+                if (last && REMOVE.equals(op))
+                    return ((PersistentDict) dict).without(segment);
+                return ((PersistentDict) dict).with((String) segment, apply(child, path, depth + 1, edit, copies));
+            }
+            dict = copy(dict, copies);
+            if (last && REMOVE.equals(op))
+                dict.remove(segment);
+            else
+                dict.put((String) segment, apply(child, path, depth + 1, edit, copies));
+            return dict;
+        }
+        if (node instanceof List && segment instanceof Number) {
+            List<Object> array = (List<Object>) node;
+            int index = ((Number) segment).intValue();
+            if (index < 0 || index >= array.size())
+                throw new IllegalArgumentException("Path " + path + " not found");
+            if (array instanceof PersistentArray) {
+                if (last && REMOVE.equals(op))
+                    return ((PersistentArray) array).without(index);
+                return ((PersistentArray) array).with(index, apply(array.get(index), path, depth + 1, edit, copies));
+            }
+            array = copy(array, copies);
+            if (last && REMOVE.equals(op))
+                array.remove(index);
+            else
+                array.set(index, apply(array.get(index), path, depth + 1, edit, copies));
+            return array;
+        }
+        throw new IllegalArgumentException("Path " + path + " not found");
+    }
+
+    private static Map<String, Object> copy(Map<String, Object> dict, IdentityHashMap<Object, Boolean> copies) {
+        if (copies.containsKey(dict))
+            return dict;
+        Map<String, Object> copy = new LinkedHashMap<>(dict);
+        copies.put(copy, Boolean.TRUE);
+        return copy;
+    }
+
+    private static List<Object> copy(List<Object> array, IdentityHashMap<Object, Boolean> copies) {
+        if (copies.containsKey(array))
+            return array;
+        List<Object> copy = new ArrayList<>(array);
+        copies.put(copy, Boolean.TRUE);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return edits.toString();
+    }
+
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * PlistReal.java                                                              *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+
+/**
+ * real (float, double) property list element, held as an unboxed double. Single precision reals
+ * in binary plists are widened, and are written back as double precision.
+ */
+
+public final class PlistReal extends PlistValue {
+
+    private final double value;
+
+    public PlistReal(double value) {
+        this.value = value;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public @NonNull Type getType() {
+        return Type.REAL;
+    }
+
+    @Override
+    public @NonNull Object toPropertyList() {
+        return value;
+    }
+
+    @Override
+    void emit(PropertyListHandler handler) throws IOException {
+        handler.realValue(value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PlistReal && Double.doubleToLongBits(value) == Double.doubleToLongBits(((PlistReal) obj).value);
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(value);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return Double.toString(value);
+    }
+
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * PlistStatistics.java                                                        *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+/**
+ * Aggregate statistics of the property lists read and written by one or more
+ * PropertyListSerializers: operation counts and bytes per format, error counts, and latency
+ * histograms by size.
+ * <p>
+ * Counters are striped by thread, so that recording from many threads at once does not contend
+ * on the same memory; getters sum the stripes, and so are only consistent once recording has
+ * stopped.
+ * </p>
+ * Latencies are recorded in LATENCY_BUCKETS power of two buckets: bucket 0 holds latencies under
+ * 1 microsecond, and bucket b latencies from 2^(b-1) up to 2^b microseconds (the last bucket is
+ * unbounded). Each histogram is for one of SIZE_CLASSES ranges of property list length, see
+ * sizeClassOf().
+ */
+
+public final class PlistStatistics {
+
+    public enum Operation {
+        /**
+         * Reading a property list. Errors are PropertyListReadStreamExceptions.
+         */
+        PARSE,
+        /**
+         * Writing a property list. Errors are PropertyListWriteStreamExceptions.
+         */
+        SERIALIZE
+    }
+
+    public static final int SIZE_CLASSES = 5;
+    public static final int LATENCY_BUCKETS = 32;
+
+    private static final int OPERATIONS = 2;
+    private static final int FORMATS = 2;
+
+    // Counter layout within each stripe.
+    private static final int COUNT = 0; // [operation][format]
+    private static final int BYTES = COUNT + OPERATIONS * FORMATS; // [operation][format]
+    private static final int ERRORS = BYTES + OPERATIONS * FORMATS; // [operation]
+    private static final int HISTOGRAM = ERRORS + OPERATIONS; // [operation][size class][bucket]
+    private static final int COUNTERS = HISTOGRAM + OPERATIONS * SIZE_CLASSES * LATENCY_BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    public PlistStatistics() {
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+        this.stripes = new AtomicLongArray[count];
+        for (int i = 0; i < count; i++)
+            stripes[i] = new AtomicLongArray(COUNTERS);
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Returns the size class of a property list length: 0 is under 1KB, 1 under 16KB, 2 under
+     * 256KB, 3 under 4MB, and 4 is 4MB or more.
+     */
+    public static int sizeClassOf(long bytes) {
+        int sizeClass = 0;
+        for (long limit = 1024; bytes >= limit && sizeClass < SIZE_CLASSES - 1; limit <<= 4)
+            sizeClass++;
+        return sizeClass;
+    }
+
+    /**
+     * Returns the (exclusive) upper bound of a latency bucket in microseconds, or Long.MAX_VALUE
+     * for the last bucket.
+     */
+    public static long bucketLimitMicros(int bucket) {
+        return bucket == LATENCY_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    void record(Operation operation, Format format, long bytes, long nanos) {
+        AtomicLongArray stripe = stripe();
+        int op = operation.ordinal();
+        stripe.incrementAndGet(COUNT + op * FORMATS + format.ordinal());
+        stripe.addAndGet(BYTES + op * FORMATS + format.ordinal(), bytes);
+        long micros = nanos / 1000;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), LATENCY_BUCKETS - 1);
+        stripe.incrementAndGet(HISTOGRAM + (op * SIZE_CLASSES + sizeClassOf(bytes)) * LATENCY_BUCKETS + bucket);
+    }
+
+    void recordError(Operation operation) {
+        stripe().incrementAndGet(ERRORS + operation.ordinal());
+    }
+
+    private AtomicLongArray stripe() {
+        return stripes[(int) Thread.currentThread().getId() & stripeMask];
+    }
+
+    /**
+     * Returns the number of property lists successfully read or written in the format.
+     */
+    public long getCount(@NonNull Operation operation, @NonNull Format format) {
+        return sum(COUNT + operation.ordinal() * FORMATS + format.ordinal());
+    }
+
+    /**
+     * Returns the total length of the property lists successfully read or written in the format.
+     */
+    public long getBytes(@NonNull Operation operation, @NonNull Format format) {
+        return sum(BYTES + operation.ordinal() * FORMATS + format.ordinal());
+    }
+
+    /**
+     * Returns the number of PropertyListReadStreamExceptions (PARSE) or
+     * PropertyListWriteStreamExceptions (SERIALIZE) thrown.
+     */
+    public long getErrorCount(@NonNull Operation operation) {
+        return sum(ERRORS + operation.ordinal());
+    }
+
+    /**
+     * Returns the number of property lists of the size class in each latency bucket.
+     */
+    public @NonNull long[] getLatencyHistogram(@NonNull Operation operation, int sizeClass) {
+        if (sizeClass < 0 || sizeClass >= SIZE_CLASSES)
+            throw new IllegalArgumentException("Size class " + sizeClass + " out of range");
+        long[] histogram = new long[LATENCY_BUCKETS];
+        int base = HISTOGRAM + (operation.ordinal() * SIZE_CLASSES + sizeClass) * LATENCY_BUCKETS;
+        for (int bucket = 0; bucket < LATENCY_BUCKETS; bucket++)
+            histogram[bucket] = sum(base + bucket);
+        return histogram;
+    }
+
+    /**
+     * Sets all counters to zero.
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < COUNTERS; i++)
+                stripe.set(i, 0);
+        }
+    }
+
+    private long sum(int counter) {
+        long sum = 0;
+        for (AtomicLongArray stripe : stripes)
+            sum += stripe.get(counter);
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            sb.append(operation);
+            for (Format format : Format.values())
+                sb.append(' ').append(format).append('=').append(getCount(operation, format)).append('/').append(getBytes(operation, format)).append('B');
+            sb.append(" errors=").append(getErrorCount(operation)).append('\n');
+        }
+        return sb.toString();
+    }
+
+}
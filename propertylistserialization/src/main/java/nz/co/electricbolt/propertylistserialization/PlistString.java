@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * PlistString.java                                                            *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+
+/**
+ * string (NSString) property list element.
+ */
+
+public final class PlistString extends PlistValue {
+
+    private final String value;
+
+    public PlistString(@NonNull String value) {
+        if (value == null)
+            throw new NullPointerException("String cannot be null");
+        this.value = value;
+    }
+
+    public @NonNull String getValue() {
+        return value;
+    }
+
+    @Override
+    public @NonNull Type getType() {
+        return Type.STRING;
+    }
+
+    @Override
+    public @NonNull Object toPropertyList() {
+        return value;
+    }
+
+    @Override
+    void emit(PropertyListHandler handler) throws IOException {
+        handler.stringValue(value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PlistString && value.equals(((PlistString) obj).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+}
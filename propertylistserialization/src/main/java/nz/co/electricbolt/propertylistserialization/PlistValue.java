@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * PlistValue.java                                                             *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+import nz.co.electricbolt.propertylistserialization.internal.ObjectEmitter;
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+
+/**
+ * A typed, immutable property list element. An alternative to the object graph returned by
+ * propertyListWithData(), in which integers, reals, booleans and dates are held unboxed and the
+ * type of each element is available from getType() rather than by instanceof checks.
+ * <p>
+ * The subclasses are fixed, one per property list element:
+ * dict (NSDictionary) -&gt; PlistDict
+ * array (NSArray) -&gt; PlistArray
+ * string (NSString) -&gt; PlistString
+ * integer (NSInteger) -&gt; PlistInteger
+ * real (float, double) -&gt; PlistReal
+ * true/false (BOOL) -&gt; PlistBoolean
+ * date (NSDate) -&gt; PlistDate
+ * data (NSData) -&gt; PlistData
+ * </p>
+ * Created by PropertyListSerialization.valueWithData() and written by
+ * PropertyListSerialization.dataWithValue().
+ */
+
+public abstract class PlistValue {
+
+    public enum Type {
+        DICT,
+        ARRAY,
+        STRING,
+        INTEGER,
+        REAL,
+        BOOLEAN,
+        DATE,
+        DATA
+    }
+
+    PlistValue() {
+        // Subclasses are limited to this package.
+    }
+
+    public abstract @NonNull Type getType();
+
+    /**
+     * Returns the element as the object graph that propertyListWithData() would have returned,
+     * i.e. String, Long, Double, HashMap&lt;String, Object&gt;, ArrayList, Date, Boolean or byte[].
+     */
+    public abstract @NonNull Object toPropertyList();
+
+    /**
+     * Returns the element for an object graph of any of the types accepted by
+     * PropertyListSerialization.write().
+     *
+     * @throws IllegalStateException if the object graph is incompatible.
+     */
+    public static @NonNull PlistValue of(@NonNull Object obj) throws IllegalStateException {
+        PlistValueBuilder builder = new PlistValueBuilder();
+        try {
+            new ObjectEmitter(builder).emit(obj);
+        } catch (IOException ioe) {
+            // PlistValueBuilder does not throw IOException.
+            throw new IllegalStateException(ioe);
+        }
+        return builder.getResult();
+    }
+
+    /**
+     * Emits the element, and its children, as property list events.
+     */
+    abstract void emit(PropertyListHandler handler) throws IOException;
+
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * PlistValueBuilder.java                                                      *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+
+/**
+ * Builds a PlistValue from property list events.
+ */
+
+class PlistValueBuilder implements PropertyListHandler {
+
+    private static final int MAX_PRESIZE = 1024; // entries or elements allocated up front.
+
+    private static class Container {
+        final boolean dict;
+        final LinkedHashMap<String, PlistValue> entries; // dict, otherwise null.
+        final ArrayList<PlistValue> elements; // array, otherwise null.
+        final String key; // key the container will be stored under, if its parent is a dict.
+
+        Container(boolean dict, int count, String key) {
+            this.dict = dict;
+            int capacity = count < 0 ? 10 : Math.min(count, MAX_PRESIZE);
+            this.entries = dict ? new LinkedHashMap<String, PlistValue>((int) (capacity / 0.75f) + 1) : null;
+            this.elements = dict ? null : new ArrayList<PlistValue>(capacity);
+            this.key = key;
+        }
+    }
+
+    private ArrayList<Container> containers; // open dicts and arrays, innermost last.
+    private String key;
+    private PlistValue root;
+
+    PlistValueBuilder() {
+        this.containers = new ArrayList<>();
+    }
+
+    /**
+     * Returns the root element, once all events have been received.
+     */
+    PlistValue getResult() {
+        return root;
+    }
+
+    @Override
+    public void startDict(int count) {
+        containers.add(new Container(true, count, key));
+    }
+
+    @Override
+    public void key(String key) {
+        this.key = key;
+    }
+
+    @Override
+    public void endDict() {
+        add(new PlistDict(pop().entries));
+    }
+
+    @Override
+    public void startArray(int count) {
+        containers.add(new Container(false, count, key));
+    }
+
+    @Override
+    public void endArray() {
+        ArrayList<PlistValue> array = pop().elements;
+        add(new PlistArray(array.toArray(new PlistValue[array.size()])));
+    }
+
+    @Override
+    public void stringValue(String value) {
+        add(new PlistString(value));
+    }
+
+    @Override
+    public void integerValue(long value) {
+        add(new PlistInteger(value));
+    }
+
+    @Override
+    public void realValue(float value) {
+        add(new PlistReal(value));
+    }
+
+    @Override
+    public void realValue(double value) {
+        add(new PlistReal(value));
+    }
+
+    @Override
+    public void dateValue(Date value) {
+        add(new PlistDate(value));
+    }
+
+    @Override
+    public void booleanValue(boolean value) {
+        add(PlistBoolean.valueOf(value));
+    }
+
+    @Override
+    public void dataValue(byte[] value) {
+        add(new PlistData(value));
+    }
+
+    private Container pop() {
+        Container container = containers.remove(containers.size() - 1);
+        key = container.key;
+        return container;
+    }
+
+    private void add(PlistValue value) {
+        if (containers.isEmpty()) {
+            root = value;
+            return;
+        }
+        Container container = containers.get(containers.size() - 1);
+        if (container.dict)
+            container.entries.put(key, value);
+        else
+            container.elements.add(value);
+    }
+
+}
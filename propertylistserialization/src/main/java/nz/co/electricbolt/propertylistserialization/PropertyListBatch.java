@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * PropertyListBatch.java                                                      *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+
+/**
+ * Reads or writes many independent property lists in parallel, on an ExecutorService supplied by
+ * the caller. Results are returned in the same order as the input, one PropertyListResult per
+ * item; an item that fails does not affect the others.
+ * <p>
+ * Rather than one task per item, at most one task per available processor is submitted, each of
+ * which repeatedly takes the next unprocessed item until none remain. Large batches therefore
+ * incur little scheduling overhead, and uneven item sizes are balanced across the workers.
+ * </p>
+ */
+
+public final class PropertyListBatch {
+
+    private PropertyListBatch() {
+    }
+
+    /**
+     * Reads each byte[] as per PropertyListSerialization.propertyListWithData(byte[], Format),
+     * waiting for all items to complete.
+     *
+     * @param data     byte[] of each plist. The list must not be modified until complete.
+     * @param format   The format of the property lists. Specify either XML or Binary.
+     * @param executor The executor to read the property lists on.
+     * @return the result of each item, in the same order as data.
+     * @throws RejectedExecutionException if the executor does not accept the work.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public static @NonNull
+    List<PropertyListResult<Object>> parseAll(@NonNull List<byte[]> data, Format format, @NonNull ExecutorService executor) throws InterruptedException {
+        return await(parseAllAsync(data, format, executor));
+    }
+
+    /**
+     * As per parseAll(), but returns immediately. Cancelling the Future stops items that have not
+     * yet started.
+     */
+    public static @NonNull
+    Future<List<PropertyListResult<Object>>> parseAllAsync(@NonNull List<byte[]> data, final Format format, @NonNull ExecutorService executor) {
+        final byte[][] items = data.toArray(new byte[data.size()][]);
+        return submit(items.length, executor, new Item<Object>() {
+            @Override
+            public PropertyListResult<Object> run(int index) {
+                try {
+                    return new PropertyListResult<>(PropertyListSerialization.propertyListWithData(items[index], format), null);
+                } catch (PropertyListException ple) {
+                    return new PropertyListResult<>(null, ple);
+                }
+            }
+
+            @Override
+            public PropertyListResult<Object> failed(Throwable t) {
+                // Corrupt plists can fail in ways other than PropertyListReadStreamException,
+                // e.g. StackOverflowError for deeply nested containers.
+                return new PropertyListResult<>(null, new PropertyListReadStreamException(t));
+            }
+        });
+    }
+
+    /**
+     * Writes each object graph as per PropertyListSerialization.dataWithPropertyList(Object,
+     * Format), waiting for all items to complete.
+     *
+     * @param objs     The object graphs to write out as property lists. The list must not be
+     *                 modified until complete.
+     * @param format   The format of the property lists. Specify either XML or Binary.
+     * @param executor The executor to write the property lists on.
+     * @return the result of each item, in the same order as objs.
+     * @throws RejectedExecutionException if the executor does not accept the work.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public static @NonNull
+    List<PropertyListResult<byte[]>> writeAll(@NonNull List<?> objs, Format format, @NonNull ExecutorService executor) throws InterruptedException {
+        return await(writeAllAsync(objs, format, executor));
+    }
+
+    /**
+     * As per writeAll(), but returns immediately. Cancelling the Future stops items that have not
+     * yet started.
+     */
+    public static @NonNull
+    Future<List<PropertyListResult<byte[]>>> writeAllAsync(@NonNull List<?> objs, final Format format, @NonNull ExecutorService executor) {
+        final Object[] items = objs.toArray();
+        return submit(items.length, executor, new Item<byte[]>() {
+            @Override
+            public PropertyListResult<byte[]> run(int index) {
+                try {
+                    return new PropertyListResult<>(PropertyListSerialization.dataWithPropertyList(items[index], format), null);
+                } catch (PropertyListException ple) {
+                    return new PropertyListResult<>(null, ple);
+                }
+            }
+
+            @Override
+            public PropertyListResult<byte[]> failed(Throwable t) {
+                // e.g. null items, or StackOverflowError for deeply nested containers.
+                return new PropertyListResult<>(null, new PropertyListWriteStreamException(t));
+            }
+        });
+    }
+
+    private interface Item<T> {
+        PropertyListResult<T> run(int index);
+
+        /**
+         * Returns the result of an item that threw, or was never processed.
+         */
+        PropertyListResult<T> failed(Throwable t);
+    }
+
+    private static <T> Future<List<PropertyListResult<T>>> submit(int count, ExecutorService executor, Item<T> item) {
+        int workers = Math.min(count, Runtime.getRuntime().availableProcessors());
+        BatchFuture<T> future = new BatchFuture<>(count, workers, item);
+        try {
+            for (int i = 0; i < workers; i++)
+                future.workers.add(executor.submit(future.newWorker()));
+        } catch (RejectedExecutionException ree) {
+            future.cancel(false);
+            throw ree;
+        }
+        return future;
+    }
+
+    private static <T> List<PropertyListResult<T>> await(Future<List<PropertyListResult<T>>> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            // Workers report failures per item, so do not complete exceptionally.
+            throw new IllegalStateException(ee);
+        }
+    }
+
+    /**
+     * Completes once every worker has finished.
+     */
+    private static class BatchFuture<T> implements Future<List<PropertyListResult<T>>> {
+
+        private final PropertyListResult<T>[] results;
+        private final AtomicInteger next; // index of the next item to be processed.
+        private final CountDownLatch remaining; // workers yet to finish.
+        private final Item<T> item;
+        final List<Future<?>> workers;
+        private volatile boolean cancelled;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        BatchFuture(int count, int workerCount, Item<T> item) {
+            this.results = new PropertyListResult[count];
+            this.next = new AtomicInteger();
+            this.remaining = new CountDownLatch(workerCount);
+            this.item = item;
+            this.workers = Collections.synchronizedList(new ArrayList<Future<?>>(workerCount));
+        }
+
+        Runnable newWorker() {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int index;
+                        while (!cancelled && (index = next.getAndIncrement()) < results.length) {
+                            try {
+                                results[index] = item.run(index);
+                            } catch (Throwable t) {
+                                // Reported as the item's failure, so the worker continues.
+                                results[index] = item.failed(t);
+                            }
+                        }
+                    } finally {
+                        remaining.countDown();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (isDone())
+                return false;
+            cancelled = true;
+            synchronized (workers) {
+                for (Future<?> worker : workers)
+                    worker.cancel(mayInterruptIfRunning);
+            }
+            // Workers that never started will not count down.
+            while (remaining.getCount() > 0)
+                remaining.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled || remaining.getCount() == 0;
+        }
+
+        @Override
+        public List<PropertyListResult<T>> get() throws InterruptedException {
+            remaining.await();
+            return result();
+        }
+
+        @Override
+        public List<PropertyListResult<T>> get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, TimeoutException {
+            if (!remaining.await(timeout, unit))
+                throw new TimeoutException();
+            return result();
+        }
+
+        private synchronized List<PropertyListResult<T>> result() {
+            if (cancelled)
+                throw new CancellationException();
+            // The latch orders the workers' writes to results before this read.
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null)
+                    results[i] = item.failed(new IllegalStateException("Item was not processed"));
+            }
+            return Collections.unmodifiableList(Arrays.asList(results));
+        }
+    }
+
+}
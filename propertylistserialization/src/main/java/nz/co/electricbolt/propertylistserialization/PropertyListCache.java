@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * PropertyListCache.java                                                      *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.internal.CompactMap;
+
+/**
+ * Caches the property lists read from byte[] by their content, so that reading the same bytes
+ * again (e.g. a shared configuration received repeatedly) returns the previously read object
+ * graph without parsing. Thread safe.
+ * <p>
+ * Property lists are read with ContainerFactory.FROZEN, so the dicts and arrays returned are
+ * immutable and are shared between threads and callers. The NSDate and NSData values within them
+ * are copied each time they are retrieved, as is a root NSDate or NSData on each read, so no
+ * caller can modify the cached property list.
+ * </p>
+ * Entries are keyed by the SHA-256 digest of their property list, rather than by retaining its
+ * bytes, so an entry holds only its object graph. Entries are weighed by the length of their
+ * property list, as an estimate of the size of the object graph, and the least recently used
+ * entries are evicted once the total weight exceeds the maximum. A property list heavier than the
+ * maximum is read but not cached.
+ */
+
+public final class PropertyListCache {
+
+    private final PropertyListSerializer serializer;
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // guarded by this.
+    private long weight; // guarded by this.
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache that reads property lists with PropertyListSerializer.DEFAULT.
+     *
+     * @param maxWeight maximum total length in bytes of the cached property lists.
+     */
+    public PropertyListCache(long maxWeight) {
+        this(PropertyListSerializer.DEFAULT, maxWeight);
+    }
+
+    /**
+     * Creates a cache that reads property lists with the serializer's settings, other than its
+     * container factory, which is replaced with ContainerFactory.FROZEN.
+     *
+     * @param maxWeight maximum total length in bytes of the cached property lists.
+     */
+    public PropertyListCache(@NonNull PropertyListSerializer serializer, long maxWeight) {
+        if (maxWeight < 1)
+            throw new IllegalArgumentException("Maximum weight must be at least 1");
+        this.serializer = new PropertyListSerializer.Builder(serializer).setContainerFactory(ContainerFactory.FROZEN).build();
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * As per propertyListWithData(byte[], Format), in the serializer's format.
+     */
+    public @NonNull
+    Object propertyListWithData(@NonNull byte[] data) throws PropertyListReadStreamException {
+        return propertyListWithData(data, serializer.getFormat());
+    }
+
+    /**
+     * Returns the cached property list with the same format and content as data, otherwise reads
+     * and caches it, as per PropertyListSerialization.propertyListWithData(byte[], Format).
+     * Property lists that fail to read are not cached.
+     */
+    public @NonNull
+    Object propertyListWithData(@NonNull byte[] data, Format format) throws PropertyListReadStreamException {
+        Key key = new Key(format, data);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return CompactMap.copyOfValue(entry.obj);
+        }
+        misses.incrementAndGet();
+
+        // Parse outside the lock; concurrent misses of the same property list each parse it, and
+        // the first to finish is cached.
+        Object obj = serializer.propertyListWithData(data, format);
+        if (data.length > maxWeight)
+            return obj;
+        synchronized (this) {
+            Entry existing = entries.get(key);
+            if (existing != null)
+                return CompactMap.copyOfValue(existing.obj);
+            entries.put(key, new Entry(obj, data.length));
+            weight += data.length;
+            Iterator<Entry> it = entries.values().iterator();
+            while (weight > maxWeight) {
+                weight -= it.next().weight;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        return CompactMap.copyOfValue(obj);
+    }
+
+    /**
+     * As per propertyListWithData(byte[], Format), reading the stream fully first.
+     */
+    public @NonNull
+    Object propertyListWithData(@NonNull InputStream is, Format format) throws PropertyListReadStreamException {
+        byte[] data;
+        try {
+            data = PropertyListSerialization.readFully(is);
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw new PropertyListReadStreamException(ioe);
+        }
+        return propertyListWithData(data, format);
+    }
+
+    /**
+     * Returns the number of reads answered from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of reads that were not in the cache, and so were parsed.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total length in bytes of the cached property lists.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Removes all entries. Hit, miss and eviction counts are not reset.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    private static final class Entry {
+
+        final Object obj;
+        final int weight;
+
+        Entry(Object obj, int weight) {
+            this.obj = obj;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Key {
+
+        final Format format;
+        final byte[] digest;
+        final int hash;
+
+        Key(Format format, byte[] data) {
+            this.format = format;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256").digest(data);
+            } catch (NoSuchAlgorithmException nsae) {
+                // SHA-256 is always supported.
+                throw new IllegalStateException(nsae);
+            }
+            this.hash = Arrays.hashCode(digest) + format.ordinal();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return hash == key.hash && format == key.format && Arrays.equals(digest, key.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * PropertyListEncoder.java                                                    *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Converts objects of a type that has no property list equivalent (e.g. UUID, BigDecimal, Set)
+ * into one that does, as they are written. Register with
+ * PropertyListSerialization.registerEncoder().
+ * <p>
+ * For example:
+ * </p>
+ * <pre>
+ * PropertyListSerialization.registerEncoder(UUID.class, new PropertyListEncoder&lt;UUID&gt;() {
+ *     public Object encode(UUID value) {
+ *         return value.toString();
+ *     }
+ * });
+ * </pre>
+ */
+
+public interface PropertyListEncoder<T> {
+
+    /**
+     * @param value the object being written.
+     * @return any of the types accepted by PropertyListSerialization.dataWithPropertyList(),
+     * including another object with a registered encoder. If the encoders do not reach one of the
+     * other types - e.g. an encoder returns its input - the write fails with
+     * PropertyListWriteStreamException.
+     */
+    @NonNull Object encode(@NonNull T value);
+
+}
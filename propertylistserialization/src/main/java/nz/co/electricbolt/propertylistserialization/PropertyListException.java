@@ -11,4 +11,11 @@ public class PropertyListException extends Exception {
         super(e);
     }
 
+    /**
+     * For errors, e.g. StackOverflowError, reported rather than thrown - see PropertyListBatch.
+     */
+    PropertyListException(Throwable t) {
+        super(t);
+    }
+
 }
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * PropertyListFileCache.java                                                  *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.internal.ContentHash;
+
+/**
+ * Reads property list files, keeping a compiled binary plist copy of each XML file in a cache
+ * directory so that later reads avoid parsing XML. Intended for large XML files that are read on
+ * every application start, e.g. bundled device databases or localized catalogs.
+ * <p>
+ * Each cache entry is named by a hash of the file's absolute path, and records the file's length,
+ * modification time and content hash. An entry whose length and modification time match the file
+ * is memory mapped and read in place as a binary plist, without reading the file. Otherwise the
+ * file is read and hashed: if only its modification time changed the entry is reused, and if its
+ * content changed the entry is rebuilt. Entries are written to a temporary file and renamed into
+ * place, so concurrent readers, including other processes, never see a partially written entry.
+ * </p>
+ * Files that are already binary plists are read directly and not cached. Failing to write an
+ * entry does not fail the read. Note a file rewritten with the same length within the
+ * filesystem's modification time granularity is not detected.
+ */
+
+public final class PropertyListFileCache {
+
+    private static final byte[] MAGIC = {'b', 'p', 'l', 'c', 'a', 'c', '0', '1'};
+    private static final int HEADER_LENGTH = 32; // magic, file length, modified, content hash.
+    private static final Charset UTF8 = Charset.forName("utf-8");
+
+    private final PropertyListSerializer serializer;
+    private final File directory;
+
+    /**
+     * Creates a cache in the directory, reading property lists with
+     * PropertyListSerializer.DEFAULT. The directory is created when the first entry is written.
+     */
+    public PropertyListFileCache(@NonNull File directory) {
+        this(PropertyListSerializer.DEFAULT, directory);
+    }
+
+    /**
+     * Creates a cache in the directory, reading property lists with the serializer's settings
+     * (other than its format, which is determined by the file). The directory is created when the
+     * first entry is written.
+     */
+    public PropertyListFileCache(@NonNull PropertyListSerializer serializer, @NonNull File directory) {
+        this.serializer = serializer;
+        this.directory = directory;
+    }
+
+    public @NonNull File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Reads the property list file, in either format, from its cache entry where possible.
+     *
+     * @param file the XML or binary property list file.
+     * @return Returns the root element.
+     * @throws PropertyListReadStreamException if the file could not be read, or the plist is
+     *                                         corrupt, values could not be converted or the input
+     *                                         stream is EOF.
+     */
+    public @NonNull
+    Object propertyListWithFile(@NonNull File file) throws PropertyListReadStreamException {
+        long length = file.length();
+        long modified = file.lastModified();
+        File entry = entryFor(file);
+
+        ByteBuffer compiled = null;
+        try {
+            compiled = map(entry);
+        } catch (IOException ioe) {
+            // Missing or unreadable entry - rebuilt below.
+        }
+        if (compiled != null && compiled.getLong(8) == length && compiled.getLong(16) == modified) {
+            Object obj = readEntry(body(compiled));
+            if (obj != null)
+                return obj;
+            compiled = null;
+        }
+
+        byte[] data;
+        try {
+            data = readFile(file);
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw new PropertyListReadStreamException(ioe);
+        }
+        if (data.length >= 8 && new String(data, 0, 8).equals("bplist00"))
+            return serializer.propertyListWithData(data, Format.Binary);
+
+        long hash = ContentHash.hash64(data);
+        if (compiled != null && compiled.getLong(8) == data.length && compiled.getLong(24) == hash) {
+            // Only the modification time changed.
+            ByteBuffer body = body(compiled);
+            Object obj = readEntry(body);
+            if (obj != null) {
+                store(entry, data.length, modified, hash, body);
+                return obj;
+            }
+        }
+
+        Object obj = serializer.propertyListWithData(data, Format.XML);
+        try {
+            store(entry, data.length, modified, hash, ByteBuffer.wrap(serializer.dataWithPropertyList(obj, Format.Binary)));
+        } catch (PropertyListWriteStreamException e) {
+            // Not representable as a binary plist - left uncached.
+        }
+        return obj;
+    }
+
+    /**
+     * Removes the cache entry for the file, if any.
+     */
+    public void invalidate(@NonNull File file) {
+        entryFor(file).delete();
+    }
+
+    private File entryFor(File file) {
+        byte[] path = file.getAbsolutePath().getBytes(UTF8);
+        return new File(directory, String.format("%016x.bplc", ContentHash.hash64(path)));
+    }
+
+    private static ByteBuffer map(File entry) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(entry, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_LENGTH || size > Integer.MAX_VALUE)
+                return null;
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buffer.get(i) != MAGIC[i])
+                    return null;
+            }
+            return buffer;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the property list of an entry, or null if the entry is corrupt.
+     */
+    private Object readEntry(ByteBuffer body) {
+        try {
+            return serializer.propertyListWithData(body);
+        } catch (PropertyListReadStreamException e) {
+            return null;
+        } catch (RuntimeException re) {
+            // Corrupt plists can fail in ways other than PropertyListReadStreamException.
+            return null;
+        }
+    }
+
+    /**
+     * Returns the binary plist following the header, without copying it out of the mapped entry.
+     */
+    private static ByteBuffer body(ByteBuffer compiled) {
+        ByteBuffer body = compiled.duplicate();
+        body.position(HEADER_LENGTH);
+        return body.slice();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            return PropertyListSerialization.readFully(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Writes the entry to a temporary file and renames it into place, replacing any existing
+     * entry. Errors are ignored - the entry is simply rebuilt on a later read.
+     */
+    private void store(File entry, long length, long modified, long hash, ByteBuffer body) {
+        File temp = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                return;
+            temp = File.createTempFile(entry.getName(), ".tmp", directory);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.put(MAGIC).putLong(length).putLong(modified).putLong(hash);
+            FileOutputStream os = new FileOutputStream(temp);
+            try {
+                os.write(header.array());
+                FileChannel channel = os.getChannel();
+                ByteBuffer src = body.duplicate();
+                while (src.hasRemaining())
+                    channel.write(src);
+                os.getFD().sync();
+            } finally {
+                os.close();
+            }
+            if (temp.renameTo(entry))
+                temp = null;
+        } catch (IOException ioe) {
+            // Cache directory not writable, or out of space.
+        } finally {
+            if (temp != null)
+                temp.delete();
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * PropertyListFragment.java                                                   *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.text.ParseException;
+
+import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListWriter;
+import nz.co.electricbolt.propertylistserialization.internal.EncodedFragment;
+
+/**
+ * An object graph that has already been encoded, and can be placed anywhere within another object
+ * graph passed to PropertyListSerialization.dataWithPropertyList() or writePropertyList(). The
+ * encoded form is written verbatim, rather than walking and encoding the object graph again.
+ * <p>
+ * Format.Binary - the object graph is encoded once (on construction) as an object subtable, whose
+ * object references are remapped when merged into the enclosing property list. Objects within the
+ * fragment are not shared with equal objects outside the fragment.
+ * Format.XML - the object graph is encoded once per indent level (on first use), as the
+ * indentation and &lt;data&gt; line lengths depend on the nesting depth.
+ * </p>
+ * The object graph must not be modified after the fragment has been created. Fragments are
+ * thread safe, and may be shared between property lists.
+ */
+
+public final class PropertyListFragment extends EncodedFragment {
+
+    private final Object obj;
+
+    /**
+     * Encodes the object graph.
+     *
+     * @param obj The object graph to encode. The object graph may contain the same types as
+     *            accepted by PropertyListSerialization.dataWithPropertyList().
+     * @throws PropertyListWriteStreamException if the object graph is incompatible.
+     */
+    public PropertyListFragment(@NonNull Object obj) throws PropertyListWriteStreamException {
+        super(obj, encode(obj));
+        this.obj = obj;
+    }
+
+    private static BinaryPropertyListWriter.Fragment encode(Object obj) throws PropertyListWriteStreamException {
+        try {
+            return new BinaryPropertyListWriter(obj).writeFragment();
+        } catch (IllegalStateException ise) {
+            // Incompatible Object attempting to be output
+            throw new PropertyListWriteStreamException(ise);
+        } catch (ParseException pe) {
+            // Error converting Date - unlikely to occur
+            throw new PropertyListWriteStreamException(pe);
+        } catch (IOException ioe) {
+            // Error writing to output stream - unlikely to occur
+            throw new PropertyListWriteStreamException(ioe);
+        }
+    }
+
+    /**
+     * Returns the object graph the fragment was created from.
+     */
+    public @NonNull Object getPropertyList() {
+        return obj;
+    }
+
+}
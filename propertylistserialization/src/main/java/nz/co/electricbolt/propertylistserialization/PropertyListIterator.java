@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * PropertyListIterator.java                                                   *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListReader;
+import nz.co.electricbolt.propertylistserialization.internal.ObjectGraphBuilder;
+import nz.co.electricbolt.propertylistserialization.internal.XMLPropertyListReader;
+
+/**
+ * Iterates over the elements of a property list whose root is an array, decoding each element
+ * only when next() is called. Returned by PropertyListSerialization.iterateArray().
+ * <p>
+ * Iterator methods cannot throw checked exceptions, so if the plist is corrupt, values could not
+ * be converted or the input stream is EOF, hasNext() and next() throw IllegalStateException, with
+ * the PropertyListReadStreamException as its cause. The iterator cannot be used after that.
+ * </p>
+ * The input stream is closed once the last element has been read, or on error. Call close() to
+ * stop iterating before then. Format.Binary plists are read in full, and the input stream closed,
+ * by PropertyListSerialization.iterateArray().
+ */
+
+public final class PropertyListIterator implements Iterator<Object> {
+
+    private final ContainerFactory factory;
+
+    // Format.XML
+    private final XMLPropertyListReader xmlReader;
+
+    // Format.Binary
+    private final BinaryPropertyListReader binaryReader;
+    private final int arrayObjectId;
+    private final int count;
+    private int index;
+
+    private boolean done;
+
+    PropertyListIterator(XMLPropertyListReader xmlReader, ContainerFactory factory) {
+        this.factory = factory;
+        this.xmlReader = xmlReader;
+        this.binaryReader = null;
+        this.arrayObjectId = 0;
+        this.count = 0;
+    }
+
+    PropertyListIterator(BinaryPropertyListReader binaryReader, int arrayObjectId, ContainerFactory factory) {
+        this.factory = factory;
+        this.xmlReader = null;
+        this.binaryReader = binaryReader;
+        this.arrayObjectId = arrayObjectId;
+        this.count = binaryReader.count(arrayObjectId);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (done)
+            return false;
+        if (binaryReader != null) {
+            done = index == count;
+            return !done;
+        }
+        try {
+            done = !xmlReader.hasElement();
+            return !done;
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw failed(ioe);
+        } catch (XmlPullParserException xppe) {
+            // XML parsing error - unexpected tokens etc
+            throw failed(xppe);
+        }
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        try {
+            if (binaryReader != null)
+                return binaryReader.parse(binaryReader.ref(arrayObjectId, index++), factory);
+            ObjectGraphBuilder builder = new ObjectGraphBuilder(factory);
+            xmlReader.readElement(builder);
+            return builder.getResult();
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw failed(uoe);
+        } catch (IndexOutOfBoundsException ioobe) {
+            // Reference beyond the end of the data.
+            throw failed(ioobe);
+        } catch (ParseException pe) {
+            // Error converting String to integer, float value.
+            throw failed(pe);
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw failed(ioe);
+        } catch (XmlPullParserException xppe) {
+            // XML parsing error - unexpected tokens etc
+            throw failed(xppe);
+        }
+    }
+
+    private IllegalStateException failed(Exception e) {
+        done = true;
+        return new IllegalStateException(new PropertyListReadStreamException(e));
+    }
+
+    /**
+     * Not supported.
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops iterating, closing the input stream if not already closed.
+     */
+    public void close() {
+        if (xmlReader != null && !done) {
+            try {
+                xmlReader.close();
+            } catch (IOException ioe) {
+                // Error closing input stream - nothing further is read from it.
+            }
+        }
+        done = true;
+    }
+
+}
@@ -0,0 +1,467 @@
+/*******************************************************************************
+ * PropertyListPack.java                                                       *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListReader;
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListPackWriter;
+
+/**
+ * A single file holding many property lists ("entries"), each identified by a String id, for
+ * random access to individual entries without reading the others.
+ * <pre>
+ * PropertyListPack.write(file, devices); // Map of id to property list
+ * PropertyListPack pack = PropertyListPack.open(file);
+ * Map device = (Map) pack.get("device-1234");
+ * </pre>
+ * A pack is a binary plist whose root is a dict of the entries, sorted by id, so it can also be
+ * read whole by PropertyListSerialization. Strings - dict keys, values and ids - are written once
+ * and shared by all entries that contain them.
+ * <p>
+ * open() memory maps the file. get() finds the entry with a binary search of the root dict's keys,
+ * and reads only the objects of that entry. A PropertyListPack is immutable and thread safe: it
+ * continues to read the version of the file that was opened, even after append() or compact().
+ * </p>
+ * append() adds or replaces entries by appending to the file: the new entries' objects, a new
+ * root dict and offset table. Only the new entries are encoded, and existing ids are only read by
+ * binary search, but the root dict and offset table cover the whole pack - 8 bytes per entry and
+ * 4 per object - so each append writes bytes in proportion to the size of the pack. Append
+ * entries in batches rather than one at a time, and write a large pack with builder(), which
+ * holds only the ids in memory. Strings are shared only with the other entries appended at the
+ * same time, and replaced entries remain in the file, so a pack that is appended to frequently
+ * should be compacted from time to time with compact(). If an append is interrupted, open() and
+ * append() use the last complete version of the file. Packs are limited to 2GB.
+ */
+
+public final class PropertyListPack {
+
+    private static final int HEADER_LENGTH = 8;
+    private static final int TRAILER_LENGTH = PropertyListPackWriter.TRAILER_LENGTH;
+    private static final int REF_SIZE = PropertyListPackWriter.REF_SIZE;
+
+    private final ByteBuffer buf;
+    private final BinaryPropertyListReader reader;
+    private final int length;
+    private final int rootObjectId;
+    private final int size;
+
+    private PropertyListPack(ByteBuffer buf, int length) throws UnsupportedOperationException {
+        this.buf = buf;
+        this.length = length;
+        buf.limit(length);
+        reader = new BinaryPropertyListReader(buf);
+        rootObjectId = reader.getRootObjectId();
+        size = reader.count(rootObjectId);
+    }
+
+    /**
+     * Memory maps the pack file.
+     *
+     * @throws PropertyListReadStreamException if the file could not be read, or is not a pack.
+     */
+    public static @NonNull PropertyListPack open(@NonNull File file) throws PropertyListReadStreamException {
+        try {
+            return map(file);
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListReadStreamException(uoe);
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw new PropertyListReadStreamException(ioe);
+        }
+    }
+
+    private static PropertyListPack map(File file) throws IOException, UnsupportedOperationException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buf;
+        try {
+            long fileLength = raf.length();
+            if (fileLength > Integer.MAX_VALUE)
+                throw new UnsupportedOperationException("Property list pack exceeds 2GB");
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+        } finally {
+            raf.close();
+        }
+        // The last complete trailer - anything after it is an interrupted append.
+        for (int end = buf.capacity(); end >= HEADER_LENGTH + TRAILER_LENGTH; end--) {
+            if (isTrailer(buf, end))
+                return new PropertyListPack(buf, end);
+        }
+        throw new UnsupportedOperationException("File is not a property list pack");
+    }
+
+    private static boolean isTrailer(ByteBuffer buf, int end) {
+        int trailer = end - TRAILER_LENGTH;
+        byte[] marker = PropertyListPackWriter.MARKER;
+        for (int i = 0; i < marker.length; i++) {
+            if (buf.get(trailer + i) != marker[i])
+                return false;
+        }
+        if (buf.get(trailer + 6) != REF_SIZE || buf.get(trailer + 7) != REF_SIZE)
+            return false;
+        long objectCount = buf.getLong(trailer + 8);
+        long rootObjectId = buf.getLong(trailer + 16);
+        long offsetTableOffset = buf.getLong(trailer + 24);
+        return offsetTableOffset >= HEADER_LENGTH && objectCount >= 0 && rootObjectId >= 0 && rootObjectId < objectCount
+                && offsetTableOffset + objectCount * REF_SIZE == trailer;
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the length of the version of the file that was opened.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the id of the index'th entry, in ascending order of id.
+     *
+     * @throws PropertyListReadStreamException if the pack is corrupt.
+     */
+    public @NonNull String idAt(int index) throws PropertyListReadStreamException {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        try {
+            return reader.stringValue(reader.ref(rootObjectId, index));
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListReadStreamException(uoe);
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw new PropertyListReadStreamException(ioe);
+        } catch (IndexOutOfBoundsException ioobe) {
+            // Reference beyond the end of the file.
+            throw new PropertyListReadStreamException(ioobe);
+        }
+    }
+
+    /**
+     * Returns the index of the entry with the id, or (-(insertion point) - 1) if there is none -
+     * as per Arrays.binarySearch().
+     *
+     * @throws PropertyListReadStreamException if the pack is corrupt.
+     */
+    public int indexOf(@NonNull String id) throws PropertyListReadStreamException {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = idAt(mid).compareTo(id);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    public boolean contains(@NonNull String id) throws PropertyListReadStreamException {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * Returns the entry with the id, or null if there is none.
+     *
+     * @throws PropertyListReadStreamException if the pack is corrupt.
+     */
+    public @Nullable Object get(@NonNull String id) throws PropertyListReadStreamException {
+        return get(id, ContainerFactory.DEFAULT);
+    }
+
+    /**
+     * As per get(String), using the factory to create the Map and List for each dict and array.
+     */
+    public @Nullable Object get(@NonNull String id, @NonNull ContainerFactory factory) throws PropertyListReadStreamException {
+        int index = indexOf(id);
+        return index < 0 ? null : entryAt(index, factory);
+    }
+
+    private Object entryAt(int index, ContainerFactory factory) throws PropertyListReadStreamException {
+        try {
+            return reader.parse(reader.ref(rootObjectId, size + index), factory);
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListReadStreamException(uoe);
+        } catch (ParseException pe) {
+            // Error converting String to integer, float value.
+            throw new PropertyListReadStreamException(pe);
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw new PropertyListReadStreamException(ioe);
+        } catch (IndexOutOfBoundsException ioobe) {
+            // Reference beyond the end of the file.
+            throw new PropertyListReadStreamException(ioobe);
+        }
+    }
+
+    /**
+     * Writes a new pack file of the entries, replacing any existing file. The file is written to
+     * a temporary file in the same directory, which is then renamed.
+     *
+     * @param entries map of id to property list.
+     * @throws PropertyListWriteStreamException if an entry is incompatible, or the file could not
+     *                                          be written.
+     */
+    public static void write(@NonNull File file, @NonNull Map<String, ?> entries) throws PropertyListWriteStreamException {
+        Builder builder = builder(file);
+        try {
+            for (Map.Entry<String, ?> entry : entries.entrySet())
+                builder.put(entry.getKey(), entry.getValue());
+            builder.finish();
+        } finally {
+            builder.abort();
+        }
+    }
+
+    /**
+     * Returns a Builder that writes a new pack file, replacing any existing file once finished.
+     *
+     * @throws PropertyListWriteStreamException if the temporary file could not be created.
+     */
+    public static @NonNull Builder builder(@NonNull File file) throws PropertyListWriteStreamException {
+        try {
+            return new Builder(file);
+        } catch (IOException ioe) {
+            // Error writing to output stream
+            throw new PropertyListWriteStreamException(ioe);
+        }
+    }
+
+    /**
+     * Writes a new pack file one entry at a time, e.g. from a database cursor. Each entry's
+     * objects are written as it is added, so only the ids are held in memory - building a pack of
+     * n entries costs O(n log n), rather than the O(n&sup2;) of appending them one at a time.
+     * <pre>
+     * PropertyListPack.Builder builder = PropertyListPack.builder(file);
+     * try {
+     *     while (cursor.moveToNext())
+     *         builder.put(cursor.getString(0), toPropertyList(cursor));
+     *     builder.finish();
+     * } finally {
+     *     builder.abort();
+     * }
+     * </pre>
+     * The pack is written to a temporary file in the same directory, which finish() renames to
+     * the file, and abort() deletes. Not thread safe.
+     */
+    public static final class Builder {
+
+        private final File file;
+        private final File temp;
+        private final FileOutputStream fos;
+        private final PropertyListPackWriter writer;
+        private final TreeMap<String, int[]> refs = new TreeMap<>(); // id to key and value object ids.
+        private boolean closed;
+
+        private Builder(File file) throws IOException {
+            this.file = file;
+            temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+            try {
+                fos = new FileOutputStream(temp);
+                writer = new PropertyListPackWriter(new BufferedOutputStream(fos, 65536), 0, 0);
+            } catch (IOException ioe) {
+                temp.delete();
+                throw ioe;
+            }
+        }
+
+        /**
+         * Writes the entry. Entries may be added in any order. An id that was already added
+         * replaces the earlier entry, whose objects remain in the file until compact().
+         *
+         * @throws PropertyListWriteStreamException if the entry is incompatible, or the file could
+         *                                          not be written.
+         */
+        public @NonNull Builder put(@NonNull String id, @NonNull Object value) throws PropertyListWriteStreamException {
+            if (closed)
+                throw new IllegalStateException("Builder is finished");
+            try {
+                int keyRef = writer.addString(id);
+                refs.put(id, new int[]{keyRef, writer.add(value)});
+                return this;
+            } catch (IllegalStateException ise) {
+                // Incompatible Object attempting to be output
+                throw new PropertyListWriteStreamException(ise);
+            } catch (ParseException pe) {
+                // Error converting String to integer, float value.
+                throw new PropertyListWriteStreamException(pe);
+            } catch (IOException ioe) {
+                // Error writing to output stream
+                throw new PropertyListWriteStreamException(ioe);
+            }
+        }
+
+        /**
+         * Writes the root dict and trailer, and renames the temporary file to the file.
+         *
+         * @throws PropertyListWriteStreamException if the file could not be written.
+         */
+        public void finish() throws PropertyListWriteStreamException {
+            if (closed)
+                throw new IllegalStateException("Builder is finished");
+            closed = true;
+            try {
+                try {
+                    int root = writer.writeDict(refs.size());
+                    for (int[] ref : refs.values())
+                        writer.writeRef(ref[0]);
+                    for (int[] ref : refs.values())
+                        writer.writeRef(ref[1]);
+                    writer.finish(root, null);
+                    fos.getFD().sync();
+                } finally {
+                    fos.close();
+                }
+                if (!temp.renameTo(file))
+                    throw new IOException("Unable to replace " + file);
+            } catch (IOException ioe) {
+                // Error writing to output stream
+                throw new PropertyListWriteStreamException(ioe);
+            } finally {
+                temp.delete();
+            }
+        }
+
+        /**
+         * Discards the pack, unless already finished, leaving any existing file unchanged.
+         */
+        public void abort() {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                fos.close();
+            } catch (IOException ioe) {
+                // The file is deleted regardless.
+            }
+            temp.delete();
+        }
+    }
+
+    /**
+     * Adds the entries to the pack file, replacing existing entries with the same ids, by
+     * appending to the file. Creates the file if it does not exist.
+     *
+     * @param entries map of id to property list.
+     * @throws PropertyListReadStreamException  if the existing file is not a pack.
+     * @throws PropertyListWriteStreamException if an entry is incompatible, or the file could not
+     *                                          be written.
+     */
+    public static void append(@NonNull File file, @NonNull Map<String, ?> entries) throws PropertyListReadStreamException, PropertyListWriteStreamException {
+        if (!file.exists()) {
+            write(file, entries);
+            return;
+        }
+        PropertyListPack pack = open(file);
+        TreeMap<String, Object> batch = new TreeMap<String, Object>(entries);
+        try {
+            // Discard anything after the last complete trailer.
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(pack.length);
+            } finally {
+                raf.close();
+            }
+
+            FileOutputStream fos = new FileOutputStream(file, true);
+            try {
+                PropertyListPackWriter writer = new PropertyListPackWriter(new BufferedOutputStream(fos, 65536), pack.length, pack.reader.getObjectCount());
+                String[] ids = batch.keySet().toArray(new String[batch.size()]);
+                int[] keyRefs = new int[ids.length];
+                int[] valueRefs = new int[ids.length];
+                int[] indices = new int[ids.length];
+                int replaced = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    keyRefs[i] = writer.addString(ids[i]);
+                    valueRefs[i] = writer.add(batch.get(ids[i]));
+                    indices[i] = pack.indexOf(ids[i]);
+                    if (indices[i] >= 0)
+                        replaced++;
+                }
+                int root = writer.writeDict(pack.size + ids.length - replaced);
+                pack.merge(indices, keyRefs, writer, false);
+                pack.merge(indices, valueRefs, writer, true);
+                ByteBuffer offsetTable = pack.buf.duplicate();
+                offsetTable.limit(pack.length - TRAILER_LENGTH);
+                offsetTable.position(pack.length - TRAILER_LENGTH - pack.reader.getObjectCount() * REF_SIZE);
+                writer.finish(root, offsetTable.slice());
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+        } catch (IllegalStateException ise) {
+            // Incompatible Object attempting to be output
+            throw new PropertyListWriteStreamException(ise);
+        } catch (ParseException pe) {
+            // Error converting String to integer, float value.
+            throw new PropertyListWriteStreamException(pe);
+        } catch (IOException ioe) {
+            // Error writing to output stream
+            throw new PropertyListWriteStreamException(ioe);
+        }
+    }
+
+    /**
+     * Writes the root dict references - keys, or values - of the existing entries merged with
+     * those of the new entries, whose (sorted) ids have the indices, as returned by indexOf().
+     * New entries replace existing entries of the same id. Existing ids are not read.
+     */
+    private void merge(int[] indices, int[] refs, PropertyListPackWriter writer, boolean values) throws IOException {
+        int i = 0;
+        for (int j = 0; j < indices.length; j++) {
+            int index = indices[j];
+            int insertion = index >= 0 ? index : -(index + 1);
+            for (; i < insertion; i++)
+                writer.writeRef(reader.ref(rootObjectId, values ? size + i : i));
+            writer.writeRef(refs[j]);
+            if (index >= 0)
+                i++;
+        }
+        for (; i < size; i++)
+            writer.writeRef(reader.ref(rootObjectId, values ? size + i : i));
+    }
+
+    /**
+     * Rewrites the pack file without replaced entries, sharing strings between all entries.
+     *
+     * @throws PropertyListReadStreamException  if the file is not a pack, or is corrupt.
+     * @throws PropertyListWriteStreamException if the file could not be written.
+     */
+    public static void compact(@NonNull File file) throws PropertyListReadStreamException, PropertyListWriteStreamException {
+        PropertyListPack pack = open(file);
+        Builder builder = builder(file);
+        try {
+            for (int i = 0; i < pack.size; i++)
+                builder.put(pack.idAt(i), pack.entryAt(i, ContainerFactory.ORDERED));
+            builder.finish();
+        } finally {
+            builder.abort();
+        }
+    }
+
+}
@@ -16,4 +16,11 @@ public class PropertyListReadStreamException extends PropertyListException {
         super(e);
     }
 
+    /**
+     * For errors, e.g. StackOverflowError, reported rather than thrown - see PropertyListBatch.
+     */
+    PropertyListReadStreamException(Throwable t) {
+        super(t);
+    }
+
 }
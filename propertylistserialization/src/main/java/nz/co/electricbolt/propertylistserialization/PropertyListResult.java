@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * PropertyListResult.java                                                     *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.Nullable;
+
+/**
+ * The outcome of one item of a PropertyListBatch - either its value, or the exception that
+ * prevented it from being read or written.
+ */
+
+public final class PropertyListResult<T> {
+
+    private final T value;
+    private final PropertyListException exception;
+
+    PropertyListResult(T value, PropertyListException exception) {
+        this.value = value;
+        this.exception = exception;
+    }
+
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    /**
+     * Returns the value, or null if the item failed.
+     */
+    public @Nullable T getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the PropertyListReadStreamException or PropertyListWriteStreamException, or null if
+     * the item succeeded.
+     */
+    public @Nullable PropertyListException getException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "Success: " + value : "Failure: " + exception;
+    }
+
+}
@@ -6,6 +6,7 @@
 package nz.co.electricbolt.propertylistserialization;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -14,12 +15,18 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
+import nz.co.electricbolt.propertylistserialization.internal.ArenaBuilder;
 import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListReader;
-import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListWriter;
+import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListStreamWriter;
+import nz.co.electricbolt.propertylistserialization.internal.ObjectBinder;
+import nz.co.electricbolt.propertylistserialization.internal.ObjectEmitter;
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+import nz.co.electricbolt.propertylistserialization.internal.TypeDispatch;
 import nz.co.electricbolt.propertylistserialization.internal.XMLPropertyListReader;
-import nz.co.electricbolt.propertylistserialization.internal.XMLPropertyListWriter;
+import nz.co.electricbolt.propertylistserialization.internal.XMLPropertyListStreamWriter;
 
 public class PropertyListSerialization {
 
@@ -28,36 +35,35 @@ public class PropertyListSerialization {
         Binary
     }
 
+    /**
+     * Registers an encoder for objects of the specified class (and its subclasses) that have no
+     * property list equivalent, e.g. UUID, BigDecimal or Set. Objects are converted by the encoder
+     * as they are written, by dataWithPropertyList(), writePropertyList(), write() and
+     * PropertyListFragment. Encoders are not consulted for the natively supported types. Encoders
+     * should be registered before they are used, typically during application startup.
+     *
+     * @param cls     The class of objects to convert.
+     * @param encoder The encoder, or null to remove a previously registered encoder.
+     */
+    public static <T> void registerEncoder(@NonNull Class<T> cls, @Nullable PropertyListEncoder<? super T> encoder) {
+        TypeDispatch.register(cls, encoder);
+    }
+
     /**
      * For the object graph provided, returns a property list as byte[].
      * Equivalent to iOS method `[NSPropertyList dataWithPropertyList:format:options:error]`
      *
      * @param obj    The object graph to write out as a property list. The object graph may only
-     *               contain the following types: String, Integer, Long, Float, Double, Map&lt;String, Object&gt;,
-     *               List, Date, Boolean or byte[]
+     *               contain the following types: String, Integer, Long, Short, Byte, Float, Double,
+     *               Map&lt;String, Object&gt;, List, any Collection, arrays, enums, Date, Boolean,
+     *               byte[], PropertyListFragment or objects with a registered PropertyListEncoder.
      * @param format The format of the property list. Specify either XML or Binary.
      * @return byte[] of the property list.
      * @throws PropertyListWriteStreamException if the object graph is incompatible.
      */
     public static @NonNull
     byte[] dataWithPropertyList(@NonNull Object obj, Format format) throws PropertyListWriteStreamException {
-        if (format == Format.Binary) {
-            try {
-                BinaryPropertyListWriter p = new BinaryPropertyListWriter(obj);
-                return p.write();
-            } catch (ParseException pe) {
-                // Error converting String to integer, float value.
-                throw new PropertyListWriteStreamException(pe);
-            } catch (IOException ioe) {
-                // Error writing to output stream - unlikely to occur, utf8 encoding missing - unlikely to occur
-                throw new PropertyListWriteStreamException(ioe);
-            }
-        } else {
-            // Format.XML
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            writePropertyList(obj, os, format);
-            return os.toByteArray();
-        }
+        return PropertyListSerializer.DEFAULT.dataWithPropertyList(obj, format);
     }
 
     /**
@@ -65,36 +71,15 @@ public class PropertyListSerialization {
      * Equivalent to iOS method `[NSPropertyList writePropertyList:toStream:format:options:error]`
      *
      * @param obj    The object graph to write out as a property list. The object graph may only
-     *               contain the following types: String, Integer, Long, Float, Double, Map&lt;String, Object&gt;,
-     *               List, Date, Boolean or byte[]
+     *               contain the following types: String, Integer, Long, Short, Byte, Float, Double,
+     *               Map&lt;String, Object&gt;, List, any Collection, arrays, enums, Date, Boolean,
+     *               byte[], PropertyListFragment or objects with a registered PropertyListEncoder.
      * @param format The format of the property list. Specify either XML or Binary.
      * @param os     The output stream to write the property list to.
      * @throws PropertyListWriteStreamException if the object graph is incompatible.
      */
     public static void writePropertyList(@NonNull Object obj, @NonNull OutputStream os, Format format) throws PropertyListWriteStreamException {
-        if (format == Format.XML) {
-            try {
-                XMLPropertyListWriter p = new XMLPropertyListWriter(obj, os);
-                p.write();
-            } catch (NullPointerException npe) {
-                // null objects are not compatible with plist.
-                throw new PropertyListWriteStreamException(npe);
-            } catch (IllegalStateException ise) {
-                // Incompatible Object attempting to be output
-                throw new PropertyListWriteStreamException(ise);
-            } catch (IOException ioe) {
-                // Error writing to output stream - unlikely to occur, utf8 encoding missing - unlikely to occur
-                throw new PropertyListWriteStreamException(ioe);
-            }
-        } else {
-            // Format.Binary
-            try {
-                os.write(dataWithPropertyList(obj, Format.Binary));
-            } catch (IOException ioe) {
-                // Error writing to output stream - unlikely to occur, utf8 encoding missing - unlikely to occur
-                throw new PropertyListWriteStreamException(ioe);
-            }
-        }
+        PropertyListSerializer.DEFAULT.writePropertyList(obj, os, format);
     }
 
     /**
@@ -110,10 +95,413 @@ public class PropertyListSerialization {
      */
     public static @NonNull
     Object propertyListWithData(@NonNull byte[] data, Format format) throws PropertyListReadStreamException {
+        return propertyListWithData(data, format, ContainerFactory.DEFAULT);
+    }
+
+    /**
+     * Creates and returns a property list from the specified byte[], using the specified factory
+     * to create the Map and List for each dict and array.
+     *
+     * @param data    byte[] of plist
+     * @param format  The format of the property list. Specify either XML or Binary.
+     * @param factory Creates the containers, e.g. ContainerFactory.ORDERED to preserve the order of
+     *                dict entries.
+     * @return Returns one of String, Long, Double, Date, Boolean, byte[], or the object returned by
+     * the factory for a dict or array.
+     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
+     *                                         converted or the input stream is EOF.
+     */
+    public static @NonNull
+    Object propertyListWithData(@NonNull byte[] data, Format format, @NonNull ContainerFactory factory) throws PropertyListReadStreamException {
+        return serializer(factory).propertyListWithData(data, format);
+    }
+
+    /**
+     * Creates and returns a property list by reading from the specified input stream.
+     * Equivalent to iOS method `[NSPropertyList propertyListWithStream:options:format:error]`
+     *
+     * @param is     InputStream containing the plist
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @return Returns one of String, Long, Double, Map&lt;String, Object&gt;, List, Date, Boolean
+     * or byte[].
+     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
+     *                                         converted or the input stream is EOF.
+     */
+    public static @NonNull
+    Object propertyListWithData(@NonNull InputStream is, Format format) throws PropertyListReadStreamException {
+        return propertyListWithData(is, format, ContainerFactory.DEFAULT);
+    }
+
+    /**
+     * Creates and returns a property list by reading from the specified input stream, using the
+     * specified factory to create the Map and List for each dict and array.
+     *
+     * @param is      InputStream containing the plist
+     * @param format  The format of the property list. Specify either XML or Binary.
+     * @param factory Creates the containers, e.g. ContainerFactory.ORDERED to preserve the order of
+     *                dict entries.
+     * @return Returns one of String, Long, Double, Date, Boolean, byte[], or the object returned by
+     * the factory for a dict or array.
+     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
+     *                                         converted or the input stream is EOF.
+     */
+    public static @NonNull
+    Object propertyListWithData(@NonNull InputStream is, Format format, @NonNull ContainerFactory factory) throws PropertyListReadStreamException {
+        return serializer(factory).propertyListWithData(is, format);
+    }
+
+    /**
+     * Creates and returns a property list from the specified byte[], held in a PlistArena rather
+     * than as an object graph.
+     *
+     * @param data   byte[] of plist
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @return Returns the arena.
+     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
+     *                                         converted or the input stream is EOF.
+     */
+    public static @NonNull
+    PlistArena arenaWithData(@NonNull byte[] data, Format format) throws PropertyListReadStreamException {
+        ArenaBuilder builder = new ArenaBuilder();
+        parse(data, format, builder);
+        return builder.getResult();
+    }
+
+    /**
+     * Creates and returns a property list by reading from the specified input stream, held in a
+     * PlistArena rather than as an object graph.
+     *
+     * @param is     InputStream containing the plist
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @return Returns the arena.
+     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
+     *                                         converted or the input stream is EOF.
+     */
+    public static @NonNull
+    PlistArena arenaWithData(@NonNull InputStream is, Format format) throws PropertyListReadStreamException {
+        ArenaBuilder builder = new ArenaBuilder();
+        parse(is, format, builder);
+        return builder.getResult();
+    }
+
+    /**
+     * Creates and returns a property list from the specified byte[], as a typed PlistValue rather
+     * than as an object graph. Integers, reals, booleans and dates are held unboxed.
+     *
+     * @param data   byte[] of plist
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @return Returns the root element.
+     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
+     *                                         converted or the input stream is EOF.
+     */
+    public static @NonNull
+    PlistValue valueWithData(@NonNull byte[] data, Format format) throws PropertyListReadStreamException {
+        PlistValueBuilder builder = new PlistValueBuilder();
+        parse(data, format, builder);
+        return builder.getResult();
+    }
+
+    /**
+     * Creates and returns a property list by reading from the specified input stream, as a typed
+     * PlistValue rather than as an object graph.
+     *
+     * @param is     InputStream containing the plist
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @return Returns the root element.
+     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
+     *                                         converted or the input stream is EOF.
+     */
+    public static @NonNull
+    PlistValue valueWithData(@NonNull InputStream is, Format format) throws PropertyListReadStreamException {
+        PlistValueBuilder builder = new PlistValueBuilder();
+        parse(is, format, builder);
+        return builder.getResult();
+    }
+
+    /**
+     * For the PlistValue provided, returns a property list as byte[]. Elements are written
+     * directly, without creating an intermediate object graph.
+     *
+     * @param value  The root element to write out as a property list.
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @return byte[] of the property list.
+     * @throws PropertyListWriteStreamException if the property list could not be written.
+     */
+    public static @NonNull
+    byte[] dataWithValue(@NonNull PlistValue value, Format format) throws PropertyListWriteStreamException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            if (format == Format.XML) {
+                XMLPropertyListStreamWriter w = new XMLPropertyListStreamWriter(os, false);
+                value.emit(w);
+                w.finish();
+            } else {
+                BinaryPropertyListStreamWriter w = new BinaryPropertyListStreamWriter(os);
+                value.emit(w);
+                w.finish();
+            }
+        } catch (IOException ioe) {
+            // Error writing to output stream - unlikely to occur, utf8 encoding missing - unlikely to occur
+            throw new PropertyListWriteStreamException(ioe);
+        }
+        return os.toByteArray();
+    }
+
+    /**
+     * Creates and returns an instance of the specified class from the specified byte[]. Dicts are
+     * bound directly to the fields of plain Java objects, without creating an intermediate
+     * Map&lt;String, Object&gt;.
+     *
+     * @param data   byte[] of plist
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @param type   The class of the root object. Fields are bound by name, and may be of any
+     *               type produced by propertyListWithData(), a List, Set, Map or array of those
+     *               types, a primitive, an enum, or another plain Java object.
+     * @return Returns the instance.
+     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
+     *                                         converted or bound to the class, or the input stream
+     *                                         is EOF.
+     */
+    public static @NonNull
+    <T> T read(@NonNull byte[] data, Format format, @NonNull Class<T> type) throws PropertyListReadStreamException {
+        ObjectBinder binder = new ObjectBinder(type);
+        parse(data, format, binder);
+        return cast(binder.getResult());
+    }
+
+    /**
+     * Creates and returns an instance of the specified class by reading from the specified input
+     * stream. See read(byte[], Format, Class).
+     *
+     * @param is     InputStream containing the plist
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @param type   The class of the root object.
+     * @return Returns the instance.
+     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
+     *                                         converted or bound to the class, or the input stream
+     *                                         is EOF.
+     */
+    public static @NonNull
+    <T> T read(@NonNull InputStream is, Format format, @NonNull Class<T> type) throws PropertyListReadStreamException {
+        ObjectBinder binder = new ObjectBinder(type);
+        parse(is, format, binder);
+        return cast(binder.getResult());
+    }
+
+    /**
+     * For the object provided, returns a property list as byte[]. Plain Java objects are written
+     * as dicts of their fields, directly from the fields rather than via an intermediate
+     * Map&lt;String, Object&gt;.
+     *
+     * @param obj    The object to write out as a property list. In addition to the types accepted
+     *               by dataWithPropertyList(), the object graph may contain plain Java objects.
+     *               Fields that are null are omitted. An object graph that contains itself is
+     *               incompatible.
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @return byte[] of the property list.
+     * @throws PropertyListWriteStreamException if the object graph is incompatible.
+     */
+    public static @NonNull
+    byte[] write(@NonNull Object obj, Format format) throws PropertyListWriteStreamException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            if (format == Format.XML) {
+                XMLPropertyListStreamWriter w = new XMLPropertyListStreamWriter(os, false);
+                new ObjectEmitter(w).emit(obj);
+                w.finish();
+            } else {
+                BinaryPropertyListStreamWriter w = new BinaryPropertyListStreamWriter(os);
+                new ObjectEmitter(w).emit(obj);
+                w.finish();
+            }
+        } catch (IllegalStateException ise) {
+            // Incompatible Object attempting to be output
+            throw new PropertyListWriteStreamException(ise);
+        } catch (IOException ioe) {
+            // Error writing to output stream - unlikely to occur, utf8 encoding missing - unlikely to occur
+            throw new PropertyListWriteStreamException(ioe);
+        }
+        return os.toByteArray();
+    }
+
+    /**
+     * Converts a property list from one format to another, by reading from the specified input
+     * stream and writing to the output stream. Elements are transcoded as they are read, without
+     * creating an intermediate object graph. The output is an equivalent property list - reading
+     * it back gives an object graph equal to propertyListWithData(is, from) - but is not
+     * necessarily byte for byte identical to dataWithPropertyList(), e.g. equal dicts and arrays
+     * are not shared in Format.Binary output.
+     *
+     * @param is   InputStream containing the plist
+     * @param from The format of the input property list. Specify either XML or Binary.
+     * @param os   The output stream to write the converted property list to.
+     * @param to   The format of the output property list. Specify either XML or Binary.
+     * @throws PropertyListReadStreamException  if the plist is corrupt, values could not be
+     *                                          converted or the input stream is EOF.
+     * @throws PropertyListWriteStreamException if the output stream could not be written to.
+     */
+    public static void convert(@NonNull InputStream is, Format from, @NonNull OutputStream os, Format to) throws PropertyListReadStreamException, PropertyListWriteStreamException {
+        if (from == Format.XML)
+            transcode(is, null, os, to);
+        else {
+            try {
+                transcode(null, readFully(is), os, to);
+            } catch (IOException ioe) {
+                // Error reading input stream
+                throw new PropertyListReadStreamException(ioe);
+            }
+        }
+    }
+
+    /**
+     * Converts a property list from one format to another, reading from the remaining bytes of
+     * the specified buffer. See convert(InputStream, Format, OutputStream, Format).
+     *
+     * @param buf  ByteBuffer containing the plist
+     * @param from The format of the input property list. Specify either XML or Binary.
+     * @param os   The output stream to write the converted property list to.
+     * @param to   The format of the output property list. Specify either XML or Binary.
+     * @throws PropertyListReadStreamException  if the plist is corrupt, values could not be
+     *                                          converted.
+     * @throws PropertyListWriteStreamException if the output stream could not be written to.
+     */
+    public static void convert(@NonNull ByteBuffer buf, Format from, @NonNull OutputStream os, Format to) throws PropertyListReadStreamException, PropertyListWriteStreamException {
+        buf = buf.slice();
+        if (from == Format.XML)
+            transcode(new ByteBufferInputStream(buf), null, os, to);
+        else if (buf.hasArray() && buf.arrayOffset() == 0 && buf.remaining() == buf.array().length)
+            transcode(null, buf.array(), os, to); // Avoid copying the buffer.
+        else {
+            byte[] data = new byte[buf.remaining()];
+            buf.get(data);
+            transcode(null, data, os, to);
+        }
+    }
+
+    /**
+     * @param is   XML plist, or null if Format.Binary
+     * @param data binary plist, or null if Format.XML
+     */
+    private static void transcode(InputStream is, byte[] data, OutputStream os, Format to) throws PropertyListReadStreamException, PropertyListWriteStreamException {
+        TrackedOutputStream tos = new TrackedOutputStream(os);
+        try {
+            if (is != null) {
+                XMLPropertyListReader p = new XMLPropertyListReader(is);
+                if (to == Format.XML) {
+                    XMLPropertyListStreamWriter w = new XMLPropertyListStreamWriter(tos, false);
+                    p.parse(w);
+                    w.finish();
+                } else {
+                    BinaryPropertyListStreamWriter w = new BinaryPropertyListStreamWriter(tos);
+                    p.parse(w);
+                    w.finish();
+                }
+            } else {
+                BinaryPropertyListReader p = new BinaryPropertyListReader(data);
+                if (to == Format.XML) {
+                    // Binary plists have random access, so dict entries can be read in key order
+                    // rather than sorted by the writer.
+                    p.setSortKeys(true);
+                    XMLPropertyListStreamWriter w = new XMLPropertyListStreamWriter(tos, true);
+                    p.parse(w);
+                    w.finish();
+                } else {
+                    BinaryPropertyListStreamWriter w = new BinaryPropertyListStreamWriter(tos);
+                    p.parse(w);
+                    w.finish();
+                }
+            }
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListReadStreamException(uoe);
+        } catch (ParseException pe) {
+            // Error converting String to integer, float value.
+            throw new PropertyListReadStreamException(pe);
+        } catch (XmlPullParserException xppe) {
+            // XML parsing error - unexpected tokens etc
+            throw new PropertyListReadStreamException(xppe);
+        } catch (IOException ioe) {
+            if (ioe == tos.failure) {
+                // Error writing to output stream
+                throw new PropertyListWriteStreamException(ioe);
+            }
+            // Error reading input stream
+            throw new PropertyListReadStreamException(ioe);
+        }
+    }
+
+    /**
+     * Returns an iterator over the elements of a property list whose root is an array, read from
+     * the specified input stream. Each element is decoded only when next() is called, so memory
+     * use is bounded by the largest element rather than the whole array - e.g. for a large list
+     * of records. Format.XML input is read from the stream as the iterator advances; Format.Binary
+     * input is read into memory first (its offset table is at the end), but is still decoded one
+     * element at a time.
+     *
+     * @param is     InputStream containing the plist
+     * @param format The format of the property list. Specify either XML or Binary.
+     * @return Returns an iterator over the elements of the root array. See PropertyListIterator
+     * for how errors while iterating are reported.
+     * @throws PropertyListReadStreamException if the root element is not an array, the plist is
+     *                                         corrupt or the input stream is EOF.
+     */
+    public static @NonNull
+    PropertyListIterator iterateArray(@NonNull InputStream is, Format format) throws PropertyListReadStreamException {
+        return iterateArray(is, format, ContainerFactory.DEFAULT);
+    }
+
+    /**
+     * As per iterateArray(InputStream, Format), using the factory to create the Map and List for
+     * each dict and array within the elements.
+     */
+    public static @NonNull
+    PropertyListIterator iterateArray(@NonNull InputStream is, Format format, @NonNull ContainerFactory factory) throws PropertyListReadStreamException {
+        try {
+            if (format == Format.XML) {
+                XMLPropertyListReader p = new XMLPropertyListReader(is);
+                p.beginArray();
+                return new PropertyListIterator(p, factory);
+            } else {
+                // Format.Binary - read in full, so the stream is closed before iterating.
+                byte[] data;
+                try {
+                    data = readFully(is);
+                } finally {
+                    is.close();
+                }
+                BinaryPropertyListReader p = new BinaryPropertyListReader(ByteBuffer.wrap(data));
+                int rootObjectId = p.getRootObjectId();
+                if (!p.isArray(rootObjectId))
+                    throw new PropertyListReadStreamException(new ParseException("Root element is not an array", 0));
+                return new PropertyListIterator(p, rootObjectId, factory);
+            }
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListReadStreamException(uoe);
+        } catch (IndexOutOfBoundsException ioobe) {
+            // Reference beyond the end of the data.
+            throw new PropertyListReadStreamException(ioobe);
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw new PropertyListReadStreamException(ioe);
+        } catch (XmlPullParserException xppe) {
+            // XML parsing error - unexpected tokens etc
+            throw new PropertyListReadStreamException(xppe);
+        }
+    }
+
+    /**
+     * Parses the property list, passing its events to the handler. Used by the methods that build
+     * something other than an object graph.
+     */
+    private static void parse(byte[] data, Format format, PropertyListHandler handler) throws PropertyListReadStreamException {
         if (format == Format.Binary) {
             try {
                 BinaryPropertyListReader p = new BinaryPropertyListReader(data);
-                return p.parse();
+                p.parse(handler);
+            } catch (IllegalStateException ise) {
+                // Property list cannot be bound to the class.
+                throw new PropertyListReadStreamException(ise);
             } catch (UnsupportedOperationException uoe) {
                 // Binary plist format contains features we don't support.
                 throw new PropertyListReadStreamException(uoe);
@@ -126,27 +514,18 @@ public class PropertyListSerialization {
             }
         } else {
             // Format.XML
-            return propertyListWithData(new ByteArrayInputStream(data), format);
+            parse(new ByteArrayInputStream(data), format, handler);
         }
     }
 
-    /**
-     * Creates and returns a property list by reading from the specified input stream.
-     * Equivalent to iOS method `[NSPropertyList propertyListWithStream:options:format:error]`
-     *
-     * @param is     InputStream containing the plist
-     * @param format The format of the property list. Specify either XML or Binary.
-     * @return Returns one of String, Long, Double, Map&lt;String, Object&gt;, List, Date, Boolean
-     * or byte[].
-     * @throws PropertyListReadStreamException if the plist is corrupt, values could not be
-     *                                         converted or the input stream is EOF.
-     */
-    public static @NonNull
-    Object propertyListWithData(@NonNull InputStream is, Format format) throws PropertyListReadStreamException {
+    private static void parse(InputStream is, Format format, PropertyListHandler handler) throws PropertyListReadStreamException {
         if (format == Format.XML) {
             try {
                 XMLPropertyListReader p = new XMLPropertyListReader(is);
-                return p.parse();
+                p.parse(handler);
+            } catch (IllegalStateException ise) {
+                // Property list cannot be bound to the class.
+                throw new PropertyListReadStreamException(ise);
             } catch (ParseException pe) {
                 // Error converting String to integer, float value.
                 throw new PropertyListReadStreamException(pe);
@@ -159,15 +538,8 @@ public class PropertyListSerialization {
             }
         } else {
             // Format.Binary
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
             try {
-                int read;
-                byte[] buf = new byte[1024];
-                while ((read = is.read(buf, 0, 1024)) != -1) {
-                    baos.write(buf, 0, read);
-                }
-                baos.flush();
-                return propertyListWithData(baos.toByteArray(), Format.Binary);
+                parse(readFully(is), Format.Binary, handler);
             } catch (IOException ioe) {
                 // Error reading input stream
                 throw new PropertyListReadStreamException(ioe);
@@ -175,4 +547,100 @@ public class PropertyListSerialization {
         }
     }
 
+    private static PropertyListSerializer serializer(ContainerFactory factory) {
+        if (factory == ContainerFactory.DEFAULT)
+            return PropertyListSerializer.DEFAULT;
+        return new PropertyListSerializer.Builder().setContainerFactory(factory).build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object obj) {
+        return (T) obj;
+    }
+
+    static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int read;
+        byte[] buf = new byte[1024];
+        while ((read = is.read(buf, 0, 1024)) != -1) {
+            baos.write(buf, 0, read);
+        }
+        baos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Remembers the exception thrown by the underlying output stream, so that write errors can be
+     * distinguished from read errors.
+     */
+    private static class TrackedOutputStream extends OutputStream {
+
+        private OutputStream os;
+        IOException failure;
+
+        TrackedOutputStream(OutputStream os) {
+            this.os = os;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                os.write(b);
+            } catch (IOException ioe) {
+                failure = ioe;
+                throw ioe;
+            }
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            try {
+                os.write(b, off, len);
+            } catch (IOException ioe) {
+                failure = ioe;
+                throw ioe;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                os.flush();
+            } catch (IOException ioe) {
+                failure = ioe;
+                throw ioe;
+            }
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buf.hasRemaining())
+                return -1;
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+
 }
@@ -0,0 +1,598 @@
+/*******************************************************************************
+ * PropertyListSerializer.java                                                 *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nz.co.electricbolt.propertylistserialization.PlistStatistics.Operation;
+import nz.co.electricbolt.propertylistserialization.PropertyListSerialization.Format;
+import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListReader;
+import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListWriter;
+import nz.co.electricbolt.propertylistserialization.internal.MetricsRecorder;
+import nz.co.electricbolt.propertylistserialization.internal.ObjectGraphBuilder;
+import nz.co.electricbolt.propertylistserialization.internal.ParseFilter;
+import nz.co.electricbolt.propertylistserialization.internal.PropertyListHandler;
+import nz.co.electricbolt.propertylistserialization.internal.RealFormatter;
+import nz.co.electricbolt.propertylistserialization.internal.Tracing;
+import nz.co.electricbolt.propertylistserialization.internal.XMLPropertyListReader;
+import nz.co.electricbolt.propertylistserialization.internal.XMLPropertyListWriter;
+
+/**
+ * An immutable, thread safe configuration for reading and writing property lists - default
+ * format, container factory, parse limits, dict key interning, XML real formatting, metrics
+ * listener and statistics. Create one with a Builder, and share it between threads:
+ * <pre>
+ * PropertyListSerializer serializer = new PropertyListSerializer.Builder()
+ *     .setFormat(Format.Binary)
+ *     .setMaxLength(1024 * 1024)
+ *     .setInternKeys(true)
+ *     .build();
+ * Object obj = serializer.propertyListWithData(data);
+ * </pre>
+ * The static methods of PropertyListSerialization use DEFAULT.
+ */
+
+public final class PropertyListSerializer {
+
+    /**
+     * How &lt;real&gt; values are written in Format.XML.
+     */
+    public enum RealMode {
+        /**
+         * The shortest &lt;real&gt; that round trips back to the same float or double, e.g. 0.1.
+         */
+        Shortest,
+        /**
+         * Character by character accuracy with CFPropertyList.c (17 significant digits), e.g.
+         * 0.10000000000000001.
+         */
+        CF
+    }
+
+    /**
+     * Maximum number of distinct dict keys held by a serializer when interning keys.
+     */
+    static final int MAX_INTERNED_KEYS = 4096;
+
+    /**
+     * XML format, ContainerFactory.DEFAULT, no limits, keys not interned, shortest reals.
+     */
+    public static final PropertyListSerializer DEFAULT = new Builder().build();
+
+    private final Format format;
+    private final ContainerFactory containerFactory;
+    private final int maxLength;
+    private final int maxDepth;
+    private final int maxObjects;
+    private final boolean internKeys;
+    private final RealMode realMode;
+    private final PlistMetricsListener metricsListener;
+    private final PlistStatistics statistics;
+    private final boolean timed; // metricsListener or statistics set.
+    private final ConcurrentHashMap<String, String> keyPool; // if internKeys, otherwise null.
+
+    private PropertyListSerializer(Builder builder) {
+        this.format = builder.format;
+        this.containerFactory = builder.containerFactory;
+        this.maxLength = builder.maxLength;
+        this.maxDepth = builder.maxDepth;
+        this.maxObjects = builder.maxObjects;
+        this.internKeys = builder.internKeys;
+        this.realMode = builder.realMode;
+        this.metricsListener = builder.metricsListener;
+        this.statistics = builder.statistics;
+        this.timed = metricsListener != null || statistics != null;
+        this.keyPool = internKeys ? new ConcurrentHashMap<String, String>() : null;
+    }
+
+    public static final class Builder {
+
+        private Format format = Format.XML;
+        private ContainerFactory containerFactory = ContainerFactory.DEFAULT;
+        private int maxLength = Integer.MAX_VALUE;
+        private int maxDepth = Integer.MAX_VALUE;
+        private int maxObjects = Integer.MAX_VALUE;
+        private boolean internKeys;
+        private RealMode realMode = RealMode.Shortest;
+        private PlistMetricsListener metricsListener;
+        private PlistStatistics statistics;
+
+        public Builder() {
+        }
+
+        /**
+         * Returns a builder with the settings of an existing serializer.
+         */
+        public Builder(@NonNull PropertyListSerializer serializer) {
+            this.format = serializer.format;
+            this.containerFactory = serializer.containerFactory;
+            this.maxLength = serializer.maxLength;
+            this.maxDepth = serializer.maxDepth;
+            this.maxObjects = serializer.maxObjects;
+            this.internKeys = serializer.internKeys;
+            this.realMode = serializer.realMode;
+            this.metricsListener = serializer.metricsListener;
+            this.statistics = serializer.statistics;
+        }
+
+        /**
+         * The format used by the methods that do not specify one. Defaults to XML.
+         */
+        public @NonNull Builder setFormat(@NonNull Format format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * Creates the Map and List for each dict and array read. Defaults to
+         * ContainerFactory.DEFAULT.
+         */
+        public @NonNull Builder setContainerFactory(@NonNull ContainerFactory containerFactory) {
+            this.containerFactory = containerFactory;
+            return this;
+        }
+
+        /**
+         * Maximum length in bytes of a property list that will be read. Defaults to no limit.
+         */
+        public @NonNull Builder setMaxLength(int maxLength) {
+            this.maxLength = checkLimit(maxLength);
+            return this;
+        }
+
+        /**
+         * Maximum nesting of dicts and arrays that will be read, e.g. 1 for a root dict of
+         * scalars. Defaults to no limit.
+         */
+        public @NonNull Builder setMaxDepth(int maxDepth) {
+            this.maxDepth = checkLimit(maxDepth);
+            return this;
+        }
+
+        /**
+         * Maximum number of elements, including dicts and arrays, that will be read. Defaults to
+         * no limit.
+         */
+        public @NonNull Builder setMaxObjects(int maxObjects) {
+            this.maxObjects = checkLimit(maxObjects);
+            return this;
+        }
+
+        /**
+         * If true, dict keys read are shared with those of previously read property lists, rather
+         * than each being a separate String. Reduces the memory used by long-lived property lists
+         * that repeat the same keys. Up to 4096 distinct keys are held by the serializer. Defaults
+         * to false.
+         */
+        public @NonNull Builder setInternKeys(boolean internKeys) {
+            this.internKeys = internKeys;
+            return this;
+        }
+
+        /**
+         * RealMode.Shortest to write the shortest &lt;real&gt; that round trips, or RealMode.CF for
+         * character by character accuracy with CFPropertyList.c. Only applies to Format.XML.
+         * Defaults to Shortest.
+         */
+        public @NonNull Builder setRealMode(@NonNull RealMode realMode) {
+            this.realMode = realMode;
+            return this;
+        }
+
+        /**
+         * Receives measurements of each property list read or written, or null (the default) to
+         * take no measurements.
+         */
+        public @NonNull Builder setMetricsListener(@Nullable PlistMetricsListener metricsListener) {
+            this.metricsListener = metricsListener;
+            return this;
+        }
+
+        /**
+         * Accumulates counts, bytes, errors and latencies of the property lists read and written,
+         * or null (the default) to keep no statistics. May be shared by several serializers.
+         */
+        public @NonNull Builder setStatistics(@Nullable PlistStatistics statistics) {
+            this.statistics = statistics;
+            return this;
+        }
+
+        public @NonNull PropertyListSerializer build() {
+            return new PropertyListSerializer(this);
+        }
+
+        private static int checkLimit(int limit) {
+            if (limit < 1)
+                throw new IllegalArgumentException("Limit must be at least 1");
+            return limit;
+        }
+    }
+
+    public @NonNull Format getFormat() {
+        return format;
+    }
+
+    public @NonNull ContainerFactory getContainerFactory() {
+        return containerFactory;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getMaxObjects() {
+        return maxObjects;
+    }
+
+    public boolean isInternKeys() {
+        return internKeys;
+    }
+
+    public @NonNull RealMode getRealMode() {
+        return realMode;
+    }
+
+    static RealFormatter.Mode formatterMode(RealMode realMode) {
+        return realMode == RealMode.CF ? RealFormatter.Mode.CF : RealFormatter.Mode.Shortest;
+    }
+
+    public @Nullable PlistMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    public @Nullable PlistStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * As per PropertyListSerialization.dataWithPropertyList(Object, Format), in the serializer's
+     * format.
+     */
+    public @NonNull
+    byte[] dataWithPropertyList(@NonNull Object obj) throws PropertyListWriteStreamException {
+        return dataWithPropertyList(obj, format);
+    }
+
+    /**
+     * As per PropertyListSerialization.dataWithPropertyList(Object, Format).
+     */
+    public @NonNull
+    byte[] dataWithPropertyList(@NonNull Object obj, Format format) throws PropertyListWriteStreamException {
+        if (format == Format.Binary) {
+            Tracing.begin(Tracing.SERIALIZE_BINARY);
+            long start = timed ? System.nanoTime() : 0;
+            boolean completed = false;
+            try {
+                BinaryPropertyListWriter p = new BinaryPropertyListWriter(obj);
+                MetricsRecorder metrics = null;
+                if (metricsListener != null) {
+                    metrics = new MetricsRecorder(null);
+                    p.setMetrics(metrics);
+                }
+                byte[] data = p.write();
+                long nanos = timed ? System.nanoTime() - start : 0;
+                if (metrics != null)
+                    metricsListener.onSerialize(new PlistMetrics(Format.Binary, 0, data.length, nanos, metrics));
+                record(Operation.SERIALIZE, Format.Binary, data.length, nanos);
+                completed = true;
+                return data;
+            } catch (IllegalStateException ise) {
+                // Incompatible Object attempting to be output
+                throw new PropertyListWriteStreamException(ise);
+            } catch (ParseException pe) {
+                // Error converting String to integer, float value.
+                throw new PropertyListWriteStreamException(pe);
+            } catch (IOException ioe) {
+                // Error writing to output stream - unlikely to occur, utf8 encoding missing - unlikely to occur
+                throw new PropertyListWriteStreamException(ioe);
+            } finally {
+                if (!completed)
+                    recordError(Operation.SERIALIZE);
+                Tracing.end();
+            }
+        } else {
+            // Format.XML
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            writePropertyList(obj, os, format);
+            return os.toByteArray();
+        }
+    }
+
+    /**
+     * As per PropertyListSerialization.writePropertyList(Object, OutputStream, Format), in the
+     * serializer's format.
+     */
+    public void writePropertyList(@NonNull Object obj, @NonNull OutputStream os) throws PropertyListWriteStreamException {
+        writePropertyList(obj, os, format);
+    }
+
+    /**
+     * As per PropertyListSerialization.writePropertyList(Object, OutputStream, Format).
+     */
+    public void writePropertyList(@NonNull Object obj, @NonNull OutputStream os, Format format) throws PropertyListWriteStreamException {
+        if (format == Format.XML) {
+            Tracing.begin(Tracing.SERIALIZE_XML);
+            long start = timed ? System.nanoTime() : 0;
+            boolean completed = false;
+            try {
+                if (!timed) {
+                    XMLPropertyListWriter p = new XMLPropertyListWriter(obj, os, formatterMode(realMode));
+                    p.write();
+                } else {
+                    MetricsRecorder metrics = metricsListener != null ? new MetricsRecorder(null) : null;
+                    CountingOutputStream cos = new CountingOutputStream(os);
+                    XMLPropertyListWriter p = new XMLPropertyListWriter(obj, cos, formatterMode(realMode));
+                    p.setMetrics(metrics);
+                    p.write();
+                    long nanos = System.nanoTime() - start;
+                    if (metrics != null) {
+                        metrics.addNanos(PlistMetrics.Phase.ENCODING, nanos);
+                        metricsListener.onSerialize(new PlistMetrics(Format.XML, 0, cos.count, nanos, metrics));
+                    }
+                    record(Operation.SERIALIZE, Format.XML, cos.count, nanos);
+                }
+                completed = true;
+            } catch (NullPointerException npe) {
+                // null objects are not compatible with plist.
+                throw new PropertyListWriteStreamException(npe);
+            } catch (IllegalStateException ise) {
+                // Incompatible Object attempting to be output
+                throw new PropertyListWriteStreamException(ise);
+            } catch (IOException ioe) {
+                // Error writing to output stream - unlikely to occur, utf8 encoding missing - unlikely to occur
+                throw new PropertyListWriteStreamException(ioe);
+            } finally {
+                if (!completed)
+                    recordError(Operation.SERIALIZE);
+                Tracing.end();
+            }
+        } else {
+            // Format.Binary
+            try {
+                os.write(dataWithPropertyList(obj, Format.Binary));
+            } catch (IOException ioe) {
+                // Error writing to output stream - unlikely to occur, utf8 encoding missing - unlikely to occur
+                recordError(Operation.SERIALIZE);
+                throw new PropertyListWriteStreamException(ioe);
+            }
+        }
+    }
+
+    /**
+     * As per PropertyListSerialization.propertyListWithData(byte[], Format), in the serializer's
+     * format.
+     */
+    public @NonNull
+    Object propertyListWithData(@NonNull byte[] data) throws PropertyListReadStreamException {
+        return propertyListWithData(data, format);
+    }
+
+    /**
+     * As per PropertyListSerialization.propertyListWithData(byte[], Format), subject to the
+     * serializer's limits.
+     */
+    public @NonNull
+    Object propertyListWithData(@NonNull byte[] data, Format format) throws PropertyListReadStreamException {
+        if (format == Format.Binary) {
+            return propertyListWithData(ByteBuffer.wrap(data));
+        } else {
+            // Format.XML
+            return propertyListWithData(new ByteArrayInputStream(data), format);
+        }
+    }
+
+    /**
+     * As per propertyListWithData(byte[], Format) for a Format.Binary plist held between 0 and
+     * the buffer's limit, e.g. a memory mapped file, which is read in place rather than copied.
+     */
+    @NonNull
+    Object propertyListWithData(@NonNull ByteBuffer buf) throws PropertyListReadStreamException {
+        Tracing.begin(Tracing.PARSE_BINARY);
+        long start = timed ? System.nanoTime() : 0;
+        boolean completed = false;
+        try {
+            int length = buf.limit();
+            if (length > maxLength)
+                throw new IOException("Property list exceeds maximum length of " + maxLength + " bytes");
+            ObjectGraphBuilder builder = new ObjectGraphBuilder(containerFactory);
+            BinaryPropertyListReader p = new BinaryPropertyListReader(buf);
+            if (metricsListener == null) {
+                p.parse(filter(builder));
+            } else {
+                MetricsRecorder metrics = new MetricsRecorder(builder);
+                p.setMetrics(metrics);
+                p.parse(filter(metrics));
+                metricsListener.onParse(new PlistMetrics(Format.Binary, length, 0, System.nanoTime() - start, metrics));
+            }
+            record(Operation.PARSE, Format.Binary, length, timed ? System.nanoTime() - start : 0);
+            completed = true;
+            return builder.getResult();
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListReadStreamException(uoe);
+        } catch (ParseException pe) {
+            // Error converting String to integer, float value.
+            throw new PropertyListReadStreamException(pe);
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw new PropertyListReadStreamException(ioe);
+        } finally {
+            if (!completed)
+                recordError(Operation.PARSE);
+            Tracing.end();
+        }
+    }
+
+    /**
+     * As per PropertyListSerialization.propertyListWithData(InputStream, Format), in the
+     * serializer's format.
+     */
+    public @NonNull
+    Object propertyListWithData(@NonNull InputStream is) throws PropertyListReadStreamException {
+        return propertyListWithData(is, format);
+    }
+
+    /**
+     * As per PropertyListSerialization.propertyListWithData(InputStream, Format), subject to the
+     * serializer's limits.
+     */
+    public @NonNull
+    Object propertyListWithData(@NonNull InputStream is, Format format) throws PropertyListReadStreamException {
+        if (format == Format.XML) {
+            Tracing.begin(Tracing.PARSE_XML);
+            long start = timed ? System.nanoTime() : 0;
+            boolean completed = false;
+            try {
+                ObjectGraphBuilder builder = new ObjectGraphBuilder(containerFactory);
+                if (!timed) {
+                    if (maxLength != Integer.MAX_VALUE)
+                        is = new CountingInputStream(is, maxLength);
+                    XMLPropertyListReader p = new XMLPropertyListReader(is);
+                    p.parse(filter(builder));
+                } else {
+                    MetricsRecorder metrics = metricsListener != null ? new MetricsRecorder(builder) : null;
+                    CountingInputStream cis = new CountingInputStream(is, maxLength);
+                    XMLPropertyListReader p = new XMLPropertyListReader(cis);
+                    p.parse(filter(metrics != null ? metrics : builder));
+                    long nanos = System.nanoTime() - start;
+                    if (metrics != null) {
+                        metrics.addNanos(PlistMetrics.Phase.OBJECTS, nanos);
+                        metricsListener.onParse(new PlistMetrics(Format.XML, cis.count, 0, nanos, metrics));
+                    }
+                    record(Operation.PARSE, Format.XML, cis.count, nanos);
+                }
+                completed = true;
+                return builder.getResult();
+            } catch (ParseException pe) {
+                // Error converting String to integer, float value.
+                throw new PropertyListReadStreamException(pe);
+            } catch (IOException ioe) {
+                // Error reading input stream
+                throw new PropertyListReadStreamException(ioe);
+            } catch (XmlPullParserException xppe) {
+                // XML parsing error - unexpected tokens etc
+                throw new PropertyListReadStreamException(xppe);
+            } finally {
+                if (!completed)
+                    recordError(Operation.PARSE);
+                Tracing.end();
+            }
+        } else {
+            // Format.Binary
+            try {
+                if (maxLength != Integer.MAX_VALUE)
+                    is = new CountingInputStream(is, maxLength);
+                return propertyListWithData(PropertyListSerialization.readFully(is), Format.Binary);
+            } catch (IOException ioe) {
+                // Error reading input stream
+                recordError(Operation.PARSE);
+                throw new PropertyListReadStreamException(ioe);
+            }
+        }
+    }
+
+    private void record(Operation operation, Format format, long bytes, long nanos) {
+        if (statistics != null)
+            statistics.record(operation, format, bytes, nanos);
+    }
+
+    private void recordError(Operation operation) {
+        if (statistics != null)
+            statistics.recordError(operation);
+    }
+
+    /**
+     * Returns the handler, preceded by a ParseFilter if any limits apply or keys are interned.
+     */
+    private PropertyListHandler filter(PropertyListHandler handler) {
+        if (maxDepth == Integer.MAX_VALUE && maxObjects == Integer.MAX_VALUE && keyPool == null)
+            return handler;
+        return new ParseFilter(handler, maxDepth, maxObjects, keyPool, MAX_INTERNED_KEYS);
+    }
+
+    /**
+     * Counts the bytes read, failing once more than the specified number have been read.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private int maxLength;
+        long count;
+
+        CountingInputStream(InputStream is, int maxLength) {
+            super(is);
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                consumed(1);
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0)
+                consumed(read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            consumed(skipped);
+            return skipped;
+        }
+
+        private void consumed(long count) throws IOException {
+            this.count += count;
+            if (this.count > maxLength)
+                throw new IOException("Property list exceeds maximum length of " + maxLength + " bytes");
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream os) {
+            super(os);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * PropertyListUpdater.java                                                    *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListReader;
+import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListUpdater;
+import nz.co.electricbolt.propertylistserialization.internal.BinaryPropertyListWriter;
+
+/**
+ * Edits individual elements of a binary plist file by appending to it, rather than rewriting the
+ * whole file. Changing one value of a large file costs time and disk writes proportional to the
+ * size of the value, the depth of its path, and the file's offset table (1-4 bytes per object,
+ * which each commit() writes in full, as the format has a single offset table) - not to the size
+ * of the file's objects.
+ * <pre>
+ * PropertyListUpdater updater = PropertyListUpdater.open(file);
+ * updater.set(Arrays.asList("Payload", 3, "size"), 33L);
+ * updater.remove(Collections.singletonList("enabled"));
+ * updater.close();
+ * </pre>
+ * Each edit encodes the new value and a new version of each dict and array on its path, held in
+ * memory until commit() appends them with a new offset table and trailer, after which readers of
+ * the file see the edits. The original bytes are never moved or overwritten. The replaced objects remain in the file as
+ * wasted space; once it exceeds the compaction threshold (by default half the file), commit()
+ * rewrites the file compactly, to a temporary file that is then renamed into place.
+ * <p>
+ * The file is unchanged until commit(), so edits that are not committed - e.g. if the process
+ * dies - are lost, but the file remains valid. If commit() itself is interrupted, open() truncates
+ * the incomplete append, restoring the previous commit.
+ * </p>
+ * <p>
+ * Paths are lists of String dict keys and Integer array indices from the root. Not thread safe.
+ * </p>
+ */
+
+public final class PropertyListUpdater {
+
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private final File file;
+    private RandomAccessFile raf;
+    private BinaryPropertyListUpdater updater;
+    private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    private PropertyListUpdater(File file) throws IOException, UnsupportedOperationException {
+        this.file = file;
+        open();
+    }
+
+    /**
+     * Opens a binary plist file for editing. Any incomplete commit() is truncated from the file.
+     *
+     * @throws PropertyListReadStreamException if the file could not be read, or is not a binary
+     *                                         plist.
+     */
+    public static @NonNull PropertyListUpdater open(@NonNull File file) throws PropertyListReadStreamException {
+        try {
+            return new PropertyListUpdater(file);
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListReadStreamException(uoe);
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw new PropertyListReadStreamException(ioe);
+        }
+    }
+
+    private void open() throws IOException, UnsupportedOperationException {
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            updater = new BinaryPropertyListUpdater(raf);
+        } catch (IOException | UnsupportedOperationException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The fraction of the file that may be wasted before commit() compacts it, between 0 and 1.
+     * Defaults to DEFAULT_COMPACTION_THRESHOLD.
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        if (!(compactionThreshold >= 0 && compactionThreshold <= 1))
+            throw new IllegalArgumentException("Compaction threshold must be between 0 and 1");
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Sets the element at the path to value. The last key of the path may be new to its dict;
+     * array indices must exist. An empty path replaces the root.
+     *
+     * @throws IllegalArgumentException if the path does not exist.
+     * @throws PropertyListWriteStreamException if the value is incompatible, or the file could not
+     *                                          be written.
+     */
+    public void set(@NonNull List<?> path, @NonNull Object value) throws IllegalArgumentException, PropertyListWriteStreamException {
+        try {
+            if (!updater.set(path, value))
+                rewrite(edit("set", path, value));
+        } catch (IllegalStateException ise) {
+            // Incompatible Object attempting to be output
+            throw new PropertyListWriteStreamException(ise);
+        } catch (ParseException pe) {
+            // Error converting String to integer, float value.
+            throw new PropertyListWriteStreamException(pe);
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListWriteStreamException(uoe);
+        } catch (IOException ioe) {
+            // Error writing to output stream
+            throw new PropertyListWriteStreamException(ioe);
+        }
+    }
+
+    /**
+     * Removes the dict entry or array element at the path.
+     *
+     * @throws IllegalArgumentException if the path does not exist, or is empty.
+     * @throws PropertyListWriteStreamException if the file could not be written.
+     */
+    public void remove(@NonNull List<?> path) throws IllegalArgumentException, PropertyListWriteStreamException {
+        try {
+            if (!updater.remove(path))
+                rewrite(edit("remove", path, null));
+        } catch (ParseException pe) {
+            // Error converting String to integer, float value.
+            throw new PropertyListWriteStreamException(pe);
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListWriteStreamException(uoe);
+        } catch (IOException ioe) {
+            // Error writing to output stream
+            throw new PropertyListWriteStreamException(ioe);
+        }
+    }
+
+    /**
+     * Makes the edits since the last commit visible to readers of the file, then compacts the
+     * file if its wasted space exceeds the compaction threshold.
+     *
+     * @throws PropertyListWriteStreamException if the file could not be written.
+     */
+    public void commit() throws PropertyListWriteStreamException {
+        try {
+            updater.commit();
+            if (updater.wastedBytes() > updater.length() * compactionThreshold)
+                rewrite(null);
+        } catch (ParseException pe) {
+            // Error converting String to integer, float value.
+            throw new PropertyListWriteStreamException(pe);
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListWriteStreamException(uoe);
+        } catch (IOException ioe) {
+            // Error writing to output stream
+            throw new PropertyListWriteStreamException(ioe);
+        }
+    }
+
+    /**
+     * Commits, then rewrites the file without wasted space.
+     *
+     * @throws PropertyListWriteStreamException if the file could not be written.
+     */
+    public void compact() throws PropertyListWriteStreamException {
+        try {
+            rewrite(null);
+        } catch (ParseException pe) {
+            // Error converting String to integer, float value.
+            throw new PropertyListWriteStreamException(pe);
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListWriteStreamException(uoe);
+        } catch (IOException ioe) {
+            // Error writing to output stream
+            throw new PropertyListWriteStreamException(ioe);
+        }
+    }
+
+    /**
+     * Returns the committed length of the file.
+     */
+    public long getLength() {
+        return updater.length();
+    }
+
+    /**
+     * Returns the bytes of the file not used by its current elements. Estimated from each edit,
+     * treating the elements it replaces as unused, and recorded in the file by commit(). For a
+     * file not written by PropertyListUpdater, it is first measured by walking the file's
+     * elements once.
+     *
+     * @throws PropertyListReadStreamException if the file could not be read.
+     */
+    public long getWastedBytes() throws PropertyListReadStreamException {
+        try {
+            return updater.wastedBytes();
+        } catch (UnsupportedOperationException uoe) {
+            // Binary plist format contains features we don't support.
+            throw new PropertyListReadStreamException(uoe);
+        } catch (IOException ioe) {
+            // Error reading input stream
+            throw new PropertyListReadStreamException(ioe);
+        }
+    }
+
+    /**
+     * Commits, and closes the file.
+     *
+     * @throws PropertyListWriteStreamException if the file could not be written.
+     */
+    public void close() throws PropertyListWriteStreamException {
+        try {
+            commit();
+        } finally {
+            try {
+                raf.close();
+            } catch (IOException ioe) {
+                // Already committed.
+            }
+        }
+    }
+
+    private static Map<String, Object> edit(String op, List<?> path, Object value) {
+        Map<String, Object> edit = new LinkedHashMap<>();
+        edit.put("op", op);
+        edit.put("path", path);
+        if (value != null)
+            edit.put("value", value);
+        return edit;
+    }
+
+    /**
+     * Commits, reads the whole file, applies the edit (if any) and writes the file afresh - to a
+     * temporary file, renamed into place.
+     */
+    private void rewrite(Map<String, Object> edit) throws IOException, ParseException, UnsupportedOperationException {
+        updater.commit();
+        byte[] data = new byte[(int) raf.length()];
+        raf.seek(0);
+        raf.readFully(data);
+        Object root = new BinaryPropertyListReader(data).parse(ContainerFactory.ORDERED);
+        if (edit != null)
+            root = PlistPatch.fromPropertyList(Collections.singletonList(edit)).apply(root);
+        data = new BinaryPropertyListWriter(root).write();
+
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            FileOutputStream os = new FileOutputStream(temp);
+            try {
+                os.write(data);
+                os.getFD().sync();
+            } finally {
+                os.close();
+            }
+            raf.close();
+            if (!temp.renameTo(file))
+                throw new IOException("Unable to replace " + file);
+        } finally {
+            temp.delete();
+            if (!raf.getChannel().isOpen())
+                open();
+        }
+    }
+
+}
@@ -16,4 +16,11 @@ public class PropertyListWriteStreamException extends PropertyListException {
         super(e);
     }
 
+    /**
+     * For errors, e.g. StackOverflowError, reported rather than thrown - see PropertyListBatch.
+     */
+    PropertyListWriteStreamException(Throwable t) {
+        super(t);
+    }
+
 }
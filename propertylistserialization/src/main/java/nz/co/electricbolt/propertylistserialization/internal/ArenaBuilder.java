@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * ArenaBuilder.java                                                           *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+
+import nz.co.electricbolt.propertylistserialization.PlistArena;
+
+/**
+ * Builds a PlistArena from property list events. Nodes are numbered in document order, so the
+ * root is node 0.
+ */
+
+public class ArenaBuilder implements PropertyListHandler {
+
+    private static class Container {
+        int node;
+        boolean dict;
+        int[] children; // dict: key node, value node pairs.
+        String[] keys; // dict: key of each entry, for sorting.
+        int count;
+
+        /**
+         * @param count the declared count, or -1 (XML plists). Binary plist counts are checked
+         *              against the length of the plist by BinaryPropertyListReader, so presizing
+         *              is bounded by the input.
+         */
+        Container(int node, boolean dict, int count) {
+            this.node = node;
+            this.dict = dict;
+            int capacity = Math.max(count, 4);
+            this.children = new int[dict ? capacity * 2 : capacity];
+            if (dict)
+                this.keys = new String[capacity];
+        }
+
+        void add(int child) {
+            if (count == children.length)
+                children = Arrays.copyOf(children, count * 2);
+            children[count++] = child;
+        }
+    }
+
+    private long[] nodes;
+    private int nodeCount;
+    private int[] refs;
+    private int refCount;
+    private char[] chars;
+    private int charCount;
+    private byte[] bytes;
+    private int byteCount;
+    private HashMap<String, Integer> keyNodes; // shared key nodes.
+    private ArrayList<Container> containers; // open dicts and arrays, innermost last.
+
+    public ArenaBuilder() {
+        this.nodes = new long[128];
+        this.refs = new int[64];
+        this.chars = new char[256];
+        this.bytes = new byte[64];
+        this.keyNodes = new HashMap<>();
+        this.containers = new ArrayList<>();
+    }
+
+    /**
+     * Returns the arena, once all events have been received.
+     */
+    public PlistArena getResult() {
+        return new PlistArena(Arrays.copyOf(nodes, nodeCount * 2), Arrays.copyOf(refs, refCount),
+            Arrays.copyOf(chars, charCount), Arrays.copyOf(bytes, byteCount));
+    }
+
+    @Override
+    public void startDict(int count) {
+        containers.add(new Container(addNode(PlistArena.DICT, 0, 0), true, count));
+    }
+
+    @Override
+    public void key(String key) {
+        Container dict = containers.get(containers.size() - 1);
+        Integer node = keyNodes.get(key);
+        if (node == null) {
+            node = addString(key);
+            keyNodes.put(key, node);
+        }
+        int entry = dict.count / 2;
+        if (entry == dict.keys.length)
+            dict.keys = Arrays.copyOf(dict.keys, entry * 2);
+        dict.keys[entry] = key;
+        dict.add(node);
+    }
+
+    @Override
+    public void endDict() {
+        final Container dict = containers.remove(containers.size() - 1);
+        int entries = dict.count / 2;
+        // Sort entries by key (stable, so the last of any duplicate keys is kept, as per HashMap).
+        Integer[] order = new Integer[entries];
+        for (int i = 0; i < entries; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return dict.keys[i1].compareTo(dict.keys[i2]);
+            }
+        });
+        int offset = refCount;
+        int count = 0;
+        for (int i = 0; i < entries; i++) {
+            int entry = order[i];
+            if (i + 1 < entries && dict.keys[order[i + 1]].equals(dict.keys[entry]))
+                continue;
+            addRef(dict.children[entry * 2]);
+            addRef(dict.children[entry * 2 + 1]);
+            count++;
+        }
+        setNode(dict.node, PlistArena.DICT, offset, count);
+        add(dict.node);
+    }
+
+    @Override
+    public void startArray(int count) {
+        containers.add(new Container(addNode(PlistArena.ARRAY, 0, 0), false, count));
+    }
+
+    @Override
+    public void endArray() {
+        Container array = containers.remove(containers.size() - 1);
+        int offset = refCount;
+        for (int i = 0; i < array.count; i++)
+            addRef(array.children[i]);
+        setNode(array.node, PlistArena.ARRAY, offset, array.count);
+        add(array.node);
+    }
+
+    @Override
+    public void stringValue(String value) {
+        add(addString(value));
+    }
+
+    @Override
+    public void integerValue(long value) {
+        add(addNode(PlistArena.INTEGER, 0, value));
+    }
+
+    @Override
+    public void realValue(float value) {
+        add(addNode(PlistArena.REAL, 4, Double.doubleToRawLongBits(value)));
+    }
+
+    @Override
+    public void realValue(double value) {
+        add(addNode(PlistArena.REAL, 8, Double.doubleToRawLongBits(value)));
+    }
+
+    @Override
+    public void dateValue(Date value) {
+        add(addNode(PlistArena.DATE, 0, value.getTime()));
+    }
+
+    @Override
+    public void booleanValue(boolean value) {
+        add(addNode(PlistArena.BOOLEAN, 0, value ? 1 : 0));
+    }
+
+    @Override
+    public void dataValue(byte[] value) {
+        if (byteCount + value.length > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, byteCount + value.length));
+        System.arraycopy(value, 0, bytes, byteCount, value.length);
+        add(addNode(PlistArena.DATA, byteCount, value.length));
+        byteCount += value.length;
+    }
+
+    private int addString(String value) {
+        int length = value.length();
+        if (charCount + length > chars.length)
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        value.getChars(0, length, chars, charCount);
+        int node = addNode(PlistArena.STRING, charCount, length);
+        charCount += length;
+        return node;
+    }
+
+    private int addNode(int type, int offset, long value) {
+        if (nodeCount * 2 == nodes.length)
+            nodes = Arrays.copyOf(nodes, nodes.length * 2);
+        setNode(nodeCount, type, offset, value);
+        return nodeCount++;
+    }
+
+    private void setNode(int node, int type, int offset, long value) {
+        nodes[node * 2] = ((long) type << 56) | offset;
+        nodes[node * 2 + 1] = value;
+    }
+
+    private void addRef(int node) {
+        if (refCount == refs.length)
+            refs = Arrays.copyOf(refs, refs.length * 2);
+        refs[refCount++] = node;
+    }
+
+    private void add(int node) {
+        if (!containers.isEmpty())
+            containers.get(containers.size() - 1).add(node);
+    }
+
+}
@@ -5,18 +5,15 @@
 
 package nz.co.electricbolt.propertylistserialization.internal;
 
-import android.util.Xml;
-
-import org.xmlpull.v1.XmlPullParser;
-
-import java.io.InputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+import nz.co.electricbolt.propertylistserialization.PlistMetrics;
 
 /**
  * Implements a subset of Apple property list (plist) parser - binary format version "bplist00" only.
@@ -38,112 +35,312 @@ import java.util.Map;
 public class BinaryPropertyListReader {
 
     private byte objectRefSize;
-    private int[] offsetTable;
-    private byte[] buf;
+    private int offsetIntSize;
+    private int offsetTableOffset;
+    private int numObjects;
+    private int rootObjectId;
+    private int[] offsetTable; // or null if offsets are read from the buffer as needed.
+    private final byte[] data; // the buffer's array, when it starts at index 0 - read directly.
+    private final ByteBuffer buf; // otherwise, e.g. a memory mapped file.
+    private boolean sortKeys;
+    private MetricsRecorder metrics;
 
     public BinaryPropertyListReader(byte[] buf) {
+        this.data = buf;
+        this.buf = ByteBuffer.wrap(buf);
+    }
+
+    /**
+     * Reads from the buffer's contents between 0 and its limit, e.g. a memory mapped file, without
+     * modifying its position. Objects are read individually with parse(int, PropertyListHandler)
+     * and the other methods taking an object id, which read the offset table as needed rather
+     * than in advance.
+     */
+    public BinaryPropertyListReader(ByteBuffer buf) throws UnsupportedOperationException {
+        this.data = buf.hasArray() && buf.arrayOffset() == 0 ? buf.array() : null;
         this.buf = buf;
+        readTrailer();
+    }
+
+    /**
+     * Dictionary keys are stored unordered in binary plists. If true, dict entries are reported
+     * to the PropertyListHandler in ascending key order (as required for XML plists).
+     */
+    public void setSortKeys(boolean sortKeys) {
+        this.sortKeys = sortKeys;
+    }
+
+    /**
+     * @param metrics records the time spent in each phase, or null.
+     */
+    public void setMetrics(MetricsRecorder metrics) {
+        this.metrics = metrics;
     }
 
     public Object parse() throws IOException, UnsupportedOperationException, ParseException {
-        // CFBinaryPlistHeader
-        if (!(new String(buf, 0, 8).equals("bplist00")))
-            throw new UnsupportedOperationException("File is not binary plist or supported version");
+        return parse(ContainerFactory.DEFAULT);
+    }
 
-        // CFBinaryPlistTrailer
-        int offsetIntSize = readByte(buf.length - 32 + 6);
-        objectRefSize = readByte(buf.length - 32 + 7);
-        int numObjects = (int) readLong(buf.length - 32 + 8);
-        int rootObjectId = (int) readLong(buf.length - 32 + 16);
-        int offsetTableOffset = (int) readLong(buf.length - 32 + 24);
+    /**
+     * As per parse(), using the factory to create the Map and List for each dict and array.
+     */
+    public Object parse(ContainerFactory factory) throws IOException, UnsupportedOperationException, ParseException {
+        ObjectGraphBuilder builder = new ObjectGraphBuilder(factory);
+        parse(builder);
+        return builder.getResult();
+    }
+
+    /**
+     * Parses the property list, reporting each element to the handler rather than building an
+     * object graph.
+     */
+    public void parse(PropertyListHandler handler) throws IOException, UnsupportedOperationException, ParseException {
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        readTrailer();
 
         // Offset table
-        offsetTable = new int[numObjects];
+        int[] offsetTable = new int[numObjects];
         for (int i = 0; i < numObjects; i++)
             offsetTable[i] = (int) readLong((offsetIntSize * i) + offsetTableOffset, offsetIntSize);
+        this.offsetTable = offsetTable;
+
+        if (metrics != null) {
+            long end = System.nanoTime();
+            metrics.addNanos(PlistMetrics.Phase.TRAILER, end - start);
+            start = end;
+        }
+
+        readObject(rootObjectId, handler);
+
+        if (metrics != null)
+            metrics.addNanos(PlistMetrics.Phase.OBJECTS, System.nanoTime() - start);
+    }
+
+    private void readTrailer() throws UnsupportedOperationException {
+        // CFBinaryPlistHeader
+        int length = buf.limit();
+        if (length < 8 + 32 || !(string(0, 8, "ascii").equals("bplist00")))
+            throw new UnsupportedOperationException("File is not binary plist or supported version");
+
+        // CFBinaryPlistTrailer
+        offsetIntSize = readByte(length - 32 + 6);
+        objectRefSize = readByte(length - 32 + 7);
+        numObjects = (int) readLong(length - 32 + 8);
+        rootObjectId = (int) readLong(length - 32 + 16);
+        offsetTableOffset = (int) readLong(length - 32 + 24);
+    }
+
+    public int getRootObjectId() {
+        return rootObjectId;
+    }
+
+    public int getObjectCount() {
+        return numObjects;
+    }
+
+    /**
+     * Parses the object with the specified id, and the objects it references.
+     */
+    public void parse(int objectId, PropertyListHandler handler) throws IOException, UnsupportedOperationException, ParseException {
+        readObject(objectId, handler);
+    }
+
+    /**
+     * As per parse(int, PropertyListHandler), using the factory to create the Map and List for
+     * each dict and array.
+     */
+    public Object parse(int objectId, ContainerFactory factory) throws IOException, UnsupportedOperationException, ParseException {
+        ObjectGraphBuilder builder = new ObjectGraphBuilder(factory);
+        readObject(objectId, builder);
+        return builder.getResult();
+    }
+
+    /**
+     * Returns true if the object with the id is an array.
+     */
+    public boolean isArray(int objectId) {
+        return (byteAt(offsetOf(objectId)) & 0xF0) >> 4 == 0xA;
+    }
+
+    /**
+     * Returns the number of elements of the array, or entries of the dict, with the object id.
+     */
+    public int count(int objectId) throws UnsupportedOperationException {
+        int offset = offsetOf(objectId);
+        int objectType = (byteAt(offset) & 0xF0) >> 4;
+        if (objectType != 0xA && objectType != 0xD)
+            throw new UnsupportedOperationException("Expected array or dict, found plist objectType " + objectType);
+        return checkRefs(readLengthOffset(offset, byteAt(offset) & 0x0F), objectType == 0xD ? 2 : 1).length;
+    }
 
-        return readObject(rootObjectId);
+    /**
+     * Returns the object id of the index'th reference of the array or dict with the object id.
+     * A dict of count entries has count key references followed by count value references.
+     */
+    public int ref(int objectId, int index) {
+        int offset = offsetOf(objectId);
+        LengthOffset lo = readLengthOffset(offset, byteAt(offset) & 0x0F);
+        return (int) readLong(lo.offset + (index * objectRefSize), objectRefSize);
     }
 
-    private Object readObject(int objectId) throws UnsupportedOperationException, UnsupportedEncodingException, ParseException {
-        int offset = offsetTable[objectId];
-        int objectType = (buf[offset] & 0xF0) >> 4; // high nibble
-        int objectInfo = buf[offset] & 0x0F; // low nibble
+    /**
+     * Returns the string with the object id.
+     */
+    public String stringValue(int objectId) throws UnsupportedOperationException, UnsupportedEncodingException {
+        return readString(objectId);
+    }
+
+    private int offsetOf(int objectId) {
+        if (offsetTable != null)
+            return offsetTable[objectId];
+        return (int) readLong((offsetIntSize * objectId) + offsetTableOffset, offsetIntSize);
+    }
+
+    private void readObject(int objectId, PropertyListHandler handler) throws IOException, UnsupportedOperationException, ParseException {
+        int offset = offsetOf(objectId);
+        int objectType = (byteAt(offset) & 0xF0) >> 4; // high nibble
+        int objectInfo = byteAt(offset) & 0x0F; // low nibble
         switch (objectType) {
             case 0x0: {
                 switch (objectInfo) {
                     case 0x8: // boolean false
-                        return false;
+                        handler.booleanValue(false);
+                        return;
                     case 0x9: // boolean true
-                        return true;
+                        handler.booleanValue(true);
+                        return;
                     default:
                         throw new UnsupportedOperationException("Unsupported objectInfo " + objectInfo);
                 }
             }
             case 0x1: {
                 // integer
-                return (long) readLong(offset + 1, (int) Math.pow(2, objectInfo));
+                handler.integerValue(readLong(offset + 1, (int) Math.pow(2, objectInfo)));
+                return;
             }
             case 0x2: {
                 // real
                 int size = (int) Math.pow(2, objectInfo);
                 if (size == 4)
-                    return Float.intBitsToFloat((int) readLong(offset + 1, 4));
+                    handler.realValue(Float.intBitsToFloat((int) readLong(offset + 1, 4)));
                 else if (size == 8)
-                    return Double.longBitsToDouble(readLong(offset + 1, 8));
+                    handler.realValue(Double.longBitsToDouble(readLong(offset + 1, 8)));
                 else
                     throw new UnsupportedOperationException("Unsupported real size");
+                return;
             }
             case 0x3: {
                 // date
                 if (objectInfo != 0x3)
                     throw new UnsupportedOperationException("Unsupported date format" + objectInfo);
                 double millisSinceEpoch = Double.longBitsToDouble(readLong(offset + 1, 8));
-                return DateUtil.parseBinary(millisSinceEpoch);
+                handler.dateValue(DateUtil.parseBinary(millisSinceEpoch));
+                return;
             }
             case 0x4: {
                 // data
                 LengthOffset lo = readLengthOffset(offset, objectInfo);
-                byte[] data = new byte[lo.length];
-                System.arraycopy(buf, lo.offset, data, 0, lo.length);
-                return data;
-            }
-            case 0x5: {
-                // ascii string
-                LengthOffset lo = readLengthOffset(offset, objectInfo);
-                return new String(buf, lo.offset, lo.length, "ascii");
+                handler.dataValue(bytes(lo.offset, lo.length));
+                return;
             }
+            case 0x5:
             case 0x6: {
-                // utf16 string
-                LengthOffset lo = readLengthOffset(offset, objectInfo);
-                return new String(buf, lo.offset, lo.length*2, "utf-16be"); // 2 bytes per character
+                // ascii or utf16 string
+                handler.stringValue(readString(objectId));
+                return;
             }
             case 0xA: {
                 // array
-                LengthOffset lo = readLengthOffset(offset, objectInfo);
-                List<Object> array = new ArrayList<>();
+                LengthOffset lo = checkRefs(readLengthOffset(offset, objectInfo), 1);
+                handler.startArray(lo.length);
                 for (int i = 0; i < lo.length; i++) {
                     int arrayObjectId = (int) readLong(lo.offset + (i * objectRefSize), objectRefSize);
-                    array.add(readObject(arrayObjectId));
+                    readObject(arrayObjectId, handler);
                 }
-                return array;
+                handler.endArray();
+                return;
             }
             case 0xD: {
                 // dict
-                LengthOffset lo = readLengthOffset(offset, objectInfo);
-                Map<String, Object> dict = new HashMap<String, Object>();
-                for (int i = 0; i < lo.length; i++) {
-                    int keyObjectId = (int) readLong(lo.offset + (i * objectRefSize), objectRefSize);
-                    int valueObjectId = (int) readLong(lo.offset + (i * objectRefSize) + (lo.length * objectRefSize), objectRefSize);
-                    dict.put((String) readObject(keyObjectId), readObject(valueObjectId));
+                LengthOffset lo = checkRefs(readLengthOffset(offset, objectInfo), 2);
+                handler.startDict(lo.length);
+                if (sortKeys && lo.length > 1) {
+                    String[] keys = new String[lo.length];
+                    Integer[] order = new Integer[lo.length];
+                    for (int i = 0; i < lo.length; i++) {
+                        keys[i] = readString((int) readLong(lo.offset + (i * objectRefSize), objectRefSize));
+                        order[i] = i;
+                    }
+                    final String[] sortedKeys = keys;
+                    Arrays.sort(order, new Comparator<Integer>() {
+                        @Override
+                        public int compare(Integer lhs, Integer rhs) {
+                            return sortedKeys[lhs].compareTo(sortedKeys[rhs]);
+                        }
+                    });
+                    for (int i : order) {
+                        int valueObjectId = (int) readLong(lo.offset + (i * objectRefSize) + (lo.length * objectRefSize), objectRefSize);
+                        handler.key(keys[i]);
+                        readObject(valueObjectId, handler);
+                    }
+                } else {
+                    for (int i = 0; i < lo.length; i++) {
+                        int keyObjectId = (int) readLong(lo.offset + (i * objectRefSize), objectRefSize);
+                        int valueObjectId = (int) readLong(lo.offset + (i * objectRefSize) + (lo.length * objectRefSize), objectRefSize);
+                        handler.key(readString(keyObjectId));
+                        readObject(valueObjectId, handler);
+                    }
                 }
-                return dict;
+                handler.endDict();
+                return;
             }
             default:
                 throw new UnsupportedOperationException("Unsupported plist objectType " + (objectType));
         }
     }
 
+    private String readString(int objectId) throws UnsupportedOperationException, UnsupportedEncodingException {
+        int offset = offsetOf(objectId);
+        int objectType = (byteAt(offset) & 0xF0) >> 4; // high nibble
+        int objectInfo = byteAt(offset) & 0x0F; // low nibble
+        LengthOffset lo = readLengthOffset(offset, objectInfo);
+        if (objectType == 0x5) {
+            // ascii string
+            return string(lo.offset, lo.length, "ascii");
+        } else if (objectType == 0x6) {
+            // utf16 string
+            return string(lo.offset, lo.length*2, "utf-16be"); // 2 bytes per character
+        } else
+            throw new UnsupportedOperationException("Expected string, found plist objectType " + objectType);
+    }
+
+    private String string(int offset, int length, String charsetName) {
+        try {
+            if (data != null)
+                return new String(data, offset, length, charsetName);
+            if (buf.hasArray())
+                return new String(buf.array(), buf.arrayOffset() + offset, length, charsetName);
+            return new String(bytes(offset, length), charsetName);
+        } catch (UnsupportedEncodingException uee) {
+            // ascii and utf-16be are always supported.
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    private byte[] bytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        if (buf.hasArray())
+            System.arraycopy(buf.array(), buf.arrayOffset() + offset, bytes, 0, length);
+        else {
+            // A duplicate, as other threads may be reading the same buffer.
+            ByteBuffer src = buf.duplicate();
+            src.position(offset);
+            src.get(bytes);
+        }
+        return bytes;
+    }
+
     private byte readByte(int offset) {
         return (byte) readLong(offset, 1);
     }
@@ -161,24 +358,45 @@ public class BinaryPropertyListReader {
      */
     private long readLong(int offset, int length) {
         long value = 0;
-        for (int i = 0; i < length; i++) {
-            value <<= 8;
-            value |= (buf[offset + i] & 0xFF);
+        if (data != null) {
+            for (int i = 0; i < length; i++) {
+                value <<= 8;
+                value |= (data[offset + i] & 0xFF);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                value <<= 8;
+                value |= (buf.get(offset + i) & 0xFF);
+            }
         }
         return value;
     }
 
+    private byte byteAt(int offset) {
+        return data != null ? data[offset] : buf.get(offset);
+    }
+
     private static class LengthOffset {
         int length;
         int offset;
     }
 
+    /**
+     * Checks that the object references of an array (1 per element) or dict (2 per entry) lie
+     * before the offset table, so that a corrupt count is rejected before handlers presize for it.
+     */
+    private LengthOffset checkRefs(LengthOffset lo, int refsPerEntry) throws UnsupportedOperationException {
+        if (lo.length < 0 || lo.offset + (long) lo.length * refsPerEntry * objectRefSize > offsetTableOffset)
+            throw new UnsupportedOperationException("Object count " + lo.length + " exceeds the object data");
+        return lo;
+    }
+
     private LengthOffset readLengthOffset(int offset, int objectInfo) {
         LengthOffset result = new LengthOffset();
         if (objectInfo == 0xF) {
             // Length values >= 15 are stored in the bytes following.
-            int intType = (buf[offset+1] & 0xF0) >> 4; // high nibble
-            int intInfo = buf[offset+1] & 0x0F; // low nibble
+            int intType = (byteAt(offset+1) & 0xF0) >> 4; // high nibble
+            int intInfo = byteAt(offset+1) & 0x0F; // low nibble
             int size = (int) Math.pow(2, intInfo);
             result.offset = offset + 2 + size;
             result.length = (int) readLong(offset + 2, size);
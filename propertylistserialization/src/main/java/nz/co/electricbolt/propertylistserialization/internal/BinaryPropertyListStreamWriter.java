@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * BinaryPropertyListStreamWriter.java                                         *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a binary plist from property list events, without an intermediate object graph.
+ * <p>
+ * Each object is encoded as soon as it is complete (containers on endDict/endArray), so only the
+ * object table is held in memory: the encoded objects, and the object ids referenced by each
+ * container. The object reference size depends on the total number of objects, so the binary plist
+ * is written to the output stream by finish().
+ * </p>
+ * Equal strings, integers, reals, dates and booleans are written once. Unlike
+ * BinaryPropertyListWriter, equal dicts and arrays are not.
+ */
+
+public class BinaryPropertyListStreamWriter implements PropertyListHandler {
+
+    private static class Container {
+        boolean dict;
+        int[] refs; // dict: keys in even, values in odd elements.
+        int count;
+
+        Container(boolean dict, int capacity) {
+            this.dict = dict;
+            this.refs = new int[Math.max(dict ? capacity * 2 : capacity, 4)];
+        }
+
+        void add(int objectId) {
+            if (count == refs.length)
+                refs = Arrays.copyOf(refs, count * 2);
+            refs[count++] = objectId;
+        }
+    }
+
+    private OutputStream os;
+    private BinaryPropertyListWriter encoder; // encoded objects, in object id order.
+    private Map<Object, Integer> scalarIdMap;
+    private ArrayList<Container> containers; // open dicts and arrays, innermost last.
+    private int objectCount;
+    private int[] offsets;
+    private int[][] refs;
+    private int rootObjectId;
+
+    public BinaryPropertyListStreamWriter(OutputStream os) {
+        this.os = os;
+        this.encoder = new BinaryPropertyListWriter(null);
+        this.scalarIdMap = new HashMap<>();
+        this.containers = new ArrayList<>();
+        this.offsets = new int[64];
+        this.refs = new int[64][];
+        this.rootObjectId = -1;
+    }
+
+    /**
+     * Writes the binary plist to the output stream, once all events have been received.
+     */
+    public void finish() throws IOException, IllegalStateException {
+        if (rootObjectId == -1 || !containers.isEmpty())
+            throw new IllegalStateException("Property list is incomplete");
+        BinaryPropertyListWriter.Fragment fragment = new BinaryPropertyListWriter.Fragment();
+        fragment.objectCount = objectCount;
+        fragment.rootObjectId = rootObjectId;
+        fragment.data = encoder.toByteArray();
+        fragment.offsets = Arrays.copyOf(offsets, objectCount + 1);
+        fragment.offsets[objectCount] = fragment.data.length;
+        fragment.refs = refs;
+        try {
+            os.write(new BinaryPropertyListWriter(fragment).write());
+        } catch (ParseException pe) {
+            // Not possible - all objects have already been encoded.
+            throw new IllegalStateException(pe);
+        }
+    }
+
+    @Override
+    public void startDict(int count) {
+        containers.add(new Container(true, count));
+    }
+
+    @Override
+    public void key(String key) throws IOException {
+        containers.get(containers.size() - 1).add(scalar(key));
+    }
+
+    @Override
+    public void endDict() throws IOException {
+        Container dict = containers.remove(containers.size() - 1);
+        int pairs = dict.count / 2;
+        int[] dictRefs = new int[dict.count];
+        for (int i = 0; i < pairs; i++) {
+            dictRefs[i] = dict.refs[i * 2];
+            dictRefs[pairs + i] = dict.refs[i * 2 + 1];
+        }
+        int objectId = nextObjectId();
+        encoder.writeLength(0xD, pairs);
+        refs[objectId] = dictRefs;
+        add(objectId);
+    }
+
+    @Override
+    public void startArray(int count) {
+        containers.add(new Container(false, count));
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        Container array = containers.remove(containers.size() - 1);
+        int objectId = nextObjectId();
+        encoder.writeLength(0xA, array.count);
+        refs[objectId] = Arrays.copyOf(array.refs, array.count);
+        add(objectId);
+    }
+
+    @Override
+    public void stringValue(String value) throws IOException {
+        add(scalar(value));
+    }
+
+    @Override
+    public void integerValue(long value) throws IOException {
+        add(scalar(value));
+    }
+
+    @Override
+    public void realValue(float value) throws IOException {
+        add(scalar(value));
+    }
+
+    @Override
+    public void realValue(double value) throws IOException {
+        add(scalar(value));
+    }
+
+    @Override
+    public void dateValue(Date value) throws IOException {
+        add(scalar(value));
+    }
+
+    @Override
+    public void booleanValue(boolean value) throws IOException {
+        add(scalar(value));
+    }
+
+    @Override
+    public void dataValue(byte[] value) throws IOException {
+        add(encode(value));
+    }
+
+    private int scalar(Object value) throws IOException {
+        Integer objectId = scalarIdMap.get(value);
+        if (objectId == null) {
+            objectId = encode(value);
+            scalarIdMap.put(value, objectId);
+        }
+        return objectId;
+    }
+
+    private int encode(Object value) throws IOException {
+        int objectId = nextObjectId();
+        try {
+            encoder.writeScalar(value);
+        } catch (ParseException pe) {
+            // Error converting Date - unlikely to occur
+            throw new IOException(pe.getMessage());
+        }
+        return objectId;
+    }
+
+    private int nextObjectId() {
+        if (objectCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, objectCount * 2);
+            refs = Arrays.copyOf(refs, objectCount * 2);
+        }
+        offsets[objectCount] = encoder.size();
+        return objectCount++;
+    }
+
+    private void add(int objectId) {
+        if (containers.isEmpty())
+            rootObjectId = objectId;
+        else
+            containers.get(containers.size() - 1).add(objectId);
+    }
+
+}
@@ -0,0 +1,509 @@
+/*******************************************************************************
+ * BinaryPropertyListUpdater.java                                              *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Updates a binary plist file in place by appending, without rewriting its existing objects.
+ * <p>
+ * Objects are located through the offset table, so an edit encodes the new value's objects,
+ * followed by a new version of each dict and array on the path from the root to the edited
+ * element (each referencing the new version of its child), with new object ids. These are held in
+ * memory until commit(), which appends them together with a new offset table - the old entries
+ * plus the new objects - and a trailer naming the new root, in a single write. The previous
+ * objects, offset table and trailer remain in the file as unreachable (wasted) bytes until the
+ * file is rewritten.
+ * </p>
+ * <p>
+ * Until commit() the file is unchanged, so an updater that is discarded leaves it as it was. If a
+ * commit() is interrupted, the constructor finds the last complete trailer and truncates the file
+ * after it. The offset table covers every object, so each commit() writes 1-4 bytes per object in
+ * the file, though none of the existing objects themselves.
+ * </p>
+ * <p>
+ * The bytes of reachable objects are recorded in the unused bytes of the trailer (which other
+ * readers ignore), so that the wasted space is known without reading the file. For a file not
+ * written by the updater, it is measured by walking the file's objects once, at the first edit
+ * or call to wastedBytes().
+ * </p>
+ * Object references have the fixed size chosen when the file was written, so an edit that would
+ * need more object ids than that size can address is refused (set() and remove() return false),
+ * and the file must be rewritten instead.
+ */
+
+public class BinaryPropertyListUpdater {
+
+    private static final int TRAILER_LENGTH = 32;
+    private static final int HEADER_LENGTH = 8;
+
+    private final RandomAccessFile file;
+    private int objectRefSize;
+    private int offsetIntSize;
+    private int[] offsets;
+    private int objectCount;
+    private int rootObjectId;
+    private long length; // committed length of the file.
+    private final Pending pending = new Pending(); // objects appended since the last commit.
+    private long liveBytes = -1; // bytes of reachable objects, or -1 if not yet computed.
+
+    /**
+     * Objects not yet committed, which follow the committed length of the file.
+     */
+    private static final class Pending extends ByteArrayOutputStream {
+        void copy(int offset, byte[] dest, int destOffset, int length) {
+            System.arraycopy(buf, offset, dest, destOffset, length);
+        }
+    }
+
+    /**
+     * Reads the trailer and offset table of the file. Bytes after the last complete trailer - an
+     * interrupted commit() - are truncated.
+     */
+    public BinaryPropertyListUpdater(RandomAccessFile file) throws IOException, UnsupportedOperationException {
+        this.file = file;
+        long fileLength = file.length();
+        length = fileLength;
+        if (fileLength > Integer.MAX_VALUE)
+            throw new UnsupportedOperationException("Binary plist exceeds 2GB");
+        if (fileLength < HEADER_LENGTH + TRAILER_LENGTH || !new String(read(0, HEADER_LENGTH), "ascii").equals("bplist00"))
+            throw new UnsupportedOperationException("File is not binary plist or supported version");
+
+        ByteBuffer buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+        while (!isTrailer(buf, (int) length)) {
+            if (--length < HEADER_LENGTH + TRAILER_LENGTH)
+                throw new UnsupportedOperationException("File is not binary plist or supported version");
+        }
+        if (length < fileLength)
+            file.setLength(length);
+
+        // CFBinaryPlistTrailer
+        int trailer = (int) length - TRAILER_LENGTH;
+        offsetIntSize = buf.get(trailer + 6);
+        objectRefSize = buf.get(trailer + 7);
+        objectCount = (int) buf.getLong(trailer + 8);
+        rootObjectId = (int) buf.getLong(trailer + 16);
+        int offsetTableOffset = (int) buf.getLong(trailer + 24);
+        long recordedLiveBytes = readLong(buf, trailer, 5); // zero unless written by commit().
+        if (recordedLiveBytes > 0 && recordedLiveBytes <= offsetTableOffset - HEADER_LENGTH)
+            liveBytes = recordedLiveBytes;
+
+        // Offset table
+        offsets = new int[objectCount + 16];
+        for (int i = 0; i < objectCount; i++)
+            offsets[i] = (int) readLong(buf, offsetTableOffset + i * offsetIntSize, offsetIntSize);
+    }
+
+    /**
+     * Returns true if a valid trailer ends at end: its offset table immediately precedes it, and
+     * the sizes and ids it records are in range.
+     */
+    private static boolean isTrailer(ByteBuffer buf, int end) {
+        int trailer = end - TRAILER_LENGTH;
+        int offsetIntSize = buf.get(trailer + 6);
+        int objectRefSize = buf.get(trailer + 7);
+        if (offsetIntSize < 1 || offsetIntSize > 8 || objectRefSize < 1 || objectRefSize > 8)
+            return false;
+        long objectCount = buf.getLong(trailer + 8);
+        long rootObjectId = buf.getLong(trailer + 16);
+        long offsetTableOffset = buf.getLong(trailer + 24);
+        return objectCount > 0 && objectCount <= trailer && rootObjectId >= 0 && rootObjectId < objectCount
+                && offsetTableOffset >= HEADER_LENGTH && offsetTableOffset + objectCount * offsetIntSize == trailer;
+    }
+
+    private long end() {
+        return length + pending.size();
+    }
+
+    /**
+     * Returns the committed length of the file.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Sets the element at the path - a list of String dict keys and Integer array indices from
+     * the root - to value. The last key of the path may be new to its dict; array indices must
+     * exist. An empty path replaces the root.
+     *
+     * @return false, with the file unchanged, if the file's object references are too small.
+     * @throws IllegalArgumentException if the path does not exist.
+     */
+    public boolean set(List<?> path, Object value) throws IOException, IllegalArgumentException, IllegalStateException, ParseException, UnsupportedOperationException {
+        if (value == null)
+            throw new IllegalStateException("Object cannot be null");
+        return update(path, value);
+    }
+
+    /**
+     * Removes the dict entry or array element at the path.
+     *
+     * @return false, with the file unchanged, if the file's object references are too small.
+     * @throws IllegalArgumentException if the path does not exist, or is empty.
+     */
+    public boolean remove(List<?> path) throws IOException, IllegalArgumentException, UnsupportedOperationException {
+        if (path.isEmpty())
+            throw new IllegalArgumentException("Cannot remove the root");
+        try {
+            return update(path, null);
+        } catch (ParseException pe) {
+            // No value is encoded.
+            throw new IllegalStateException(pe);
+        }
+    }
+
+    private boolean update(List<?> path, Object value) throws IOException, IllegalArgumentException, IllegalStateException, ParseException, UnsupportedOperationException {
+        if (liveBytes < 0)
+            liveBytes = reachableBytes();
+
+        // Find the containers on the path, and the slot of each within its parent.
+        int depth = path.size();
+        Container[] containers = new Container[depth];
+        int[] slots = new int[depth];
+        int objectId = rootObjectId;
+        for (int i = 0; i < depth; i++) {
+            Container container = readContainer(objectId);
+            Object segment = path.get(i);
+            boolean last = i == depth - 1;
+            int slot = -1;
+            if (container != null && container.dict && segment instanceof String) {
+                for (int k = 0; k < container.count && slot < 0; k++) {
+                    if (segment.equals(readString(container.refs[k])))
+                        slot = k;
+                }
+                if (slot < 0 && !(last && value != null))
+                    throw new IllegalArgumentException("Path " + path + " not found");
+            } else if (container != null && !container.dict && segment instanceof Number) {
+                slot = ((Number) segment).intValue();
+                if (slot < 0 || slot >= container.count)
+                    throw new IllegalArgumentException("Path " + path + " not found");
+            } else
+                throw new IllegalArgumentException("Path " + path + " not found");
+            containers[i] = container;
+            slots[i] = slot;
+            if (!last)
+                objectId = container.valueRef(slot);
+        }
+
+        // Encode the value, and the key if new, as fragments with local object ids.
+        BinaryPropertyListWriter.Fragment valueFragment = value != null ? new BinaryPropertyListWriter(value).writeFragment() : null;
+        boolean newKey = depth > 0 && slots[depth - 1] < 0;
+        BinaryPropertyListWriter.Fragment keyFragment = newKey ? new BinaryPropertyListWriter(path.get(depth - 1)).writeFragment() : null;
+        int newObjects = depth + (valueFragment != null ? valueFragment.objectCount : 0) + (newKey ? 1 : 0);
+        if ((long) objectCount + newObjects > maxObjects())
+            return false;
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        int nextId = objectCount;
+        int childId = -1;
+        if (valueFragment != null) {
+            childId = nextId + valueFragment.rootObjectId;
+            nextId = append(valueFragment, nextId, os);
+        }
+        int keyId = -1;
+        if (keyFragment != null) {
+            keyId = nextId;
+            nextId = append(keyFragment, nextId, os);
+        }
+        long removed = 0;
+        for (int i = depth - 1; i >= 0; i--) {
+            Container container = containers[i];
+            int slot = slots[i];
+            int[] refs;
+            int count = container.count;
+            if (i < depth - 1 || value != null) {
+                if (slot >= 0) {
+                    refs = container.refs.clone();
+                    if (i == depth - 1)
+                        removed += objectSize(container.valueRef(slot));
+                    refs[container.dict ? count + slot : slot] = childId;
+                } else {
+                    // New dict entry - keys, then values.
+                    refs = new int[(count + 1) * 2];
+                    System.arraycopy(container.refs, 0, refs, 0, count);
+                    refs[count] = keyId;
+                    System.arraycopy(container.refs, count, refs, count + 1, count);
+                    refs[count * 2 + 1] = childId;
+                    count++;
+                }
+            } else {
+                // Remove the slot.
+                removed += objectSize(container.valueRef(slot));
+                if (container.dict) {
+                    refs = new int[(count - 1) * 2];
+                    copyWithout(container.refs, 0, count, slot, refs, 0);
+                    copyWithout(container.refs, count, count, slot, refs, count - 1);
+                } else {
+                    refs = new int[count - 1];
+                    copyWithout(container.refs, 0, count, slot, refs, 0);
+                }
+                count--;
+            }
+            removed += container.size;
+            ensureCapacity(nextId + 1);
+            offsets[nextId] = (int) (end() + os.size());
+            BinaryPropertyListWriter encoder = new BinaryPropertyListWriter(null);
+            encoder.writeLength(container.dict ? 0xD : 0xA, count);
+            os.write(encoder.toByteArray());
+            for (int ref : refs)
+                writeLong(os, ref, objectRefSize);
+            childId = nextId++;
+        }
+
+        if (end() + os.size() + (long) nextId * 4 + TRAILER_LENGTH > Integer.MAX_VALUE)
+            return false;
+        os.writeTo(pending);
+        objectCount = nextId;
+        rootObjectId = childId;
+        liveBytes = Math.max(1, liveBytes + os.size() - removed);
+        return true;
+    }
+
+    /**
+     * Appends a fragment's objects, assigning them object ids from baseObjectId onwards.
+     *
+     * @return the next unassigned object id.
+     */
+    private int append(BinaryPropertyListWriter.Fragment fragment, int baseObjectId, ByteArrayOutputStream os) throws IOException {
+        ensureCapacity(baseObjectId + fragment.objectCount);
+        for (int i = 0; i < fragment.objectCount; i++) {
+            offsets[baseObjectId + i] = (int) (end() + os.size());
+            os.write(fragment.data, fragment.offsets[i], fragment.offsets[i + 1] - fragment.offsets[i]);
+            if (fragment.refs[i] != null) {
+                for (int ref : fragment.refs[i])
+                    writeLong(os, baseObjectId + ref, objectRefSize);
+            }
+        }
+        return baseObjectId + fragment.objectCount;
+    }
+
+    private static void copyWithout(int[] src, int from, int count, int skip, int[] dest, int to) {
+        System.arraycopy(src, from, dest, to, skip);
+        System.arraycopy(src, from + skip + 1, dest, to + skip, count - skip - 1);
+    }
+
+    private long maxObjects() {
+        return objectRefSize >= 4 ? Integer.MAX_VALUE : 1L << (8 * objectRefSize);
+    }
+
+    private void ensureCapacity(int count) {
+        if (count > offsets.length)
+            offsets = Arrays.copyOf(offsets, Math.max(count, offsets.length * 2));
+    }
+
+    /**
+     * Appends the objects of the edits since the last commit, followed by the offset table and
+     * trailer, making them visible to readers of the file.
+     */
+    public void commit() throws IOException {
+        if (pending.size() == 0)
+            return;
+        long offsetTableOffset = end();
+        int newOffsetIntSize = offsetTableOffset < 256 ? 1 : offsetTableOffset < 65536 ? 2 : 4;
+        ByteArrayOutputStream os = new ByteArrayOutputStream(pending.size() + objectCount * newOffsetIntSize + TRAILER_LENGTH);
+        pending.writeTo(os);
+        for (int i = 0; i < objectCount; i++)
+            writeLong(os, offsets[i], newOffsetIntSize);
+
+        // CFBinaryPlistTrailer
+        writeLong(os, liveBytes, 5); // unused - bytes of reachable objects.
+        os.write(0); // sortVersion
+        os.write(newOffsetIntSize);
+        os.write(objectRefSize);
+        writeLong(os, objectCount, 8);
+        writeLong(os, rootObjectId, 8);
+        writeLong(os, offsetTableOffset, 8);
+
+        file.seek(length);
+        file.write(os.toByteArray());
+        file.getChannel().force(false);
+        offsetIntSize = newOffsetIntSize;
+        length += os.size();
+        pending.reset();
+    }
+
+    /**
+     * Returns the committed bytes not used by the current objects, offset table or trailer. Edits
+     * maintain the count of reachable bytes, treating the objects they replace as unreachable.
+     */
+    public long wastedBytes() throws IOException, UnsupportedOperationException {
+        if (liveBytes < 0)
+            liveBytes = reachableBytes();
+        return Math.max(0, length - HEADER_LENGTH - liveBytes - (long) objectCount * offsetIntSize - TRAILER_LENGTH);
+    }
+
+    /**
+     * Walks the reachable objects of the committed file.
+     */
+    private long reachableBytes() throws IOException, UnsupportedOperationException {
+        ByteBuffer buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        BitSet visited = new BitSet(objectCount);
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = rootObjectId;
+        long bytes = 0;
+        while (top > 0) {
+            int objectId = stack[--top];
+            if (visited.get(objectId))
+                continue;
+            visited.set(objectId);
+            int offset = offsets[objectId];
+            bytes += objectSize(buf, offset);
+            int type = (buf.get(offset) & 0xF0) >> 4;
+            if (type == 0xA || type == 0xD) {
+                int info = buf.get(offset) & 0x0F;
+                int count = info == 0xF ? (int) readLong(buf, offset + 2, 1 << (buf.get(offset + 1) & 0x0F)) : info;
+                int refsOffset = offset + headerSize(buf, offset);
+                int refs = type == 0xD ? count * 2 : count;
+                for (int i = 0; i < refs; i++) {
+                    if (top == stack.length)
+                        stack = Arrays.copyOf(stack, top * 2);
+                    stack[top++] = (int) readLong(buf, refsOffset + i * objectRefSize, objectRefSize);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private long objectSize(int objectId) throws IOException, UnsupportedOperationException {
+        int offset = offsets[objectId];
+        byte[] head = read(offset, (int) Math.min(10, end() - offset));
+        return objectSize(ByteBuffer.wrap(head), 0);
+    }
+
+    private int objectSize(ByteBuffer buf, int offset) throws UnsupportedOperationException {
+        int type = (buf.get(offset) & 0xF0) >> 4;
+        int info = buf.get(offset) & 0x0F;
+        switch (type) {
+            case 0x0: // boolean
+                return 1;
+            case 0x1: // integer
+            case 0x2: // real
+                return 1 + (1 << info);
+            case 0x3: // date
+                return 9;
+            case 0x8: // uid
+                return 2 + info;
+        }
+        int count = info == 0xF ? (int) readLong(buf, offset + 2, 1 << (buf.get(offset + 1) & 0x0F)) : info;
+        int header = headerSize(buf, offset);
+        switch (type) {
+            case 0x4: // data
+            case 0x5: // ascii string
+                return header + count;
+            case 0x6: // utf16 string
+                return header + count * 2;
+            case 0xA: // array
+                return header + count * objectRefSize;
+            case 0xD: // dict
+                return header + count * 2 * objectRefSize;
+            default:
+                throw new UnsupportedOperationException("Unsupported plist objectType " + type);
+        }
+    }
+
+    private static int headerSize(ByteBuffer buf, int offset) {
+        if ((buf.get(offset) & 0x0F) != 0xF)
+            return 1;
+        return 2 + (1 << (buf.get(offset + 1) & 0x0F));
+    }
+
+    private static final class Container {
+        boolean dict;
+        int count;
+        int[] refs; // dict: keys, then values.
+        int size;
+
+        int valueRef(int slot) {
+            return dict ? refs[count + slot] : refs[slot];
+        }
+    }
+
+    /**
+     * Returns the dict or array with the object id, or null if it is neither.
+     */
+    private Container readContainer(int objectId) throws IOException {
+        int offset = offsets[objectId];
+        ByteBuffer head = ByteBuffer.wrap(read(offset, (int) Math.min(10, end() - offset)));
+        int type = (head.get(0) & 0xF0) >> 4;
+        if (type != 0xA && type != 0xD)
+            return null;
+        Container container = new Container();
+        container.dict = type == 0xD;
+        int info = head.get(0) & 0x0F;
+        container.count = info == 0xF ? (int) readLong(head, 2, 1 << (head.get(1) & 0x0F)) : info;
+        int header = headerSize(head, 0);
+        int refCount = container.dict ? container.count * 2 : container.count;
+        byte[] refs = read(offset + header, refCount * objectRefSize);
+        container.refs = new int[refCount];
+        for (int i = 0; i < refCount; i++)
+            container.refs[i] = (int) readLong(refs, i * objectRefSize, objectRefSize);
+        container.size = header + refs.length;
+        return container;
+    }
+
+    private String readString(int objectId) throws IOException {
+        int offset = offsets[objectId];
+        ByteBuffer head = ByteBuffer.wrap(read(offset, (int) Math.min(10, end() - offset)));
+        int type = (head.get(0) & 0xF0) >> 4;
+        int info = head.get(0) & 0x0F;
+        int count = info == 0xF ? (int) readLong(head, 2, 1 << (head.get(1) & 0x0F)) : info;
+        int header = headerSize(head, 0);
+        if (type == 0x5)
+            return new String(read(offset + header, count), "ascii");
+        if (type == 0x6)
+            return new String(read(offset + header, count * 2), "utf-16be");
+        throw new UnsupportedOperationException("Expected string, found plist objectType " + type);
+    }
+
+    /**
+     * Reads from the file, or from the objects not yet committed.
+     */
+    private byte[] read(long offset, int length) throws IOException {
+        byte[] buf = new byte[length];
+        int fromFile = (int) Math.max(0, Math.min(length, this.length - offset));
+        if (fromFile > 0) {
+            file.seek(offset);
+            file.readFully(buf, 0, fromFile);
+        }
+        if (fromFile < length)
+            pending.copy((int) (offset + fromFile - this.length), buf, fromFile, length - fromFile);
+        return buf;
+    }
+
+    private static long readLong(byte[] buf, int offset, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value <<= 8;
+            value |= (buf[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static long readLong(ByteBuffer buf, int offset, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value <<= 8;
+            value |= (buf.get(offset + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeLong(ByteArrayOutputStream os, long value, int length) {
+        for (int i = length - 1; i >= 0; i--)
+            os.write((int) (value >> (8 * i)));
+    }
+
+}
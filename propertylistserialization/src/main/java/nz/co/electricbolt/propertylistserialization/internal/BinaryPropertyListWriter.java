@@ -7,86 +7,283 @@ package nz.co.electricbolt.propertylistserialization.internal;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.text.ParseException;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import nz.co.electricbolt.propertylistserialization.PlistMetrics;
+import nz.co.electricbolt.propertylistserialization.PlistValue;
+
 /**
  * Property list elements are written as follows:
  * <p>
  * java.lang.String -&gt;  string (NSString)
  * java.lang.Integer -&gt; integer (NSInteger)
  * java.lang.Long -&gt; integer (NSInteger)
+ * java.lang.Short, Byte -&gt; integer (NSInteger)
  * java.lang.Float -&gt; real (float)
  * java.lang.Double -&gt; real (double)
  * java.util.HashMap&lt;String, Object&gt; -&gt; dict (NSDictionary)
  * java.util.ArrayList -&gt; array (NSArray)
+ * java.util.Collection, arrays (other than byte[]) -&gt; array (NSArray)
  * java.util.Date -&gt; date (NSDate)
  * Boolean.valueOf(true) -&gt; true (BOOL)
  * Boolean.valueOf(false) -&gt; false (BOOL)
  * byte[] -&gt; data (NSData)
+ * PropertyListFragment -&gt; pre-built object subtable, merged verbatim
+ * enum -&gt; string (NSString) of the constant name
+ * other -&gt; the object returned by its registered PropertyListEncoder
  * </p>
  */
 
 public class BinaryPropertyListWriter {
 
+    /**
+     * A pre-built object subtable, as produced by writeFragment() or BinaryPropertyListStreamWriter.
+     * Object references within the subtable are local object ids, which are remapped when the
+     * subtable is merged into another property list. A Fragment may also be written as the root
+     * object.
+     */
+    public static final class Fragment {
+
+        int objectCount;
+        int rootObjectId;
+        byte[] data; // encoded objects. Containers only have their marker and length.
+        int[] offsets; // offset into data for each local object id, plus the final length.
+        int[][] refs; // local object ids referenced by each container, otherwise null.
+        int[] objectCounts; // elements by PlistValue.Type, counting each occurrence.
+        int maxDepth;
+
+        Fragment() {
+        }
+
+    }
+
     private Object rootObj;
     private Map<Object, Integer> objectIdMap;
+    private Map<Object, Object> convertedObjectMap; // objects converted by TypeDispatch.convert().
+    private int objectCount;
     private byte objectRefSize;
     private ByteArrayOutputStream os;
     private CharsetEncoder asciiEncoder;
     private CharsetEncoder utf16Encoder;
+    private MetricsRecorder metrics;
 
     public BinaryPropertyListWriter(Object rootObj) {
         this.rootObj = rootObj;
         this.objectIdMap = new LinkedHashMap<>(); // maintains insertion order
+        this.convertedObjectMap = new HashMap<>();
         this.os = new ByteArrayOutputStream();
         this.asciiEncoder = Charset.forName("ascii").newEncoder();
         this.utf16Encoder = Charset.forName("utf-16be").newEncoder();
     }
 
+    /**
+     * @param metrics records the elements written, the time spent in each phase and deduplicated
+     *                objects, or null.
+     */
+    public void setMetrics(MetricsRecorder metrics) {
+        this.metrics = metrics;
+    }
+
     public byte[] write() throws IOException, IllegalStateException, ParseException {
+        long start = metrics != null ? System.nanoTime() : 0;
+
         // CFBinaryPlistHeader
         os.write("bplist00".getBytes());
 
         // Assign objects unique id
         mapObject(rootObj);
 
-        if (objectIdMap.size() < 256)
+        if (metrics != null) {
+            long end = System.nanoTime();
+            metrics.addNanos(PlistMetrics.Phase.OBJECT_MAPPING, end - start);
+            start = end;
+        }
+
+        if (objectCount < 256)
             objectRefSize = 1;
-        else if (objectIdMap.size() < 65536)
+        else if (objectCount < 65536)
             objectRefSize = 2;
         else
             objectRefSize = 4;
 
-        int[] offsetTable = new int[objectIdMap.size()];
+        int[] offsetTable = new int[objectCount];
 
         // Write objects and save each byte offset into offsetTable
         for (Map.Entry<Object, Integer> entry : objectIdMap.entrySet()) {
             Object obj = entry.getKey();
+            Fragment fragment = fragmentOf(obj);
+            if (fragment != null) {
+                writeFragment(fragment, entry.getValue() - fragment.rootObjectId, offsetTable);
+                continue;
+            }
             offsetTable[entry.getValue()] = os.size();
 
-            if (obj instanceof Map) {
-                Map dict = (Map) obj;
-                writeLength(0xD, dict.size());
-                Set<Map.Entry<String, Object>> de = dict.entrySet();
-                for (Map.Entry<String, Object> e : de)
-                    writeLong(objectIdMap.get(e.getKey()), objectRefSize);
-                for (Map.Entry<String, Object> e : de)
-                    writeLong(objectIdMap.get(e.getValue()), objectRefSize);
-            } else if (obj instanceof List) {
-                List array = (List) obj;
-                writeLength(0xA, array.size());
-                for (Object value : array)
-                    writeLong(objectIdMap.get(value), objectRefSize);
-            } else if (obj instanceof String) {
+            int kind = TypeDispatch.kindOf(obj);
+            switch (kind) {
+                case TypeDispatch.MAP: {
+                    Map dict = (Map) obj;
+                    writeLength(0xD, dict.size());
+                    Set<Map.Entry<String, Object>> de = dict.entrySet();
+                    for (Map.Entry<String, Object> e : de)
+                        writeLong(objectIdMap.get(e.getKey()), objectRefSize);
+                    for (Map.Entry<String, Object> e : de)
+                        writeLong(objectIdOf(e.getValue()), objectRefSize);
+                    break;
+                }
+                case TypeDispatch.LIST:
+                case TypeDispatch.COLLECTION:
+                case TypeDispatch.ARRAY: {
+                    int[] refs = elementIds(obj, kind);
+                    writeLength(0xA, refs.length);
+                    for (int ref : refs)
+                        writeLong(ref, objectRefSize);
+                    break;
+                }
+                default:
+                    writeScalar(obj);
+            }
+        }
+
+        // Write offsetTable
+        long offsetTableOffset = os.size();
+        byte offsetIntSize = 4;
+        if (os.size() < 256)
+            offsetIntSize = 1;
+        else if (os.size() < 65536)
+            offsetIntSize = 2;
+        for (int offset : offsetTable)
+            writeLong(offset, offsetIntSize);
+
+        // CFBinaryPlistTrailer
+        os.write(new byte[6]);
+        os.write(offsetIntSize);
+        os.write(objectRefSize);
+        writeLong(objectCount, 8);
+        writeLong(objectIdOf(rootObj), 8);
+        writeLong(offsetTableOffset, 8);
+
+        os.flush();
+        if (metrics != null)
+            metrics.addNanos(PlistMetrics.Phase.ENCODING, System.nanoTime() - start);
+        return os.toByteArray();
+    }
+
+    /**
+     * Encodes the object graph as an object subtable, for later merging into other property lists
+     * by write(). The reference size of the enclosing property list isn't known yet, so container
+     * references are kept as local object ids.
+     */
+    public Fragment writeFragment() throws IOException, IllegalStateException, ParseException {
+        // Element counts are kept with the fragment, for the metrics of enclosing property lists.
+        if (metrics == null)
+            metrics = new MetricsRecorder(null);
+
+        // Assign objects unique id
+        mapObject(rootObj);
+
+        Fragment fragment = new Fragment();
+        fragment.objectCounts = metrics.getObjectCounts();
+        fragment.maxDepth = metrics.getMaxDepth();
+        fragment.objectCount = objectCount;
+        fragment.rootObjectId = objectIdOf(rootObj);
+        fragment.offsets = new int[objectCount + 1];
+        fragment.refs = new int[objectCount][];
+
+        for (Map.Entry<Object, Integer> entry : objectIdMap.entrySet()) {
+            Object obj = entry.getKey();
+            int objectId = entry.getValue();
+            Fragment nested = fragmentOf(obj);
+            if (nested != null) {
+                // Nested fragment - copy its objects, remapping their references.
+                objectId -= nested.rootObjectId;
+                for (int i = 0; i < nested.objectCount; i++) {
+                    fragment.offsets[objectId + i] = os.size();
+                    os.write(nested.data, nested.offsets[i], nested.offsets[i + 1] - nested.offsets[i]);
+                    if (nested.refs[i] != null) {
+                        int[] refs = new int[nested.refs[i].length];
+                        for (int j = 0; j < refs.length; j++)
+                            refs[j] = objectId + nested.refs[i][j];
+                        fragment.refs[objectId + i] = refs;
+                    }
+                }
+                continue;
+            }
+            fragment.offsets[objectId] = os.size();
+
+            int kind = TypeDispatch.kindOf(obj);
+            switch (kind) {
+                case TypeDispatch.MAP: {
+                    Map dict = (Map) obj;
+                    writeLength(0xD, dict.size());
+                    int[] refs = new int[dict.size() * 2];
+                    int i = 0;
+                    Set<Map.Entry<String, Object>> de = dict.entrySet();
+                    for (Map.Entry<String, Object> e : de)
+                        refs[i++] = objectIdMap.get(e.getKey());
+                    for (Map.Entry<String, Object> e : de)
+                        refs[i++] = objectIdOf(e.getValue());
+                    fragment.refs[objectId] = refs;
+                    break;
+                }
+                case TypeDispatch.LIST:
+                case TypeDispatch.COLLECTION:
+                case TypeDispatch.ARRAY: {
+                    int[] refs = elementIds(obj, kind);
+                    writeLength(0xA, refs.length);
+                    fragment.refs[objectId] = refs;
+                    break;
+                }
+                default:
+                    writeScalar(obj);
+            }
+        }
+        fragment.offsets[objectCount] = os.size();
+
+        os.flush();
+        fragment.data = os.toByteArray();
+        return fragment;
+    }
+
+    /**
+     * Copies a fragment's objects verbatim, remapping its local object ids to baseObjectId
+     * onwards.
+     */
+    private void writeFragment(Fragment fragment, int baseObjectId, int[] offsetTable) throws IOException {
+        for (int i = 0; i < fragment.objectCount; i++) {
+            offsetTable[baseObjectId + i] = os.size();
+            os.write(fragment.data, fragment.offsets[i], fragment.offsets[i + 1] - fragment.offsets[i]);
+            if (fragment.refs[i] != null) {
+                for (int ref : fragment.refs[i])
+                    writeLong(baseObjectId + ref, objectRefSize);
+            }
+        }
+    }
+
+    // Encoders, also used by BinaryPropertyListStreamWriter.
+
+    int size() {
+        return os.size();
+    }
+
+    byte[] toByteArray() {
+        return os.toByteArray();
+    }
+
+    void writeScalar(Object obj) throws IOException, ParseException {
+        switch (TypeDispatch.kindOf(obj)) {
+            case TypeDispatch.STRING: {
                 CharBuffer charBuf = CharBuffer.wrap((String) obj);
                 ByteBuffer byteBuf;
                 int intType;
@@ -103,18 +300,19 @@ public class BinaryPropertyListWriter {
                 byteBuf.get(buf);
                 writeLength(intType, ((String) obj).length());
                 os.write(buf);
-            } else if (obj instanceof Float) {
+                break;
+            }
+            case TypeDispatch.FLOAT:
                 os.write(0x22);
                 writeLong(Float.floatToRawIntBits((float) obj), 4);
-            } else if (obj instanceof Double) {
+                break;
+            case TypeDispatch.DOUBLE:
                 os.write(0x23);
                 writeLong(Double.doubleToRawLongBits((double) obj), 8);
-            } else if (obj instanceof Integer || obj instanceof Long) {
-                long value;
-                if (obj instanceof Integer)
-                    value = (Integer) obj;
-                else
-                    value = (Long) obj;
+                break;
+            case TypeDispatch.INTEGER:
+            case TypeDispatch.SHORT: {
+                long value = ((Number) obj).longValue();
                 if (value < 0) {
                     // All negative integers are stored as long
                     os.write(0x13);
@@ -136,67 +334,176 @@ public class BinaryPropertyListWriter {
                     os.write(0x13);
                     writeLong(value, 8);
                 }
-            } else if (obj instanceof Date) {
+                break;
+            }
+            case TypeDispatch.DATE: {
                 os.write(0x33);
                 double value = DateUtil.formatBinary((Date) obj);
                 writeLong(Double.doubleToRawLongBits(value), 8);
-            } else if (obj instanceof Boolean) {
+                break;
+            }
+            case TypeDispatch.BOOLEAN:
                 if (!((Boolean) obj))
                     os.write(0x08);
                 else
                     os.write(0x09);
-            } else if (obj instanceof byte[]) {
+                break;
+            case TypeDispatch.DATA: {
                 byte[] buf = (byte[]) obj;
                 writeLength(0x4, buf.length);
                 os.write(buf);
+                break;
             }
         }
+    }
 
-        // Write offsetTable
-        long offsetTableOffset = os.size();
-        byte offsetIntSize = 4;
-        if (os.size() < 256)
-            offsetIntSize = 1;
-        else if (os.size() < 65536)
-            offsetIntSize = 2;
-        for (int offset : offsetTable)
-            writeLong(offset, offsetIntSize);
+    /**
+     * For each unique object, assigns an object id. Every occurrence of an object is visited, so
+     * that the metrics (if any) count elements as they appear in the object graph.
+     */
+    private void mapObject(Object obj) {
+        int kind = TypeDispatch.kindOf(obj);
+        if (TypeDispatch.isConverted(kind)) {
+            // Converted once, and the converted object is written in its place.
+            Object converted = convertedObjectMap.get(obj);
+            if (converted == null) {
+                converted = TypeDispatch.convert(obj, kind);
+                convertedObjectMap.put(obj, converted);
+            }
+            mapObject(converted);
+            return;
+        }
+        if (kind == TypeDispatch.FRAGMENT) {
+            // A fragment's objects are assigned a contiguous range of object ids.
+            Fragment fragment = fragmentOf(obj);
+            if (!objectIdMap.containsKey(obj)) {
+                objectIdMap.put(obj, objectCount + fragment.rootObjectId);
+                objectCount += fragment.objectCount;
+            } else if (metrics != null)
+                metrics.dedupHit();
+            if (metrics != null)
+                metrics.countFragment(fragment);
+            return;
+        }
+        mapKey(obj);
+        switch (kind) {
+            case TypeDispatch.MAP: {
+                Map dict = (Map) obj;
+                if (metrics != null)
+                    metrics.startContainer(PlistValue.Type.DICT);
+                Set<Map.Entry<Object, Object>> de = dict.entrySet();
+                for (Map.Entry<Object, Object> e : de) {
+                    if (!(e.getKey() instanceof String))
+                        throw new IllegalStateException("Incompatible key " + e.getKey() + " found");
+                    mapKey(e.getKey());
+                }
+                for (Map.Entry<Object, Object> e : de)
+                    mapObject(e.getValue());
+                if (metrics != null)
+                    metrics.endContainer();
+                break;
+            }
+            case TypeDispatch.LIST:
+            case TypeDispatch.COLLECTION:
+            case TypeDispatch.ARRAY: {
+                // Collections and arrays are iterated in place, rather than copied to a List.
+                if (metrics != null)
+                    metrics.startContainer(PlistValue.Type.ARRAY);
+                if (kind == TypeDispatch.LIST) {
+                    List list = (List) obj;
+                    for (int i = 0; i < list.size(); i++)
+                        mapObject(list.get(i));
+                } else if (kind == TypeDispatch.COLLECTION) {
+                    for (Object value : (Collection<?>) obj)
+                        mapObject(value);
+                } else {
+                    int length = Array.getLength(obj);
+                    for (int i = 0; i < length; i++)
+                        mapObject(Array.get(obj, i));
+                }
+                if (metrics != null)
+                    metrics.endContainer();
+                break;
+            }
+            case TypeDispatch.STRING:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.STRING);
+                break;
+            case TypeDispatch.INTEGER:
+            case TypeDispatch.SHORT:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.INTEGER);
+                break;
+            case TypeDispatch.FLOAT:
+            case TypeDispatch.DOUBLE:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.REAL);
+                break;
+            case TypeDispatch.BOOLEAN:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.BOOLEAN);
+                break;
+            case TypeDispatch.DATE:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.DATE);
+                break;
+            case TypeDispatch.DATA:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.DATA);
+                break;
+            default:
+                throw new IllegalStateException("Incompatible object " + obj + " found");
+        }
+    }
 
-        // CFBinaryPlistTrailer
-        os.write(new byte[6]);
-        os.write(offsetIntSize);
-        os.write(objectRefSize);
-        writeLong(objectIdMap.size(), 8);
-        writeLong(objectIdMap.get(rootObj), 8);
-        writeLong(offsetTableOffset, 8);
+    /**
+     * Assigns an object id to a dict key or other object, unless it already has one.
+     */
+    private void mapKey(Object obj) {
+        if (!objectIdMap.containsKey(obj))
+            objectIdMap.put(obj, objectCount++);
+        else if (metrics != null)
+            metrics.dedupHit();
+    }
 
-        os.flush();
-        return os.toByteArray();
+    /**
+     * Returns the object id of an object, or of the object it was converted to by
+     * TypeDispatch.convert() - following conversions of converted objects, e.g. an encoder that
+     * returns an enum.
+     */
+    private int objectIdOf(Object obj) {
+        if (!convertedObjectMap.isEmpty()) {
+            Object converted;
+            while ((converted = convertedObjectMap.get(obj)) != null)
+                obj = converted;
+        }
+        return objectIdMap.get(obj);
     }
 
     /**
-     * For each unique object, assigns an object id.
+     * Returns the object ids of the elements of a List, other Collection or array, in order.
      */
-    private void mapObject(Object obj) {
-        if (!objectIdMap.containsKey(obj))
-            objectIdMap.put(obj, objectIdMap.size());
-        if (obj instanceof Map) {
-            Map dict = (Map) obj;
-            Set<Map.Entry<String, Object>> de = dict.entrySet();
-            for (Map.Entry<String, Object> e : de)
-                mapObject(e.getKey());
-            for (Map.Entry<String, Object> e : de)
-                mapObject(e.getValue());
-        } else if (obj instanceof List) {
-            List list = (List) obj;
-            for (int i = 0; i < list.size(); i++)
-                mapObject(list.get(i));
-        } else if (obj instanceof String || obj instanceof Float || obj instanceof Double ||
-                obj instanceof Integer || obj instanceof Long || obj instanceof byte[] ||
-                obj instanceof Date || obj instanceof Boolean) {
-            // do nothing.
-        } else
-            throw new IllegalStateException("Incompatible object " + obj + " found");
+    private int[] elementIds(Object obj, int kind) {
+        if (kind == TypeDispatch.ARRAY) {
+            int[] refs = new int[Array.getLength(obj)];
+            for (int i = 0; i < refs.length; i++)
+                refs[i] = objectIdOf(Array.get(obj, i));
+            return refs;
+        }
+        Collection<?> array = (Collection<?>) obj;
+        int[] refs = new int[array.size()];
+        int i = 0;
+        for (Object value : array)
+            refs[i++] = objectIdOf(value);
+        return refs;
+    }
+
+    private static Fragment fragmentOf(Object obj) {
+        if (obj instanceof Fragment)
+            return (Fragment) obj;
+        if (obj instanceof EncodedFragment)
+            return ((EncodedFragment) obj).binary();
+        return null;
     }
 
     private void writeLong(long value, int length) throws IOException {
@@ -204,7 +511,7 @@ public class BinaryPropertyListWriter {
             os.write((int) (value >> (8 * i)));
     }
 
-    private void writeLength(int intType, int length) throws IOException {
+    void writeLength(int intType, int length) throws IOException {
         if (length < 15) {
             os.write((intType << 4) + length);
         } else if (length < 256) {
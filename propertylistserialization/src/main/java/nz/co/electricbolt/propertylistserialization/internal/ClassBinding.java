@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * ClassBinding.java                                                           *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The accessors used to bind a dict (NSDictionary) to a plain Java object. Each non static, non
+ * transient field (including inherited fields) is a dict entry, keyed by the field name. The
+ * class must have a no argument constructor, which may be private.
+ * <p>
+ * Reflecting over a class is relatively expensive, so the accessors are built once per class and
+ * cached for the lifetime of the process.
+ * </p>
+ */
+
+public final class ClassBinding {
+
+    private static final ConcurrentHashMap<Class<?>, ClassBinding> bindings = new ConcurrentHashMap<>();
+
+    static final class Property {
+
+        final String key;
+        final Field field;
+        final Type type;
+
+        Property(Field field) {
+            this.key = field.getName();
+            this.field = field;
+            this.type = field.getGenericType();
+        }
+
+        Object get(Object obj) throws IllegalStateException {
+            try {
+                return field.get(obj);
+            } catch (IllegalAccessException iae) {
+                throw new IllegalStateException(iae);
+            }
+        }
+
+        void set(Object obj, Object value) throws IllegalStateException {
+            try {
+                field.set(obj, value);
+            } catch (IllegalAccessException iae) {
+                throw new IllegalStateException(iae);
+            }
+        }
+    }
+
+    private final Constructor<?> constructor;
+    private final Property[] properties; // sorted by key.
+    private final HashMap<String, Property> propertyMap;
+
+    private ClassBinding(Class<?> cls) throws IllegalStateException {
+        try {
+            constructor = cls.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException nsme) {
+            throw new IllegalStateException("Class " + cls.getName() + " has no no-argument constructor");
+        }
+        propertyMap = new HashMap<>();
+        for (Class<?> c = cls; c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic())
+                    continue;
+                // A field in a subclass hides a field of the same name in a superclass.
+                if (propertyMap.containsKey(field.getName()))
+                    continue;
+                field.setAccessible(true);
+                propertyMap.put(field.getName(), new Property(field));
+            }
+        }
+        properties = propertyMap.values().toArray(new Property[propertyMap.size()]);
+        Arrays.sort(properties, new Comparator<Property>() {
+            @Override
+            public int compare(Property p1, Property p2) {
+                return p1.key.compareTo(p2.key);
+            }
+        });
+    }
+
+    /**
+     * Returns the binding for the specified class.
+     *
+     * @throws IllegalStateException if the class cannot be bound to a dict.
+     */
+    public static ClassBinding of(Class<?> cls) throws IllegalStateException {
+        ClassBinding binding = bindings.get(cls);
+        if (binding == null) {
+            if (!isBindable(cls))
+                throw new IllegalStateException("Class " + cls.getName() + " cannot be bound to a dict");
+            binding = new ClassBinding(cls);
+            ClassBinding existing = bindings.putIfAbsent(cls, binding);
+            if (existing != null)
+                binding = existing;
+        }
+        return binding;
+    }
+
+    /**
+     * Returns true if the class is a plain Java object, rather than a platform class, interface,
+     * array, enum or primitive.
+     */
+    static boolean isBindable(Class<?> cls) {
+        if (cls.isPrimitive() || cls.isArray() || cls.isInterface() || cls.isEnum() ||
+                Modifier.isAbstract(cls.getModifiers()))
+            return false;
+        String name = cls.getName();
+        return !name.startsWith("java.") && !name.startsWith("javax.") && !name.startsWith("android.");
+    }
+
+    Object newInstance() throws IllegalStateException {
+        try {
+            return constructor.newInstance();
+        } catch (InstantiationException ie) {
+            throw new IllegalStateException(ie);
+        } catch (IllegalAccessException iae) {
+            throw new IllegalStateException(iae);
+        } catch (InvocationTargetException ite) {
+            throw new IllegalStateException(ite.getCause());
+        }
+    }
+
+    /**
+     * Returns the property for the specified dict key, or null if the class has no such field.
+     */
+    Property property(String key) {
+        return propertyMap.get(key);
+    }
+
+    /**
+     * Returns all properties, in ascending key order.
+     */
+    Property[] properties() {
+        return properties;
+    }
+
+    /**
+     * Returns the class of a field's declared type, e.g. List for List&lt;String&gt;.
+     */
+    static Class<?> rawType(Type type) {
+        if (type instanceof Class)
+            return (Class<?>) type;
+        if (type instanceof ParameterizedType)
+            return rawType(((ParameterizedType) type).getRawType());
+        if (type instanceof GenericArrayType)
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        if (type instanceof WildcardType)
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        if (type instanceof TypeVariable)
+            return rawType(((TypeVariable<?>) type).getBounds()[0]);
+        return Object.class;
+    }
+
+    /**
+     * Returns the specified type argument of a parameterized type, e.g. String for the first type
+     * argument of List&lt;String&gt;, or Object if the type isn't parameterized.
+     */
+    static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < args.length)
+                return args[index];
+        }
+        return Object.class;
+    }
+
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * CompactList.java                                                            *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable List for parsed arrays, backed by an exactly sized array. The companion of
+ * CompactMap, and as per CompactMap, byte[] and Date elements are copied each time they are
+ * returned.
+ */
+
+public final class CompactList extends AbstractList<Object> implements RandomAccess {
+
+    private static final CompactList EMPTY = new CompactList(new Object[0]);
+
+    private final Object[] elements;
+    volatile long structuralHash; // StructuralHash, or 0 if not yet computed.
+
+    private CompactList(Object[] elements) {
+        this.elements = elements;
+    }
+
+    /**
+     * Returns an immutable copy of the list.
+     */
+    public static CompactList copyOf(List<Object> list) {
+        return list.isEmpty() ? EMPTY : new CompactList(list.toArray());
+    }
+
+    @Override
+    public Object get(int index) {
+        return CompactMap.copyOfValue(elements[index]);
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+}
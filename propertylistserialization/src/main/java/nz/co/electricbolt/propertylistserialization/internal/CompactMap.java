@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * CompactMap.java                                                             *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable Map&lt;String, Object&gt; for parsed dicts, with its keys and values held in a
+ * single flat array: key at even indices, value at the following odd index. There are no per
+ * entry objects and no separate table, so it retains a fraction of the heap of a HashMap.
+ * <p>
+ * Up to LINEAR_MAX entries are stored consecutively (in the order of the source map), and looked up
+ * by linear search - for small dicts comparing a handful of keys is faster than hashing. Larger
+ * dicts are stored in an open addressed hash table of at least twice as many slots as entries,
+ * using linear probing.
+ * </p>
+ * NSData and NSDate values are mutable Java objects (byte[] and java.util.Date), so they are copied
+ * each time they are returned, and the map's contents cannot be modified through them.
+ */
+
+public final class CompactMap extends AbstractMap<String, Object> {
+
+    static final int LINEAR_MAX = 8;
+
+    private static final CompactMap EMPTY = new CompactMap(new Object[0], 0, false);
+
+    private final Object[] table;
+    private final int size;
+    private final boolean hashed;
+    private Set<Map.Entry<String, Object>> entrySet;
+    volatile long structuralHash; // StructuralHash, or 0 if not yet computed.
+
+    private CompactMap(Object[] table, int size, boolean hashed) {
+        this.table = table;
+        this.size = size;
+        this.hashed = hashed;
+    }
+
+    /**
+     * Returns an immutable copy of the map. Keys must be non null Strings, and values non null.
+     */
+    public static CompactMap copyOf(Map<String, Object> map) {
+        int size = map.size();
+        if (size == 0)
+            return EMPTY;
+        if (size <= LINEAR_MAX) {
+            Object[] table = new Object[size * 2];
+            int i = 0;
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                table[i++] = entry.getKey();
+                table[i++] = entry.getValue();
+            }
+            return new CompactMap(table, size, false);
+        }
+        int slots = Integer.highestOneBit(size * 2 - 1) << 1; // power of 2, at least size * 2
+        Object[] table = new Object[slots * 2];
+        int mask = slots - 1;
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            int slot = hash(entry.getKey()) & mask;
+            while (table[slot * 2] != null)
+                slot = (slot + 1) & mask;
+            table[slot * 2] = entry.getKey();
+            table[slot * 2 + 1] = entry.getValue();
+        }
+        return new CompactMap(table, size, true);
+    }
+
+    /**
+     * Returns a copy of value if it is a byte[] or java.util.Date, otherwise value itself.
+     */
+    public static Object copyOfValue(Object value) {
+        if (value instanceof byte[])
+            return ((byte[]) value).clone();
+        if (value instanceof Date)
+            return new Date(((Date) value).getTime());
+        return value;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the index of the key within table, or -1 if not present.
+     */
+    private int indexOf(Object key) {
+        if (key == null)
+            return -1;
+        if (!hashed) {
+            for (int i = 0; i < table.length; i += 2) {
+                if (key.equals(table[i]))
+                    return i;
+            }
+            return -1;
+        }
+        int mask = table.length / 2 - 1;
+        int slot = hash(key) & mask;
+        Object k;
+        while ((k = table[slot * 2]) != null) {
+            if (key.equals(k))
+                return slot * 2;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : copyOfValue(table[i + 1]);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private int index; // index of the next key within table.
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            while (index < table.length && table[index] == null)
+                index += 2;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < table.length;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (index >= table.length)
+                throw new NoSuchElementException();
+            Map.Entry<String, Object> entry = new SimpleImmutableEntry<>((String) table[index], copyOfValue(table[index + 1]));
+            index += 2;
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * ContentHash.java                                                            *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+/**
+ * A fast, non cryptographic 64 bit hash of a byte[], for identifying property lists by content.
+ * Bytes are consumed eight at a time, each word multiplied into the hash and mixed, with a final
+ * avalanche so that every input bit affects every output bit.
+ */
+
+public class ContentHash {
+
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    public static long hash64(byte[] data) {
+        return hash64(data, 0, data.length);
+    }
+
+    public static long hash64(byte[] data, int offset, int length) {
+        long hash = length * MULTIPLIER;
+        int end = offset + length;
+        int i = offset;
+        for (; i + 8 <= end; i += 8) {
+            long word = (data[i] & 0xFFL)
+                    | (data[i + 1] & 0xFFL) << 8
+                    | (data[i + 2] & 0xFFL) << 16
+                    | (data[i + 3] & 0xFFL) << 24
+                    | (data[i + 4] & 0xFFL) << 32
+                    | (data[i + 5] & 0xFFL) << 40
+                    | (data[i + 6] & 0xFFL) << 48
+                    | (long) data[i + 7] << 56;
+            hash = Long.rotateLeft(hash ^ mix(word), 27) * MULTIPLIER;
+        }
+        long tail = 0;
+        for (int shift = 0; i < end; i++, shift += 8)
+            tail |= (data[i] & 0xFFL) << shift;
+        hash ^= mix(tail);
+        return mix(hash);
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * EncodedFragment.java                                                        *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListFragment;
+
+/**
+ * Holds the encoded forms of a PropertyListFragment, so that BinaryPropertyListWriter and
+ * XMLPropertyListWriter can reach them without them being part of the public API. The writers
+ * splice these forms verbatim, so PropertyListFragment (which is final) is the only permitted
+ * subclass - constructing any other subclass fails.
+ * <p>
+ * Format.Binary - the object subtable, built by the subclass on construction.
+ * Format.XML - the xml encoding for each real mode and indent level, built on first use.
+ * </p>
+ */
+
+public abstract class EncodedFragment {
+
+    private static final int MAX_INDENT = 8; // as per XMLPropertyListWriter
+
+    private final Object obj;
+    private final BinaryPropertyListWriter.Fragment binary;
+    private final AtomicReferenceArray<byte[]> xml;
+
+    /**
+     * @param binary the object subtable of obj, as per BinaryPropertyListWriter.writeFragment().
+     * @throws IllegalStateException if the subclass is other than PropertyListFragment.
+     */
+    protected EncodedFragment(Object obj, BinaryPropertyListWriter.Fragment binary) throws IllegalStateException {
+        if (getClass() != PropertyListFragment.class)
+            throw new IllegalStateException(getClass().getName() + " cannot extend EncodedFragment");
+        this.obj = obj;
+        this.binary = binary;
+        this.xml = new AtomicReferenceArray<>(RealFormatter.Mode.values().length * (MAX_INDENT + 1));
+    }
+
+    /**
+     * Returns the object graph the fragment was created from.
+     */
+    Object propertyList() {
+        return obj;
+    }
+
+    /**
+     * Returns the pre-built object subtable.
+     */
+    BinaryPropertyListWriter.Fragment binary() {
+        return binary;
+    }
+
+    /**
+     * Returns the xml encoding of the object graph, nested at the specified indent.
+     */
+    byte[] xml(int indent, RealFormatter.Mode realMode) throws IOException {
+        if (indent > MAX_INDENT)
+            indent = MAX_INDENT;
+        int index = realMode.ordinal() * (MAX_INDENT + 1) + indent;
+        byte[] result = xml.get(index);
+        if (result == null) {
+            // Benign race - concurrent callers may both encode, the results are identical.
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            new XMLPropertyListWriter(obj, os, realMode).writeFragment(indent);
+            result = os.toByteArray();
+            xml.compareAndSet(index, null, result);
+        }
+        return result;
+    }
+
+}
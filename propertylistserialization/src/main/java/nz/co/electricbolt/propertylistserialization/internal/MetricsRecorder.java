@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * MetricsRecorder.java                                                        *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.io.IOException;
+import java.util.Date;
+
+import nz.co.electricbolt.propertylistserialization.PlistMetrics;
+import nz.co.electricbolt.propertylistserialization.PlistValue;
+
+/**
+ * Accumulates the measurements of a single read or write. As a PropertyListHandler, counts
+ * elements by type and tracks the nesting depth, before passing events on to the delegate (if
+ * any). Writers that walk the object graph themselves count with countValue(), startContainer()
+ * and endContainer() instead.
+ */
+
+public class MetricsRecorder implements PropertyListHandler {
+
+    private PropertyListHandler delegate;
+    private int[] objectCounts;
+    private long[] phaseNanos;
+    private int dedupHits;
+    private int depth;
+    private int maxDepth;
+
+    /**
+     * @param delegate handler to pass events on to, or null.
+     */
+    public MetricsRecorder(PropertyListHandler delegate) {
+        this.delegate = delegate;
+        this.objectCounts = new int[PlistValue.Type.values().length];
+        this.phaseNanos = new long[PlistMetrics.Phase.values().length];
+    }
+
+    public void addNanos(PlistMetrics.Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()] += nanos;
+    }
+
+    public void dedupHit() {
+        dedupHits++;
+    }
+
+    public void countValue(PlistValue.Type type) {
+        objectCounts[type.ordinal()]++;
+    }
+
+    public void startContainer(PlistValue.Type type) {
+        open(type);
+    }
+
+    public void endContainer() {
+        depth--;
+    }
+
+    /**
+     * Counts the elements of an already encoded fragment, nested at the current depth.
+     */
+    public void countFragment(BinaryPropertyListWriter.Fragment fragment) {
+        for (int i = 0; i < objectCounts.length; i++)
+            objectCounts[i] += fragment.objectCounts[i];
+        if (depth + fragment.maxDepth > maxDepth)
+            maxDepth = depth + fragment.maxDepth;
+    }
+
+    public int[] getObjectCounts() {
+        return objectCounts.clone();
+    }
+
+    public long[] getPhaseNanos() {
+        return phaseNanos.clone();
+    }
+
+    public int getDedupHits() {
+        return dedupHits;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    @Override
+    public void startDict(int count) throws IOException {
+        open(PlistValue.Type.DICT);
+        if (delegate != null)
+            delegate.startDict(count);
+    }
+
+    @Override
+    public void key(String key) throws IOException {
+        if (delegate != null)
+            delegate.key(key);
+    }
+
+    @Override
+    public void endDict() throws IOException {
+        depth--;
+        if (delegate != null)
+            delegate.endDict();
+    }
+
+    @Override
+    public void startArray(int count) throws IOException {
+        open(PlistValue.Type.ARRAY);
+        if (delegate != null)
+            delegate.startArray(count);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        depth--;
+        if (delegate != null)
+            delegate.endArray();
+    }
+
+    @Override
+    public void stringValue(String value) throws IOException {
+        objectCounts[PlistValue.Type.STRING.ordinal()]++;
+        if (delegate != null)
+            delegate.stringValue(value);
+    }
+
+    @Override
+    public void integerValue(long value) throws IOException {
+        objectCounts[PlistValue.Type.INTEGER.ordinal()]++;
+        if (delegate != null)
+            delegate.integerValue(value);
+    }
+
+    @Override
+    public void realValue(float value) throws IOException {
+        objectCounts[PlistValue.Type.REAL.ordinal()]++;
+        if (delegate != null)
+            delegate.realValue(value);
+    }
+
+    @Override
+    public void realValue(double value) throws IOException {
+        objectCounts[PlistValue.Type.REAL.ordinal()]++;
+        if (delegate != null)
+            delegate.realValue(value);
+    }
+
+    @Override
+    public void dateValue(Date value) throws IOException {
+        objectCounts[PlistValue.Type.DATE.ordinal()]++;
+        if (delegate != null)
+            delegate.dateValue(value);
+    }
+
+    @Override
+    public void booleanValue(boolean value) throws IOException {
+        objectCounts[PlistValue.Type.BOOLEAN.ordinal()]++;
+        if (delegate != null)
+            delegate.booleanValue(value);
+    }
+
+    @Override
+    public void dataValue(byte[] value) throws IOException {
+        objectCounts[PlistValue.Type.DATA.ordinal()]++;
+        if (delegate != null)
+            delegate.dataValue(value);
+    }
+
+    private void open(PlistValue.Type type) {
+        objectCounts[type.ordinal()]++;
+        if (++depth > maxDepth)
+            maxDepth = depth;
+    }
+
+}
@@ -0,0 +1,359 @@
+/*******************************************************************************
+ * ObjectBinder.java                                                           *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Populates instances of a class directly from property list events, without building an
+ * intermediate HashMap/ArrayList object graph.
+ * <p>
+ * Property list elements are bound to the declared type of each field as follows:
+ * string (NSString) -&gt; String, or enum constant of the same name
+ * integer (NSInteger) -&gt; long, int, short, byte, double, float or their boxed equivalents
+ * real (float, double) -&gt; double, float or their boxed equivalents
+ * dict (NSDictionary) -&gt; plain Java object (see ClassBinding), or Map&lt;String, ?&gt;
+ * array (NSArray) -&gt; List, Set, Collection or array
+ * date (NSDate) -&gt; java.util.Date
+ * true/false (BOOL) -&gt; boolean or Boolean
+ * data (NSData) -&gt; byte[]
+ * </p>
+ * Fields declared as Object are bound as per ObjectGraphBuilder. Dict entries without a
+ * corresponding field are skipped, and fields without a corresponding dict entry are left as
+ * initialized by the constructor.
+ */
+
+public class ObjectBinder implements PropertyListHandler {
+
+    private static final int OBJECT = 0;
+    private static final int MAP = 1;
+    private static final int COLLECTION = 2;
+    private static final int ARRAY = 3;
+
+    private static final ConcurrentHashMap<Class<?>, Constructor<?>> constructors = new ConcurrentHashMap<>();
+
+    private static class Container {
+        int kind;
+        Object target; // object, map or collection being populated. ARRAY: ArrayList of elements.
+        ClassBinding binding; // OBJECT
+        ClassBinding.Property property; // OBJECT: property the next value is bound to.
+        String key; // MAP: key the next value is stored under.
+        Type elementType; // MAP: value type. COLLECTION, ARRAY: element type.
+        Class<?> componentType; // ARRAY
+    }
+
+    private Type type;
+    private ArrayList<Container> containers; // open dicts and arrays, innermost last.
+    private int skipDepth; // > 0 while skipping a value that has no corresponding field.
+    private boolean skip; // the next value has no corresponding field.
+    private Object root;
+
+    /**
+     * @param type the class of the root object.
+     */
+    public ObjectBinder(Type type) {
+        this.type = type;
+        this.containers = new ArrayList<>();
+    }
+
+    /**
+     * Returns the root object, once all events have been received.
+     */
+    public Object getResult() {
+        return root;
+    }
+
+    @Override
+    public void startDict(int count) throws IllegalStateException {
+        if (skipContainer())
+            return;
+        Type type = nextType();
+        Class<?> cls = ClassBinding.rawType(type);
+        Container container = new Container();
+        if (cls == Object.class || cls == Map.class || cls == HashMap.class) {
+            container.kind = MAP;
+            container.target = new HashMap<String, Object>();
+            container.elementType = ClassBinding.typeArgument(type, 1);
+        } else if (Map.class.isAssignableFrom(cls)) {
+            container.kind = MAP;
+            container.target = newInstance(cls);
+            container.elementType = ClassBinding.typeArgument(type, 1);
+        } else if (ClassBinding.isBindable(cls)) {
+            container.kind = OBJECT;
+            container.binding = ClassBinding.of(cls);
+            container.target = container.binding.newInstance();
+        } else
+            throw new IllegalStateException("Cannot bind dict to " + type);
+        containers.add(container);
+    }
+
+    @Override
+    public void key(String key) {
+        if (skipDepth > 0)
+            return;
+        Container container = containers.get(containers.size() - 1);
+        if (container.kind == OBJECT) {
+            container.property = container.binding.property(key);
+            skip = container.property == null;
+        } else
+            container.key = key;
+    }
+
+    @Override
+    public void endDict() {
+        endContainer();
+    }
+
+    @Override
+    public void startArray(int count) throws IllegalStateException {
+        if (skipContainer())
+            return;
+        Type type = nextType();
+        Class<?> cls = ClassBinding.rawType(type);
+        Container container = new Container();
+        if (cls.isArray() && cls != byte[].class) {
+            container.kind = ARRAY;
+            container.target = count < 0 ? new ArrayList<>() : new ArrayList<>(count);
+            container.componentType = cls.getComponentType();
+            container.elementType = container.componentType;
+        } else if (cls == Object.class || cls == List.class || cls == Collection.class ||
+                cls == Iterable.class || cls == ArrayList.class) {
+            container.kind = COLLECTION;
+            container.target = count < 0 ? new ArrayList<>() : new ArrayList<>(count);
+            container.elementType = ClassBinding.typeArgument(type, 0);
+        } else if (cls == Set.class) {
+            container.kind = COLLECTION;
+            container.target = new LinkedHashSet<>();
+            container.elementType = ClassBinding.typeArgument(type, 0);
+        } else if (Collection.class.isAssignableFrom(cls)) {
+            container.kind = COLLECTION;
+            container.target = newInstance(cls);
+            container.elementType = ClassBinding.typeArgument(type, 0);
+        } else
+            throw new IllegalStateException("Cannot bind array to " + type);
+        containers.add(container);
+    }
+
+    @Override
+    public void endArray() {
+        endContainer();
+    }
+
+    @Override
+    public void stringValue(String value) throws IllegalStateException {
+        if (skipValue())
+            return;
+        Type type = nextType();
+        Class<?> cls = ClassBinding.rawType(type);
+        if (cls.isEnum())
+            add(enumValue(cls, value));
+        else if (cls.isAssignableFrom(String.class))
+            add(value);
+        else
+            throw new IllegalStateException("Cannot bind string to " + type);
+    }
+
+    @Override
+    public void integerValue(long value) throws IllegalStateException {
+        if (skipValue())
+            return;
+        Type type = nextType();
+        Class<?> cls = ClassBinding.rawType(type);
+        if (cls == long.class || cls.isAssignableFrom(Long.class))
+            add(value);
+        else if (cls == int.class || cls == Integer.class) {
+            if (value != (int) value)
+                throw new IllegalStateException("Integer " + value + " out of range for " + type);
+            add((int) value);
+        } else if (cls == short.class || cls == Short.class) {
+            if (value != (short) value)
+                throw new IllegalStateException("Integer " + value + " out of range for " + type);
+            add((short) value);
+        } else if (cls == byte.class || cls == Byte.class) {
+            if (value != (byte) value)
+                throw new IllegalStateException("Integer " + value + " out of range for " + type);
+            add((byte) value);
+        } else if (cls == double.class || cls == Double.class)
+            add((double) value);
+        else if (cls == float.class || cls == Float.class)
+            add((float) value);
+        else
+            throw new IllegalStateException("Cannot bind integer to " + type);
+    }
+
+    @Override
+    public void realValue(float value) throws IllegalStateException {
+        if (skipValue())
+            return;
+        Type type = nextType();
+        Class<?> cls = ClassBinding.rawType(type);
+        if (cls == float.class || cls.isAssignableFrom(Float.class))
+            add(value);
+        else if (cls == double.class || cls == Double.class)
+            add((double) value);
+        else
+            throw new IllegalStateException("Cannot bind real to " + type);
+    }
+
+    @Override
+    public void realValue(double value) throws IllegalStateException {
+        if (skipValue())
+            return;
+        Type type = nextType();
+        Class<?> cls = ClassBinding.rawType(type);
+        if (cls == double.class || cls.isAssignableFrom(Double.class))
+            add(value);
+        else if (cls == float.class || cls == Float.class)
+            add((float) value);
+        else
+            throw new IllegalStateException("Cannot bind real to " + type);
+    }
+
+    @Override
+    public void dateValue(Date value) throws IllegalStateException {
+        if (!skipValue())
+            addChecked(value, Date.class);
+    }
+
+    @Override
+    public void booleanValue(boolean value) throws IllegalStateException {
+        if (!skipValue())
+            addChecked(value, boolean.class);
+    }
+
+    @Override
+    public void dataValue(byte[] value) throws IllegalStateException {
+        if (!skipValue())
+            addChecked(value, byte[].class);
+    }
+
+    /**
+     * Returns true if the current value has no corresponding field, and should be ignored.
+     */
+    private boolean skipValue() {
+        if (skipDepth > 0)
+            return true;
+        if (skip) {
+            skip = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * As per skipValue(), but for dicts and arrays, whose events are ignored until the matching
+     * endDict/endArray.
+     */
+    private boolean skipContainer() {
+        if (skipDepth > 0 || skip) {
+            skip = false;
+            skipDepth++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the declared type of the next value.
+     */
+    private Type nextType() {
+        if (containers.isEmpty())
+            return type;
+        Container container = containers.get(containers.size() - 1);
+        if (container.kind == OBJECT)
+            return container.property.type;
+        return container.elementType;
+    }
+
+    private void endContainer() {
+        if (skipDepth > 0) {
+            skipDepth--;
+            return;
+        }
+        Container container = containers.remove(containers.size() - 1);
+        Object value = container.target;
+        if (container.kind == ARRAY) {
+            List<?> elements = (List<?>) container.target;
+            value = Array.newInstance(container.componentType, elements.size());
+            for (int i = 0; i < elements.size(); i++)
+                Array.set(value, i, elements.get(i));
+        }
+        add(value);
+    }
+
+    private void addChecked(Object value, Class<?> valueCls) throws IllegalStateException {
+        Type type = nextType();
+        Class<?> cls = ClassBinding.rawType(type);
+        if (cls == valueCls || cls.isInstance(value))
+            add(value);
+        else
+            throw new IllegalStateException("Cannot bind " + valueCls.getSimpleName() + " to " + type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(Object value) {
+        if (containers.isEmpty()) {
+            root = value;
+            return;
+        }
+        Container container = containers.get(containers.size() - 1);
+        if (container.kind == OBJECT)
+            container.property.set(container.target, value);
+        else if (container.kind == MAP)
+            ((Map<String, Object>) container.target).put(container.key, value);
+        else
+            ((Collection<Object>) container.target).add(value);
+    }
+
+    private static Object enumValue(Class<?> cls, String name) throws IllegalStateException {
+        for (Object constant : cls.getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(name))
+                return constant;
+        }
+        throw new IllegalStateException("No constant " + name + " in " + cls.getName());
+    }
+
+    /**
+     * Creates a Map or Collection of the declared class, via its cached no argument constructor.
+     */
+    private static Object newInstance(Class<?> cls) throws IllegalStateException {
+        Constructor<?> constructor = constructors.get(cls);
+        if (constructor == null) {
+            if (cls.isInterface() || Modifier.isAbstract(cls.getModifiers()))
+                throw new IllegalStateException("Cannot instantiate " + cls.getName());
+            try {
+                constructor = cls.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException nsme) {
+                throw new IllegalStateException("Class " + cls.getName() + " has no no-argument constructor");
+            }
+            constructors.put(cls, constructor);
+        }
+        try {
+            return constructor.newInstance();
+        } catch (InstantiationException ie) {
+            throw new IllegalStateException(ie);
+        } catch (IllegalAccessException iae) {
+            throw new IllegalStateException(iae);
+        } catch (InvocationTargetException ite) {
+            throw new IllegalStateException(ite.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * ObjectEmitter.java                                                          *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Walks an object graph, emitting property list events. Objects are classified by TypeDispatch,
+ * as per the XML and binary writers, and emitted as follows:
+ * <p>
+ * java.lang.String -&gt;  string (NSString)
+ * java.lang.Long, Integer, Short, Byte -&gt; integer (NSInteger)
+ * java.lang.Float -&gt; real (float)
+ * java.lang.Double -&gt; real (double)
+ * java.util.Map&lt;String, ?&gt; -&gt; dict (NSDictionary)
+ * java.util.Collection, arrays (other than byte[]) -&gt; array (NSArray)
+ * java.util.Date -&gt; date (NSDate)
+ * java.lang.Boolean -&gt; true/false (BOOL)
+ * byte[] -&gt; data (NSData)
+ * enum -&gt; string (NSString) of the constant name
+ * PropertyListFragment -&gt; the fragment's object graph
+ * plain Java object -&gt; dict (NSDictionary) of its fields, see ClassBinding. Fields that are
+ * null are omitted.
+ * other -&gt; the object returned by its registered PropertyListEncoder
+ * </p>
+ * Plain Java objects are only written by ObjectEmitter, i.e. PropertyListSerialization.write(),
+ * not by the XML and binary writers. An object graph that contains itself is rejected with
+ * IllegalStateException.
+ */
+
+public class ObjectEmitter {
+
+    private PropertyListHandler handler;
+    private IdentityHashMap<Object, Boolean> open; // dicts, arrays and objects being emitted.
+
+    public ObjectEmitter(PropertyListHandler handler) {
+        this.handler = handler;
+        this.open = new IdentityHashMap<>();
+    }
+
+    public void emit(Object obj) throws IOException, IllegalStateException {
+        if (obj == null)
+            throw new IllegalStateException("Object cannot be null");
+        switch (TypeDispatch.kindOf(obj)) {
+            case TypeDispatch.STRING:
+                handler.stringValue((String) obj);
+                break;
+            case TypeDispatch.INTEGER:
+            case TypeDispatch.SHORT:
+                handler.integerValue(((Number) obj).longValue());
+                break;
+            case TypeDispatch.DOUBLE:
+                handler.realValue((double) (Double) obj);
+                break;
+            case TypeDispatch.FLOAT:
+                handler.realValue((float) (Float) obj);
+                break;
+            case TypeDispatch.BOOLEAN:
+                handler.booleanValue((Boolean) obj);
+                break;
+            case TypeDispatch.DATE:
+                handler.dateValue((Date) obj);
+                break;
+            case TypeDispatch.DATA:
+                handler.dataValue((byte[]) obj);
+                break;
+            case TypeDispatch.MAP: {
+                Map<?, ?> dict = (Map<?, ?>) obj;
+                enter(obj);
+                handler.startDict(dict.size());
+                for (Map.Entry<?, ?> entry : dict.entrySet()) {
+                    if (!(entry.getKey() instanceof String))
+                        throw new IllegalStateException("Incompatible key " + entry.getKey() + " found");
+                    handler.key((String) entry.getKey());
+                    emit(entry.getValue());
+                }
+                handler.endDict();
+                open.remove(obj);
+                break;
+            }
+            case TypeDispatch.LIST:
+            case TypeDispatch.COLLECTION: {
+                Collection<?> array = (Collection<?>) obj;
+                enter(obj);
+                handler.startArray(array.size());
+                for (Object value : array)
+                    emit(value);
+                handler.endArray();
+                open.remove(obj);
+                break;
+            }
+            case TypeDispatch.ARRAY: {
+                int length = Array.getLength(obj);
+                enter(obj);
+                handler.startArray(length);
+                for (int i = 0; i < length; i++)
+                    emit(Array.get(obj, i));
+                handler.endArray();
+                open.remove(obj);
+                break;
+            }
+            case TypeDispatch.ENUM:
+                handler.stringValue(((Enum<?>) obj).name());
+                break;
+            case TypeDispatch.ENCODED:
+                emit(TypeDispatch.encode(obj));
+                break;
+            case TypeDispatch.BOUND:
+                enter(obj);
+                emitObject(obj);
+                open.remove(obj);
+                break;
+            case TypeDispatch.FRAGMENT:
+                if (!(obj instanceof EncodedFragment))
+                    throw new IllegalStateException("Incompatible object " + obj + " found");
+                emit(((EncodedFragment) obj).propertyList());
+                break;
+            default:
+                throw new IllegalStateException("Incompatible object " + obj + " found");
+        }
+    }
+
+    /**
+     * Marks a dict, array or object as being emitted, failing if it already is - i.e. it contains
+     * itself.
+     */
+    private void enter(Object obj) throws IllegalStateException {
+        if (open.put(obj, Boolean.TRUE) != null)
+            throw new IllegalStateException("Object graph contains a cycle at " + obj.getClass().getName());
+    }
+
+    private void emitObject(Object obj) throws IOException, IllegalStateException {
+        ClassBinding.Property[] properties = ClassBinding.of(obj.getClass()).properties();
+        Object[] values = new Object[properties.length];
+        int count = 0;
+        for (int i = 0; i < properties.length; i++) {
+            values[i] = properties[i].get(obj);
+            if (values[i] != null)
+                count++;
+        }
+        handler.startDict(count);
+        for (int i = 0; i < properties.length; i++) {
+            if (values[i] == null)
+                continue;
+            handler.key(properties[i].key);
+            emit(values[i]);
+        }
+        handler.endDict();
+    }
+
+}
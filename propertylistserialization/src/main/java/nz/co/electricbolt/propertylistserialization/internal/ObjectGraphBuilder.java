@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * ObjectGraphBuilder.java                                                     *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
+
+/**
+ * Builds an object graph from property list events.
+ * <p>
+ * Property list elements are converted as follows:
+ * string (NSString) -&gt; java.lang.String
+ * integer (NSInteger) -&gt; java.lang.Long
+ * real (float) -&gt; java.lang.Float
+ * real (double) -&gt; java.lang.Double
+ * dict (NSDictionary) -&gt; java.util.HashMap&lt;String, Object&gt;
+ * array (NSArray) -&gt; java.util.ArrayList
+ * date (NSDate) -&gt; java.util.Date
+ * true (BOOL) -&gt; Boolean.valueOf(true)
+ * false (BOOL) -&gt; Boolean.valueOf(false)
+ * data (NSData) -&gt; byte[]
+ * </p>
+ * Other Map and List implementations may be used by specifying a ContainerFactory.
+ */
+
+public class ObjectGraphBuilder implements PropertyListHandler {
+
+    private ContainerFactory factory;
+    private ArrayList<Object> containers; // open dicts and arrays, innermost last.
+    private ArrayList<String> containerKeys; // key each open container will be stored under.
+    private String key;
+    private Object root;
+
+    public ObjectGraphBuilder() {
+        this(ContainerFactory.DEFAULT);
+    }
+
+    /**
+     * @param factory creates the Map and List for each dict and array.
+     */
+    public ObjectGraphBuilder(ContainerFactory factory) {
+        this.factory = factory;
+        this.containers = new ArrayList<>();
+        this.containerKeys = new ArrayList<>();
+    }
+
+    /**
+     * Returns the root object, once all events have been received.
+     */
+    public Object getResult() {
+        return root;
+    }
+
+    @Override
+    public void startDict(int count) {
+        push(factory.newDict(count));
+    }
+
+    @Override
+    public void key(String key) {
+        this.key = key;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void endDict() {
+        add(factory.finishDict((Map<String, Object>) pop()));
+    }
+
+    @Override
+    public void startArray(int count) {
+        push(factory.newArray(count));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void endArray() {
+        add(factory.finishArray((List<Object>) pop()));
+    }
+
+    @Override
+    public void stringValue(String value) {
+        add(value);
+    }
+
+    @Override
+    public void integerValue(long value) {
+        add(value);
+    }
+
+    @Override
+    public void realValue(float value) {
+        add(value);
+    }
+
+    @Override
+    public void realValue(double value) {
+        add(value);
+    }
+
+    @Override
+    public void dateValue(Date value) {
+        add(value);
+    }
+
+    @Override
+    public void booleanValue(boolean value) {
+        add(value);
+    }
+
+    @Override
+    public void dataValue(byte[] value) {
+        add(value);
+    }
+
+    private void push(Object container) {
+        containers.add(container);
+        containerKeys.add(key);
+    }
+
+    private Object pop() {
+        int last = containers.size() - 1;
+        key = containerKeys.remove(last);
+        return containers.remove(last);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(Object value) {
+        if (containers.isEmpty()) {
+            root = value;
+            return;
+        }
+        Object container = containers.get(containers.size() - 1);
+        if (container instanceof Map)
+            ((Map<String, Object>) container).put(key, value);
+        else
+            ((List<Object>) container).add(value);
+    }
+
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * ParseFilter.java                                                            *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Enforces nesting depth and element count limits, and optionally interns dict keys, before
+ * passing property list events on to another handler. Exceeding a limit throws IOException, as
+ * for any other unreadable property list.
+ */
+
+public class ParseFilter implements PropertyListHandler {
+
+    private PropertyListHandler handler;
+    private int maxDepth;
+    private int maxObjects;
+    private ConcurrentMap<String, String> keyPool;
+    private int maxKeys;
+    private int depth;
+    private int objectCount;
+
+    /**
+     * @param maxDepth   maximum nesting of dicts and arrays, e.g. 1 for a root dict of scalars.
+     * @param maxObjects maximum number of elements, including dicts and arrays.
+     * @param keyPool    shared pool of previously seen dict keys, or null to not intern keys.
+     * @param maxKeys    maximum number of keys held by the pool, after which new keys are not
+     *                   added.
+     */
+    public ParseFilter(PropertyListHandler handler, int maxDepth, int maxObjects, ConcurrentMap<String, String> keyPool, int maxKeys) {
+        this.handler = handler;
+        this.maxDepth = maxDepth;
+        this.maxObjects = maxObjects;
+        this.keyPool = keyPool;
+        this.maxKeys = maxKeys;
+    }
+
+    @Override
+    public void startDict(int count) throws IOException {
+        open();
+        reserve(count);
+        handler.startDict(count);
+    }
+
+    @Override
+    public void key(String key) throws IOException {
+        if (keyPool != null) {
+            String pooled = keyPool.get(key);
+            if (pooled != null)
+                key = pooled;
+            else if (keyPool.size() < maxKeys)
+                keyPool.putIfAbsent(key, key);
+        }
+        handler.key(key);
+    }
+
+    @Override
+    public void endDict() throws IOException {
+        depth--;
+        handler.endDict();
+    }
+
+    @Override
+    public void startArray(int count) throws IOException {
+        open();
+        reserve(count);
+        handler.startArray(count);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        depth--;
+        handler.endArray();
+    }
+
+    @Override
+    public void stringValue(String value) throws IOException {
+        count();
+        handler.stringValue(value);
+    }
+
+    @Override
+    public void integerValue(long value) throws IOException {
+        count();
+        handler.integerValue(value);
+    }
+
+    @Override
+    public void realValue(float value) throws IOException {
+        count();
+        handler.realValue(value);
+    }
+
+    @Override
+    public void realValue(double value) throws IOException {
+        count();
+        handler.realValue(value);
+    }
+
+    @Override
+    public void dateValue(Date value) throws IOException {
+        count();
+        handler.dateValue(value);
+    }
+
+    @Override
+    public void booleanValue(boolean value) throws IOException {
+        count();
+        handler.booleanValue(value);
+    }
+
+    @Override
+    public void dataValue(byte[] value) throws IOException {
+        count();
+        handler.dataValue(value);
+    }
+
+    private void open() throws IOException {
+        count();
+        if (++depth > maxDepth)
+            throw new IOException("Property list exceeds maximum depth of " + maxDepth);
+    }
+
+    /**
+     * Fails before the handler allocates for a dict or array whose declared count alone would
+     * exceed the limit - each entry or element is at least one further element.
+     */
+    private void reserve(int count) throws IOException {
+        if (count > maxObjects - objectCount)
+            throw new IOException("Property list exceeds maximum of " + maxObjects + " elements");
+    }
+
+    private void count() throws IOException {
+        if (++objectCount > maxObjects)
+            throw new IOException("Property list exceeds maximum of " + maxObjects + " elements");
+    }
+
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * PropertyListHandler.java                                                    *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Receives the elements of a property list as a stream of events, in document order, from
+ * BinaryPropertyListReader.parse(PropertyListHandler) or
+ * XMLPropertyListReader.parse(PropertyListHandler).
+ * <p>
+ * dict (NSDictionary) -&gt; startDict, then key followed by the value's events for each entry,
+ * then endDict
+ * array (NSArray) -&gt; startArray, then the events of each element, then endArray
+ * string (NSString) -&gt; stringValue
+ * integer (NSInteger) -&gt; integerValue
+ * real (float) -&gt; realValue(float) - binary plists only
+ * real (double) -&gt; realValue(double)
+ * date (NSDate) -&gt; dateValue
+ * true/false (BOOL) -&gt; booleanValue
+ * data (NSData) -&gt; dataValue
+ * </p>
+ */
+
+public interface PropertyListHandler {
+
+    /**
+     * @param count number of key/value pairs, or -1 if not known in advance (XML plists).
+     */
+    void startDict(int count) throws IOException;
+
+    void key(String key) throws IOException;
+
+    void endDict() throws IOException;
+
+    /**
+     * @param count number of elements, or -1 if not known in advance (XML plists).
+     */
+    void startArray(int count) throws IOException;
+
+    void endArray() throws IOException;
+
+    void stringValue(String value) throws IOException;
+
+    void integerValue(long value) throws IOException;
+
+    void realValue(float value) throws IOException;
+
+    void realValue(double value) throws IOException;
+
+    void dateValue(Date value) throws IOException;
+
+    void booleanValue(boolean value) throws IOException;
+
+    void dataValue(byte[] value) throws IOException;
+
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * PropertyListPackWriter.java                                                 *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Writes the objects of a property list pack (see PropertyListPack): a binary plist whose root is
+ * a dict of entries, sorted by key. Each entry is encoded as a fragment by
+ * BinaryPropertyListWriter, and its objects written with global object ids - except for strings
+ * already written, which are referenced rather than written again. Object references and offsets
+ * are always 4 bytes, so that a pack can be appended to without rewriting its existing objects.
+ * <p>
+ * Call add() for each entry value and addString() for each key, then writeDict() and writeRef()
+ * for the root dict, and finally finish().
+ * </p>
+ */
+
+public final class PropertyListPackWriter {
+
+    public static final int REF_SIZE = 4;
+    public static final int TRAILER_LENGTH = 32;
+
+    /**
+     * Stored in the unused bytes at the start of the trailer, identifying a pack.
+     */
+    public static final byte[] MARKER = {'p', 'a', 'c', 'k'};
+
+    private final OutputStream os;
+    private long position;
+    private final int baseObjectCount; // objects already in the pack.
+    private int[] offsets = new int[256]; // of objects written by this writer.
+    private int objectCount; // written by this writer.
+    private final HashMap<Key, Integer> strings = new HashMap<>();
+    private final byte[] scratch = new byte[8];
+
+    /**
+     * Encoded string objects, compared by content.
+     */
+    private static final class Key {
+        final byte[] data;
+        final int hash;
+
+        Key(byte[] data) {
+            this.data = data;
+            this.hash = (int) ContentHash.hash64(data);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(data, ((Key) o).data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @param os              destination, positioned at the end of the pack.
+     * @param position        length of the pack so far, or 0 for a new pack.
+     * @param baseObjectCount number of objects in the pack so far.
+     */
+    public PropertyListPackWriter(OutputStream os, long position, int baseObjectCount) throws IOException {
+        this.os = os;
+        this.position = position;
+        this.baseObjectCount = baseObjectCount;
+        if (position == 0)
+            write("bplist00".getBytes("ascii"), 0, 8);
+    }
+
+    /**
+     * Writes the objects of the value, and returns its object id.
+     */
+    public int add(Object value) throws IOException, IllegalStateException, ParseException {
+        BinaryPropertyListWriter.Fragment fragment = new BinaryPropertyListWriter(value).writeFragment();
+
+        // Assign global object ids first, as containers reference objects after them.
+        int[] ids = new int[fragment.objectCount];
+        Key[] keys = new Key[fragment.objectCount];
+        int next = baseObjectCount + objectCount;
+        for (int i = 0; i < fragment.objectCount; i++) {
+            int type = (fragment.data[fragment.offsets[i]] & 0xF0) >> 4;
+            if (type == 0x5 || type == 0x6) {
+                Key key = new Key(Arrays.copyOfRange(fragment.data, fragment.offsets[i], fragment.offsets[i + 1]));
+                Integer id = strings.get(key);
+                if (id != null) {
+                    ids[i] = id;
+                    continue;
+                }
+                keys[i] = key;
+            }
+            ids[i] = next++;
+        }
+
+        for (int i = 0; i < fragment.objectCount; i++) {
+            if (ids[i] < baseObjectCount + objectCount)
+                continue; // shared string.
+            if (keys[i] != null)
+                strings.put(keys[i], ids[i]);
+            startObject();
+            write(fragment.data, fragment.offsets[i], fragment.offsets[i + 1] - fragment.offsets[i]);
+            if (fragment.refs[i] != null) {
+                for (int ref : fragment.refs[i])
+                    writeRef(ids[ref]);
+            }
+        }
+        return ids[fragment.rootObjectId];
+    }
+
+    /**
+     * Writes the string, unless already written, and returns its object id.
+     */
+    public int addString(String s) throws IOException {
+        try {
+            return add(s);
+        } catch (ParseException pe) {
+            // Strings are not parsed.
+            throw new IllegalStateException(pe);
+        }
+    }
+
+    /**
+     * Starts a dict of count entries, and returns its object id. Follow with count key
+     * references, then count value references.
+     */
+    public int writeDict(int count) throws IOException {
+        int objectId = startObject();
+        BinaryPropertyListWriter encoder = new BinaryPropertyListWriter(null);
+        encoder.writeLength(0xD, count);
+        byte[] marker = encoder.toByteArray();
+        write(marker, 0, marker.length);
+        return objectId;
+    }
+
+    public void writeRef(int objectId) throws IOException {
+        writeInt(objectId);
+    }
+
+    private int startObject() throws IOException {
+        if (position > Integer.MAX_VALUE)
+            throw new IOException("Property list pack exceeds 2GB");
+        if (objectCount == offsets.length)
+            offsets = Arrays.copyOf(offsets, objectCount * 2);
+        offsets[objectCount] = (int) position;
+        return baseObjectCount + objectCount++;
+    }
+
+    /**
+     * Writes the offset table and trailer, and flushes the output stream.
+     *
+     * @param rootObjectId   the root dict.
+     * @param baseOffsets    the offset table of the pack so far, or null if new.
+     */
+    public void finish(int rootObjectId, ByteBuffer baseOffsets) throws IOException {
+        if (position > Integer.MAX_VALUE)
+            throw new IOException("Property list pack exceeds 2GB");
+        long offsetTableOffset = position;
+        if (baseOffsets != null) {
+            ByteBuffer src = baseOffsets.duplicate();
+            byte[] chunk = new byte[8192];
+            while (src.hasRemaining()) {
+                int length = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, length);
+                write(chunk, 0, length);
+            }
+        }
+        for (int i = 0; i < objectCount; i++)
+            writeInt(offsets[i]);
+
+        // CFBinaryPlistTrailer
+        byte[] trailer = new byte[TRAILER_LENGTH];
+        System.arraycopy(MARKER, 0, trailer, 0, MARKER.length);
+        trailer[6] = REF_SIZE; // offsetIntSize
+        trailer[7] = REF_SIZE; // objectRefSize
+        putLong(trailer, 8, baseObjectCount + objectCount);
+        putLong(trailer, 16, rootObjectId);
+        putLong(trailer, 24, offsetTableOffset);
+        write(trailer, 0, TRAILER_LENGTH);
+        os.flush();
+    }
+
+    private void writeInt(int value) throws IOException {
+        scratch[0] = (byte) (value >> 24);
+        scratch[1] = (byte) (value >> 16);
+        scratch[2] = (byte) (value >> 8);
+        scratch[3] = (byte) value;
+        write(scratch, 0, 4);
+    }
+
+    private static void putLong(byte[] buf, int offset, long value) {
+        for (int i = 0; i < 8; i++)
+            buf[offset + i] = (byte) (value >> (8 * (7 - i)));
+    }
+
+    private void write(byte[] data, int offset, int length) throws IOException {
+        os.write(data, offset, length);
+        position += length;
+    }
+
+}
@@ -0,0 +1,562 @@
+/*******************************************************************************
+ * RealFormatter.java                                                          *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+
+/**
+ * Formats &lt;real&gt; values directly into a byte[] buffer (ascii) without creating intermediate
+ * Strings.
+ * <p>
+ * Two modes are supported:
+ * Mode.Shortest - the shortest decimal that round trips back to the same float or double
+ * (Schubfach algorithm, R. Giulietti).
+ * Mode.CF - character by character accurate output with CFPropertyList.c, which formats reals
+ * as printf("%.17g") (DBL_DIG + 2 significant digits). Floats are widened to double first, as
+ * NSNumber does.
+ * </p>
+ * Both modes use the printf("%g") layout: exponential notation is used only when the decimal
+ * exponent is less than -4 or greater than or equal to 17. NaN and infinity are written as
+ * nan, +infinity and -infinity (as per CFPropertyList.c).
+ */
+
+public class RealFormatter {
+
+    public enum Mode {
+        Shortest,
+        CF
+    }
+
+    /**
+     * Maximum number of bytes written by any format() call, e.g. "-1.2345678901234567e-308".
+     */
+    public static final int MAX_LENGTH = 32;
+
+    private static final int PRECISION = 17; // DBL_DIG + 2
+
+    private static final Charset ASCII = Charset.forName("ascii");
+
+    // double
+    private static final int DOUBLE_P = 53;
+    private static final int DOUBLE_Q_MIN = -1074;
+    private static final long DOUBLE_C_MIN = 1L << (DOUBLE_P - 1);
+    private static final long DOUBLE_T_MASK = (1L << (DOUBLE_P - 1)) - 1;
+    private static final int DOUBLE_BQ_MASK = 0x7FF;
+    private static final int DOUBLE_C_TINY = 3;
+
+    // float
+    private static final int FLOAT_P = 24;
+    private static final int FLOAT_Q_MIN = -149;
+    private static final int FLOAT_C_MIN = 1 << (FLOAT_P - 1);
+    private static final int FLOAT_T_MASK = (1 << (FLOAT_P - 1)) - 1;
+    private static final int FLOAT_BQ_MASK = 0xFF;
+    private static final int FLOAT_C_TINY = 8;
+
+    private static final long MASK_63 = 0x7FFFFFFFFFFFFFFFL;
+    private static final long MASK_32 = 0xFFFFFFFFL;
+
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+            10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+            1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+    };
+
+    private static final byte[] NAN = {'n', 'a', 'n'};
+    private static final byte[] PLUS_INFINITY = {'+', 'i', 'n', 'f', 'i', 'n', 'i', 't', 'y'};
+    private static final byte[] MINUS_INFINITY = {'-', 'i', 'n', 'f', 'i', 'n', 'i', 't', 'y'};
+
+    private RealFormatter() {
+    }
+
+    /**
+     * Writes the &lt;real&gt; representation of a double into buf.
+     *
+     * @param value  value to format.
+     * @param mode   Mode.Shortest or Mode.CF
+     * @param buf    buffer to write to, must have at least MAX_LENGTH bytes available from offset.
+     * @param offset offset into buf to start writing.
+     * @return offset into buf after the last byte written.
+     */
+    public static int format(double value, Mode mode, byte[] buf, int offset) {
+        if (Double.isNaN(value))
+            return put(NAN, buf, offset);
+        if (Double.isInfinite(value))
+            return put(value > 0 ? PLUS_INFINITY : MINUS_INFINITY, buf, offset);
+        if (value == 0.0 && mode == Mode.CF) {
+            // CFPropertyList.c writes both zeros as 0.0
+            buf[offset++] = '0';
+            buf[offset++] = '.';
+            buf[offset++] = '0';
+            return offset;
+        }
+        long bits = Double.doubleToRawLongBits(value);
+        if (bits < 0)
+            buf[offset++] = '-';
+        if ((bits & MASK_63) == 0) {
+            buf[offset++] = '0';
+            return offset;
+        }
+        Decimal d = new Decimal();
+        if (mode == Mode.CF)
+            precisionDecimal(bits, d);
+        else
+            shortestDecimal(bits, d);
+        return layout(d.f, d.e, buf, offset);
+    }
+
+    /**
+     * Writes the &lt;real&gt; representation of a float into buf. In Mode.Shortest the digits are
+     * the shortest that round trip back to the same float (i.e. 1.1f is written as 1.1); in
+     * Mode.CF the float is first widened to a double (i.e. 1.1f is written as 1.1000000238418579).
+     *
+     * @param value  value to format.
+     * @param mode   Mode.Shortest or Mode.CF
+     * @param buf    buffer to write to, must have at least MAX_LENGTH bytes available from offset.
+     * @param offset offset into buf to start writing.
+     * @return offset into buf after the last byte written.
+     */
+    public static int format(float value, Mode mode, byte[] buf, int offset) {
+        if (mode == Mode.CF || Float.isNaN(value) || Float.isInfinite(value))
+            return format((double) value, mode, buf, offset);
+        int bits = Float.floatToRawIntBits(value);
+        if (bits < 0)
+            buf[offset++] = '-';
+        if ((bits & 0x7FFFFFFF) == 0) {
+            buf[offset++] = '0';
+            return offset;
+        }
+        Decimal d = new Decimal();
+        shortestDecimal(bits, d);
+        return layout(d.f, d.e, buf, offset);
+    }
+
+    /**
+     * Convenience method, returns the &lt;real&gt; representation of a double as a String.
+     */
+    public static String toString(double value, Mode mode) {
+        byte[] buf = new byte[MAX_LENGTH];
+        int length = format(value, mode, buf, 0);
+        return new String(buf, 0, length, ASCII);
+    }
+
+    /**
+     * Convenience method, returns the &lt;real&gt; representation of a float as a String.
+     */
+    public static String toString(float value, Mode mode) {
+        byte[] buf = new byte[MAX_LENGTH];
+        int length = format(value, mode, buf, 0);
+        return new String(buf, 0, length, ASCII);
+    }
+
+    /**
+     * Parses the contents of a &lt;real&gt; element. In addition to the formats accepted by
+     * Double.valueOf(), the CFPropertyList.c spellings nan, +infinity, -infinity, inf and -inf are
+     * also accepted.
+     *
+     * @param s contents of the &lt;real&gt; element.
+     * @return double value.
+     * @throws NumberFormatException if s could not be converted.
+     */
+    public static double parse(String s) throws NumberFormatException {
+        switch (s) {
+            case "nan":
+                return Double.NaN;
+            case "+infinity":
+            case "infinity":
+            case "+inf":
+            case "inf":
+                return Double.POSITIVE_INFINITY;
+            case "-infinity":
+            case "-inf":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                return Double.parseDouble(s);
+        }
+    }
+
+    private static int put(byte[] src, byte[] buf, int offset) {
+        System.arraycopy(src, 0, buf, offset, src.length);
+        return offset + src.length;
+    }
+
+    /**
+     * Decimal f * 10^e, where f is positive.
+     */
+    private static class Decimal {
+        long f;
+        int e;
+
+        void set(long f, int e) {
+            this.f = f;
+            this.e = e;
+        }
+    }
+
+    /**
+     * Writes the decimal f * 10^e using the printf("%g") layout with trailing zeros removed.
+     */
+    private static int layout(long f, int e, byte[] buf, int offset) {
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+        int length = digitCount(f);
+        int exponent = e + length - 1; // decimal exponent of the first digit
+        if (exponent < -4 || exponent >= PRECISION) {
+            // d.ddde+XX
+            writeDigits(f, length, buf, offset);
+            if (length > 1) {
+                System.arraycopy(buf, offset + 1, buf, offset + 2, length - 1);
+                buf[offset + 1] = '.';
+                offset += length + 1;
+            } else
+                offset += 1;
+            buf[offset++] = 'e';
+            if (exponent < 0) {
+                buf[offset++] = '-';
+                exponent = -exponent;
+            } else
+                buf[offset++] = '+';
+            if (exponent < 10)
+                buf[offset++] = '0';
+            int exponentLength = digitCount(exponent);
+            writeDigits(exponent, exponentLength, buf, offset);
+            return offset + exponentLength;
+        } else if (exponent < 0) {
+            // 0.000ddd
+            buf[offset++] = '0';
+            buf[offset++] = '.';
+            for (int i = -1; i > exponent; i--)
+                buf[offset++] = '0';
+            writeDigits(f, length, buf, offset);
+            return offset + length;
+        } else if (e >= 0) {
+            // ddd000
+            writeDigits(f, length, buf, offset);
+            offset += length;
+            for (int i = 0; i < e; i++)
+                buf[offset++] = '0';
+            return offset;
+        } else {
+            // ddd.ddd
+            int integerLength = exponent + 1;
+            writeDigits(f, length, buf, offset);
+            System.arraycopy(buf, offset + integerLength, buf, offset + integerLength + 1, length - integerLength);
+            buf[offset + integerLength] = '.';
+            return offset + length + 1;
+        }
+    }
+
+    private static int digitCount(long value) {
+        int length = 1;
+        while (length < POW10.length && value >= POW10[length])
+            length++;
+        return length;
+    }
+
+    private static void writeDigits(long value, int length, byte[] buf, int offset) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            buf[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+    }
+
+    // Shortest (Schubfach) - double
+
+    private static void shortestDecimal(long bits, Decimal d) {
+        int bq = (int) (bits >>> (DOUBLE_P - 1)) & DOUBLE_BQ_MASK;
+        long t = bits & DOUBLE_T_MASK;
+        if (bq != 0) {
+            // normal value. Here mq = -q
+            int mq = -DOUBLE_Q_MIN + 1 - bq;
+            long c = DOUBLE_C_MIN | t;
+            // The fast path discussed in section 8.3 of the Schubfach paper - small integers.
+            if (0 < mq && mq < DOUBLE_P) {
+                long f = c >> mq;
+                if (f << mq == c) {
+                    d.set(f, 0);
+                    return;
+                }
+            }
+            toDecimal(-mq, c, 0, d);
+        } else {
+            // subnormal value
+            if (t < DOUBLE_C_TINY)
+                toDecimal(DOUBLE_Q_MIN, 10 * t, -1, d);
+            else
+                toDecimal(DOUBLE_Q_MIN, t, 0, d);
+        }
+    }
+
+    private static void toDecimal(int q, long c, int dk, Decimal d) {
+        int out = (int) c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != DOUBLE_C_MIN || q == DOUBLE_Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+        long g1 = Table.g1(k);
+        long g0 = Table.g0(k);
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+        long s = vb >> 2;
+        if (s >= 100) {
+            long sp10 = 10 * multiplyHigh(s, 115292150460684698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                d.set(upin ? sp10 : tp10, k);
+                return;
+            }
+        }
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            d.set(uin ? s : t, k + dk);
+            return;
+        }
+        long cmp = vb - ((s + t) << 1);
+        d.set(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk);
+    }
+
+    private static long rop(long g1, long g0, long cp) {
+        long x1 = multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | ((z & MASK_63) + MASK_63) >>> 63;
+    }
+
+    // Shortest (Schubfach) - float
+
+    private static void shortestDecimal(int bits, Decimal d) {
+        int bq = (bits >>> (FLOAT_P - 1)) & FLOAT_BQ_MASK;
+        int t = bits & FLOAT_T_MASK;
+        if (bq != 0) {
+            int mq = -FLOAT_Q_MIN + 1 - bq;
+            int c = FLOAT_C_MIN | t;
+            if (0 < mq && mq < FLOAT_P) {
+                int f = c >> mq;
+                if (f << mq == c) {
+                    d.set(f, 0);
+                    return;
+                }
+            }
+            toDecimal(-mq, c, 0, d);
+        } else {
+            if (t < FLOAT_C_TINY)
+                toDecimal(FLOAT_Q_MIN, 10 * t, -1, d);
+            else
+                toDecimal(FLOAT_Q_MIN, t, 0, d);
+        }
+    }
+
+    private static void toDecimal(int q, int c, int dk, Decimal d) {
+        int out = c & 0x1;
+        long cb = (long) c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != FLOAT_C_MIN || q == FLOAT_Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 33;
+        long g = Table.g1(k) + 1;
+        int vb = rop(g, cb << h);
+        int vbl = rop(g, cbl << h);
+        int vbr = rop(g, cbr << h);
+        int s = vb >> 2;
+        if (s >= 100) {
+            int sp10 = 10 * (int) (s * 1717986919L >>> 34);
+            int tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                d.set(upin ? sp10 : tp10, k);
+                return;
+            }
+        }
+        int t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            d.set(uin ? s : t, k + dk);
+            return;
+        }
+        int cmp = vb - ((s + t) << 1);
+        d.set(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk);
+    }
+
+    private static int rop(long g, long cp) {
+        long x1 = multiplyHigh(g, cp);
+        long vbp = x1 >>> 31;
+        return (int) (vbp | ((x1 & MASK_32) + MASK_32) >>> 32);
+    }
+
+    // CF - printf("%.17g")
+
+    /**
+     * Rounds the double (half even) to exactly 17 significant digits. The product of the
+     * significand and the 126 bit approximation of 10^-k overestimates the exact value by less
+     * than 2^-68, so the rounding direction is exact unless the fraction lies within 2^-64 of
+     * one half; those (rare) values fall back to BigDecimal.
+     */
+    private static void precisionDecimal(long bits, Decimal d) {
+        int bq = (int) (bits >>> (DOUBLE_P - 1)) & DOUBLE_BQ_MASK;
+        long c = bits & DOUBLE_T_MASK;
+        int q;
+        if (bq != 0) {
+            c |= DOUBLE_C_MIN;
+            q = DOUBLE_Q_MIN - 1 + bq;
+        } else
+            q = DOUBLE_Q_MIN;
+
+        int e2 = q + 63 - Long.numberOfLeadingZeros(c); // floor(log2(value))
+        int k = flog10pow2(e2) - (PRECISION - 1);
+        for (int attempt = 0; attempt < 2; attempt++, k++) {
+            // value * 10^-k = c * g * 2^-sh (overestimated by less than 2^-68)
+            long g1 = Table.g1(k);
+            long g0 = Table.g0(k);
+            long gHi = g1 >>> 1;
+            long gLo = (g1 << 63) | g0;
+            long p0 = c * gLo;
+            long lh = unsignedMultiplyHigh(c, gLo);
+            long ul = c * gHi;
+            long uh = unsignedMultiplyHigh(c, gHi);
+            long p1 = lh + ul;
+            long p2 = uh + ((p1 ^ Long.MIN_VALUE) < (lh ^ Long.MIN_VALUE) ? 1 : 0); // carry
+            int sh = -(q + flog2pow10(-k) - 125);
+
+            long n = extract(p2, p1, p0, sh);
+            if (n >= POW10[PRECISION])
+                continue; // estimate of the decimal exponent was one too low
+            long fraction = extract(p2, p1, p0, sh - 64);
+            if (fraction == Long.MIN_VALUE)
+                break; // too close to one half to decide
+            if (fraction < 0) {
+                // fraction > 0.5, round up
+                n++;
+                if (n == POW10[PRECISION]) {
+                    n = POW10[PRECISION - 1];
+                    k++;
+                }
+            }
+            d.set(n, k);
+            return;
+        }
+
+        BigDecimal bd = new BigDecimal(Double.longBitsToDouble(bits & MASK_63))
+                .round(new MathContext(PRECISION, RoundingMode.HALF_EVEN));
+        d.set(bd.unscaledValue().longValue(), -bd.scale());
+    }
+
+    /**
+     * Returns the 64 bits starting at bit position pos of the 192 bit unsigned value p2:p1:p0.
+     */
+    private static long extract(long p2, long p1, long p0, int pos) {
+        if (pos >= 128)
+            return pos == 128 ? p2 : p2 >>> (pos - 128);
+        if (pos >= 64)
+            return pos == 64 ? p1 : (p1 >>> (pos - 64)) | (p2 << (128 - pos));
+        return pos == 0 ? p0 : (p0 >>> pos) | (p1 << (64 - pos));
+    }
+
+    // Math
+
+    private static long multiplyHigh(long x, long y) {
+        long x1 = x >> 32;
+        long x2 = x & MASK_32;
+        long y1 = y >> 32;
+        long y2 = y & MASK_32;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & MASK_32;
+        long z0 = t >> 32;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    private static long unsignedMultiplyHigh(long x, long y) {
+        return multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+
+    /**
+     * floor(e * log10(2))
+     */
+    private static int flog10pow2(int e) {
+        return (int) (e * 661971961083L >> 41);
+    }
+
+    /**
+     * floor(log10(3/4 * 2^e))
+     */
+    private static int flog10threeQuartersPow2(int e) {
+        return (int) ((e * 661971961083L + -274743187321L) >> 41);
+    }
+
+    /**
+     * floor(e * log2(10))
+     */
+    private static int flog2pow10(int e) {
+        return (int) (e * 913124641741L >> 38);
+    }
+
+    /**
+     * 126 bit approximations g of 10^-k, such that 10^-k = beta * 2^r with 2^125 &lt;= beta &lt;
+     * 2^126 and g = floor(beta) + 1. Computed once, on first use.
+     */
+    private static class Table {
+
+        private static final int K_MIN = -340;
+        private static final int K_MAX = 292;
+        private static final long[] G = new long[(K_MAX - K_MIN + 1) * 2];
+
+        static {
+            BigInteger ten = BigInteger.valueOf(10);
+            BigInteger mask63 = BigInteger.valueOf(MASK_63);
+            for (int k = K_MIN; k <= K_MAX; k++) {
+                int r = flog2pow10(-k) - 125;
+                BigInteger num = k <= 0 ? ten.pow(-k) : BigInteger.ONE;
+                BigInteger den = k > 0 ? ten.pow(k) : BigInteger.ONE;
+                if (r < 0)
+                    num = num.shiftLeft(-r);
+                else
+                    den = den.shiftLeft(r);
+                BigInteger g = num.divide(den).add(BigInteger.ONE);
+                G[(k - K_MIN) * 2] = g.shiftRight(63).longValue();
+                G[(k - K_MIN) * 2 + 1] = g.and(mask63).longValue();
+            }
+        }
+
+        static long g1(int k) {
+            return G[(k - K_MIN) * 2];
+        }
+
+        static long g0(int k) {
+            return G[(k - K_MIN) * 2 + 1];
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * ShapeMap.java                                                               *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable Map&lt;String, Object&gt; for parsed dicts, which holds only its values and a
+ * reference to a shared Shape - the sorted keys - in the manner of a "hidden class". Property
+ * lists typically contain many dicts with the same set of keys, each of which then share a
+ * single key array.
+ * <p>
+ * Shapes are held weakly in a process wide table, so a shape is shared by every ShapeMap of
+ * the same keys while any of them remain reachable, and removed from the table once none are.
+ * The table is bounded at MAX_SHAPES live key sets. Once full, dicts with new key sets are given
+ * an unshared shape of their own.
+ * </p>
+ */
+
+public final class ShapeMap extends AbstractMap<String, Object> {
+
+    static final int MAX_SHAPES = 4096;
+
+    /**
+     * A distinct set of keys, in ascending order.
+     */
+    static final class Shape {
+
+        final String[] keys;
+
+        Shape(String[] keys) {
+            this.keys = keys;
+        }
+
+        int indexOf(Object key) {
+            return key instanceof String ? Arrays.binarySearch(keys, key) : -1;
+        }
+    }
+
+    /**
+     * A table entry, cleared once no ShapeMap refers to its shape.
+     */
+    private static final class ShapeRef extends WeakReference<Shape> {
+
+        final List<String> keyList;
+
+        ShapeRef(Shape shape, List<String> keyList) {
+            super(shape, cleared);
+            this.keyList = keyList;
+        }
+    }
+
+    private static final ConcurrentHashMap<List<String>, ShapeRef> shapes = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Shape> cleared = new ReferenceQueue<>();
+
+    private final Shape shape;
+    private final Object[] values; // in the order of shape.keys.
+
+    private ShapeMap(Shape shape, Object[] values) {
+        this.shape = shape;
+        this.values = values;
+    }
+
+    /**
+     * Returns an immutable copy of the map, sharing its keys with other ShapeMaps of the same
+     * keys. Keys must be non null Strings, and values non null.
+     */
+    public static ShapeMap copyOf(Map<String, Object> map) {
+        String[] keys = map.keySet().toArray(new String[map.size()]);
+        Arrays.sort(keys);
+        Shape shape = shapeOf(keys);
+        Object[] values = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            values[i] = map.get(shape.keys[i]);
+        return new ShapeMap(shape, values);
+    }
+
+    private static Shape shapeOf(String[] keys) {
+        expunge();
+        List<String> keyList = Arrays.asList(keys);
+        ShapeRef ref = shapes.get(keyList);
+        Shape shape = ref != null ? ref.get() : null;
+        if (shape != null)
+            return shape;
+        shape = new Shape(keys);
+        if (shapes.size() < MAX_SHAPES) {
+            ShapeRef added = new ShapeRef(shape, keyList);
+            boolean stored = ref == null ? shapes.putIfAbsent(keyList, added) == null : shapes.replace(keyList, ref, added);
+            if (!stored) {
+                // Another thread added the shape first.
+                ref = shapes.get(keyList);
+                Shape existing = ref != null ? ref.get() : null;
+                if (existing != null)
+                    shape = existing;
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * Removes the entries of shapes no longer referred to by any ShapeMap.
+     */
+    private static void expunge() {
+        Reference<? extends Shape> ref;
+        while ((ref = cleared.poll()) != null)
+            shapes.remove(((ShapeRef) ref).keyList, ref);
+    }
+
+    /**
+     * Returns the number of shapes in the table, for testing.
+     */
+    static int shapeCount() {
+        expunge();
+        return shapes.size();
+    }
+
+    /**
+     * Returns true if both maps share the same key array.
+     */
+    boolean sameShape(ShapeMap other) {
+        return shape == other.shape;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = shape.indexOf(key);
+        return i < 0 ? null : values[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return shape.indexOf(key) >= 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+                    private int i;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < values.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        if (i >= values.length)
+                            throw new NoSuchElementException();
+                        Map.Entry<String, Object> entry = new SimpleImmutableEntry<>(shape.keys[i], values[i]);
+                        i++;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * StructuralHash.java                                                         *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes a 64 bit hash of a property list from its values, so that equal property lists hash
+ * the same regardless of format, dict entry order, or the Java types used to represent them:
+ * Integer, Long, Short and Byte hash by their long value, Float and Double by their double value.
+ * <p>
+ * A dict's hash is the sum of the hashes of its entries, so is independent of their order; an
+ * array's hash combines its elements in order. Hashes of CompactMap and CompactList, which are
+ * immutable, are cached on the container once computed.
+ * </p>
+ * As a PropertyListHandler, computes the hash of the property list reported by a reader, without
+ * building an object graph - see getHash().
+ */
+
+public final class StructuralHash implements PropertyListHandler {
+
+    private static final long M = 0x9E3779B97F4A7C15L;
+
+    private static final long STRING = 1;
+    private static final long INTEGER = 2;
+    private static final long REAL = 3;
+    private static final long BOOLEAN = 4;
+    private static final long DATE = 5;
+    private static final long DATA = 6;
+    private static final long DICT = 7;
+    private static final long ARRAY = 8;
+
+    // One frame per open dict or array.
+    private long[] hashes = new long[16];
+    private int[] counts = new int[16];
+    private boolean[] dicts = new boolean[16];
+    private long[] keys = new long[16];
+    private int depth;
+    private long hash;
+
+    /**
+     * Returns the hash of the object graph, as per PropertyListSerialization.dataWithPropertyList.
+     */
+    public static long of(Object obj) throws IllegalStateException {
+        return of(obj, null);
+    }
+
+    /**
+     * As per of(Object), recording the hash of each mutable dict and array in memo (keyed by
+     * identity), and using those already recorded. Callers that hash the subtrees of the same
+     * object graph repeatedly can thereby hash each subtree only once.
+     */
+    public static long of(Object obj, IdentityHashMap<Object, Long> memo) throws IllegalStateException {
+        switch (TypeDispatch.kindOf(obj)) {
+            case TypeDispatch.STRING:
+                return ofString((String) obj);
+            case TypeDispatch.INTEGER:
+            case TypeDispatch.SHORT:
+                return ofInteger(((Number) obj).longValue());
+            case TypeDispatch.FLOAT:
+            case TypeDispatch.DOUBLE:
+                return ofReal(((Number) obj).doubleValue());
+            case TypeDispatch.BOOLEAN:
+                return ofBoolean((Boolean) obj);
+            case TypeDispatch.DATE:
+                return ofDate((Date) obj);
+            case TypeDispatch.DATA:
+                return ofData((byte[]) obj);
+            case TypeDispatch.MAP:
+                if (obj instanceof CompactMap) {
+                    CompactMap dict = (CompactMap) obj;
+                    long hash = dict.structuralHash;
+                    if (hash == 0)
+                        dict.structuralHash = hash = ofMap(dict, memo);
+                    return hash;
+                }
+                return memoized(obj, memo);
+            case TypeDispatch.LIST:
+                if (obj instanceof CompactList) {
+                    CompactList array = (CompactList) obj;
+                    long hash = array.structuralHash;
+                    if (hash == 0)
+                        array.structuralHash = hash = ofList(array, memo);
+                    return hash;
+                }
+                return memoized(obj, memo);
+            default:
+                // Collections, arrays, enums, encoded and bindable objects.
+                StructuralHash handler = new StructuralHash();
+                try {
+                    new ObjectEmitter(handler).emit(obj);
+                } catch (IOException ioe) {
+                    // StructuralHash does not throw IOException.
+                    throw new IllegalStateException(ioe);
+                }
+                return handler.getHash();
+        }
+    }
+
+    private static long memoized(Object obj, IdentityHashMap<Object, Long> memo) {
+        Long hash = memo != null ? memo.get(obj) : null;
+        if (hash == null) {
+            hash = obj instanceof Map ? ofMap((Map<?, ?>) obj, memo) : ofList((List<?>) obj, memo);
+            if (memo != null)
+                memo.put(obj, hash);
+        }
+        return hash;
+    }
+
+    private static long ofMap(Map<?, ?> dict, IdentityHashMap<Object, Long> memo) {
+        long sum = 0;
+        for (Map.Entry<?, ?> entry : dict.entrySet()) {
+            if (!(entry.getKey() instanceof String))
+                throw new IllegalStateException("Incompatible key " + entry.getKey() + " found");
+            sum += entry(ofString((String) entry.getKey()), of(entry.getValue(), memo));
+        }
+        return finishDict(sum, dict.size());
+    }
+
+    private static long ofList(List<?> array, IdentityHashMap<Object, Long> memo) {
+        long hash = ARRAY;
+        for (Object value : array)
+            hash = element(hash, of(value, memo));
+        return finishArray(hash, array.size());
+    }
+
+    public static long ofString(String value) {
+        long hash = STRING * M;
+        for (int i = 0; i < value.length(); i++)
+            hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+        return ContentHash.mix(hash + value.length());
+    }
+
+    public static long ofInteger(long value) {
+        return ContentHash.mix(INTEGER * M ^ value);
+    }
+
+    public static long ofReal(double value) {
+        return ContentHash.mix(REAL * M ^ Double.doubleToLongBits(value));
+    }
+
+    public static long ofBoolean(boolean value) {
+        return ContentHash.mix(BOOLEAN * M ^ (value ? 1 : 0));
+    }
+
+    public static long ofDate(Date value) {
+        return ContentHash.mix(DATE * M ^ value.getTime());
+    }
+
+    public static long ofData(byte[] value) {
+        return ContentHash.mix(DATA * M ^ ContentHash.hash64(value));
+    }
+
+    private static long entry(long key, long value) {
+        return ContentHash.mix(key * M + Long.rotateLeft(value, 31));
+    }
+
+    private static long finishDict(long sum, int count) {
+        return ContentHash.mix(DICT * M + sum * 31 + count);
+    }
+
+    private static long element(long hash, long value) {
+        return Long.rotateLeft(hash ^ value, 27) * M;
+    }
+
+    private static long finishArray(long hash, int count) {
+        return ContentHash.mix(hash + count);
+    }
+
+    /**
+     * Returns the hash of the property list reported to the handler.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    private void value(long value) {
+        if (depth == 0) {
+            hash = value;
+            return;
+        }
+        int top = depth - 1;
+        if (dicts[top])
+            hashes[top] += entry(keys[top], value);
+        else
+            hashes[top] = element(hashes[top], value);
+        counts[top]++;
+    }
+
+    private void push(boolean dict) {
+        if (depth == hashes.length) {
+            hashes = Arrays.copyOf(hashes, depth * 2);
+            counts = Arrays.copyOf(counts, depth * 2);
+            dicts = Arrays.copyOf(dicts, depth * 2);
+            keys = Arrays.copyOf(keys, depth * 2);
+        }
+        hashes[depth] = dict ? 0 : ARRAY;
+        counts[depth] = 0;
+        dicts[depth] = dict;
+        depth++;
+    }
+
+    @Override
+    public void startDict(int count) {
+        push(true);
+    }
+
+    @Override
+    public void key(String key) {
+        keys[depth - 1] = ofString(key);
+    }
+
+    @Override
+    public void endDict() {
+        depth--;
+        value(finishDict(hashes[depth], counts[depth]));
+    }
+
+    @Override
+    public void startArray(int count) {
+        push(false);
+    }
+
+    @Override
+    public void endArray() {
+        depth--;
+        value(finishArray(hashes[depth], counts[depth]));
+    }
+
+    @Override
+    public void stringValue(String value) {
+        value(ofString(value));
+    }
+
+    @Override
+    public void integerValue(long value) {
+        value(ofInteger(value));
+    }
+
+    @Override
+    public void realValue(float value) {
+        value(ofReal(value));
+    }
+
+    @Override
+    public void realValue(double value) {
+        value(ofReal(value));
+    }
+
+    @Override
+    public void dateValue(Date value) {
+        value(ofDate(value));
+    }
+
+    @Override
+    public void booleanValue(boolean value) {
+        value(ofBoolean(value));
+    }
+
+    @Override
+    public void dataValue(byte[] value) {
+        value(ofData(value));
+    }
+
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Tracing.java                                                                *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Marks property list reads and writes as sections in systrace / Perfetto recordings, so that
+ * slow frames and allocation spikes can be attributed to them. Section names are constants, so
+ * no allocation occurs; when tracing is not active, android.os.Trace returns immediately.
+ * Requires API 18, and does nothing on earlier versions.
+ */
+
+public class Tracing {
+
+    public static final String PARSE_XML = "PlistParse XML";
+    public static final String PARSE_BINARY = "PlistParse Binary";
+    public static final String SERIALIZE_XML = "PlistSerialize XML";
+    public static final String SERIALIZE_BINARY = "PlistSerialize Binary";
+
+    private static final boolean SUPPORTED = Build.VERSION.SDK_INT >= 18;
+
+    /**
+     * Begins a section, which must be ended by end() on the same thread.
+     */
+    public static void begin(String section) {
+        if (SUPPORTED)
+            Trace.beginSection(section);
+    }
+
+    public static void end() {
+        if (SUPPORTED)
+            Trace.endSection();
+    }
+
+}
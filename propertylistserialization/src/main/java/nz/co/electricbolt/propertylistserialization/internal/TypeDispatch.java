@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * TypeDispatch.java                                                           *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nz.co.electricbolt.propertylistserialization.PropertyListEncoder;
+
+/**
+ * Classifies the objects of an object graph being written, so that writers can switch on the
+ * kind of each object rather than testing it against each supported type in turn. The kind of
+ * each class is determined once, and cached. This is the one table of the types that can be
+ * written: every writer accepts every kind other than OTHER and BOUND, either directly or via
+ * convert(). BOUND objects are only written by ObjectEmitter (PropertyListSerialization.write()),
+ * which reflects their fields - the XML and binary writers reject them as incompatible.
+ * <p>
+ * Objects of a class without a property list equivalent are converted by the PropertyListEncoder
+ * registered for that class, or the nearest registered superclass or interface. Encoders are not
+ * consulted for natively supported types.
+ * </p>
+ */
+
+public final class TypeDispatch {
+
+    public static final int OTHER = 0; // incompatible.
+    public static final int STRING = 1;
+    public static final int INTEGER = 2; // Integer or Long
+    public static final int SHORT = 3; // Short or Byte
+    public static final int FLOAT = 4;
+    public static final int DOUBLE = 5;
+    public static final int BOOLEAN = 6;
+    public static final int DATE = 7;
+    public static final int DATA = 8;
+    public static final int MAP = 9;
+    public static final int LIST = 10;
+    public static final int COLLECTION = 11; // other than List
+    public static final int ARRAY = 12; // other than byte[]
+    public static final int ENUM = 13;
+    public static final int FRAGMENT = 14; // EncodedFragment (PropertyListFragment) or BinaryPropertyListWriter.Fragment
+    public static final int ENCODED = 15; // has a registered PropertyListEncoder
+    public static final int BOUND = 16; // plain Java object, ObjectEmitter only - see ClassBinding.
+
+    private static final class Entry {
+        final int kind;
+        final PropertyListEncoder<Object> encoder;
+
+        Entry(int kind, PropertyListEncoder<Object> encoder) {
+            this.kind = kind;
+            this.encoder = encoder;
+        }
+    }
+
+    private static final int MAX_ENCODINGS = 8; // encoders that return objects with encoders.
+
+    private static final ConcurrentHashMap<Class<?>, PropertyListEncoder<Object>> encoders = new ConcurrentHashMap<>();
+
+    // Replaced, rather than cleared, when encoders change - so that an entry computed from the
+    // previous encoders can only be added to the discarded cache.
+    private static volatile ConcurrentHashMap<Class<?>, Entry> entries = new ConcurrentHashMap<>();
+
+    private TypeDispatch() {
+    }
+
+    /**
+     * Registers an encoder for the specified class, and its subclasses.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> void register(Class<T> cls, PropertyListEncoder<? super T> encoder) {
+        if (encoder == null)
+            encoders.remove(cls);
+        else
+            encoders.put(cls, (PropertyListEncoder<Object>) encoder);
+        // Kinds may have changed for subclasses of cls.
+        entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the kind of the specified object. null is OTHER.
+     */
+    public static int kindOf(Object obj) {
+        if (obj == null)
+            return OTHER;
+        return entry(obj.getClass()).kind;
+    }
+
+    /**
+     * Converts an object of kind ENCODED, using its registered encoder - and the encoder of the
+     * result, if it too has one - to an object of another kind.
+     *
+     * @throws IllegalStateException if an encoder returns null, or the encoders do not convert the
+     *                               object to another kind (e.g. an encoder returns its input).
+     */
+    public static Object encode(Object obj) throws IllegalStateException {
+        Object encoded = obj;
+        for (int i = 0; i < MAX_ENCODINGS; i++) {
+            Object value = encoded;
+            encoded = entry(value.getClass()).encoder.encode(value);
+            if (encoded == null)
+                throw new IllegalStateException("Encoder for " + value.getClass().getName() + " returned null");
+            if (encoded.equals(value))
+                break;
+            if (kindOf(encoded) != ENCODED)
+                return encoded;
+        }
+        throw new IllegalStateException("Encoder for " + obj.getClass().getName() + " does not convert to a property list type");
+    }
+
+    /**
+     * Returns true for the kinds that writers pass to convert() - ENUM and ENCODED. Writers
+     * iterate COLLECTION and ARRAY objects in place, as arrays.
+     */
+    public static boolean isConverted(int kind) {
+        return kind == ENUM || kind == ENCODED;
+    }
+
+    /**
+     * Converts an object of a kind for which isConverted() is true to its property list
+     * equivalent: ENUM to the String name of the constant, and ENCODED as per encode().
+     *
+     * @throws IllegalStateException if the object cannot be converted.
+     */
+    public static Object convert(Object obj, int kind) throws IllegalStateException {
+        switch (kind) {
+            case ENUM:
+                return ((Enum<?>) obj).name();
+            case ENCODED:
+                return encode(obj);
+            default:
+                throw new IllegalStateException("Incompatible object " + obj + " found");
+        }
+    }
+
+    private static Entry entry(Class<?> cls) {
+        ConcurrentHashMap<Class<?>, Entry> entries = TypeDispatch.entries;
+        Entry entry = entries.get(cls);
+        if (entry == null) {
+            int kind = kindOf(cls);
+            PropertyListEncoder<Object> encoder = null;
+            if (kind == OTHER) {
+                encoder = encoderOf(cls);
+                if (encoder != null)
+                    kind = ENCODED;
+            }
+            entry = new Entry(kind, encoder);
+            entries.put(cls, entry);
+        }
+        return entry;
+    }
+
+    private static int kindOf(Class<?> cls) {
+        if (cls == String.class)
+            return STRING;
+        if (cls == Integer.class || cls == Long.class)
+            return INTEGER;
+        if (cls == Short.class || cls == Byte.class)
+            return SHORT;
+        if (cls == Float.class)
+            return FLOAT;
+        if (cls == Double.class)
+            return DOUBLE;
+        if (cls == Boolean.class)
+            return BOOLEAN;
+        if (cls == byte[].class)
+            return DATA;
+        if (Date.class.isAssignableFrom(cls))
+            return DATE;
+        if (Map.class.isAssignableFrom(cls))
+            return MAP;
+        if (List.class.isAssignableFrom(cls))
+            return LIST;
+        if (EncodedFragment.class.isAssignableFrom(cls) || cls == BinaryPropertyListWriter.Fragment.class)
+            return FRAGMENT;
+        // Types below may instead have a registered encoder.
+        if (encoderOf(cls) != null)
+            return OTHER;
+        if (Collection.class.isAssignableFrom(cls))
+            return COLLECTION;
+        if (cls.isArray())
+            return ARRAY;
+        if (Enum.class.isAssignableFrom(cls))
+            return ENUM;
+        if (ClassBinding.isBindable(cls))
+            return BOUND;
+        return OTHER;
+    }
+
+    /**
+     * Returns the encoder registered for the class, or its nearest superclass or interface.
+     */
+    private static PropertyListEncoder<Object> encoderOf(Class<?> cls) {
+        if (encoders.isEmpty())
+            return null;
+        for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+            PropertyListEncoder<Object> encoder = encoders.get(c);
+            if (encoder != null)
+                return encoder;
+            for (Class<?> i : c.getInterfaces()) {
+                encoder = interfaceEncoderOf(i);
+                if (encoder != null)
+                    return encoder;
+            }
+        }
+        return null;
+    }
+
+    private static PropertyListEncoder<Object> interfaceEncoderOf(Class<?> cls) {
+        PropertyListEncoder<Object> encoder = encoders.get(cls);
+        if (encoder != null)
+            return encoder;
+        for (Class<?> i : cls.getInterfaces()) {
+            encoder = interfaceEncoderOf(i);
+            if (encoder != null)
+                return encoder;
+        }
+        return null;
+    }
+
+}
@@ -14,8 +14,8 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.HashMap;
+
+import nz.co.electricbolt.propertylistserialization.ContainerFactory;
 
 /**
  * Implements an Apple compatible property list (plist) parser - XML style only.
@@ -45,17 +45,95 @@ public class XMLPropertyListReader {
     }
 
     public Object parse() throws XmlPullParserException, IOException, ParseException {
+        return parse(ContainerFactory.DEFAULT);
+    }
+
+    /**
+     * As per parse(), using the factory to create the Map and List for each dict and array.
+     */
+    public Object parse(ContainerFactory factory) throws XmlPullParserException, IOException, ParseException {
+        ObjectGraphBuilder builder = new ObjectGraphBuilder(factory);
+        parse(builder);
+        return builder.getResult();
+    }
+
+    /**
+     * Parses the property list, reporting each element to the handler rather than building an
+     * object graph.
+     */
+    public void parse(PropertyListHandler handler) throws XmlPullParserException, IOException, ParseException {
         try {
             parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
             parser.setInput(is, null);
             parser.nextTag(); // advance past XmlPullparser.START_DOCUMENT state
-            return readPlist();
+            readPlist(handler);
         } finally {
             is.close();
         }
     }
 
-    private Object readPlist() throws XmlPullParserException, IOException, ParseException {
+    /**
+     * Starts reading a property list whose root is an array, one element at a time: while
+     * hasElement() returns true, call readElement(). The input stream is closed once the end of
+     * the property list is read, or on error.
+     */
+    public void beginArray() throws XmlPullParserException, IOException {
+        boolean started = false;
+        try {
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+            parser.setInput(is, null);
+            parser.nextTag(); // advance past XmlPullparser.START_DOCUMENT state
+            parser.require(XmlPullParser.START_TAG, null, "plist");
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, null, "array");
+            parser.nextTag();
+            started = true;
+        } finally {
+            if (!started)
+                is.close();
+        }
+    }
+
+    /**
+     * Returns true if the array has another element. Otherwise reads the end of the property list,
+     * closes the input stream and returns false.
+     */
+    public boolean hasElement() throws XmlPullParserException, IOException {
+        if (parser.getEventType() == XmlPullParser.START_TAG)
+            return true;
+        try {
+            parser.require(XmlPullParser.END_TAG, null, "array");
+            parser.nextTag();
+            parser.require(XmlPullParser.END_TAG, null, "plist");
+        } finally {
+            is.close();
+        }
+        return false;
+    }
+
+    /**
+     * Parses the next element of the array, reporting it to the handler.
+     */
+    public void readElement(PropertyListHandler handler) throws XmlPullParserException, IOException, ParseException {
+        boolean read = false;
+        try {
+            readObject(parser.getName(), handler);
+            parser.nextTag();
+            read = true;
+        } finally {
+            if (!read)
+                is.close();
+        }
+    }
+
+    /**
+     * Closes the input stream, e.g. to stop reading an array before its end.
+     */
+    public void close() throws IOException {
+        is.close();
+    }
+
+    private void readPlist(PropertyListHandler handler) throws XmlPullParserException, IOException, ParseException {
         parser.require(XmlPullParser.START_TAG, null, "plist");
 
         parser.nextTag();
@@ -63,18 +141,16 @@ public class XMLPropertyListReader {
             throw new XmlPullParserException("START_TAG expected", parser, null);
         }
         String name = parser.getName(); // dict,array,string,real,date,real,integer,true,false
-        Object value = readObject(name);
+        readObject(name, handler);
 
         parser.nextTag();
         parser.require(XmlPullParser.END_TAG, null, "plist");
-
-        return value;
     }
 
-    private HashMap<String, Object> readDict() throws XmlPullParserException, IOException, ParseException {
+    private void readDict(PropertyListHandler handler) throws XmlPullParserException, IOException, ParseException {
         parser.nextTag();
 
-        HashMap<String, Object> dict = new HashMap<>();
+        handler.startDict(-1);
         while (parser.getEventType() != XmlPullParser.END_TAG) {
 
             parser.require(XmlPullParser.START_TAG, null, "key");
@@ -83,7 +159,7 @@ public class XMLPropertyListReader {
             if (parser.getEventType() != XmlPullParser.TEXT) {
                 throw new XmlPullParserException("TEXT expected", parser, null);
             }
-            String key = parser.getText(); // key: always a string
+            handler.key(parser.getText()); // key: always a string
 
             parser.nextTag();
             parser.require(XmlPullParser.END_TAG, null, "key");
@@ -93,55 +169,62 @@ public class XMLPropertyListReader {
                 throw new XmlPullParserException("START_TAG expected", parser, null);
             }
             String name = parser.getName(); // value: dict,array,string,real,date,real,integer,true,false
-            dict.put(key, readObject(name));
+            readObject(name, handler);
             parser.nextTag();
         }
-        return dict;
+        handler.endDict();
     }
 
-    private ArrayList readArray() throws XmlPullParserException, IOException, ParseException {
+    private void readArray(PropertyListHandler handler) throws XmlPullParserException, IOException, ParseException {
         parser.nextTag();
 
-        ArrayList<Object> list = new ArrayList<>();
-
+        handler.startArray(-1);
         while (parser.getEventType() != XmlPullParser.END_TAG) {
             if (parser.getEventType() != XmlPullParser.START_TAG) {
                 throw new XmlPullParserException("START_TAG expected", parser, null);
             }
 
             String name = parser.getName();
-            list.add(readObject(name));
+            readObject(name, handler);
             parser.nextTag();
         }
-
-        return list;
+        handler.endArray();
     }
 
-    private Object readObject(String tagName) throws ParseException, XmlPullParserException, IOException {
+    private void readObject(String tagName, PropertyListHandler handler) throws ParseException, XmlPullParserException, IOException {
         switch(tagName) {
             case "array":
-                return readArray();
+                readArray(handler);
+                return;
             case "dict":
-                return readDict();
+                readDict(handler);
+                return;
             case "string":
-                return readString("string");
+                handler.stringValue(readString("string"));
+                return;
             case "data":
-                return Base64.decode(readString("data"), Base64.DEFAULT);
+                handler.dataValue(Base64.decode(readString("data"), Base64.DEFAULT));
+                return;
             case "date":
-                return DateUtil.parseXML(readString("date"));
+                handler.dateValue(DateUtil.parseXML(readString("date")));
+                return;
             case "integer":
-                return Long.valueOf(readString("integer"));
+                handler.integerValue(Long.parseLong(readString("integer")));
+                return;
             case "real":
-                return Double.valueOf(readString("real"));
+                handler.realValue(RealFormatter.parse(readString("real")));
+                return;
             case "true": {
                 parser.nextTag();
                 parser.require(XmlPullParser.END_TAG, null, "true");
-                return true;
+                handler.booleanValue(true);
+                return;
             }
             case "false": {
                 parser.nextTag();
                 parser.require(XmlPullParser.END_TAG, null, "false");
-                return false;
+                handler.booleanValue(false);
+                return;
             }
             default:
                 throw new XmlPullParserException("unexpected tag " + tagName, parser, null);
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * XMLPropertyListStreamWriter.java                                            *
+ * propertylistserialization Copyright (c) 2018; Electric Bolt Limited.        *
+ ******************************************************************************/
+
+package nz.co.electricbolt.propertylistserialization.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes an XML plist from property list events, without an intermediate object graph. The output
+ * is identical to XMLPropertyListWriter.
+ * <p>
+ * CFPropertyList.c sorts dict entries by key. If the events are known to arrive with dict keys
+ * in ascending order (e.g. BinaryPropertyListReader.setSortKeys(true)), everything is written
+ * straight to the output stream. Otherwise the encoded value of each dict entry is held in memory
+ * until the end of the dict, and then written in key order.
+ * </p>
+ */
+
+public class XMLPropertyListStreamWriter implements PropertyListHandler {
+
+    private static class Container {
+        boolean dict;
+        boolean open; // start tag has been written.
+        int indent;
+        TreeMap<String, byte[]> entries; // encoded values, if dict entries are being sorted.
+        String key;
+        OutputStream os; // output stream of the enclosing container.
+    }
+
+    private OutputStream os;
+    private XMLPropertyListWriter encoder;
+    private boolean sortedKeys;
+    private ArrayList<Container> containers; // open dicts and arrays, innermost last.
+    private boolean complete;
+
+    /**
+     * @param sortedKeys true if dict keys are guaranteed to arrive in ascending order.
+     */
+    public XMLPropertyListStreamWriter(OutputStream os, boolean sortedKeys) throws IOException {
+        this(os, sortedKeys, RealFormatter.Mode.Shortest);
+    }
+
+    /**
+     * @param sortedKeys true if dict keys are guaranteed to arrive in ascending order.
+     * @param realMode   RealFormatter.Mode.Shortest or RealFormatter.Mode.CF
+     */
+    public XMLPropertyListStreamWriter(OutputStream os, boolean sortedKeys, RealFormatter.Mode realMode) throws IOException {
+        this.os = os;
+        this.encoder = new XMLPropertyListWriter(null, os, realMode);
+        this.sortedKeys = sortedKeys;
+        this.containers = new ArrayList<>();
+        encoder.writeHeader();
+    }
+
+    /**
+     * Writes the end of the plist, once all events have been received.
+     */
+    public void finish() throws IOException, IllegalStateException {
+        if (!complete)
+            throw new IllegalStateException("Property list is incomplete");
+        encoder.writeFooter();
+        os.flush();
+    }
+
+    @Override
+    public void startDict(int count) throws IOException {
+        startContainer(true);
+    }
+
+    @Override
+    public void key(String key) throws IOException {
+        Container dict = containers.get(containers.size() - 1);
+        if (dict.entries != null)
+            dict.key = key;
+        else {
+            if (!dict.open) {
+                encoder.write("<dict>\n", dict.indent);
+                dict.open = true;
+            }
+            encoder.writeKey(key, dict.indent + 1);
+        }
+    }
+
+    @Override
+    public void endDict() throws IOException {
+        Container dict = containers.remove(containers.size() - 1);
+        if (dict.entries != null) {
+            setOutputStream(dict.os);
+            if (dict.entries.isEmpty())
+                encoder.write("<dict/>\n", dict.indent);
+            else {
+                encoder.write("<dict>\n", dict.indent);
+                for (Map.Entry<String, byte[]> entry : dict.entries.entrySet()) {
+                    encoder.writeKey(entry.getKey(), dict.indent + 1);
+                    os.write(entry.getValue());
+                }
+                encoder.write("</dict>\n", dict.indent);
+            }
+        } else if (!dict.open)
+            encoder.write("<dict/>\n", dict.indent);
+        else
+            encoder.write("</dict>\n", dict.indent);
+        endValue();
+    }
+
+    @Override
+    public void startArray(int count) throws IOException {
+        startContainer(false);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        Container array = containers.remove(containers.size() - 1);
+        if (!array.open)
+            encoder.write("<array/>\n", array.indent);
+        else
+            encoder.write("</array>\n", array.indent);
+        endValue();
+    }
+
+    @Override
+    public void stringValue(String value) throws IOException {
+        encoder.writeString(value, startValue());
+        endValue();
+    }
+
+    @Override
+    public void integerValue(long value) throws IOException {
+        encoder.writeInteger(value, startValue());
+        endValue();
+    }
+
+    @Override
+    public void realValue(float value) throws IOException {
+        encoder.writeReal(value, startValue());
+        endValue();
+    }
+
+    @Override
+    public void realValue(double value) throws IOException {
+        encoder.writeReal(value, startValue());
+        endValue();
+    }
+
+    @Override
+    public void dateValue(Date value) throws IOException {
+        encoder.writeDate(value, startValue());
+        endValue();
+    }
+
+    @Override
+    public void booleanValue(boolean value) throws IOException {
+        encoder.writeBoolean(value, startValue());
+        endValue();
+    }
+
+    @Override
+    public void dataValue(byte[] value) throws IOException {
+        encoder.writeData(value, startValue());
+        endValue();
+    }
+
+    private void startContainer(boolean dict) throws IOException {
+        Container container = new Container();
+        container.dict = dict;
+        container.indent = startValue();
+        container.os = os;
+        if (dict && !sortedKeys)
+            container.entries = new TreeMap<>();
+        containers.add(container);
+    }
+
+    /**
+     * Prepares the output stream for a value, and returns its indent.
+     */
+    private int startValue() throws IOException {
+        if (containers.isEmpty())
+            return 0;
+        Container parent = containers.get(containers.size() - 1);
+        if (parent.entries != null)
+            setOutputStream(new ByteArrayOutputStream());
+        else if (!parent.open) {
+            // array
+            encoder.write("<array>\n", parent.indent);
+            parent.open = true;
+        }
+        return parent.indent + 1;
+    }
+
+    private void endValue() {
+        if (containers.isEmpty()) {
+            complete = true;
+            return;
+        }
+        Container parent = containers.get(containers.size() - 1);
+        if (parent.entries != null) {
+            parent.entries.put(parent.key, ((ByteArrayOutputStream) os).toByteArray());
+            setOutputStream(parent.os);
+        }
+    }
+
+    private void setOutputStream(OutputStream os) {
+        this.os = os;
+        encoder.setOutputStream(os);
+    }
+
+}
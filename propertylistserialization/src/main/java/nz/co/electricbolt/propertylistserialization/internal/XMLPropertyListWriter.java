@@ -9,113 +9,238 @@ import android.util.Base64;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.reflect.Array;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import nz.co.electricbolt.propertylistserialization.PlistMetrics;
+import nz.co.electricbolt.propertylistserialization.PlistValue;
+
 /** Property list elements are written as follows:
  * <p>
  * java.lang.String -&gt;  string (NSString)
  * java.lang.Integer -&gt; integer (NSInteger)
  * java.lang.Long -&gt; integer (NSInteger)
+ * java.lang.Short, Byte -&gt; integer (NSInteger)
  * java.lang.Float -&gt; real (float)
  * java.lang.Double -&gt; real (double)
  * java.util.HashMap&lt;String, Object&gt; -&gt; dict (NSDictionary)
  * java.util.ArrayList -&gt; array (NSArray)
+ * java.util.Collection, arrays (other than byte[]) -&gt; array (NSArray)
  * java.util.Date -&gt; date (NSDate)
  * Boolean.valueOf(true) -&gt; true (BOOL)
  * Boolean.valueOf(false) -&gt; false (BOOL)
  * byte[] -&gt; data (NSData)
+ * PropertyListFragment -&gt; pre-encoded xml, spliced verbatim
+ * enum -&gt; string (NSString) of the constant name
+ * other -&gt; the object returned by its registered PropertyListEncoder
  * </p>
  */
 
 public class XMLPropertyListWriter {
 
+    private static final byte[] REAL_START = {'<', 'r', 'e', 'a', 'l', '>'};
+    private static final byte[] REAL_END = {'<', '/', 'r', 'e', 'a', 'l', '>', '\n'};
+
     private Object obj;
     private OutputStream os;
+    private RealFormatter.Mode realMode;
+    private byte[] realBuf;
+    private MetricsRecorder metrics;
 
     public XMLPropertyListWriter(Object obj, OutputStream os) {
+        this(obj, os, RealFormatter.Mode.Shortest);
+    }
+
+    /**
+     * @param realMode RealFormatter.Mode.Shortest to write the shortest &lt;real&gt; that round
+     *                 trips, or RealFormatter.Mode.CF for character by character accuracy with
+     *                 CFPropertyList.c
+     */
+    public XMLPropertyListWriter(Object obj, OutputStream os, RealFormatter.Mode realMode) {
         this.obj = obj;
         this.os = os;
+        this.realMode = realMode;
+        this.realBuf = new byte[REAL_START.length + RealFormatter.MAX_LENGTH + REAL_END.length];
+    }
+
+    /**
+     * @param metrics records the elements written and the time spent Base64 encoding and sorting,
+     *                or null.
+     */
+    public void setMetrics(MetricsRecorder metrics) {
+        this.metrics = metrics;
     }
 
     public void write() throws IOException, IllegalStateException {
-        write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!DOCTYPE plist PUBLIC \"-//Apple//DTD " +
-            "PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n<plist version=\"1.0\">\n", 0);
+        writeHeader();
         writeObject(obj, 0);
-        write("</plist>\n", 0);
+        writeFooter();
+    }
+
+    /**
+     * Writes only the object graph (without the xml header and plist element), as if it were
+     * nested at the specified indent. Used to pre-encode a PropertyListFragment.
+     */
+    public void writeFragment(int indent) throws IOException, IllegalStateException {
+        writeObject(obj, indent);
     }
 
     @SuppressWarnings("unchecked")
     private void writeObject(Object obj, int indent) throws IOException, IllegalStateException {
         if (obj == null)
             throw new IllegalStateException("Object cannot be null");
-        if (obj instanceof Map) {
-            Map dict = (Map) obj;
-            if (dict.size() == 0)
-                write("<dict/>\n", indent);
-            else {
-                write("<dict>\n", indent);
-                // CFPropertyList.c sorts by key before outputting dictionaries
-                TreeMap sortedDict = new TreeMap(dict);
-                for (Object key : sortedDict.keySet()) {
-                    write("<key>" + escape((String) key) + "</key>\n", indent + 1);
-                    Object value = sortedDict.get(key);
-                    writeObject(value, indent + 1);
+        int kind = TypeDispatch.kindOf(obj);
+        switch (kind) {
+            case TypeDispatch.MAP: {
+                Map dict = (Map) obj;
+                if (metrics != null)
+                    metrics.startContainer(PlistValue.Type.DICT);
+                if (dict.size() == 0)
+                    write("<dict/>\n", indent);
+                else {
+                    for (Object key : dict.keySet()) {
+                        if (!(key instanceof String))
+                            throw new IllegalStateException("Incompatible key " + key + " found");
+                    }
+                    write("<dict>\n", indent);
+                    // CFPropertyList.c sorts by key before outputting dictionaries
+                    long start = metrics != null ? System.nanoTime() : 0;
+                    TreeMap sortedDict = new TreeMap(dict);
+                    if (metrics != null)
+                        metrics.addNanos(PlistMetrics.Phase.SORTING, System.nanoTime() - start);
+                    for (Object key : sortedDict.keySet()) {
+                        writeKey((String) key, indent + 1);
+                        Object value = sortedDict.get(key);
+                        writeObject(value, indent + 1);
+                    }
+                    write("</dict>\n", indent);
                 }
-                write("</dict>\n", indent);
+                if (metrics != null)
+                    metrics.endContainer();
+                break;
             }
-        } else if (obj instanceof List) {
-            List list = (List) obj;
-            if (list.size() == 0)
-                write("<array/>\n", indent);
-            else {
-                write("<array>\n", indent);
-                for (int i = 0; i < list.size(); i++) {
-                    Object value = list.get(i);
-                    writeObject(value, indent + 1);
+            case TypeDispatch.LIST:
+            case TypeDispatch.COLLECTION:
+            case TypeDispatch.ARRAY: {
+                // Collections and arrays are iterated in place, rather than copied to a List.
+                int length = kind == TypeDispatch.ARRAY ? Array.getLength(obj) : ((Collection<?>) obj).size();
+                if (metrics != null)
+                    metrics.startContainer(PlistValue.Type.ARRAY);
+                if (length == 0)
+                    write("<array/>\n", indent);
+                else {
+                    write("<array>\n", indent);
+                    if (kind == TypeDispatch.LIST) {
+                        List list = (List) obj;
+                        for (int i = 0; i < list.size(); i++)
+                            writeObject(list.get(i), indent + 1);
+                    } else if (kind == TypeDispatch.COLLECTION) {
+                        for (Object value : (Collection<?>) obj)
+                            writeObject(value, indent + 1);
+                    } else {
+                        for (int i = 0; i < length; i++)
+                            writeObject(Array.get(obj, i), indent + 1);
+                    }
+                    write("</array>\n", indent);
                 }
-                write("</array>\n", indent);
+                if (metrics != null)
+                    metrics.endContainer();
+                break;
             }
-        } else if (obj instanceof String) {
-            String value = (String) obj;
-            value = escape(value);
-            write("<string>" + value + "</string>\n", indent);
-        } else if (obj instanceof Float) {
-            Float value = (Float) obj;
-            String s = Float.toString(value);
-            // Remove .0 at end of string to match output of CFPropertylist.c
-            if (s.endsWith(".0"))
-                s = s.substring(0, s.length() - 2);
-            write("<real>" + s + "</real>\n", indent);
-        } else if (obj instanceof Double) {
-            Double value = (Double) obj;
-            String s = Double.toString(value);
-            // Remove .0 at end of string to match output of CFPropertylist.c
-            if (s.endsWith(".0"))
-                s = s.substring(0, s.length() - 2);
-            write("<real>" + s + "</real>\n", indent);
-        } else if (obj instanceof Integer) {
-            Integer value = (Integer) obj;
-            write("<integer>" + value + "</integer>\n", indent);
-        } else if (obj instanceof Long) {
-            Long value = (Long) obj;
-            write("<integer>" + value + "</integer>\n", indent);
-        } else if (obj instanceof byte[]) {
-            writeData((byte[]) obj, indent);
-        } else if (obj instanceof Date) {
-            Date value = (Date) obj;
-            write("<date>" + DateUtil.formatXML(value) + "</date>\n", indent);
-        } else if (obj instanceof Boolean) {
-            Boolean value = (Boolean) obj;
-            if (value)
-                write("<true/>\n", indent);
-            else
-                write("<false/>\n", indent);
-        } else
-            throw new IllegalStateException("Incompatible object " + obj + " found");
+            case TypeDispatch.STRING:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.STRING);
+                writeString((String) obj, indent);
+                break;
+            case TypeDispatch.FLOAT:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.REAL);
+                writeReal((Float) obj, indent);
+                break;
+            case TypeDispatch.DOUBLE:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.REAL);
+                writeReal((Double) obj, indent);
+                break;
+            case TypeDispatch.INTEGER:
+            case TypeDispatch.SHORT:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.INTEGER);
+                writeInteger(((Number) obj).longValue(), indent);
+                break;
+            case TypeDispatch.DATA:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.DATA);
+                writeData((byte[]) obj, indent);
+                break;
+            case TypeDispatch.DATE:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.DATE);
+                writeDate((Date) obj, indent);
+                break;
+            case TypeDispatch.BOOLEAN:
+                if (metrics != null)
+                    metrics.countValue(PlistValue.Type.BOOLEAN);
+                writeBoolean((Boolean) obj, indent);
+                break;
+            case TypeDispatch.ENUM:
+            case TypeDispatch.ENCODED:
+                writeObject(TypeDispatch.convert(obj, kind), indent);
+                break;
+            case TypeDispatch.FRAGMENT:
+                if (!(obj instanceof EncodedFragment))
+                    throw new IllegalStateException("Incompatible object " + obj + " found");
+                // Already encoded - splice in verbatim.
+                if (metrics != null)
+                    metrics.countFragment(((EncodedFragment) obj).binary());
+                os.write(((EncodedFragment) obj).xml(indent, realMode));
+                break;
+            default:
+                throw new IllegalStateException("Incompatible object " + obj + " found");
+        }
+    }
+
+    // Element writers, also used by XMLPropertyListStreamWriter.
+
+    void setOutputStream(OutputStream os) {
+        this.os = os;
+    }
+
+    void writeHeader() throws IOException {
+        write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!DOCTYPE plist PUBLIC \"-//Apple//DTD " +
+            "PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n<plist version=\"1.0\">\n", 0);
+    }
+
+    void writeFooter() throws IOException {
+        write("</plist>\n", 0);
+    }
+
+    void writeKey(String key, int indent) throws IOException {
+        write("<key>" + escape(key) + "</key>\n", indent);
+    }
+
+    void writeString(String value, int indent) throws IOException {
+        write("<string>" + escape(value) + "</string>\n", indent);
+    }
+
+    void writeInteger(long value, int indent) throws IOException {
+        write("<integer>" + value + "</integer>\n", indent);
+    }
+
+    void writeDate(Date value, int indent) throws IOException {
+        write("<date>" + DateUtil.formatXML(value) + "</date>\n", indent);
+    }
+
+    void writeBoolean(boolean value, int indent) throws IOException {
+        if (value)
+            write("<true/>\n", indent);
+        else
+            write("<false/>\n", indent);
     }
 
     private String escape(String s) {
@@ -145,17 +270,38 @@ public class XMLPropertyListWriter {
         return buf;
     }
 
-    private void write(String s, int indent) throws IOException {
+    void write(String s, int indent) throws IOException {
         os.write(tab(indent > 8 ? 8 : indent));
         os.write(s.getBytes("utf8"));
     }
 
-    private void writeData(byte[] value, int indent) throws IOException {
+    void writeReal(float value, int indent) throws IOException {
+        System.arraycopy(REAL_START, 0, realBuf, 0, REAL_START.length);
+        int length = RealFormatter.format(value, realMode, realBuf, REAL_START.length);
+        writeReal(length, indent);
+    }
+
+    void writeReal(double value, int indent) throws IOException {
+        System.arraycopy(REAL_START, 0, realBuf, 0, REAL_START.length);
+        int length = RealFormatter.format(value, realMode, realBuf, REAL_START.length);
+        writeReal(length, indent);
+    }
+
+    private void writeReal(int length, int indent) throws IOException {
+        System.arraycopy(REAL_END, 0, realBuf, length, REAL_END.length);
+        os.write(tab(indent > 8 ? 8 : indent));
+        os.write(realBuf, 0, length + REAL_END.length);
+    }
+
+    void writeData(byte[] value, int indent) throws IOException {
         if (indent > 8)
             indent = 8;
         int lineLength = 76 - (indent * 8); // assume tab is 8 characters.
         byte[] tabBuf = tab(indent);
+        long start = metrics != null ? System.nanoTime() : 0;
         byte[] encodedBuf = Base64.encode(value, Base64.NO_WRAP);
+        if (metrics != null)
+            metrics.addNanos(PlistMetrics.Phase.BASE64, System.nanoTime() - start);
 
         os.write(tabBuf);
         os.write("<data>\n".getBytes("utf8"));